@@ -0,0 +1,90 @@
+package com.example.iotspringboot;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * analytics stage: TwinModel 更新, 従来の DescriptiveStatistics / Weka predictTrend と AnomalyEngine の比較.
+ * 実行: java -jar target/benchmarks.jar Analytics -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AnalyticsBenchmark {
+
+    private static final int windowSize = 10;
+    private static final int sampleCount = 1024;  // 2 の冪 (index を mask で回す)
+
+    private final TwinModel twin = new TwinModel("sensor-00042");
+    private final AnomalyEngine anomalyEngine = new AnomalyEngine(windowSize);
+    private final AnomalyEngine.AnomalyResult result = new AnomalyEngine.AnomalyResult();
+
+    private final double[] temperatures = new double[sampleCount];
+    private final double[] humidities = new double[sampleCount];
+    private final double[] vibrations = new double[sampleCount];
+    private final List<Double> recentTemps = new ArrayList<>();
+    private final List<Double> recentVibs = new ArrayList<>();
+    private int next;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < sampleCount; i++) {
+            temperatures[i] = 20 + random.nextDouble() * 60;
+            humidities[i] = 30 + random.nextDouble() * 60;
+            vibrations[i] = 0.1 + random.nextDouble() * 4.9;
+        }
+        for (int i = 0; i < windowSize; i++) {
+            recentTemps.add(temperatures[i]);
+            recentVibs.add(vibrations[i]);
+            anomalyEngine.windows().forDevice("sensor-00042").add(temperatures[i], humidities[i], vibrations[i]);
+        }
+    }
+
+    @Benchmark
+    public double twinUpdate() {
+        int i = next++ & (sampleCount - 1);
+        twin.updateFromSensor(temperatures[i], humidities[i], vibrations[i]);
+        return twin.getAccumulatedWear();
+    }
+
+    // 従来: performIntegratedPrediction の温度しきい値 (message ごとに DescriptiveStatistics を作る)
+    @Benchmark
+    public double legacyDescriptiveStatistics() {
+        return LegacyIngest.temperatureThreshold(recentTemps);
+    }
+
+    // 従来: predictTrend (message ごとに Instances + LinearRegression を build)
+    @Benchmark
+    public double legacyPredictTrendWeka() throws Exception {
+        return LegacyIngest.predictTrend(recentVibs);
+    }
+
+    // 従来: しきい値 + trend 予測 + twin 比較 (DynamoDB Scan は除く)
+    @Benchmark
+    public boolean legacyIntegratedPrediction(LegacyState legacy) throws Exception {
+        int i = next++ & (sampleCount - 1);
+        return legacy.ingest.predict(recentTemps, recentVibs, temperatures[i], vibrations[i]);
+    }
+
+    // 現在: window 更新込みの incremental 評価
+    @Benchmark
+    public boolean anomalyEngineEvaluate() {
+        int i = next++ & (sampleCount - 1);
+        anomalyEngine.evaluate("sensor-00042", temperatures[i], humidities[i], vibrations[i],
+                twin.accumulatedWear, twin.energyEfficiency, result);
+        return result.integratedAlert;
+    }
+
+    @State(Scope.Thread)
+    public static class LegacyState {
+        final LegacyIngest ingest = new LegacyIngest(new InMemoryDynamoDbClient());
+    }
+}
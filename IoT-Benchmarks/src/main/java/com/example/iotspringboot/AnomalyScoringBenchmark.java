@@ -0,0 +1,164 @@
+package com.example.iotspringboot;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 異常判定: per-message (AnomalyEngine.score を 1件ずつ) と BatchAnomalyScorer (SoA) の比較. 時間は reading 1件あたり.
+ * 全デバイス (devices 台) の reading 1件ずつを 1 batch として判定する (window は更新しないので毎回同じ入力).
+ * <ul>
+ * <li>perMessage / gatherAndScore*: デバイスの window を引いて統計を読むところから (analytics stage と同じ条件)</li>
+ * <li>kernel*: 集め終わった batch の判定 loop だけ (SoA kernel の上限)</li>
+ * <li>*ForkJoin: commonPool で分割. core あたりの throughput = (1 / 時間) / core 数</li>
+ * </ul>
+ * setup で全 kernel の結果が per-message と一致する (同じ alert) ことを確認する.
+ * 実行: java -jar target/benchmarks.jar AnomalyScoringBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class AnomalyScoringBenchmark {
+
+    private static final int devices = 16384;
+    private static final int windowSize = 10;
+
+    private final AnomalyEngine anomalyEngine = new AnomalyEngine(windowSize);
+    private final AnomalyEngine.AnomalyResult result = new AnomalyEngine.AnomalyResult();
+    private final String[] deviceIds = new String[devices];
+    private final double[] temperatures = new double[devices];
+    private final double[] vibrations = new double[devices];
+    private final double[] wear = new double[devices];
+    private final double[] efficiency = new double[devices];
+
+    private final BatchAnomalyScorer scalar = new BatchAnomalyScorer();
+    private final BatchAnomalyScorer vector = new BatchAnomalyScorer(new VectorAnomalyKernel(), null);
+    private final BatchAnomalyScorer scalarForkJoin = new BatchAnomalyScorer(BatchAnomalyScorer.scalarKernel, ForkJoinPool.commonPool());
+    private final BatchAnomalyScorer vectorForkJoin = new BatchAnomalyScorer(new VectorAnomalyKernel(), ForkJoinPool.commonPool());
+    private final BatchAnomalyScorer.Batch batch = new BatchAnomalyScorer.Batch(devices);
+    private final BatchAnomalyScorer.Batch gathered = new BatchAnomalyScorer.Batch(devices);  // kernel* 用 (集め済み)
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int d = 0; d < devices; d++) {
+            deviceIds[d] = String.format("sensor-%05d", d);
+            int samples = d % 64 == 0 ? 1 : windowSize;  // 一部は "データ 足りない"
+            for (int i = 0; i < samples; i++) {
+                anomalyEngine.windows().forDevice(deviceIds[d]).add(20 + random.nextDouble() * 60,
+                        30 + random.nextDouble() * 60, 0.1 + random.nextDouble() * 4.9);
+            }
+            temperatures[d] = 20 + random.nextDouble() * 60;
+            vibrations[d] = 0.1 + random.nextDouble() * 4.9;
+            wear[d] = random.nextDouble() * 60;  // 一部が wearThreshold (50) を超える
+            efficiency[d] = 75 + random.nextDouble() * 25;  // 一部が efficiencyThreshold (80) を下回る
+        }
+        gather(gathered);
+        for (BatchAnomalyScorer scorer : new BatchAnomalyScorer[]{scalar, vector, scalarForkJoin, vectorForkJoin}) {
+            scorer.score(gathered);
+            verify(gathered);
+        }
+    }
+
+    // 現在: reading ごとに AnomalyEngine.score (evaluate から window への追加を除いたもの)
+    @Benchmark
+    @OperationsPerInvocation(devices)
+    public int perMessage() {
+        int alerts = 0;
+        for (int d = 0; d < devices; d++) {
+            SensorWindowRegistry.DeviceWindows windows = anomalyEngine.windows().forDevice(deviceIds[d]);
+            synchronized (windows) {
+                AnomalyEngine.score(windows.temperatureStats(), windows.vibrationStats(), temperatures[d], vibrations[d],
+                        wear[d], efficiency[d], result);
+            }
+            if (result.integratedAlert) {
+                alerts++;
+            }
+        }
+        return alerts;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(devices)
+    public int gatherAndScoreScalar() {
+        gather(batch);
+        scalar.score(batch);
+        return countAlerts(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(devices)
+    public int gatherAndScoreVector() {
+        gather(batch);
+        vector.score(batch);
+        return countAlerts(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(devices)
+    public int kernelScalar() {
+        scalar.score(gathered);
+        return gathered.flags[devices - 1];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(devices)
+    public int kernelVector() {
+        vector.score(gathered);
+        return gathered.flags[devices - 1];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(devices)
+    public int kernelScalarForkJoin() {
+        scalarForkJoin.score(gathered);
+        return gathered.flags[devices - 1];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(devices)
+    public int kernelVectorForkJoin() {
+        vectorForkJoin.score(gathered);
+        return gathered.flags[devices - 1];
+    }
+
+    private void gather(BatchAnomalyScorer.Batch into) {
+        into.clear();
+        for (int d = 0; d < devices; d++) {
+            anomalyEngine.gather(deviceIds[d], temperatures[d], vibrations[d], wear[d], efficiency[d], into);
+        }
+    }
+
+    private static int countAlerts(BatchAnomalyScorer.Batch batch) {
+        int alerts = 0;
+        for (int lane = 0; lane < batch.size(); lane++) {
+            if (batch.isIntegratedAlert(lane)) {
+                alerts++;
+            }
+        }
+        return alerts;
+    }
+
+    // batch の結果が per-message (AnomalyEngine.score) と bit 単位で同じか
+    private void verify(BatchAnomalyScorer.Batch scored) {
+        AnomalyEngine.AnomalyResult fromBatch = new AnomalyEngine.AnomalyResult();
+        for (int d = 0; d < devices; d++) {
+            SensorWindowRegistry.DeviceWindows windows = anomalyEngine.windows().forDevice(deviceIds[d]);
+            AnomalyEngine.score(windows.temperatureStats(), windows.vibrationStats(), temperatures[d], vibrations[d],
+                    wear[d], efficiency[d], result);
+            scored.copyTo(d, fromBatch);
+            if (fromBatch.evaluated != result.evaluated || fromBatch.tempAnomaly != result.tempAnomaly
+                    || fromBatch.vibAnomaly != result.vibAnomaly || fromBatch.integratedAlert != result.integratedAlert
+                    || Double.compare(fromBatch.tempThreshold, result.tempThreshold) != 0
+                    || Double.compare(fromBatch.predictedVib, result.predictedVib) != 0
+                    || Double.compare(fromBatch.vibDiff, result.vibDiff) != 0) {
+                throw new IllegalStateException("Batch score differs from per-message score for " + deviceIds[d]);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.iotspringboot;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 圧縮 hot tier: append 1件と、デバイス 1台分 (block-samples x 数 block) の decode.
+ * setup で bytes/sample を表示する (比較: SensorReading 1件 = object + String で 100 bytes 以上).
+ * data=uniform は simulator と同じ一様乱数 (payload と同じ小数 2桁), walk は 0.01 刻みの random walk (実センサーに近い),
+ * raw は丸めない double (XOR だけの場合).
+ * 実行: java -jar target/benchmarks.jar HotTier -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HotTierBenchmark {
+
+    @Param({"uniform", "walk", "raw"})
+    public String data;
+
+    private static final int devices = 1000;
+    private static final int samplesPerDevice = 600;  // 1秒間隔で 10分
+
+    private HotTier hotTier;
+    private String[] deviceIds;
+    private double[] temps;
+    private double[] hums;
+    private double[] vibs;
+    private long nextMillis;
+    private int next;
+
+    @Setup
+    public void setup() {
+        hotTier = new HotTier(120, 1024);
+        deviceIds = new String[devices];
+        for (int i = 0; i < devices; i++) {
+            deviceIds[i] = String.format("sensor-%05d", i);
+        }
+        Random random = new Random(42);
+        int n = devices * samplesPerDevice;
+        temps = new double[n];
+        hums = new double[n];
+        vibs = new double[n];
+        double t = 50, h = 60, v = 2.5;
+        for (int k = 0; k < n; k++) {
+            int i = (k % samplesPerDevice) * devices + k / samplesPerDevice;  // デバイスごとに連続した系列
+            if ("walk".equals(data)) {
+                t = Math.round((t + (random.nextInt(5) - 2) * 0.01) * 100) / 100.0;
+                h = Math.round((h + (random.nextInt(3) - 1) * 0.01) * 100) / 100.0;
+                v = Math.round((v + (random.nextInt(3) - 1) * 0.01) * 100) / 100.0;
+            } else {
+                t = 20 + random.nextDouble() * 60;
+                h = 30 + random.nextDouble() * 60;
+                v = 0.1 + random.nextDouble() * 4.9;
+                if ("uniform".equals(data)) {
+                    t = Math.round(t * 100) / 100.0;
+                    h = Math.round(h * 100) / 100.0;
+                    v = Math.round(v * 100) / 100.0;
+                }
+            }
+            temps[i] = t;
+            hums[i] = h;
+            vibs[i] = v;
+        }
+        long baseMillis = 1714534496000L;
+        for (int s = 0; s < samplesPerDevice; s++) {
+            for (int d = 0; d < devices; d++) {
+                int i = s * devices + d;
+                hotTier.append(deviceIds[d], baseMillis + s * 1000L + (d % 3), temps[i], hums[i], vibs[i]);
+            }
+        }
+        nextMillis = baseMillis + samplesPerDevice * 1000L;
+        for (int d = 0; d < devices; d++) {  // decode 結果が元と同じか
+            HotTier.SampleIterator it = hotTier.range(deviceIds[d], Long.MIN_VALUE, Long.MAX_VALUE);
+            for (int s = 0; s < samplesPerDevice; s++) {
+                int i = s * devices + d;
+                if (!it.next() || it.epochMillis() != baseMillis + s * 1000L + (d % 3)
+                        || it.temperature() != temps[i] || it.humidity() != hums[i] || it.vibration() != vibs[i]) {
+                    throw new IllegalStateException("decode mismatch: device " + d + " sample " + s);
+                }
+            }
+        }
+        System.out.printf("%nhot tier (%s): %.2f bytes/sample (%d samples, %d bytes), raw = 32 bytes/sample%n",
+                data, (double) hotTier.sizeInBytes() / hotTier.sampleCount(), hotTier.sampleCount(), hotTier.sizeInBytes());
+    }
+
+    @Benchmark
+    public void append() {
+        int i = next++ % temps.length;
+        hotTier.append(deviceIds[i % devices], nextMillis++, temps[i], hums[i], vibs[i]);
+    }
+
+    // デバイス 1台分の全 sample を decode (window query)
+    @Benchmark
+    public int decodeDevice(Blackhole bh) {
+        HotTier.SampleIterator it = hotTier.range(deviceIds[next++ % devices], Long.MIN_VALUE, Long.MAX_VALUE);
+        int count = 0;
+        while (it.next()) {
+            bh.consume(it.temperature());
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.iotspringboot;
+
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1 message の ingest 全体 (parse -> twin -> 異常判定 -> DynamoDB). DynamoDB は InMemoryDynamoDbClient (local fake).
+ * legacy: 最初の processMessage (readTree + Scan x2 + DescriptiveStatistics + Weka + PutItem)
+ * current: SensorReadingCodec / BinaryReadingCodec + TwinRegistry + AnomalyEngine + DynamoDbWriteBehind
+ * 実行: java -jar target/benchmarks.jar IngestPath -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestPathBenchmark {
+
+    private static final int windowSize = 10;
+    private static final int sampleCount = 1024;  // 2 の冪
+    private static final int deviceCount = 100;
+
+    private InMemoryDynamoDbClient dynamoDbClient;
+    private LegacyIngest legacy;
+    private DynamoDbWriteBehind writeBehind;
+    private final TwinRegistry twinRegistry = new TwinRegistry();
+    private final AnomalyEngine anomalyEngine = new AnomalyEngine(windowSize);
+    private final AnomalyEngine.AnomalyResult result = new AnomalyEngine.AnomalyResult();
+
+    private final String[] jsonStrings = new String[sampleCount];
+    private final byte[][] jsonPayloads = new byte[sampleCount][];
+    private final byte[][] binaryPayloads = new byte[sampleCount][];
+    private int next;
+
+    @Setup
+    public void setup() {
+        dynamoDbClient = new InMemoryDynamoDbClient();
+        legacy = new LegacyIngest(dynamoDbClient);
+        writeBehind = new DynamoDbWriteBehind(dynamoDbClient, LegacyIngest.tableName, 100_000, 50, 200, 1);
+        writeBehind.start();
+
+        SensorReadingCodec.Writer jsonWriter = new SensorReadingCodec.Writer();
+        BinaryReadingCodec.Writer binaryWriter = new BinaryReadingCodec.Writer();
+        SplittableRandom random = new SplittableRandom(42);
+        LocalDateTime start = LocalDateTime.of(2024, 5, 1, 12, 0);
+        for (int i = 0; i < sampleCount; i++) {
+            String deviceId = String.format("sensor-%05d", i % deviceCount);
+            LocalDateTime timestamp = start.plusNanos(i * 5_000_000L);
+            double temperature = 20 + random.nextDouble() * 60;
+            double humidity = 30 + random.nextDouble() * 60;
+            double vibration = 0.1 + random.nextDouble() * 4.9;
+            jsonPayloads[i] = jsonWriter.write(deviceId, timestamp, temperature, humidity, vibration);
+            jsonStrings[i] = new String(jsonPayloads[i], StandardCharsets.UTF_8);
+            long epochMillis = timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            binaryPayloads[i] = binaryWriter.write(deviceId, epochMillis, temperature, humidity, vibration);
+        }
+
+        // 従来の Scan が 2件以上返すように履歴を入れておく
+        for (int i = 0; i < 2 * windowSize; i++) {
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put("timestamp", AttributeValue.builder().s(start.minusSeconds(i).toString()).build());
+            item.put("temperature", AttributeValue.builder().n("25.0").build());
+            item.put("humidity", AttributeValue.builder().n("50.0").build());
+            item.put("vibration", AttributeValue.builder().n("1.0").build());
+            dynamoDbClient.putItem(PutItemRequest.builder().tableName(LegacyIngest.tableName).item(item).build());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        writeBehind.shutdown();
+    }
+
+    @Benchmark
+    public int legacyProcessMessage() throws Exception {
+        legacy.processMessage(jsonStrings[next++ & (sampleCount - 1)]);
+        return legacy.alerts;
+    }
+
+    @Benchmark
+    public boolean currentJson() throws Exception {
+        SensorReading reading = new SensorReading();
+        SensorReadingCodec.read(jsonPayloads[next++ & (sampleCount - 1)], reading);
+        return analyzeAndSave(reading);
+    }
+
+    @Benchmark
+    public boolean currentBinary() throws Exception {
+        SensorReading reading = new SensorReading();
+        BinaryReadingCodec.read(binaryPayloads[next++ & (sampleCount - 1)], reading);
+        return analyzeAndSave(reading);
+    }
+
+    // IoTSubscriber.analyzeReading + saveToDynamoDB と同じ処理 (pipeline の queue 受け渡しは除く)
+    private boolean analyzeAndSave(SensorReading reading) {
+        TwinModel twin = twinRegistry.forDevice(reading.deviceId);
+        twin.updateFromSensor(reading.temperature, reading.humidity, reading.vibration, reading.epochMillis);
+        anomalyEngine.evaluate(reading.deviceId, reading.temperature, reading.humidity, reading.vibration,
+                twin.getAccumulatedWear(), twin.getEnergyEfficiency(), result);
+
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("deviceId", AttributeValue.builder().s(reading.deviceId).build());
+        item.put("timestamp", AttributeValue.builder().s(reading.timestamp).build());
+        item.put("temperature", AttributeValue.builder().n(String.valueOf(reading.temperature)).build());
+        item.put("humidity", AttributeValue.builder().n(String.valueOf(reading.humidity)).build());
+        item.put("vibration", AttributeValue.builder().n(String.valueOf(reading.vibration)).build());
+        writeBehind.enqueue(item);
+        return result.integratedAlert;
+    }
+}
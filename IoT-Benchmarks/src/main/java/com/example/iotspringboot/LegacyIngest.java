@@ -0,0 +1,139 @@
+package com.example.iotspringboot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import weka.classifiers.functions.LinearRegression;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 比較用: 最初の IoTSubscriber.processMessage の処理をそのまま再現 (log 出力だけ省略).
+ * readTree -> TwinModel -> DynamoDB Scan x2 + DescriptiveStatistics + Weka LinearRegression -> PutItem.
+ */
+class LegacyIngest {
+
+    static final String tableName = "SensorData";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DynamoDbClient dynamoDbClient;
+    private final TwinModel digitalTwin = new TwinModel("MySensor");  // 従来は全デバイスで 1つ
+    int alerts;  // dead code 除去されないように結果を残す
+
+    LegacyIngest(DynamoDbClient dynamoDbClient) {
+        this.dynamoDbClient = dynamoDbClient;
+    }
+
+    void processMessage(String payload) throws Exception {
+        JsonNode jsonNode = objectMapper.readTree(payload);
+        String timestamp = jsonNode.get("timestamp").asText();
+        double temperature = jsonNode.get("temperature").asDouble();
+        double humidity = jsonNode.get("humidity").asDouble();
+        double vibration = jsonNode.get("vibration").asDouble();
+
+        digitalTwin.updateFromSensor(temperature, humidity, vibration);
+        performIntegratedPrediction(temperature, vibration);
+        saveToDynamoDB(timestamp, temperature, humidity, vibration);
+    }
+
+    void performIntegratedPrediction(double currentTemp, double currentVib) throws Exception {
+        List<Double> recentTemps = queryRecentValues("temperature", 10);
+        List<Double> recentVibs = queryRecentValues("vibration", 10);
+        if (recentTemps.size() < 2 || recentVibs.size() < 2) {
+            return;
+        }
+        predict(recentTemps, recentVibs, currentTemp, currentVib);
+    }
+
+    // DescriptiveStatistics (温度) + Weka (振動) の部分だけ
+    boolean predict(List<Double> recentTemps, List<Double> recentVibs, double currentTemp, double currentVib) throws Exception {
+        double tempThreshold = temperatureThreshold(recentTemps);
+        double predictedVib = predictTrend(recentVibs);
+        double vibDiff = Math.abs(currentVib - predictedVib);
+
+        boolean alert = currentTemp > tempThreshold || vibDiff > 2.0
+                || digitalTwin.getAccumulatedWear() > 50 || digitalTwin.getEnergyEfficiency() < 80;
+        if (alert) {
+            alerts++;
+        }
+        return alert;
+    }
+
+    static double temperatureThreshold(List<Double> recentTemps) {
+        DescriptiveStatistics tempStats = new DescriptiveStatistics();
+        recentTemps.forEach(tempStats::addValue);
+        return tempStats.getMean() + 2 * tempStats.getStandardDeviation();
+    }
+
+    List<Double> queryRecentValues(String attribute, int limit) {
+        List<Double> values = new ArrayList<>();
+        Map<String, String> expressionNames = new HashMap<>();
+        expressionNames.put("#attr", attribute);
+        expressionNames.put("#ts", "timestamp");
+
+        ScanRequest request = ScanRequest.builder()
+                .tableName(tableName)
+                .projectionExpression("#attr, #ts")
+                .expressionAttributeNames(expressionNames)
+                .limit(limit * 2)
+                .build();
+
+        ScanResponse response = dynamoDbClient.scan(request);
+        List<Map<String, AttributeValue>> items = new ArrayList<>(response.items());
+        items.sort((a, b) -> b.get("timestamp").s().compareTo(a.get("timestamp").s()));
+        for (int i = 0; i < Math.min(limit, items.size()); i++) {
+            Map<String, AttributeValue> item = items.get(i);
+            if (item.containsKey(attribute)) {
+                values.add(Double.parseDouble(item.get(attribute).n()));
+            }
+        }
+        return values;
+    }
+
+    static double predictTrend(List<Double> recentValues) throws Exception {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        attributes.add(new Attribute("time"));
+        attributes.add(new Attribute("value"));
+
+        Instances data = new Instances("trend", attributes, recentValues.size());
+        data.setClassIndex(1);
+        for (int i = 0; i < recentValues.size(); i++) {
+            DenseInstance instance = new DenseInstance(2);
+            instance.setValue(0, i);
+            instance.setValue(1, recentValues.get(i));
+            data.add(instance);
+        }
+
+        LinearRegression model = new LinearRegression();
+        model.buildClassifier(data);
+
+        DenseInstance next = new DenseInstance(2);
+        next.setValue(0, recentValues.size());
+        next.setDataset(data);
+        return model.classifyInstance(next);
+    }
+
+    void saveToDynamoDB(String timestamp, double temperature, double humidity, double vibration) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("timestamp", AttributeValue.builder().s(timestamp).build());
+        item.put("temperature", AttributeValue.builder().n(String.valueOf(temperature)).build());
+        item.put("humidity", AttributeValue.builder().n(String.valueOf(humidity)).build());
+        item.put("vibration", AttributeValue.builder().n(String.valueOf(vibration)).build());
+
+        dynamoDbClient.putItem(PutItemRequest.builder()
+                .tableName(tableName)
+                .item(item)
+                .build());
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.iotspringboot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * payload encode / decode: 従来の String.format + readTree と SensorReadingCodec (JSON), BinaryReadingCodec の比較.
+ * *Batch: publisher 側 batching の envelope (batchSize 件) の decode, reading 1件あたりの時間.
+ * 実行: java -jar target/benchmarks.jar PayloadCodec -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadCodecBenchmark {
+
+    private static final int batchSize = 50;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SensorReadingCodec.Writer writer = new SensorReadingCodec.Writer();
+    private final BinaryReadingCodec.Writer binaryWriter = new BinaryReadingCodec.Writer();
+    private final SensorReading reading = new SensorReading();
+
+    private LocalDateTime timestamp;
+    private byte[] payload;
+    private String payloadString;
+    private long epochMillis;
+    private byte[] binaryPayload;
+    private byte[] batchPayload;
+    private byte[] binaryBatchPayload;
+    private final List<SensorReading> batch = new ArrayList<>(batchSize);
+
+    @Setup
+    public void setup() {
+        timestamp = LocalDateTime.of(2024, 5, 1, 12, 34, 56, 123_456_000);
+        payload = writer.write("sensor-00042", timestamp, 42.17, 63.5, 2.31);
+        payloadString = new String(payload, StandardCharsets.UTF_8);
+        epochMillis = 1714534496123L;
+        binaryPayload = binaryWriter.write("sensor-00042", epochMillis, 42.17, 63.5, 2.31);
+        SensorReadingCodec.BatchWriter batchWriter = new SensorReadingCodec.BatchWriter();
+        BinaryReadingCodec.BatchWriter binaryBatchWriter = new BinaryReadingCodec.BatchWriter();
+        for (int i = 0; i < batchSize; i++) {
+            String deviceId = String.format("sensor-%05d", i);
+            batchWriter.add(deviceId, timestamp.plusNanos(i * 1_000_000L), 42.17 + i, 63.5, 2.31);
+            binaryBatchWriter.add(deviceId, epochMillis + i, 42.17 + i, 63.5, 2.31);
+        }
+        batchPayload = batchWriter.finish();
+        binaryBatchPayload = binaryBatchWriter.finish();
+        System.out.printf("%npayload size: json=%d bytes, binary=%d bytes, per reading in a batch of %d: json=%.1f bytes, binary=%.1f bytes%n",
+                payload.length, binaryPayload.length, batchSize,
+                batchPayload.length / (double) batchSize, binaryBatchPayload.length / (double) batchSize);
+    }
+
+    // 従来: IoTSpringBootApplication.generateData / SensorSimulator
+    @Benchmark
+    public String encodeLegacyFormat() {
+        String ts = timestamp.format(DateTimeFormatter.ISO_DATE_TIME);
+        return String.format("{\"deviceId\": \"%s\", \"timestamp\": \"%s\", \"temperature\": %.2f, \"humidity\": %.2f, \"vibration\": %.2f}",
+                "sensor-00042", ts, 42.17, 63.5, 2.31);
+    }
+
+    @Benchmark
+    public byte[] encodeCodec() {
+        return writer.write("sensor-00042", timestamp, 42.17, 63.5, 2.31);
+    }
+
+    // 従来: IoTSubscriber.processMessage の readTree + get()
+    @Benchmark
+    public void decodeLegacyReadTree(Blackhole bh) throws Exception {
+        JsonNode jsonNode = objectMapper.readTree(payloadString);
+        bh.consume(jsonNode.get("deviceId").asText());
+        bh.consume(jsonNode.get("timestamp").asText());
+        bh.consume(jsonNode.get("temperature").asDouble());
+        bh.consume(jsonNode.get("humidity").asDouble());
+        bh.consume(jsonNode.get("vibration").asDouble());
+    }
+
+    @Benchmark
+    public SensorReading decodeCodec() throws Exception {
+        SensorReadingCodec.read(payload, reading);
+        return reading;
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return binaryWriter.write("sensor-00042", epochMillis, 42.17, 63.5, 2.31);
+    }
+
+    @Benchmark
+    public SensorReading decodeBinary() throws Exception {
+        BinaryReadingCodec.read(binaryPayload, reading);
+        return reading;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(batchSize)
+    public List<SensorReading> decodeJsonBatch() throws Exception {
+        batch.clear();
+        SensorReadingCodec.readBatch(batchPayload, batch);
+        return batch;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(batchSize)
+    public List<SensorReading> decodeBinaryBatch() throws Exception {
+        batch.clear();
+        BinaryReadingCodec.readBatch(binaryBatchPayload, batch);
+        return batch;
+    }
+}
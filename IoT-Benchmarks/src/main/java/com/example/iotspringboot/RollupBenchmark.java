@@ -0,0 +1,59 @@
+package com.example.iotspringboot;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * rollup: reading 1件の反映 (1分 + 1時間) と dashboard query (1m x 2時間, 1h x 3日).
+ * query は raw data の件数に関係なく bucket 数だけ読む.
+ * 実行: java -jar target/benchmarks.jar Rollup -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RollupBenchmark {
+
+    private static final int devices = 1000;
+
+    private RollupRegistry rollupRegistry;
+    private String[] deviceIds;
+    private long baseMillis;
+    private long nextMillis;
+    private int next;
+
+    @Setup
+    public void setup() {
+        rollupRegistry = new RollupRegistry(120, 72);
+        deviceIds = new String[devices];
+        for (int i = 0; i < devices; i++) {
+            deviceIds[i] = String.format("sensor-%05d", i);
+        }
+        baseMillis = 1714534496000L;
+        for (long t = 0; t < 72 * 3_600_000L; t += 60_000L) {  // 3日分, 1分に 1件
+            for (int d = 0; d < devices; d++) {
+                rollupRegistry.record(deviceIds[d], baseMillis + t, 40 + d % 7, 60, 2.5);
+            }
+        }
+        nextMillis = baseMillis + 72 * 3_600_000L;
+    }
+
+    @Benchmark
+    public void record() {
+        rollupRegistry.record(deviceIds[next++ % devices], nextMillis += 10, 42.17, 63.5, 2.31);
+    }
+
+    @Benchmark
+    public List<RollupPoint> queryMinutes() {
+        return rollupRegistry.query(deviceIds[next++ % devices], RollupRegistry.Resolution.MINUTE, nextMillis - 7_200_000L, nextMillis);
+    }
+
+    @Benchmark
+    public List<RollupPoint> queryHours() {
+        return rollupRegistry.query(deviceIds[next++ % devices], RollupRegistry.Resolution.HOUR, nextMillis - 72 * 3_600_000L, nextMillis);
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.iotspringboot;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * local time-series store: append 1件と、デバイス 1台分の latest N / range 読み出し.
+ * 実行: java -jar target/benchmarks.jar TimeSeriesStore -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimeSeriesStoreBenchmark {
+
+    @Param({"1000"})
+    public int devices;
+
+    private static final int preloadRows = 1_000_000;
+
+    private Path directory;
+    private TimeSeriesStore store;
+    private String[] deviceIds;
+    private long baseMillis;
+    private long nextMillis;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("tss-bench");
+        store = TimeSeriesStore.open(directory, 1 << 20, Long.MAX_VALUE / 2, 1000);
+        deviceIds = new String[devices];
+        for (int i = 0; i < devices; i++) {
+            deviceIds[i] = String.format("sensor-%05d", i);
+        }
+        baseMillis = 1714534496000L;
+        for (int i = 0; i < preloadRows; i++) {  // 1台あたり preloadRows / devices 件
+            store.append(deviceIds[i % devices], baseMillis + i, 40 + (i % 7), 60, 2.5);
+        }
+        nextMillis = baseMillis + preloadRows;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void append() throws IOException {
+        store.append(deviceIds[next++ % devices], nextMillis++, 42.17, 63.5, 2.31);
+    }
+
+    // 検査 window の warm-up と同じ読み方 (新しい順, allocation なし)
+    @Benchmark
+    public int latest10(Blackhole bh) {
+        return store.latest(deviceIds[next++ % devices], 10, (ts, t, h, v) -> {
+            bh.consume(t);
+            return true;
+        });
+    }
+
+    // 直近 100秒 = 1台あたり約 100件
+    @Benchmark
+    public int range(Blackhole bh) {
+        long to = baseMillis + preloadRows;
+        return store.range(deviceIds[next++ % devices], to - 100_000, to, 1000, (ts, t, h, v) -> {
+            bh.consume(t);
+            return true;
+        });
+    }
+}
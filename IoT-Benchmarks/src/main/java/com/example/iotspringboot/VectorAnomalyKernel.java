@@ -0,0 +1,80 @@
+package com.example.iotspringboot;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * BatchAnomalyScorer の JDK Vector API 版 kernel (incubator: --add-modules jdk.incubator.vector が必要なので benchmark 側だけ).
+ * 演算は scalarKernel と同じ式・同じ順番 (lanewise の + - * / sqrt は IEEE で丸めが同じ, FMA は使わない) なので結果は bit 単位で一致する.
+ * しきい値 / 残差 / 傾きを捨てる判定 (Weka M5) / 比較は SIMD で、flags と "データ 足りない" lane の 0 埋めは lane ごとに行う.
+ */
+public final class VectorAnomalyKernel implements BatchAnomalyScorer.Kernel {
+
+    private static final VectorSpecies<Double> species = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void score(BatchAnomalyScorer.Batch b, int from, int to) {
+        int i = from;
+        int upper = from + species.loopBound(to - from);
+        for (; i < upper; i += species.length()) {
+            DoubleVector tempM2 = DoubleVector.fromArray(species, b.tempM2, i);
+            DoubleVector tempCount = DoubleVector.fromArray(species, b.tempCount, i);
+            DoubleVector tempSd = tempM2.max(0.0).div(tempCount.sub(1)).lanewise(VectorOperators.SQRT);
+            DoubleVector threshold = DoubleVector.fromArray(species, b.tempMean, i).add(tempSd.mul(AnomalyEngine.tempSigmaFactor));
+
+            DoubleVector n = DoubleVector.fromArray(species, b.vibCount, i);
+            DoubleVector sumY = DoubleVector.fromArray(species, b.vibSumY, i);
+            DoubleVector sumXY = DoubleVector.fromArray(species, b.vibSumXY, i);
+            DoubleVector nMinus1 = n.sub(1);
+            DoubleVector sumX = n.mul(nMinus1).div(2);
+            DoubleVector sumXX = nMinus1.mul(n).mul(n.mul(2).sub(1)).div(6);
+            DoubleVector sxy = n.mul(sumXY).sub(sumX.mul(sumY));
+            DoubleVector slope = sxy.div(n.mul(sumXX).sub(sumX.mul(sumX)));
+            DoubleVector intercept = sumY.sub(slope.mul(sumX)).div(n);
+            DoubleVector vibM2 = DoubleVector.fromArray(species, b.vibM2, i);
+            DoubleVector sse = vibM2.sub(slope.mul(sxy).div(n));
+            VectorMask<Double> meanOnly = n.compare(VectorOperators.EQ, 2)
+                    .or(n.sub(2).mul(vibM2).compare(VectorOperators.LT, n.mul(sse)));
+            DoubleVector predicted = intercept.add(slope.mul(n))
+                    .blend(DoubleVector.fromArray(species, b.vibMean, i), meanOnly);
+            DoubleVector diff = DoubleVector.fromArray(species, b.vibration, i).sub(predicted).abs();
+
+            VectorMask<Double> tempAnomaly = DoubleVector.fromArray(species, b.temperature, i).compare(VectorOperators.GT, threshold);
+            VectorMask<Double> vibAnomaly = diff.compare(VectorOperators.GT, AnomalyEngine.vibDiffThreshold);
+            VectorMask<Double> alert = DoubleVector.fromArray(species, b.twinWear, i).compare(VectorOperators.GT, AnomalyEngine.wearThreshold)
+                    .or(DoubleVector.fromArray(species, b.twinEfficiency, i).compare(VectorOperators.LT, AnomalyEngine.efficiencyThreshold))
+                    .or(vibAnomaly);
+
+            threshold.intoArray(b.tempThreshold, i);
+            predicted.intoArray(b.predictedVib, i);
+            diff.intoArray(b.vibDiff, i);
+            long tempBits = tempAnomaly.toLong();
+            long vibBits = vibAnomaly.toLong();
+            long alertBits = alert.toLong();
+            for (int lane = 0; lane < species.length(); lane++) {
+                int j = i + lane;
+                if (b.sampleCount[j] < 2) {
+                    b.tempThreshold[j] = 0.0;
+                    b.predictedVib[j] = 0.0;
+                    b.vibDiff[j] = 0.0;
+                    b.flags[j] = 0;
+                    continue;
+                }
+                int flags = BatchAnomalyScorer.flagEvaluated;
+                if ((tempBits >>> lane & 1) != 0) {
+                    flags |= BatchAnomalyScorer.flagTempAnomaly;
+                }
+                if ((vibBits >>> lane & 1) != 0) {
+                    flags |= BatchAnomalyScorer.flagVibAnomaly;
+                }
+                if ((alertBits >>> lane & 1) != 0) {
+                    flags |= BatchAnomalyScorer.flagIntegratedAlert;
+                }
+                b.flags[j] = (byte) flags;
+            }
+        }
+        BatchAnomalyScorer.scoreScalar(b, i, to);  // 端数
+    }
+}
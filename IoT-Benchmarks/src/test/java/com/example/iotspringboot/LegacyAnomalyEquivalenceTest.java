@@ -0,0 +1,89 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * AnomalyEngine (StreamingWindowStats) の温度しきい値 / 振動予測が、最初の IoTSubscriber の
+ * DescriptiveStatistics / Weka LinearRegression (LegacyIngest) と同じになるか. window は seed 固定.
+ */
+class LegacyAnomalyEquivalenceTest {
+
+    private static final int windowSize = 10;
+    private static final int windows = 20000;
+
+    @Test
+    void temperatureThresholdMatchesDescriptiveStatistics() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int w = 0; w < windows; w++) {
+            List<Double> values = randomWindow(random, 20, 80);
+            StreamingWindowStats stats = fill(values);
+            double expected = LegacyIngest.temperatureThreshold(values);
+            assertEquals(expected, stats.mean() + AnomalyEngine.tempSigmaFactor * stats.standardDeviation(), 1e-9 * expected);
+        }
+    }
+
+    // Weka default (M5 属性選択) は傾きを捨てて平均を返すことがある. 予測値と alert (|vib - 予測| > 2.0) が同じか
+    @Test
+    void vibrationPredictionMatchesWekaLinearRegression() throws Exception {
+        SplittableRandom random = new SplittableRandom(2);
+        int meanOnly = 0;
+        int alerts = 0;
+        for (int w = 0; w < windows; w++) {
+            List<Double> values = w % 4 == 0 ? trendingWindow(random) : randomWindow(random, 0.1, 5.0);
+            StreamingWindowStats stats = fill(values);
+            double expected = LegacyIngest.predictTrend(values);
+            double actual = stats.predictNext();
+            assertEquals(expected, actual, 1e-6, "window " + values);
+
+            double vib = 0.1 + random.nextDouble() * 4.9;
+            boolean expectedAlert = Math.abs(vib - expected) > AnomalyEngine.vibDiffThreshold;
+            if (Math.abs(Math.abs(vib - expected) - AnomalyEngine.vibDiffThreshold) > 1e-6) {
+                assertEquals(expectedAlert, Math.abs(vib - actual) > AnomalyEngine.vibDiffThreshold, "window " + values);
+            }
+            if (!stats.usesSlope()) {
+                meanOnly++;
+            }
+            if (expectedAlert) {
+                alerts++;
+            }
+        }
+        // 両方の経路 (傾きあり / 平均だけ) と alert の両方を通っていること
+        assertTrue(meanOnly > windows / 10 && meanOnly < windows - windows / 10, "meanOnly=" + meanOnly);
+        assertTrue(alerts > 0, "alerts=" + alerts);
+    }
+
+    private static StreamingWindowStats fill(List<Double> values) {
+        StreamingWindowStats stats = new StreamingWindowStats(windowSize);
+        values.forEach(stats::add);
+        return stats;
+    }
+
+    // 2..windowSize 点の一様乱数
+    private static List<Double> randomWindow(SplittableRandom random, double min, double max) {
+        int n = 2 + random.nextInt(windowSize - 1);
+        List<Double> values = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            values.add(min + random.nextDouble() * (max - min));
+        }
+        return values;
+    }
+
+    // 傾き + noise (傾きが残る window)
+    private static List<Double> trendingWindow(SplittableRandom random) {
+        int n = 3 + random.nextInt(windowSize - 2);
+        double slope = (random.nextDouble() - 0.5) * 1.5;
+        double start = 0.5 + random.nextDouble() * 4;
+        List<Double> values = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            values.add(start + slope * i + (random.nextDouble() - 0.5) * 0.6);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,190 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+
+/**
+ * publisher 側 batching (--batch=N): 複数の reading を 1つの envelope message にまとめて QoS1 publish する (接続は pool の 1本).
+ * N 件 / --batch-bytes / 最初の reading から --linger-ms 経過 のどれかで flush.
+ * 入れた順に publish するので、同じデバイスを常に同じ instance に入れればデバイスごとの順序が保たれる
+ * (heartbeat も addMessage で同じ instance に入れる).
+ * IoT-Spring-Boot の BatchingPublisher と同じ動作 (subscriber は envelope を自動判別して展開する).
+ */
+public class BatchingPublisher {
+    private static final ZoneId zone = ZoneId.systemDefault();
+
+    private final MqttConnectionPool.Shard connection;
+    private final String topic;
+    private final boolean binary;
+    private final int maxReadings;
+    private final int maxBytes;
+    private final long lingerMillis;
+    private final ScheduledExecutorService lingerScheduler;  // 共有可 (linger flush 用)
+    private final Executor lingerPublisher;  // linger で閉じた envelope を publish する thread (scheduler は待たせない)
+
+    private final SensorPayloadWriter.BatchWriter jsonBatch;
+    private final BinaryPayloadWriter.BatchWriter binaryBatch;
+    private final ArrayDeque<Envelope> pending = new ArrayDeque<>();  // 閉じたが未 publish の envelope (monitor で保護)
+    private final ReentrantLock publishLock = new ReentrantLock();  // pending を publish する thread は 1つ
+    private long generation;  // flush ごとに +1 (古い linger timer を無視)
+
+    private final LongAdder publishCalls = new LongAdder();
+    private final LongAdder failedReadings = new LongAdder();
+
+    public BatchingPublisher(MqttConnectionPool.Shard connection, String topic, boolean binary, int maxReadings, int maxBytes,
+                             long lingerMillis, ScheduledExecutorService lingerScheduler, Executor lingerPublisher) {
+        if (maxReadings <= 0 || maxBytes <= 0 || lingerMillis < 0) {
+            throw new IllegalArgumentException("batch / batch-bytes must be positive and linger-ms must not be negative");
+        }
+        if (lingerMillis > 0 && (lingerScheduler == null || lingerPublisher == null)) {
+            throw new IllegalArgumentException("linger-ms requires a scheduler and a publish executor");
+        }
+        this.connection = connection;
+        this.topic = topic;
+        this.binary = binary;
+        this.maxReadings = maxReadings;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.lingerScheduler = lingerScheduler;
+        this.lingerPublisher = lingerPublisher;
+        this.jsonBatch = binary ? null : new SensorPayloadWriter.BatchWriter();
+        this.binaryBatch = binary ? new BinaryPayloadWriter.BatchWriter() : null;
+    }
+
+    /**
+     * reading を追加. 件数 / bytes の上限に達したらこの thread で publish (非同期, in-flight が満杯なら待つ).
+     * 他の thread が閉じた envelope が残っていればそれも順番に publish する (失敗はまとめて最初の 1つを投げる).
+     */
+    public void add(String deviceId, long epochMillis, double temperature, double humidity, double vibration)
+            throws AWSIotException, InterruptedException {
+        boolean full = false;
+        synchronized (this) {
+            if (binary) {
+                binaryBatch.add(deviceId, epochMillis, temperature, humidity, vibration);
+            } else {
+                jsonBatch.add(deviceId, LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), zone), temperature, humidity, vibration);
+            }
+            int size = binary ? binaryBatch.count() : jsonBatch.count();
+            int bytes = binary ? binaryBatch.sizeInBytes() : jsonBatch.sizeInBytes();
+            if (size >= maxReadings || bytes >= maxBytes) {
+                closeLocked(size);
+                full = true;
+            } else if (size == 1 && lingerMillis > 0) {
+                long scheduled = generation;
+                lingerScheduler.schedule(() -> lingerFlush(scheduled), lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            publishPending();
+        }
+    }
+
+    /**
+     * envelope に入れられない message (deadband の heartbeat) を同じ topic / 接続で publish する.
+     * 溜まっている reading を先に閉じるので, 同じデバイスの reading と heartbeat は入れた順に届く.
+     */
+    public void addMessage(byte[] payload) throws AWSIotException, InterruptedException {
+        synchronized (this) {
+            int count = binary ? binaryBatch.count() : jsonBatch.count();
+            if (count > 0) {
+                closeLocked(count);
+            }
+            pending.add(new Envelope(payload, 1));
+        }
+        publishPending();
+    }
+
+    // 残りを今すぐ publish (終了時)
+    public void flush() throws AWSIotException, InterruptedException {
+        synchronized (this) {
+            int count = binary ? binaryBatch.count() : jsonBatch.count();
+            if (count > 0) {
+                closeLocked(count);
+            }
+        }
+        publishPending();
+    }
+
+    public long getPublishCount() {
+        return publishCalls.sum();
+    }
+
+    public long getFailedReadingCount() {
+        return failedReadings.sum();
+    }
+
+    // 共有の scheduler thread では publish しない (in-flight 待ちで他の batcher の linger が遅れる): 閉じるだけで publish は executor
+    private void lingerFlush(long scheduled) {
+        synchronized (this) {
+            int count = binary ? binaryBatch.count() : jsonBatch.count();
+            if (generation != scheduled || count == 0) {
+                return;
+            }
+            closeLocked(count);
+        }
+        lingerPublisher.execute(() -> {
+            try {
+                publishPending();
+            } catch (AWSIotException | InterruptedException e) {
+                System.err.println("Batched publish failed: " + e.getMessage());
+            }
+        });
+    }
+
+    // monitor を持ったまま呼ぶ. 閉じた順に pending に積む
+    private void closeLocked(int count) {
+        generation++;
+        pending.add(new Envelope(binary ? binaryBatch.finish() : jsonBatch.finish(), count));
+    }
+
+    // pending を古い順に全部 publish. publishLock を持つ thread だけが publish するので順序は閉じた順 (monitor は持たない)
+    private void publishPending() throws AWSIotException, InterruptedException {
+        AWSIotException failure = null;
+        publishLock.lock();
+        try {
+            while (true) {
+                Envelope next;
+                synchronized (this) {
+                    next = pending.poll();
+                }
+                if (next == null) {
+                    break;
+                }
+                try {
+                    connection.publish(topic, next.payload);
+                    publishCalls.increment();
+                } catch (AWSIotException e) {
+                    failedReadings.add(next.readings);
+                    if (failure == null) {
+                        failure = e;
+                    }
+                } catch (InterruptedException e) {
+                    failedReadings.add(next.readings);
+                    throw e;
+                }
+            }
+        } finally {
+            publishLock.unlock();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static class Envelope {
+        final byte[] payload;
+        final int readings;
+
+        Envelope(byte[] payload, int readings) {
+            this.payload = payload;
+            this.readings = readings;
+        }
+    }
+}
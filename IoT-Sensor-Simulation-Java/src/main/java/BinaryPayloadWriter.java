@@ -0,0 +1,149 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * compact binary payload writer (--format=binary).
+ * IoT-Spring-Boot の BinaryReadingCodec (version 1) と同じ layout:
+ * magic 0xB5, version, flags, varint deviceId 長 + UTF-8, varint epoch millis, zigzag x100 の温度/湿度/振動.
+ * subscriber は先頭 byte で JSON と自動判別する. thread-safe ではない (thread ごとに 1つ).
+ * batch envelope (flags bit 0) は header の後に entry (deviceId 〜 振動) を並べたもの: BatchWriter.
+ * heartbeat (flags bit 1) は entry (値は平均) の後に varint held + zigzag x100 の標準偏差 3つ: writeHeartbeat.
+ */
+public class BinaryPayloadWriter {
+    private static final byte magic = (byte) 0xB5;
+    private static final byte version = 1;
+    private static final byte flagBatch = 0x01;
+    private static final byte flagHeartbeat = 0x02;
+    private static final double fixed2FastLimit = 1e6;  // SensorPayloadWriter と同じ
+    private static final double fixed2HalfMargin = 1e-6;
+
+    private byte[] buffer = new byte[64];
+    private int length;
+
+    public byte[] write(String deviceId, long epochMillis, double temperature, double humidity, double vibration) {
+        length = 0;
+        writeHeader((byte) 0);
+        writeEntry(deviceId, epochMillis, temperature, humidity, vibration);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    public byte[] writeHeartbeat(String deviceId, long epochMillis, int held,
+                                 double temperature, double humidity, double vibration,
+                                 double temperatureSd, double humiditySd, double vibrationSd) {
+        long t = toFixed2(temperatureSd);
+        long h = toFixed2(humiditySd);
+        long v = toFixed2(vibrationSd);
+        length = 0;
+        writeHeader(flagHeartbeat);
+        writeEntry(deviceId, epochMillis, temperature, humidity, vibration);
+        writeVarLong(held);
+        writeZigZag(t);
+        writeZigZag(h);
+        writeZigZag(v);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private void writeHeader(byte flags) {
+        ensure(3);
+        buffer[length++] = magic;
+        buffer[length++] = version;
+        buffer[length++] = flags;
+    }
+
+    private void writeEntry(String deviceId, long epochMillis, double temperature, double humidity, double vibration) {
+        long t = toFixed2(temperature);  // 先に変換: 例外なら batch に途中まで書かない
+        long h = toFixed2(humidity);
+        long v = toFixed2(vibration);
+        if (deviceId == null) {
+            writeVarLong(0);
+        } else {
+            byte[] id = deviceId.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(id.length);
+            ensure(id.length);
+            System.arraycopy(id, 0, buffer, length, id.length);
+            length += id.length;
+        }
+        writeVarLong(epochMillis);
+        writeZigZag(t);
+        writeZigZag(h);
+        writeZigZag(v);
+    }
+
+    // x100 の整数. JSON writer の appendFixed2 (= %.2f, HALF_UP) と同じ丸め. NaN / ±Infinity は表せないので例外
+    private static long toFixed2(double value) {
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("Sensor value is not finite: " + value);
+        }
+        double abs = Math.abs(value);
+        double scaled = abs * 100;
+        long rounded;
+        if (abs < fixed2FastLimit && Math.abs(scaled - Math.floor(scaled) - 0.5) > fixed2HalfMargin) {
+            rounded = Math.round(scaled);
+        } else {
+            try {
+                rounded = BigDecimal.valueOf(abs).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Sensor value is out of range: " + value);
+            }
+        }
+        return value < 0 ? -rounded : rounded;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeZigZag(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * batch envelope を組み立てる writer. thread-safe ではない.
+     */
+    public static class BatchWriter {
+        private final BinaryPayloadWriter writer = new BinaryPayloadWriter();
+        private int count;
+
+        public BatchWriter() {
+            reset();
+        }
+
+        public void add(String deviceId, long epochMillis, double temperature, double humidity, double vibration) {
+            writer.writeEntry(deviceId, epochMillis, temperature, humidity, vibration);
+            count++;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public int sizeInBytes() {
+            return writer.length;
+        }
+
+        public byte[] finish() {
+            byte[] payload = Arrays.copyOf(writer.buffer, writer.length);
+            reset();
+            return payload;
+        }
+
+        private void reset() {
+            writer.length = 0;
+            writer.writeHeader(flagBatch);
+            count = 0;
+        }
+    }
+}
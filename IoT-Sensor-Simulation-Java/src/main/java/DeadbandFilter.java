@@ -0,0 +1,217 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * edge 側 deadband (--deadband): 1 デバイス分. 値があまり変わらない sample は publish せず、
+ * heartbeat (送らなかった sample の件数・平均・標準偏差) だけを送る.
+ * <ul>
+ * <li>最後に publish した値から deadband を超えて変わった metric がある -> すぐ publish</li>
+ * <li>alarm 閾値をまたいだ (入る: 値 >= alarm, 出る: 値 < alarm - hysteresis) -> すぐ publish. alarm 中は毎回 publish</li>
+ * <li>それ以外は held に溜め、最後の message から heartbeat 秒経ったら heartbeat</li>
+ * </ul>
+ * 変化を publish する前に held が残っていれば先に heartbeat を送る (subscriber の window / twin が全 sample 分そろう).
+ * 閾値はデバイス class ごと (DeviceClass). thread-safe ではない (デバイスの sample は 1つずつ順番に渡す).
+ */
+public class DeadbandFilter {
+    public static final int suppress = 0;  // 送らない (held に加えた)
+    public static final int publish = 1;  // reading を送る (held があれば先に heartbeat)
+    public static final int heartbeat = 2;  // heartbeat を送る (この sample も held に含む)
+
+    private static final String[] metrics = {"temperature", "humidity", "vibration"};
+
+    private final DeviceClass deviceClass;
+    private final double[] lastPublished = new double[3];
+    private final boolean[] inAlarm = new boolean[3];
+    private long lastMessageMillis;
+    private boolean started;
+
+    // 送らなかった sample (最後の message 以降)
+    private int held;
+    private long heldLastMillis;
+    private final double[] heldSum = new double[3];
+    private final double[] heldSumSquares = new double[3];
+
+    public DeadbandFilter(DeviceClass deviceClass) {
+        this.deviceClass = deviceClass;
+    }
+
+    public DeviceClass deviceClass() {
+        return deviceClass;
+    }
+
+    /**
+     * sample 1件を判定する.
+     * @return publish / heartbeat なら呼び出し側が送る (heartbeat の内容は takeHeld), suppress なら何もしない
+     */
+    public int offer(long epochMillis, double temperature, double humidity, double vibration) {
+        double[] values = {temperature, humidity, vibration};
+        boolean changed = !started;
+        for (int m = 0; m < 3; m++) {
+            double alarm = deviceClass.alarm[m];
+            if (!Double.isNaN(alarm)) {
+                boolean alarmed = inAlarm[m] ? values[m] >= alarm - deviceClass.hysteresis[m] : values[m] >= alarm;
+                changed |= alarmed != inAlarm[m] || alarmed;  // 閾値をまたいだ or alarm 中
+                inAlarm[m] = alarmed;
+            }
+            changed |= Math.abs(values[m] - lastPublished[m]) > deviceClass.deadband[m];
+        }
+        if (changed) {
+            started = true;
+            System.arraycopy(values, 0, lastPublished, 0, 3);
+            lastMessageMillis = epochMillis;
+            return publish;
+        }
+
+        held++;
+        heldLastMillis = epochMillis;
+        for (int m = 0; m < 3; m++) {
+            heldSum[m] += values[m];
+            heldSumSquares[m] += values[m] * values[m];
+        }
+        if (epochMillis - lastMessageMillis >= deviceClass.heartbeatMillis) {
+            lastMessageMillis = epochMillis;
+            return heartbeat;
+        }
+        return suppress;
+    }
+
+    public int heldCount() {
+        return held;
+    }
+
+    /**
+     * 溜まっている held を取り出してリセット (heartbeat の内容). held がなければ null.
+     */
+    public Held takeHeld() {
+        if (held == 0) {
+            return null;
+        }
+        Held result = new Held();
+        result.count = held;
+        result.lastMillis = heldLastMillis;
+        for (int m = 0; m < 3; m++) {
+            double mean = heldSum[m] / held;
+            result.mean[m] = mean;
+            result.sd[m] = Math.sqrt(Math.max(0.0, heldSumSquares[m] / held - mean * mean));
+            heldSum[m] = 0.0;
+            heldSumSquares[m] = 0.0;
+        }
+        held = 0;
+        return result;
+    }
+
+    /**
+     * heartbeat 1件分: 送らなかった sample の件数と metric ごとの平均 / 標準偏差 (index: 温度, 湿度, 振動).
+     * heartbeat の timestamp は最後に送らなかった sample の時刻.
+     */
+    public static class Held {
+        int count;
+        long lastMillis;
+        final double[] mean = new double[3];
+        final double[] sd = new double[3];
+    }
+
+    /**
+     * デバイス class ごとの閾値 (index: 温度, 湿度, 振動). alarm が NaN の metric は alarm 判定なし.
+     */
+    public static class DeviceClass {
+        final String name;
+        final double[] deadband = new double[3];
+        final double[] alarm = new double[3];
+        final double[] hysteresis = new double[3];
+        long heartbeatMillis;
+
+        DeviceClass(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        // 組み込み: 工場の一般的な設備 (温度 ±0.5度C, 湿度 ±2%, 振動 ±0.3, 温度 70度C / 振動 4.5 で alarm, 60秒ごとに heartbeat)
+        static DeviceClass defaults(String name) {
+            DeviceClass c = new DeviceClass(name);
+            c.deadband[0] = 0.5;
+            c.deadband[1] = 2.0;
+            c.deadband[2] = 0.3;
+            c.alarm[0] = 70.0;
+            c.alarm[1] = Double.NaN;
+            c.alarm[2] = 4.5;
+            c.hysteresis[0] = 2.0;
+            c.hysteresis[1] = 0.0;
+            c.hysteresis[2] = 0.3;
+            c.heartbeatMillis = 60_000;
+            return c;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name).append('[');
+            for (int m = 0; m < 3; m++) {
+                sb.append(metrics[m]).append(" ±").append(deadband[m]);
+                if (!Double.isNaN(alarm[m])) {
+                    sb.append(" alarm ").append(alarm[m]).append('/').append(alarm[m] - hysteresis[m]);
+                }
+                sb.append(", ");
+            }
+            return sb.append("heartbeat ").append(heartbeatMillis / 1000).append("s]").toString();
+        }
+    }
+
+    /**
+     * --deadband-config の properties ファイルからデバイス class を読む (なければ組み込みの "default" 1つ).
+     * key: &lt;class&gt;.&lt;temperature|humidity|vibration&gt;.deadband / .alarm / .hysteresis, &lt;class&gt;.heartbeat-seconds
+     * 書いていない key は組み込みの値 (alarm=none で alarm 判定なし). class は名前順.
+     */
+    public static List<DeviceClass> loadClasses(String path) throws IOException {
+        List<DeviceClass> classes = new ArrayList<>();
+        if (path == null) {
+            classes.add(DeviceClass.defaults("default"));
+            return classes;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(path)) {
+            properties.load(in);
+        }
+        TreeSet<String> names = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            int dot = key.indexOf('.');
+            if (dot > 0) {
+                names.add(key.substring(0, dot));
+            }
+        }
+        for (String name : names) {
+            DeviceClass c = DeviceClass.defaults(name);
+            for (int m = 0; m < 3; m++) {
+                c.deadband[m] = number(properties, name + "." + metrics[m] + ".deadband", c.deadband[m]);
+                c.alarm[m] = number(properties, name + "." + metrics[m] + ".alarm", c.alarm[m]);
+                c.hysteresis[m] = number(properties, name + "." + metrics[m] + ".hysteresis", c.hysteresis[m]);
+                if (c.deadband[m] < 0 || c.hysteresis[m] < 0) {
+                    throw new IllegalArgumentException("deadband / hysteresis must not be negative: " + name + "." + metrics[m]);
+                }
+            }
+            c.heartbeatMillis = (long) (number(properties, name + ".heartbeat-seconds", c.heartbeatMillis / 1000.0) * 1000);
+            classes.add(c);
+        }
+        if (classes.isEmpty()) {
+            throw new IllegalArgumentException("No device classes in " + path);
+        }
+        return classes;
+    }
+
+    // "none" は alarm なし (NaN)
+    private static double number(Properties properties, String key, double fallback) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return fallback;
+        }
+        value = value.trim();
+        return "none".equalsIgnoreCase(value) ? Double.NaN : Double.parseDouble(value);
+    }
+}
@@ -0,0 +1,405 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.iot.client.AWSIotException;
+
+/**
+ * Fleet-scale load mode: 1 process で数千〜数十万の仮想センサーを動かす.
+ * 各デバイスは固有の id / topic suffix / publish 周期を持ち、hashed timer wheel 1本で
+ * スケジュールされ、publish 自体は worker pool で実行する。
+ * 全デバイスの周期の合計が global target msgs/sec になるように割り当てる。
+ * publish は MqttConnectionPool (--connections) の接続にデバイスを hash で割り当てて非同期に行う.
+ * --batch=N: reading を BatchingPublisher (worker 数の shard, デバイスは常に同じ shard) で envelope にまとめる.
+ * --deadband: デバイスごとの DeadbandFilter で変化した sample だけ publish し、残りは heartbeat にまとめる
+ * (heartbeat は envelope に入れない単発 message. batching 時は reading と順序が入れ替わらないようにデバイスの batcher から
+ * 同じ topic / 接続で送る. class はデバイス番号順に割り当て). 周期 (sample rate) は変えない.
+ */
+public class FleetSimulator {
+    private static final long tickNanos = TimeUnit.MILLISECONDS.toNanos(10);  // wheel 解像度 10ms
+    private static final int wheelSize = 1024;  // 2^n (mask 計算用)
+
+    private final MqttConnectionPool pool;
+    private final String topicPrefix;
+    private final int deviceCount;
+    private final double targetRate;  // 全体 msgs/sec
+    private final double jitter;  // 周期に対する割合 (0.1 -> ±10%)
+    private final int workers;
+    private final boolean binaryPayload;  // true: BinaryPayloadWriter, false: JSON
+    private final int batchSize;  // > 1 で batching
+    private final int batchBytes;
+    private final long lingerMillis;
+    private BatchingPublisher[] batchers;  // batching なしなら null
+    private final List<DeadbandFilter.DeviceClass> deviceClasses;  // deadband なしなら null
+    private final boolean steadySignal;  // true: SteadySignal, false: 毎回一様乱数
+    private ScheduledExecutorService lingerScheduler;
+
+    private final List<VirtualSensor>[] wheel;
+    private final Queue<VirtualSensor> pending = new ConcurrentLinkedQueue<>();  // worker -> timer thread
+    private ThreadPoolExecutor publishPool;
+    private volatile boolean running = true;
+    private long wheelStartNanos;
+
+    // stats (report 区間ごとに reset)
+    private final LongAdder published = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder lagNanosSum = new LongAdder();
+    private final AtomicLong lagNanosMax = new AtomicLong();
+    private final LongAdder publishNanosSum = new LongAdder();
+    private final AtomicLong publishNanosMax = new AtomicLong();
+    private final LongAdder totalPublished = new LongAdder();
+    private final LongAdder directCalls = new LongAdder();  // batcher を通さない publish (reading / heartbeat)
+    private final LongAdder heartbeats = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();  // deadband で送らなかった sample
+    private long lastBrokerCalls;  // report thread だけが使う
+    private long lastFailed;  // failed は停止時に合計を出すので reset せず差分で
+
+    private static final ThreadLocal<SensorPayloadWriter> payloadWriter = ThreadLocal.withInitial(SensorPayloadWriter::new);  // publisher thread ごと
+    private static final ThreadLocal<BinaryPayloadWriter> binaryWriter = ThreadLocal.withInitial(BinaryPayloadWriter::new);
+
+    public FleetSimulator(MqttConnectionPool pool, String topicPrefix, int deviceCount, double targetRate, double jitter, int workers,
+                          boolean binaryPayload, int batchSize, int batchBytes, long lingerMillis,
+                          List<DeadbandFilter.DeviceClass> deviceClasses, boolean steadySignal) {
+        if (deviceCount <= 0 || targetRate <= 0) {
+            throw new IllegalArgumentException("devices and rate must be positive: devices=" + deviceCount + ", rate=" + targetRate);
+        }
+        this.pool = pool;
+        this.topicPrefix = topicPrefix;
+        this.deviceCount = deviceCount;
+        this.targetRate = targetRate;
+        this.jitter = Math.max(0.0, Math.min(jitter, 0.9));
+        this.workers = workers;
+        this.binaryPayload = binaryPayload;
+        this.batchSize = batchSize;
+        this.batchBytes = batchBytes;
+        this.lingerMillis = lingerMillis;
+        this.deviceClasses = deviceClasses;
+        this.steadySignal = steadySignal;
+        @SuppressWarnings("unchecked")
+        List<VirtualSensor>[] buckets = (List<VirtualSensor>[]) new List<?>[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.wheel = buckets;
+    }
+
+    /**
+     * fleet を起動し、durationSeconds 経過まで (0 なら無限) 実行する.
+     * @param durationSeconds 実行時間 (秒)
+     * @param reportSeconds 統計出力の間隔 (秒)
+     */
+    public void run(long durationSeconds, long reportSeconds) throws InterruptedException {
+        publishPool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "fleet-publisher");
+            t.setDaemon(true);
+            return t;
+        });
+
+        if (batchSize > 1) {
+            lingerScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "fleet-linger");
+                t.setDaemon(true);
+                return t;
+            });
+            // shard ごとの topic に publish (subscriber の parse stage は topic で分散する). entry は deviceId を持つ
+            batchers = new BatchingPublisher[workers];
+            for (int i = 0; i < workers; i++) {
+                String batchTopic = topicPrefix + "/batch-" + i;
+                batchers[i] = new BatchingPublisher(pool.shard(batchTopic), batchTopic, binaryPayload,
+                        batchSize, batchBytes, lingerMillis, lingerScheduler, publishPool);  // linger の publish は worker で
+            }
+        }
+
+        wheelStartNanos = System.nanoTime();
+        scheduleDevices();
+
+        Thread timer = new Thread(this::timerLoop, "fleet-timer-wheel");
+        timer.setDaemon(true);
+        timer.start();
+
+        System.out.printf("Fleet started: devices=%d, target=%.1f msg/s, jitter=%.0f%%, workers=%d, connections=%d, format=%s, batch=%s, signal=%s, deadband=%s%n",
+                deviceCount, targetRate, jitter * 100, workers, pool.size(), binaryPayload ? "binary" : "json",
+                batchers != null ? batchSize + "/" + batchBytes + "B/" + lingerMillis + "ms" : "off",
+                steadySignal ? "steady" : "random", deviceClasses != null ? deviceClasses : "off");
+
+        long endNanos = durationSeconds > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds) : Long.MAX_VALUE;
+        long lastReport = System.nanoTime();
+        while (System.nanoTime() < endNanos) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(reportSeconds));
+            long now = System.nanoTime();
+            report(now - lastReport);
+            lastReport = now;
+        }
+
+        running = false;
+        timer.join(TimeUnit.SECONDS.toMillis(1));
+        shutdown(publishPool);
+        if (batchers != null) {
+            for (BatchingPublisher batcher : batchers) {
+                try {
+                    batcher.flush();
+                } catch (Exception e) {
+                    failed.increment();
+                }
+            }
+            lingerScheduler.shutdownNow();
+        }
+        pool.awaitCompletion(TimeUnit.SECONDS.toMillis(5));  // ack 待ちの message
+        System.out.printf("Fleet stopped: total published=%d, failed=%d, broker calls=%d, acked=%d%n",
+                totalPublished.sum(), failed.sum(), brokerCalls(), pool.ackedCount());
+        if (deviceClasses != null) {
+            long samples = Math.max(1, totalPublished.sum());
+            System.out.printf("Deadband: samples=%d, suppressed=%d, heartbeats=%d, messages per sample=%.3f%n",
+                    totalPublished.sum(), suppressed.sum(), heartbeats.sum(), (samples - suppressed.sum() + heartbeats.sum()) / (double) samples);
+        }
+    }
+
+    /**
+     * デバイスごとの周期を決める: 周期は 0.5x〜1.5x でばらけさせ、合計 rate が target に一致するよう正規化.
+     * 初回 publish は 1 周期内に均等に分散 (起動直後の burst 防止).
+     */
+    private void scheduleDevices() {
+        Random random = new Random(42);  // 再現性のため固定 seed
+        double[] weights = new double[deviceCount];
+        double rateSum = 0.0;
+        for (int i = 0; i < deviceCount; i++) {
+            weights[i] = 0.5 + random.nextDouble();  // 相対周期
+            rateSum += 1.0 / weights[i];
+        }
+        double scale = rateSum / targetRate;  // 秒単位: period_i = weight_i * scale
+
+        for (int i = 0; i < deviceCount; i++) {
+            String deviceId = String.format("sensor-%05d", i);
+            long periodNanos = Math.max(tickNanos, (long) (weights[i] * scale * 1_000_000_000L));
+            VirtualSensor sensor = new VirtualSensor(deviceId, topicPrefix + "/" + deviceId, periodNanos);
+            if (batchers != null) {
+                sensor.batcher = batchers[i % batchers.length];
+            }
+            sensor.connection = pool.shard(deviceId);  // batching なしの reading / heartbeat
+            if (steadySignal) {
+                sensor.signal = new SteadySignal(random);
+            }
+            if (deviceClasses != null) {
+                sensor.filter = new DeadbandFilter(deviceClasses.get(i % deviceClasses.size()));
+            }
+            sensor.dueNanos = wheelStartNanos + (long) (random.nextDouble() * periodNanos);
+            place(sensor, 0);
+        }
+    }
+
+    private void place(VirtualSensor sensor, long currentTick) {
+        long dueTick = Math.max(currentTick, (sensor.dueNanos - wheelStartNanos) / tickNanos);
+        sensor.remainingRounds = (dueTick - currentTick) / wheelSize;
+        wheel[(int) (dueTick & (wheelSize - 1))].add(sensor);
+    }
+
+    // timer wheel: 単一スレッド。worker からの再スケジュールは pending queue 経由で受け取る
+    private void timerLoop() {
+        long tick = 0;
+        while (running) {
+            long deadline = wheelStartNanos + (tick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+
+            VirtualSensor rescheduled;
+            while ((rescheduled = pending.poll()) != null) {
+                place(rescheduled, tick);
+            }
+
+            List<VirtualSensor> bucket = wheel[(int) (tick & (wheelSize - 1))];
+            int kept = 0;
+            for (int i = 0; i < bucket.size(); i++) {
+                VirtualSensor sensor = bucket.get(i);
+                if (sensor.remainingRounds <= 0) {
+                    publishPool.execute(() -> publish(sensor));
+                } else {
+                    sensor.remainingRounds--;
+                    bucket.set(kept++, sensor);
+                }
+            }
+            bucket.subList(kept, bucket.size()).clear();
+            tick++;
+        }
+    }
+
+    private void publish(VirtualSensor sensor) {
+        long start = System.nanoTime();
+        long lag = Math.max(0, start - sensor.dueNanos);  // generator 側の遅れ (scheduler + worker queue)
+        lagNanosSum.add(lag);
+        lagNanosMax.accumulateAndGet(lag, Math::max);
+
+        try {
+            sample(sensor);
+            published.increment();
+            totalPublished.increment();
+        } catch (Exception e) {
+            failed.increment();
+        }
+
+        long elapsed = System.nanoTime() - start;  // 接続の in-flight 待ち (broker / network が遅いと伸びる)
+        publishNanosSum.add(elapsed);
+        publishNanosMax.accumulateAndGet(elapsed, Math::max);
+
+        // drift しないように due 基準で次回を決める. 遅れている場合は lag として現れる
+        double jitterFactor = 1.0 + (ThreadLocalRandom.current().nextDouble() * 2 - 1) * jitter;
+        sensor.dueNanos += (long) (sensor.periodNanos * jitterFactor);
+        if (running) {
+            pending.add(sensor);
+        }
+    }
+
+    // 1 sample 生成 -> (deadband) -> batch に追加 or 接続に非同期 publish (in-flight が満杯なら待つ)
+    private void sample(VirtualSensor sensor) throws AWSIotException, InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double temperature;
+        double humidity;
+        double vibration;
+        if (sensor.signal != null) {
+            sensor.signal.next(random);
+            temperature = sensor.signal.temperature();
+            humidity = sensor.signal.humidity();
+            vibration = sensor.signal.vibration();
+        } else {
+            temperature = 20 + random.nextDouble() * 60; // 温度 20 ~ 80 度C
+            humidity = 30 + random.nextDouble() * 60; // 湿気 30 ~ 90 %
+            vibration = 0.1 + random.nextDouble() * 4.9; // 振動 0.1 ~ 5.0 mm/s^2
+        }
+        long now = System.currentTimeMillis();
+
+        if (sensor.filter != null) {
+            int decision = sensor.filter.offer(now, temperature, humidity, vibration);
+            if (decision == DeadbandFilter.suppress) {
+                suppressed.increment();
+                return;
+            }
+            DeadbandFilter.Held held = sensor.filter.takeHeld();  // 変化の前に溜まっている分 / heartbeat 本体
+            if (held != null) {
+                byte[] heartbeat = heartbeatPayload(sensor.deviceId, held);
+                if (sensor.batcher != null) {
+                    sensor.batcher.addMessage(heartbeat);  // 溜まっている reading の後に同じ topic で
+                } else {
+                    sensor.connection.publish(sensor.topic, heartbeat);
+                    directCalls.increment();
+                }
+                heartbeats.increment();
+            }
+            if (decision == DeadbandFilter.heartbeat) {
+                suppressed.increment();  // この sample は heartbeat に含まれる
+                return;
+            }
+        }
+
+        if (sensor.batcher != null) {
+            sensor.batcher.add(sensor.deviceId, now, temperature, humidity, vibration);
+        } else {
+            byte[] payload = binaryPayload
+                    ? binaryWriter.get().write(sensor.deviceId, now, temperature, humidity, vibration)
+                    : payloadWriter.get().write(sensor.deviceId, LocalDateTime.now(), temperature, humidity, vibration);
+            sensor.connection.publish(sensor.topic, payload);
+            directCalls.increment();
+        }
+    }
+
+    private byte[] heartbeatPayload(String deviceId, DeadbandFilter.Held held) {
+        if (binaryPayload) {
+            return binaryWriter.get().writeHeartbeat(deviceId, held.lastMillis, held.count,
+                    held.mean[0], held.mean[1], held.mean[2], held.sd[0], held.sd[1], held.sd[2]);
+        }
+        return payloadWriter.get().writeHeartbeat(deviceId,
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(held.lastMillis), ZoneId.systemDefault()), held.count,
+                held.mean[0], held.mean[1], held.mean[2], held.sd[0], held.sd[1], held.sd[2]);
+    }
+
+    /**
+     * 区間の達成 rate と lag を出力.
+     * lag が伸びて publish 時間が短い -> generator (worker 数/CPU) が bottleneck,
+     * lag と publish 時間が両方伸びる -> broker / network が bottleneck.
+     */
+    private void report(long intervalNanos) {
+        long count = published.sumThenReset();
+        long failedTotal = failed.sum();
+        long errors = failedTotal - lastFailed;
+        lastFailed = failedTotal;
+        long lagSum = lagNanosSum.sumThenReset();
+        long lagMax = lagNanosMax.getAndSet(0);
+        long pubSum = publishNanosSum.sumThenReset();
+        long pubMax = publishNanosMax.getAndSet(0);
+        double seconds = intervalNanos / 1e9;
+        long samples = Math.max(1, count);
+
+        long calls = brokerCalls();
+        long callsInInterval = calls - lastBrokerCalls;
+        lastBrokerCalls = calls;
+
+        System.out.printf("Fleet: achieved=%.1f msg/s (target %.1f), lag avg=%.1fms max=%.1fms, publish avg=%.1fms max=%.1fms, queued=%d, failed=%d, broker calls/reading=%.3f%n",
+                count / seconds, targetRate,
+                lagSum / (double) samples / 1e6, lagMax / 1e6,
+                pubSum / (double) samples / 1e6, pubMax / 1e6,
+                publishPool.getQueue().size(), errors, callsInInterval / (double) samples);
+        if (deviceClasses != null) {
+            System.out.printf("  deadband: suppressed=%d, heartbeats=%d (total)%n", suppressed.sum(), heartbeats.sum());
+        }
+        if (pool.size() > 1) {
+            pool.report(seconds);
+        }
+    }
+
+    // 直接の publish + batcher の envelope
+    private long brokerCalls() {
+        long calls = directCalls.sum();
+        if (batchers == null) {
+            return calls;
+        }
+        for (BatchingPublisher batcher : batchers) {
+            calls += batcher.getPublishCount();
+        }
+        return calls;
+    }
+
+    private static void shutdown(ExecutorService pool) throws InterruptedException {
+        pool.shutdown();
+        if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+            pool.shutdownNow();
+        }
+    }
+
+    // 仮想センサー 1台分の状態
+    private static class VirtualSensor {
+        final String deviceId;
+        final String topic;
+        final long periodNanos;
+        long dueNanos;
+        long remainingRounds;
+        BatchingPublisher batcher;  // batching 時の shard
+        MqttConnectionPool.Shard connection;  // batching なしの時の接続 (heartbeat は常にこれ)
+        SteadySignal signal;  // --signal=steady の時だけ
+        DeadbandFilter filter;  // --deadband の時だけ
+
+        VirtualSensor(String deviceId, String topic, long periodNanos) {
+            this.deviceId = deviceId;
+            this.topic = topic;
+            this.periodNanos = periodNanos;
+        }
+    }
+}
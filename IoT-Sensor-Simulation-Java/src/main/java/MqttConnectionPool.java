@@ -0,0 +1,232 @@
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotMqttClient;
+import com.amazonaws.services.iot.client.AWSIotQos;
+
+/**
+ * MQTT 接続 pool (--connections=N). KeyStore は main で 1回だけ読み込んだものを全接続で共有し、
+ * client id は clientId-0..N-1 (N = 1 なら clientId のまま). デバイスは hash で接続に割り当てる (順序が保たれる).
+ * 接続ごとに非同期 publish (AWSIotMessage の callback) + in-flight 上限 (--max-in-flight).
+ * 上限に達した接続への publish は --max-block-ms だけ待って諦める (他の接続は止まらない).
+ * 再接続は SDK が client ごとに行い、SDK が諦めた接続は watchdog が接続ごとに別 thread で connect し直す.
+ */
+public class MqttConnectionPool {
+    private static final long publishTimeoutMillis = 10_000;  // PUBACK をこれ以上待たない (in-flight の枠を返す)
+    private static final long watchdogIntervalMillis = 5000;
+
+    private final Shard[] shards;
+    private final long maxBlockMillis;
+    private final ScheduledExecutorService watchdog;
+    private final ExecutorService reconnector;
+
+    public MqttConnectionPool(String endpoint, String clientId, KeyStore keyStore, String keyPassword,
+                              int connections, int maxInFlight, long maxBlockMillis) {
+        if (connections <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("connections and max-in-flight must be positive");
+        }
+        this.maxBlockMillis = maxBlockMillis;
+        this.shards = new Shard[connections];
+        for (int i = 0; i < connections; i++) {
+            shards[i] = new Shard(i, connections == 1 ? clientId : clientId + "-" + i, endpoint, keyStore, keyPassword, maxInFlight);
+        }
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(daemon("mqtt-pool-watchdog"));
+        this.reconnector = Executors.newCachedThreadPool(daemon("mqtt-pool-reconnect"));
+    }
+
+    // 全接続を connect. 失敗した接続は watchdog に任せる (全滅なら例外)
+    public void connect() throws AWSIotException {
+        AWSIotException last = null;
+        int connected = 0;
+        for (Shard shard : shards) {
+            try {
+                shard.client.connect();
+                connected++;
+            } catch (AWSIotException e) {
+                last = e;
+                System.err.println("Connection " + shard.clientId + " failed, will retry: " + e.getMessage());
+            }
+        }
+        if (connected == 0 && last != null) {
+            throw last;
+        }
+        watchdog.scheduleWithFixedDelay(this::reconnectDisconnected, watchdogIntervalMillis, watchdogIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // key (deviceId / topic) の接続
+    public Shard shard(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return shards[Math.floorMod(h * 0x9E3779B1, shards.length)];
+    }
+
+    public int size() {
+        return shards.length;
+    }
+
+    // ack 済み message 数 (全接続)
+    public long ackedCount() {
+        long acked = 0;
+        for (Shard shard : shards) {
+            acked += shard.acked.sum();
+        }
+        return acked;
+    }
+
+    // in-flight が全部終わるまで待つ (終了時)
+    public void awaitCompletion(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Shard shard : shards) {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            if (shard.inFlight.tryAcquire(shard.maxInFlight, remaining, TimeUnit.NANOSECONDS)) {
+                shard.inFlight.release(shard.maxInFlight);
+            }
+        }
+    }
+
+    public void disconnect() {
+        watchdog.shutdownNow();
+        reconnector.shutdownNow();
+        for (Shard shard : shards) {
+            try {
+                shard.client.disconnect();
+            } catch (Exception e) {
+                // 終了時なので無視
+            }
+        }
+    }
+
+    /**
+     * 接続ごとの統計を出力 (ack/s は前回の report からの区間).
+     */
+    public void report(double seconds) {
+        for (Shard shard : shards) {
+            long acked = shard.acked.sum();
+            System.out.printf("  connection %d (%s): %s, acked=%.1f msg/s, failed=%d, rejected=%d, in-flight=%d, reconnects=%d%n",
+                    shard.index, shard.clientId, shard.client.getConnectionStatus(), (acked - shard.lastReportAcked) / seconds,
+                    shard.failed.sum(), shard.rejected.sum(), shard.maxInFlight - shard.inFlight.availablePermits(),
+                    Math.max(0, shard.connects.sum() - 1));
+            shard.lastReportAcked = acked;
+        }
+    }
+
+    private void reconnectDisconnected() {
+        for (Shard shard : shards) {
+            if (shard.client.getConnectionStatus() == AWSIotConnectionStatus.DISCONNECTED && shard.reconnecting.compareAndSet(false, true)) {
+                reconnector.execute(() -> {
+                    try {
+                        shard.client.connect();
+                        System.out.println("Connection " + shard.clientId + " reconnected");
+                    } catch (AWSIotException e) {
+                        System.err.println("Connection " + shard.clientId + " reconnect failed: " + e.getMessage());
+                    } finally {
+                        shard.reconnecting.set(false);
+                    }
+                });
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * 1接続分. publish は in-flight の枠を取って非同期 publish するだけ (ack / 失敗 / timeout で枠を返す).
+     */
+    public class Shard {
+        final int index;
+        final String clientId;
+        final AWSIotMqttClient client;
+        final int maxInFlight;
+        final Semaphore inFlight;
+        final AtomicBoolean reconnecting = new AtomicBoolean();
+        final LongAdder connects = new LongAdder();
+        final LongAdder acked = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        long lastReportAcked;  // report thread だけが使う
+
+        Shard(int index, String clientId, String endpoint, KeyStore keyStore, String keyPassword, int maxInFlight) {
+            this.index = index;
+            this.clientId = clientId;
+            this.maxInFlight = maxInFlight;
+            this.inFlight = new Semaphore(maxInFlight);
+            this.client = new AWSIotMqttClient(endpoint, clientId, keyStore, keyPassword) {
+                @Override
+                public void onConnectionSuccess() {
+                    connects.increment();
+                    super.onConnectionSuccess();
+                }
+            };
+        }
+
+        /**
+         * 非同期 publish (QoS1). in-flight が --max-block-ms の間空かなければ AWSIotException.
+         */
+        public void publish(String topic, byte[] payload) throws AWSIotException, InterruptedException {
+            if (!inFlight.tryAcquire() && !inFlight.tryAcquire(maxBlockMillis, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                throw new AWSIotException("In-flight limit reached on " + clientId);
+            }
+            PooledMessage message = new PooledMessage(topic, payload, this);
+            try {
+                client.publish(message, publishTimeoutMillis);
+            } catch (AWSIotException e) {
+                message.complete(false);  // offline queue が満杯など
+                throw e;
+            }
+        }
+    }
+
+    // SDK の callback で in-flight の枠を 1回だけ返す
+    private static class PooledMessage extends AWSIotMessage {
+        private final Shard shard;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        PooledMessage(String topic, byte[] payload, Shard shard) {
+            super(topic, AWSIotQos.QOS1, payload);
+            this.shard = shard;
+        }
+
+        @Override
+        public void onSuccess() {
+            complete(true);
+        }
+
+        @Override
+        public void onFailure() {
+            complete(false);
+        }
+
+        @Override
+        public void onTimeout() {
+            complete(false);
+        }
+
+        void complete(boolean success) {
+            if (done.compareAndSet(false, true)) {
+                if (success) {
+                    shard.acked.increment();
+                } else {
+                    shard.failed.increment();
+                }
+                shard.inFlight.release();
+            }
+        }
+    }
+}
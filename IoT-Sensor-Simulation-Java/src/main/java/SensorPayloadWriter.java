@@ -0,0 +1,203 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * センサー JSON payload writer (String.format / DateTimeFormatter を使わない版).
+ * 再利用 buffer に直接 ASCII を書く. 出力は従来の String.format と同じ schema・同じ文字列.
+ * thread-safe ではない (thread ごとに 1つ).
+ * IoT-Spring-Boot の SensorReadingCodec.Writer と同じ format.
+ * batch envelope {"batch": [{...}, {...}]} は BatchWriter (SensorReadingCodec.BatchWriter と同じ).
+ * deadband の heartbeat は reading に "held" と標準偏差を足したもの (writeHeartbeat).
+ */
+public class SensorPayloadWriter {
+    private static final double fixed2FastLimit = 1e6;
+    private static final double fixed2HalfMargin = 1e-6;
+
+    private byte[] buffer = new byte[160];
+    private int length;
+
+    /**
+     * @param deviceId デバイス ID (null なら field を出さない)
+     * @return JSON bytes (publish に渡せるように新しい配列)
+     */
+    public byte[] write(String deviceId, LocalDateTime timestamp, double temperature, double humidity, double vibration) {
+        length = 0;
+        appendReading(deviceId, timestamp, temperature, humidity, vibration);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * deadband の heartbeat: 値は送らなかった held 件の sample の平均, *Sd はその標準偏差.
+     */
+    public byte[] writeHeartbeat(String deviceId, LocalDateTime timestamp, int held,
+                                 double temperature, double humidity, double vibration,
+                                 double temperatureSd, double humiditySd, double vibrationSd) {
+        length = 0;
+        appendReading(deviceId, timestamp, temperature, humidity, vibration);
+        length--;  // 閉じ括弧の前に追加
+        appendAscii(", \"held\": ");
+        appendAscii(Integer.toString(held));
+        appendAscii(", \"temperatureSd\": ");
+        appendFixed2(temperatureSd);
+        appendAscii(", \"humiditySd\": ");
+        appendFixed2(humiditySd);
+        appendAscii(", \"vibrationSd\": ");
+        appendFixed2(vibrationSd);
+        appendByte('}');
+        return Arrays.copyOf(buffer, length);
+    }
+
+    public static String toString(byte[] payload) {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    private void appendReading(String deviceId, LocalDateTime timestamp, double temperature, double humidity, double vibration) {
+        if (deviceId != null) {
+            appendAscii("{\"deviceId\": \"");
+            appendAscii(deviceId);  // simulator の id は ASCII のみ (sensor-00001 形式)
+            appendAscii("\", \"timestamp\": \"");
+        } else {
+            appendAscii("{\"timestamp\": \"");
+        }
+        appendIsoLocalDateTime(timestamp);
+        appendAscii("\", \"temperature\": ");
+        appendFixed2(temperature);
+        appendAscii(", \"humidity\": ");
+        appendFixed2(humidity);
+        appendAscii(", \"vibration\": ");
+        appendFixed2(vibration);
+        appendByte('}');
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private void appendByte(int b) {
+        ensure(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void appendAscii(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer[length++] = (byte) s.charAt(i);
+        }
+    }
+
+    // DateTimeFormatter.ISO_DATE_TIME と同じ: 秒は常に出力, 小数部は末尾の 0 を省略
+    private void appendIsoLocalDateTime(LocalDateTime t) {
+        ensure(29);
+        appendDigits(t.getYear(), 4);
+        buffer[length++] = '-';
+        appendDigits(t.getMonthValue(), 2);
+        buffer[length++] = '-';
+        appendDigits(t.getDayOfMonth(), 2);
+        buffer[length++] = 'T';
+        appendDigits(t.getHour(), 2);
+        buffer[length++] = ':';
+        appendDigits(t.getMinute(), 2);
+        buffer[length++] = ':';
+        appendDigits(t.getSecond(), 2);
+        int nano = t.getNano();
+        if (nano != 0) {
+            int digits = 9;
+            while (nano % 10 == 0) {
+                nano /= 10;
+                digits--;
+            }
+            buffer[length++] = '.';
+            appendDigits(nano, digits);
+        }
+    }
+
+    private void appendDigits(int value, int width) {
+        for (int i = length + width - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += width;
+    }
+
+    /*
+     * String.format("%.2f") と同じ文字列 (SensorReadingCodec.Writer と同じ): 最短の 10進表現を HALF_UP で丸め, 負なら '-'.
+     * 端数が .5 に近い値 (1.005 など binary で丸めがずれる) と大きな値だけ BigDecimal. NaN / Infinity は例外.
+     */
+    private void appendFixed2(double value) {
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("Sensor value is not finite: " + value);
+        }
+        if (Double.doubleToRawLongBits(value) < 0) {
+            appendByte('-');
+        }
+        double abs = Math.abs(value);
+        double scaled = abs * 100;
+        if (abs >= fixed2FastLimit || Math.abs(scaled - Math.floor(scaled) - 0.5) <= fixed2HalfMargin) {
+            appendAscii(BigDecimal.valueOf(abs).setScale(2, RoundingMode.HALF_UP).toPlainString());
+            return;
+        }
+        long rounded = Math.round(scaled);
+        long integer = rounded / 100;
+        int digits = 1;
+        for (long v = integer; v >= 10; v /= 10) {
+            digits++;
+        }
+        ensure(digits + 3);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + integer % 10);
+            integer /= 10;
+        }
+        length += digits;
+        buffer[length++] = '.';
+        appendDigits((int) (rounded % 100), 2);
+    }
+
+    /**
+     * batch envelope {"batch": [{reading}, ...]} を組み立てる writer. thread-safe ではない.
+     */
+    public static class BatchWriter {
+        private static final String header = "{\"batch\": [";
+
+        private final SensorPayloadWriter writer = new SensorPayloadWriter();
+        private int count;
+
+        public BatchWriter() {
+            reset();
+        }
+
+        public void add(String deviceId, LocalDateTime timestamp, double temperature, double humidity, double vibration) {
+            if (count > 0) {
+                writer.appendAscii(", ");
+            }
+            writer.appendReading(deviceId, timestamp, temperature, humidity, vibration);
+            count++;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        // finish() した時の大きさ (閉じ括弧込み)
+        public int sizeInBytes() {
+            return writer.length + 2;
+        }
+
+        public byte[] finish() {
+            writer.appendAscii("]}");
+            byte[] payload = Arrays.copyOf(writer.buffer, writer.length);
+            reset();
+            return payload;
+        }
+
+        private void reset() {
+            writer.length = 0;
+            writer.appendAscii(header);
+            count = 0;
+        }
+    }
+}
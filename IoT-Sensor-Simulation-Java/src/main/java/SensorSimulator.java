@@ -2,13 +2,16 @@ import java.io.FileInputStream;
 import java.security.KeyStore;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
-import com.amazonaws.services.iot.client.AWSIotMessage;
-import com.amazonaws.services.iot.client.AWSIotMqttClient;
-import com.amazonaws.services.iot.client.AWSIotQos;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
@@ -21,37 +24,175 @@ public class SensorSimulator {
     private static final String clientId = "MySensor";
     private static final String certificateFile = "C:/Users/user/Desktop/iot-project/IoT-Sensor-Simulation-Java/src/main/resources/270fa4d7d83505d2cb7822d7bc394fdd6118e2d79d14830b5724dbdeef0b8a56-certificate.pem.crt";
     private static final String privateKeyFile = "C:/Users/user/Desktop/iot-project/IoT-Sensor-Simulation-Java/src/main/resources/270fa4d7d83505d2cb7822d7bc394fdd6118e2d79d14830b5724dbdeef0b8a56-private.pem.key";
+    private static final long sampleIntervalMillis = 5000;  // 1台モードの sample 周期
 
     public static void main(String[] args) throws Exception {
+        // 接続先: --endpoint / --cert / --key / --client-id (省略時は従来の値)
+        Map<String, String> options = parseOptions(args);
+
         Security.addProvider(new BouncyCastleProvider()); // security provider 追加。 PEM key 処理
 
-        KeyStore keyStore = loadKeyStore(certificateFile, privateKeyFile);//keystore load. certificate 処理
+        KeyStore keyStore = loadKeyStore(options.getOrDefault("cert", certificateFile),
+                options.getOrDefault("key", privateKeyFile));//keystore load. certificate 処理
 
         // [수정 포인트] 마지막 인자에 "password" 입력 (loadKeyStore에서 설정한 비번과 일치해야 함)
-        AWSIotMqttClient client = new AWSIotMqttClient(clientEndpoint, clientId, keyStore, "password");
-
-        client.connect(); // AWS 연결
+        // 接続 pool: --connections=N (client id は client-id-0..N-1, KeyStore は共有) --max-in-flight=256 --max-block-ms=1000
+        MqttConnectionPool pool = new MqttConnectionPool(options.getOrDefault("endpoint", clientEndpoint),
+                options.getOrDefault("client-id", clientId), keyStore, "password",
+                Integer.parseInt(options.getOrDefault("connections", "1")),
+                Integer.parseInt(options.getOrDefault("max-in-flight", "256")),
+                Long.parseLong(options.getOrDefault("max-block-ms", "1000")));
+
+        pool.connect(); // AWS 연결
         String topic = "factory/sensor/data"; // 데이터 보낼 토픽
 
         System.out.println("AWS IoT Connected!");
 
-        Random random = new Random();
-        while (true) {
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
-            double temperature = 20 + random.nextDouble() * 60; // 温度 20 ~ 80 度C
-            double humidity = 30 + random.nextDouble() * 60; // 湿気 30 ~ 90 %
-            double vibration = 0.1 + random.nextDouble() * 4.9; // 振動 0.1 ~ 5.0 mm/s^2
+        // fleet mode: --devices=10000 --rate=2000 [--jitter=0.1 --workers=64 --duration=0 --report=5]
+        // payload format: --format=json (default) | binary
+        // batching (opt-in): --batch=50 [--batch-bytes=65536 --linger-ms=20] 複数 reading を 1 message (envelope) にまとめる
+        boolean binary = "binary".equalsIgnoreCase(options.getOrDefault("format", "json"));
+        int batchSize = Integer.parseInt(options.getOrDefault("batch", "0"));
+        int batchBytes = Integer.parseInt(options.getOrDefault("batch-bytes", "65536"));
+        long lingerMillis = Long.parseLong(options.getOrDefault("linger-ms", "20"));
+        // edge 側 deadband (opt-in): --deadband [--deadband-config=classes.properties --device-class=default]
+        // 値の生成: --signal=random (default, 毎回一様乱数) | steady (定常運転 + まれに異常 event)
+        List<DeadbandFilter.DeviceClass> deviceClasses = null;
+        if (Boolean.parseBoolean(options.getOrDefault("deadband", "false"))) {
+            deviceClasses = DeadbandFilter.loadClasses(options.get("deadband-config"));
+        }
+        boolean steadySignal = "steady".equalsIgnoreCase(options.getOrDefault("signal", "random"));
+        if (options.containsKey("devices")) {
+            FleetSimulator fleet = new FleetSimulator(pool, topic,
+                    Integer.parseInt(options.get("devices")),
+                    Double.parseDouble(options.getOrDefault("rate", "1000")),
+                    Double.parseDouble(options.getOrDefault("jitter", "0.1")),
+                    Integer.parseInt(options.getOrDefault("workers", "64")),
+                    binary, batchSize, batchBytes, lingerMillis, deviceClasses, steadySignal);
+            fleet.run(Long.parseLong(options.getOrDefault("duration", "0")),
+                    Long.parseLong(options.getOrDefault("report", "5")));
+            pool.disconnect();
+            return;
+        }
+
+        // 1台モード: 5秒周期なので linger は件数が溜まるまでの上限として使う (例: --batch=12 --linger-ms=60000)
+        ScheduledExecutorService lingerScheduler = null;
+        BatchingPublisher batcher = null;
+        if (batchSize > 1) {
+            lingerScheduler = Executors.newSingleThreadScheduledExecutor();
+            // batcher は 1つだけなので scheduler thread で publish しても他を待たせない
+            batcher = new BatchingPublisher(pool.shard(topic), topic, binary, batchSize, batchBytes, lingerMillis,
+                    lingerScheduler, lingerScheduler);
+        }
 
-            String data = String.format("{\"timestamp\": \"%s\", \"temperature\": %.2f, \"humidity\": %.2f, \"vibration\": %.2f}",
-                    timestamp, temperature, humidity, vibration);
+        // deadband 時は adaptive sampling: 変化を publish したら --min-interval-ms まで周期を縮め、送らない sample ごとに 2倍 (最大 5秒)
+        DeadbandFilter filter = null;
+        if (deviceClasses != null) {
+            filter = new DeadbandFilter(findClass(deviceClasses, options.get("device-class")));
+            System.out.println("Deadband: " + filter.deviceClass());
+        }
+        long minIntervalMillis = Long.parseLong(options.getOrDefault("min-interval-ms", "1000"));
+        long intervalMillis = sampleIntervalMillis;
+        long samples = 0;
+        long messages = 0;
 
-            System.out.println("Generated Data: " + data);
+        Random random = new Random();
+        SteadySignal signal = steadySignal ? new SteadySignal(random) : null;
+        SensorPayloadWriter writer = new SensorPayloadWriter();  // buffer 再利用
+        BinaryPayloadWriter binaryWriter = new BinaryPayloadWriter();
+        while (true) {
+            double temperature;
+            double humidity;
+            double vibration;
+            if (signal != null) {
+                signal.next(random);
+                temperature = signal.temperature();
+                humidity = signal.humidity();
+                vibration = signal.vibration();
+            } else {
+                temperature = 20 + random.nextDouble() * 60; // 温度 20 ~ 80 度C
+                humidity = 30 + random.nextDouble() * 60; // 湿気 30 ~ 90 %
+                vibration = 0.1 + random.nextDouble() * 4.9; // 振動 0.1 ~ 5.0 mm/s^2
+            }
+
+            if (filter != null) {
+                samples++;
+                int decision = filter.offer(System.currentTimeMillis(), temperature, humidity, vibration);
+                DeadbandFilter.Held held = decision == DeadbandFilter.suppress ? null : filter.takeHeld();
+                if (held != null) {
+                    // heartbeat は envelope に入れない単発 message (subscriber は送らなかった sample を平均 ± 標準偏差で復元する).
+                    // batching 時は溜まっている reading を先に送るように batcher から
+                    byte[] heartbeat = binary
+                            ? binaryWriter.writeHeartbeat(null, held.lastMillis, held.count, held.mean[0], held.mean[1], held.mean[2], held.sd[0], held.sd[1], held.sd[2])
+                            : writer.writeHeartbeat(null, LocalDateTime.ofInstant(Instant.ofEpochMilli(held.lastMillis), ZoneId.systemDefault()), held.count,
+                                    held.mean[0], held.mean[1], held.mean[2], held.sd[0], held.sd[1], held.sd[2]);
+                    if (batcher != null) {
+                        batcher.addMessage(heartbeat);
+                    } else {
+                        pool.shard(topic).publish(topic, heartbeat);
+                    }
+                    messages++;
+                }
+                if (decision != DeadbandFilter.publish) {
+                    intervalMillis = Math.min(intervalMillis * 2, sampleIntervalMillis);
+                    System.out.printf("Deadband: %s (samples=%d, messages=%d, next sample in %dms)%n",
+                            held != null ? "heartbeat for " + held.count + " samples" : "suppressed", samples, messages, intervalMillis);
+                    Thread.sleep(intervalMillis);
+                    continue;
+                }
+                messages++;
+                intervalMillis = Math.max(minIntervalMillis, intervalMillis / 2);
+            }
+
+            if (batcher != null) {
+                batcher.add(null, System.currentTimeMillis(), temperature, humidity, vibration);
+                System.out.println("Generated Data: batched (" + batcher.getPublishCount() + " envelopes published)");
+                Thread.sleep(intervalMillis);
+                continue;
+            }
+
+            byte[] data;
+            if (binary) {
+                data = binaryWriter.write(null, System.currentTimeMillis(), temperature, humidity, vibration);
+                System.out.println("Generated Data: binary (" + data.length + " bytes)");
+            } else {
+                data = writer.write(null, LocalDateTime.now(), temperature, humidity, vibration);
+                System.out.println("Generated Data: " + SensorPayloadWriter.toString(data));
+            }
+
+            pool.shard(topic).publish(topic, data);//msg 転送 (非同期)
+
+            Thread.sleep(intervalMillis);// 5s (deadband 時は adaptive)
+        }
+    }
 
-            AWSIotMessage msg = new AWSIotMessage(topic, AWSIotQos.QOS1, data);//msg create
-            client.publish(msg);//msg 転送
+    // --device-class (省略時は最初の class)
+    private static DeadbandFilter.DeviceClass findClass(List<DeadbandFilter.DeviceClass> classes, String name) {
+        if (name == null) {
+            return classes.get(0);
+        }
+        for (DeadbandFilter.DeviceClass c : classes) {
+            if (c.name().equals(name)) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException("Unknown device class: " + name);
+    }
 
-            Thread.sleep(5000);// 5s
+    // "--key=value" 形式の引数 -> map
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq > 2) {
+                    options.put(arg.substring(2, eq), arg.substring(eq + 1));
+                } else {
+                    options.put(arg.substring(2), "true");
+                }
+            }
         }
+        return options;
     }
 
     private static KeyStore loadKeyStore(String certPath, String keyPath) throws Exception {
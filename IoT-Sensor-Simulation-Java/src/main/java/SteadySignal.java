@@ -0,0 +1,59 @@
+import java.util.Random;
+
+/**
+ * 定常運転の工場設備らしい値 (--signal=steady): デバイスごとの設定値の周りを小さく揺れ (平均回帰する random walk)、
+ * まれに温度・振動が数 sample だけ大きく上がる (異常 event). deadband がどれだけ効くかを見るためのもの.
+ * デフォルト (--signal=random) は従来どおり毎回一様乱数. thread-safe ではない (デバイスごとに 1つ).
+ */
+public class SteadySignal {
+    private static final double reversion = 0.1;  // 1 sample で設定値に戻る割合
+    private static final double eventProbability = 0.002;  // sample ごとの異常 event 開始確率
+    private static final int eventSamples = 10;
+
+    private final double temperatureSetpoint;
+    private final double humiditySetpoint;
+    private final double vibrationSetpoint;
+    private double temperature;
+    private double humidity;
+    private double vibration;
+    private int eventRemaining;
+
+    public SteadySignal(Random random) {
+        this.temperatureSetpoint = 35 + random.nextDouble() * 20;  // 35 ~ 55 度C
+        this.humiditySetpoint = 40 + random.nextDouble() * 20;  // 40 ~ 60 %
+        this.vibrationSetpoint = 0.8 + random.nextDouble() * 1.2;  // 0.8 ~ 2.0 mm/s^2
+        this.temperature = temperatureSetpoint;
+        this.humidity = humiditySetpoint;
+        this.vibration = vibrationSetpoint;
+    }
+
+    // 次の sample. 結果は temperature() / humidity() / vibration()
+    public void next(Random random) {
+        if (eventRemaining == 0 && random.nextDouble() < eventProbability) {
+            eventRemaining = eventSamples;
+        }
+        double temperatureTarget = temperatureSetpoint;
+        double vibrationTarget = vibrationSetpoint;
+        if (eventRemaining > 0) {
+            eventRemaining--;
+            temperatureTarget += 25;  // alarm (組み込み class は 70度C) を超える
+            vibrationTarget += 3.0;
+        }
+        double pull = eventRemaining > 0 ? 0.5 : reversion;
+        temperature += pull * (temperatureTarget - temperature) + random.nextGaussian() * 0.05;
+        humidity += reversion * (humiditySetpoint - humidity) + random.nextGaussian() * 0.2;
+        vibration = Math.max(0.1, vibration + pull * (vibrationTarget - vibration) + random.nextGaussian() * 0.02);
+    }
+
+    public double temperature() {
+        return temperature;
+    }
+
+    public double humidity() {
+        return humidity;
+    }
+
+    public double vibration() {
+        return vibration;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.iotspringboot;
+
+/**
+ * 統計 + トレンド + Digital Twin の異常判定.
+ * デバイスごとの window は StreamingWindowStats で incremental に更新されるので、
+ * 1 sample あたり O(1)・allocation なし (DescriptiveStatistics / Weka を毎回作らない).
+ */
+public class AnomalyEngine {
+    static final double tempSigmaFactor = 2.0;  // 温度: mean + 2σ
+    static final double vibDiffThreshold = 2.0;  // 振動: 予測との差のしきい値
+    static final double wearThreshold = 50.0;
+    static final double efficiencyThreshold = 80.0;
+
+    private final SensorWindowRegistry windows;
+
+    public AnomalyEngine(int windowSize) {
+        this.windows = new SensorWindowRegistry(windowSize);
+    }
+
+    public SensorWindowRegistry windows() {
+        return windows;
+    }
+
+    /**
+     * 過去の window と比較して判定した後、現在値を window に追加する.
+     * @param deviceId デバイス ID
+     * @param temp 温度
+     * @param hum 湿度
+     * @param vib 振動
+     * @param twinWear ツイン摩耗度
+     * @param twinEfficiency ツインエネルギー効率
+     * @param result 判定結果 (呼び出し側で再利用する)
+     */
+    public void evaluate(String deviceId, double temp, double hum, double vib,
+                         double twinWear, double twinEfficiency, AnomalyResult result) {
+        SensorWindowRegistry.DeviceWindows deviceWindows = windows.forDevice(deviceId);
+        synchronized (deviceWindows) {
+            score(deviceWindows.temperatureStats(), deviceWindows.vibrationStats(), temp, vib, twinWear, twinEfficiency, result);
+            deviceWindows.add(temp, hum, vib);
+        }
+    }
+
+    /**
+     * batch 判定用: デバイスの window の現在の統計と reading を batch の lane に追加する (window はまだ更新しない).
+     * batch を判定した後に windows().forDevice(deviceId).add(...) で window に追加する.
+     * @return lane 番号
+     */
+    public int gather(String deviceId, double temp, double vib, double twinWear, double twinEfficiency,
+                      BatchAnomalyScorer.Batch batch) {
+        SensorWindowRegistry.DeviceWindows deviceWindows = windows.forDevice(deviceId);
+        synchronized (deviceWindows) {
+            return batch.add(deviceWindows.temperatureStats(), deviceWindows.vibrationStats(), temp, vib, twinWear, twinEfficiency);
+        }
+    }
+
+    static void score(StreamingWindowStats tempStats, StreamingWindowStats vibStats, double temp, double vib,
+                      double twinWear, double twinEfficiency, AnomalyResult result) {
+        result.reset();
+        result.sampleCount = Math.min(tempStats.size(), vibStats.size());
+        if (result.sampleCount < 2) {
+            return;  // データ 足りない場合 -> Skip
+        }
+        result.evaluated = true;
+
+        // 統計的 異常を感知
+        result.tempThreshold = tempStats.mean() + tempSigmaFactor * tempStats.standardDeviation();
+        result.tempAnomaly = temp > result.tempThreshold;
+
+        // 線形回帰予測 (振動傾向予測)
+        result.predictedVib = vibStats.predictNext();
+        result.vibDiff = Math.abs(vib - result.predictedVib);
+        result.vibAnomaly = result.vibDiff > vibDiffThreshold;
+
+        // Digital Twinと統合: ツイン摩耗度 ＋ 予測 比較
+        result.twinWear = twinWear;
+        result.twinEfficiency = twinEfficiency;
+        result.integratedAlert = twinWear > wearThreshold || twinEfficiency < efficiencyThreshold || result.vibAnomaly;
+    }
+
+    /**
+     * 判定結果. hot path で allocation しないように呼び出し側で使い回す.
+     */
+    public static class AnomalyResult {
+        boolean evaluated;
+        int sampleCount;
+        double tempThreshold;
+        boolean tempAnomaly;
+        double predictedVib;
+        double vibDiff;
+        boolean vibAnomaly;
+        double twinWear;
+        double twinEfficiency;
+        boolean integratedAlert;
+
+        void reset() {
+            evaluated = false;
+            sampleCount = 0;
+            tempThreshold = 0.0;
+            tempAnomaly = false;
+            predictedVib = 0.0;
+            vibDiff = 0.0;
+            vibAnomaly = false;
+            twinWear = 0.0;
+            twinEfficiency = 0.0;
+            integratedAlert = false;
+        }
+
+        public boolean isEvaluated() {
+            return evaluated;
+        }
+
+        public boolean isTempAnomaly() {
+            return tempAnomaly;
+        }
+
+        public boolean isVibAnomaly() {
+            return vibAnomaly;
+        }
+
+        public boolean isIntegratedAlert() {
+            return integratedAlert;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.iotspringboot;
+
+import com.amazonaws.services.iot.client.AWSIotConnectionStatus;
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotMqttClient;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.amazonaws.services.iot.client.AWSIotTopic;
+
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AWS IoT Core (AWSIotMqttClient) による transport. QoS1.
+ * 切断時の再接続 (backoff) と offline queue は SDK が client ごとの thread で行う.
+ */
+public class AwsIotTransport implements SensorTransport {
+
+    private static final long publishTimeoutMillis = 10_000;  // publishAsync: この時間 PUBACK がなければ失敗扱い
+
+    private final AWSIotMqttClient client;
+    private final LongAdder connects = new LongAdder();
+
+    public AwsIotTransport(String endpoint, String clientId, KeyStore keyStore, String keyPassword) {
+        this.client = new AWSIotMqttClient(endpoint, clientId, keyStore, keyPassword) {
+            @Override
+            public void onConnectionSuccess() {
+                connects.increment();
+                super.onConnectionSuccess();
+            }
+        };
+    }
+
+    @Override
+    public void connect() throws Exception {
+        client.connect();
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload) throws Exception {
+        client.publish(new AWSIotMessage(topic, AWSIotQos.QOS1, payload));
+    }
+
+    @Override
+    public void publishAsync(String topic, byte[] payload, PublishCallback callback) {
+        AsyncMessage message = new AsyncMessage(topic, payload, callback);
+        try {
+            client.publish(message, publishTimeoutMillis);  // non-blocking, 結果は onSuccess / onFailure / onTimeout
+        } catch (AWSIotException e) {
+            message.complete(false);  // offline queue が満杯など
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return client.getConnectionStatus() == AWSIotConnectionStatus.CONNECTED;
+    }
+
+    @Override
+    public boolean isReconnecting() {
+        return client.getConnectionStatus() == AWSIotConnectionStatus.RECONNECTING;
+    }
+
+    @Override
+    public long getReconnectCount() {
+        return Math.max(0, connects.sum() - 1);
+    }
+
+    @Override
+    public void subscribe(String topicFilter, MessageHandler handler) throws Exception {
+        client.subscribe(new AWSIotTopic(topicFilter, AWSIotQos.QOS1) {
+            @Override
+            public void onMessage(AWSIotMessage message) {
+                handler.onMessage(message.getTopic(), message.getPayload());
+            }
+        });
+    }
+
+    @Override
+    public void disconnect() {
+        try {
+            client.disconnect();
+        } catch (Exception e) {
+            // 終了時なので無視
+        }
+    }
+
+    // SDK の callback を PublishCallback に 1回だけ渡す
+    private static final class AsyncMessage extends AWSIotMessage {
+        private final PublishCallback callback;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        AsyncMessage(String topic, byte[] payload, PublishCallback callback) {
+            super(topic, AWSIotQos.QOS1, payload);
+            this.callback = callback;
+        }
+
+        @Override
+        public void onSuccess() {
+            complete(true);
+        }
+
+        @Override
+        public void onFailure() {
+            complete(false);
+        }
+
+        @Override
+        public void onTimeout() {
+            complete(false);
+        }
+
+        void complete(boolean success) {
+            if (done.compareAndSet(false, true)) {
+                callback.onComplete(success);
+            }
+        }
+    }
+}
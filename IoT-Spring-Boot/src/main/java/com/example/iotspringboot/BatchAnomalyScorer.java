@@ -0,0 +1,265 @@
+package com.example.iotspringboot;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 複数デバイスの reading をまとめて異常判定する batch scorer (structure-of-arrays).
+ * window の統計 (mean / m2 / 回帰の累積値) と現在値を lane ごとの primitive 配列に集めてから、
+ * 温度しきい値 (mean + 2σ)・振動の trend 残差 (Weka M5 と同じく傾きを捨てる判定込み)・twin の摩耗度 / 効率を 1 loop で判定する.
+ * 式と演算順は AnomalyEngine.score と同じなので per-message と同じ結果 (alert) になる.
+ * kernel は差し替え可能 (IoT-Benchmarks に JDK Vector API 版). ForkJoinPool を渡すと forkThreshold を超える batch を分割する
+ * (IoT-Benchmarks の AnomalyScoring 用. app の IoTSubscriber は analytics worker の thread で pool なしで判定する).
+ */
+public class BatchAnomalyScorer {
+
+    // Batch.flags の bit
+    static final byte flagEvaluated = 1;
+    static final byte flagTempAnomaly = 2;
+    static final byte flagVibAnomaly = 4;
+    static final byte flagIntegratedAlert = 8;
+
+    private static final int forkThreshold = 4096;  // fork-join task 1つあたりの lane 数
+
+    /**
+     * lane [from, to) を判定して Batch の出力配列を埋める. lane ごとに独立 (別 thread から別範囲を呼んでよい).
+     */
+    public interface Kernel {
+        void score(Batch batch, int from, int to);
+    }
+
+    public static final Kernel scalarKernel = BatchAnomalyScorer::scoreScalar;
+
+    private final Kernel kernel;
+    private final ForkJoinPool pool;  // null なら呼び出し thread だけで判定
+
+    public BatchAnomalyScorer() {
+        this(scalarKernel, null);
+    }
+
+    /**
+     * @param kernel 判定 loop (scalarKernel か Vector API 版)
+     * @param pool forkThreshold を超える batch を分割する pool (null = 分割しない)
+     */
+    public BatchAnomalyScorer(Kernel kernel, ForkJoinPool pool) {
+        this.kernel = kernel;
+        this.pool = pool;
+    }
+
+    public void score(Batch batch) {
+        if (pool == null || batch.size <= forkThreshold) {
+            kernel.score(batch, 0, batch.size);
+        } else {
+            pool.invoke(new ScoreTask(batch, 0, batch.size));
+        }
+    }
+
+    // AnomalyEngine.score / StreamingWindowStats と同じ式 (同じ順番) を primitive 配列で
+    static void scoreScalar(Batch b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b.sampleCount[i] < 2) {
+                b.tempThreshold[i] = 0.0;
+                b.predictedVib[i] = 0.0;
+                b.vibDiff[i] = 0.0;
+                b.flags[i] = 0;
+                continue;  // データ 足りない場合 -> Skip
+            }
+            double tempSd = Math.sqrt(Math.max(0.0, b.tempM2[i]) / (b.tempCount[i] - 1));
+            double threshold = b.tempMean[i] + AnomalyEngine.tempSigmaFactor * tempSd;
+
+            double n = b.vibCount[i];
+            double sumX = n * (n - 1) / 2;
+            double sumXX = (n - 1) * n * (2 * n - 1) / 6;
+            double sxy = n * b.vibSumXY[i] - sumX * b.vibSumY[i];
+            double slope = sxy / (n * sumXX - sumX * sumX);
+            double intercept = (b.vibSumY[i] - slope * (n * (n - 1) / 2)) / n;
+            double sse = b.vibM2[i] - slope * sxy / n;
+            // StreamingWindowStats.usesSlope (Weka M5) が false なら平均
+            double predicted = n == 2 || (n - 2) * b.vibM2[i] < n * sse ? b.vibMean[i] : intercept + slope * n;
+            double diff = Math.abs(b.vibration[i] - predicted);
+
+            boolean vibAnomaly = diff > AnomalyEngine.vibDiffThreshold;
+            int flags = flagEvaluated;
+            if (b.temperature[i] > threshold) {
+                flags |= flagTempAnomaly;
+            }
+            if (vibAnomaly) {
+                flags |= flagVibAnomaly;
+            }
+            if (b.twinWear[i] > AnomalyEngine.wearThreshold || b.twinEfficiency[i] < AnomalyEngine.efficiencyThreshold || vibAnomaly) {
+                flags |= flagIntegratedAlert;
+            }
+            b.tempThreshold[i] = threshold;
+            b.predictedVib[i] = predicted;
+            b.vibDiff[i] = diff;
+            b.flags[i] = (byte) flags;
+        }
+    }
+
+    @SuppressWarnings("serial")  // serialize しない
+    private final class ScoreTask extends RecursiveAction {
+        private final Batch batch;
+        private final int from;
+        private final int to;
+
+        ScoreTask(Batch batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= forkThreshold) {
+                kernel.score(batch, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ScoreTask(batch, from, mid), new ScoreTask(batch, mid, to));
+        }
+    }
+
+    /**
+     * 判定する reading の集まり (lane = reading 1件). 入力・出力とも field ごとの配列.
+     * 同じデバイスの reading を 1つの batch に 2件入れない (2件目は 1件目を window に足してから判定するため).
+     * thread-safe ではない (作った thread で使い回す).
+     */
+    public static class Batch {
+        // 入力: window の統計 (判定前) と現在値
+        int[] sampleCount;
+        double[] tempMean;
+        double[] tempM2;
+        double[] tempCount;
+        double[] vibMean;
+        double[] vibM2;
+        double[] vibSumY;
+        double[] vibSumXY;
+        double[] vibCount;
+        double[] temperature;
+        double[] vibration;
+        double[] twinWear;
+        double[] twinEfficiency;
+        // 出力
+        double[] tempThreshold;
+        double[] predictedVib;
+        double[] vibDiff;
+        byte[] flags;
+        int size;
+
+        public Batch(int capacity) {
+            allocate(Math.max(1, capacity));
+        }
+
+        /**
+         * window の現在の統計と reading を lane に追加する (呼び出し側で window を synchronized しておく).
+         * @return lane 番号
+         */
+        int add(StreamingWindowStats tempStats, StreamingWindowStats vibStats, double temp, double vib,
+                double wear, double efficiency) {
+            if (size == temperature.length) {
+                grow();
+            }
+            int i = size++;
+            sampleCount[i] = Math.min(tempStats.size(), vibStats.size());
+            tempMean[i] = tempStats.mean();
+            tempM2[i] = tempStats.m2();
+            tempCount[i] = tempStats.size();
+            vibMean[i] = vibStats.mean();
+            vibM2[i] = vibStats.m2();
+            vibSumY[i] = vibStats.sumY();
+            vibSumXY[i] = vibStats.sumXY();
+            vibCount[i] = vibStats.size();
+            temperature[i] = temp;
+            vibration[i] = vib;
+            twinWear[i] = wear;
+            twinEfficiency[i] = efficiency;
+            return i;
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEvaluated(int lane) {
+            return (flags[lane] & flagEvaluated) != 0;
+        }
+
+        public boolean isTempAnomaly(int lane) {
+            return (flags[lane] & flagTempAnomaly) != 0;
+        }
+
+        public boolean isVibAnomaly(int lane) {
+            return (flags[lane] & flagVibAnomaly) != 0;
+        }
+
+        public boolean isIntegratedAlert(int lane) {
+            return (flags[lane] & flagIntegratedAlert) != 0;
+        }
+
+        /**
+         * lane の判定結果を per-message と同じ AnomalyResult に写す (listener / log 用).
+         */
+        public void copyTo(int lane, AnomalyEngine.AnomalyResult result) {
+            result.reset();
+            result.sampleCount = sampleCount[lane];
+            if (!isEvaluated(lane)) {
+                return;
+            }
+            result.evaluated = true;
+            result.tempThreshold = tempThreshold[lane];
+            result.tempAnomaly = isTempAnomaly(lane);
+            result.predictedVib = predictedVib[lane];
+            result.vibDiff = vibDiff[lane];
+            result.vibAnomaly = isVibAnomaly(lane);
+            result.twinWear = twinWear[lane];
+            result.twinEfficiency = twinEfficiency[lane];
+            result.integratedAlert = isIntegratedAlert(lane);
+        }
+
+        private void allocate(int capacity) {
+            sampleCount = new int[capacity];
+            tempMean = new double[capacity];
+            tempM2 = new double[capacity];
+            tempCount = new double[capacity];
+            vibMean = new double[capacity];
+            vibM2 = new double[capacity];
+            vibSumY = new double[capacity];
+            vibSumXY = new double[capacity];
+            vibCount = new double[capacity];
+            temperature = new double[capacity];
+            vibration = new double[capacity];
+            twinWear = new double[capacity];
+            twinEfficiency = new double[capacity];
+            tempThreshold = new double[capacity];
+            predictedVib = new double[capacity];
+            vibDiff = new double[capacity];
+            flags = new byte[capacity];
+        }
+
+        private void grow() {
+            int capacity = temperature.length * 2;
+            sampleCount = Arrays.copyOf(sampleCount, capacity);
+            tempMean = Arrays.copyOf(tempMean, capacity);
+            tempM2 = Arrays.copyOf(tempM2, capacity);
+            tempCount = Arrays.copyOf(tempCount, capacity);
+            vibMean = Arrays.copyOf(vibMean, capacity);
+            vibM2 = Arrays.copyOf(vibM2, capacity);
+            vibSumY = Arrays.copyOf(vibSumY, capacity);
+            vibSumXY = Arrays.copyOf(vibSumXY, capacity);
+            vibCount = Arrays.copyOf(vibCount, capacity);
+            temperature = Arrays.copyOf(temperature, capacity);
+            vibration = Arrays.copyOf(vibration, capacity);
+            twinWear = Arrays.copyOf(twinWear, capacity);
+            twinEfficiency = Arrays.copyOf(twinEfficiency, capacity);
+            tempThreshold = Arrays.copyOf(tempThreshold, capacity);
+            predictedVib = Arrays.copyOf(predictedVib, capacity);
+            vibDiff = Arrays.copyOf(vibDiff, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.iotspringboot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * publisher 側 batching (opt-in): 複数の reading を 1つの envelope message にまとめて publish する.
+ * maxReadings 件 / maxBytes / 最初の reading から lingerMillis 経過 のどれかで flush.
+ * QoS1 は message ごとに PUBACK を待つので, broker call と往復が reading 数の 1/N になる.
+ * 入れた順に publish する (flush は順番に 1つずつ). デバイスごとの順序を保つには同じデバイスを常に同じ instance に入れる
+ * (heartbeat も addMessage で同じ instance に入れる).
+ */
+public class BatchingPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchingPublisher.class);
+    private static final ZoneId zone = ZoneId.systemDefault();
+
+    private final PublisherConnectionPool.Connection connection;
+    private final String topic;
+    private final boolean binary;
+    private final int maxReadings;
+    private final int maxBytes;
+    private final long lingerMillis;
+    private final ScheduledExecutorService lingerScheduler;  // 共有可. linger flush だけに使う
+    private final Executor lingerPublisher;  // linger で閉じた envelope を publish する (scheduler thread は待たせない)
+
+    private final SensorReadingCodec.BatchWriter jsonBatch;
+    private final BinaryReadingCodec.BatchWriter binaryBatch;
+    private final ArrayDeque<Envelope> pending = new ArrayDeque<>();  // 閉じたが未 publish の envelope (monitor で保護)
+    private final ReentrantLock publishLock = new ReentrantLock();  // pending を publish する thread は 1つ
+    private long generation;  // flush ごとに +1 (古い linger timer を無視する)
+
+    private final LongAdder readings = new LongAdder();
+    private final LongAdder publishCalls = new LongAdder();
+    private final LongAdder failedReadings = new LongAdder();
+
+    /**
+     * @param topic envelope を publish する topic (deviceId のない reading はこの topic から解決される)
+     * @param binary true: BinaryReadingCodec の envelope, false: JSON {"batch": [...]}
+     * @param maxReadings 1 envelope の最大件数
+     * @param maxBytes envelope がこの大きさに達したら flush
+     * @param lingerMillis 最初の reading からこの時間で flush (0 = 件数 / bytes だけ)
+     * @param lingerPublisher linger で閉じた envelope を publish する executor (in-flight が満杯ならその thread が待つ)
+     */
+    public BatchingPublisher(PublisherConnectionPool.Connection connection, String topic, boolean binary, int maxReadings,
+                             int maxBytes, long lingerMillis, ScheduledExecutorService lingerScheduler, Executor lingerPublisher) {
+        if (maxReadings <= 0 || maxBytes <= 0 || lingerMillis < 0) {
+            throw new IllegalArgumentException("batch size / bytes must be positive and linger must not be negative");
+        }
+        if (lingerMillis > 0 && (lingerScheduler == null || lingerPublisher == null)) {
+            throw new IllegalArgumentException("linger requires a scheduler and a publish executor");
+        }
+        this.connection = connection;
+        this.topic = topic;
+        this.binary = binary;
+        this.maxReadings = maxReadings;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.lingerScheduler = lingerScheduler;
+        this.lingerPublisher = lingerPublisher;
+        this.jsonBatch = binary ? null : new SensorReadingCodec.BatchWriter();
+        this.binaryBatch = binary ? new BinaryReadingCodec.BatchWriter() : null;
+    }
+
+    /**
+     * reading を envelope に追加. 件数 / bytes の上限に達したらこの thread で publish する (PUBACK 待ち).
+     * 他の thread が閉じた未 publish の envelope もこの thread が順番に publish する.
+     * @throws Exception publish 失敗 (最初の 1つ. 失敗した envelope の reading は failedReadings に数える)
+     */
+    public void add(String deviceId, long epochMillis, double temperature, double humidity, double vibration) throws Exception {
+        boolean full = false;
+        synchronized (this) {
+            if (binary) {
+                binaryBatch.add(deviceId, epochMillis, temperature, humidity, vibration);
+            } else {
+                jsonBatch.add(deviceId, LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), zone), temperature, humidity, vibration);
+            }
+            readings.increment();
+            int size = binary ? binaryBatch.count() : jsonBatch.count();
+            int bytes = binary ? binaryBatch.sizeInBytes() : jsonBatch.sizeInBytes();
+            if (size >= maxReadings || bytes >= maxBytes) {
+                closeLocked(size);
+                full = true;
+            } else if (size == 1 && lingerMillis > 0) {
+                long scheduled = generation;
+                lingerScheduler.schedule(() -> lingerFlush(scheduled), lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            publishPending();
+        }
+    }
+
+    /**
+     * envelope に入れられない message (deadband の heartbeat) を同じ topic / 接続で publish する.
+     * 溜まっている reading を先に閉じるので, 同じデバイスの reading と heartbeat は入れた順に届く.
+     * @throws Exception publish 失敗 (add と同じ)
+     */
+    public void addMessage(byte[] payload) throws Exception {
+        synchronized (this) {
+            int count = binary ? binaryBatch.count() : jsonBatch.count();
+            if (count > 0) {
+                closeLocked(count);
+            }
+            pending.add(new Envelope(payload, 1));
+        }
+        publishPending();
+    }
+
+    /**
+     * 溜まっている reading を今すぐ publish (shutdown 時など).
+     */
+    public void flush() throws Exception {
+        synchronized (this) {
+            int count = binary ? binaryBatch.count() : jsonBatch.count();
+            if (count > 0) {
+                closeLocked(count);
+            }
+        }
+        publishPending();
+    }
+
+    public long getReadingCount() {
+        return readings.sum();
+    }
+
+    public long getPublishCount() {
+        return publishCalls.sum();
+    }
+
+    public long getFailedReadingCount() {
+        return failedReadings.sum();
+    }
+
+    // linger timer: scheduled 後に flush されていなければ (generation が同じなら) 閉じる.
+    // publish は lingerPublisher で (共有の scheduler thread が in-flight 待ちで止まると他の batcher の linger が遅れる)
+    private void lingerFlush(long scheduled) {
+        synchronized (this) {
+            int count = binary ? binaryBatch.count() : jsonBatch.count();
+            if (generation != scheduled || count == 0) {
+                return;
+            }
+            closeLocked(count);
+        }
+        lingerPublisher.execute(() -> {
+            try {
+                publishPending();
+            } catch (Exception e) {
+                logger.error("Batched publish failed: {}", e.getMessage());
+            }
+        });
+    }
+
+    // monitor を持ったまま呼ぶ. envelope は閉じた順に pending に積む
+    private void closeLocked(int count) {
+        generation++;
+        pending.add(new Envelope(binary ? binaryBatch.finish() : jsonBatch.finish(), count));
+    }
+
+    // pending を古い順に全部 publish. publishLock を持つ thread だけが publish するので閉じた順に出る.
+    // monitor は持たないので publish 中も次の envelope を溜められる
+    private void publishPending() throws Exception {
+        Exception failure = null;
+        publishLock.lock();
+        try {
+            while (true) {
+                Envelope next;
+                synchronized (this) {
+                    next = pending.poll();
+                }
+                if (next == null) {
+                    break;
+                }
+                try {
+                    connection.publish(topic, next.payload);
+                    publishCalls.increment();
+                } catch (InterruptedException e) {
+                    failedReadings.add(next.readings);
+                    throw e;
+                } catch (Exception e) {
+                    failedReadings.add(next.readings);
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        } finally {
+            publishLock.unlock();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static final class Envelope {
+        final byte[] payload;
+        final int readings;
+
+        Envelope(byte[] payload, int readings) {
+            this.payload = payload;
+            this.readings = readings;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.example.iotspringboot;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * compact binary payload (opt-in). JSON (~130 bytes) の代わりに ~30 bytes.
+ * <pre>
+ * byte 0    magic 0xB5 (JSON の '{' / 空白とは衝突しない -> 受信側で自動判別)
+ * byte 1    schema version (現在 1)
+ * byte 2    flags (bit 0 = batch envelope, bit 1 = heartbeat, 他は予約)
+ * varint    deviceId の長さ + UTF-8 bytes (長さ 0 = deviceId なし)
+ * varint    timestamp (epoch millis)
+ * zigzag    temperature / humidity / vibration (x100 の整数 = JSON の %.2f と同じ値. NaN / ±Infinity は書けない)
+ * </pre>
+ * batch envelope (flags bit 0): header 3 byte の後に deviceId 〜 vibration の entry が payload の終わりまで並ぶ.
+ * heartbeat (flags bit 1, 単発 message のみ): entry の値は送らなかった sample の平均で,
+ * 後ろに varint held (sample 数) + zigzag x100 の標準偏差 3つが続く.
+ */
+public final class BinaryReadingCodec {
+
+    public static final byte magic = (byte) 0xB5;
+    public static final byte version = 1;
+    public static final byte flagBatch = 0x01;
+    public static final byte flagHeartbeat = 0x02;
+
+    private BinaryReadingCodec() {
+    }
+
+    /**
+     * 先頭 byte で binary payload かどうか判定 (JSON は '{' か空白で始まる).
+     */
+    public static boolean isBinary(byte[] payload) {
+        return payload.length > 1 && payload[0] == magic;
+    }
+
+    /**
+     * binary の batch envelope かどうか (flags bit 0).
+     */
+    public static boolean isBatch(byte[] payload) {
+        return payload.length > 2 && payload[0] == magic && (payload[2] & flagBatch) != 0;
+    }
+
+    /**
+     * @param payload binary payload
+     * @param into 結果を書き込む reading (timestamp 文字列も epoch millis から作る)
+     * @throws IOException magic / version 不一致, 途中で切れている場合, batch envelope の場合
+     */
+    public static void read(byte[] payload, SensorReading into) throws IOException {
+        checkHeader(payload);
+        if (isBatch(payload)) {
+            throw new IOException("Binary payload is a batch envelope");
+        }
+        Cursor cursor = new Cursor(payload, 3);
+        readEntry(cursor, into);
+        if ((payload[2] & flagHeartbeat) != 0) {
+            long held = cursor.readVarLong();
+            if (held <= 0 || held > Integer.MAX_VALUE) {
+                throw new IOException("Invalid held count in binary heartbeat: " + held);
+            }
+            into.heldSamples = (int) held;
+            into.temperatureSd = cursor.readZigZag() / 100.0;
+            into.humiditySd = cursor.readZigZag() / 100.0;
+            into.vibrationSd = cursor.readZigZag() / 100.0;
+        } else {
+            into.heldSamples = 0;
+        }
+    }
+
+    /**
+     * batch envelope の entry を送信順に into に追加する. 途中で切れていれば IOException (envelope 全体を捨てる).
+     */
+    public static void readBatch(byte[] payload, List<SensorReading> into) throws IOException {
+        checkHeader(payload);
+        if (!isBatch(payload) || (payload[2] & flagHeartbeat) != 0) {
+            throw new IOException("Binary payload is not a batch envelope");
+        }
+        Cursor cursor = new Cursor(payload, 3);
+        while (cursor.position < payload.length) {
+            SensorReading reading = new SensorReading();
+            readEntry(cursor, reading);
+            into.add(reading);
+        }
+    }
+
+    private static void checkHeader(byte[] payload) throws IOException {
+        if (payload.length < 3 || payload[0] != magic) {
+            throw new IOException("Not a binary sensor payload");
+        }
+        if (payload[1] != version) {
+            throw new IOException("Unsupported binary payload version: " + payload[1]);
+        }
+    }
+
+    private static void readEntry(Cursor cursor, SensorReading into) throws IOException {
+        byte[] payload = cursor.data;
+        int idLength = (int) cursor.readVarLong();
+        if (idLength < 0 || cursor.position + idLength > payload.length) {
+            throw new IOException("Truncated binary payload (deviceId)");
+        }
+        into.deviceId = idLength == 0 ? null : new String(payload, cursor.position, idLength, StandardCharsets.UTF_8);
+        cursor.position += idLength;
+
+        into.epochMillis = cursor.readVarLong();
+        into.timestamp = SensorTimestamps.formatIsoLocal(into.epochMillis);
+        into.temperature = cursor.readZigZag() / 100.0;
+        into.humidity = cursor.readZigZag() / 100.0;
+        into.vibration = cursor.readZigZag() / 100.0;
+    }
+
+    private static final class Cursor {
+        final byte[] data;
+        int position;
+
+        Cursor(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= data.length) {
+                    throw new IOException("Truncated binary payload");
+                }
+                byte b = data[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint in binary payload");
+        }
+
+        long readZigZag() throws IOException {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+
+    /**
+     * 再利用 buffer に binary payload を書く writer. thread-safe ではない (thread ごとに 1つ).
+     */
+    public static final class Writer {
+        private static final double fixed2FastLimit = 1e6;  // SensorReadingCodec.Writer と同じ
+        private static final double fixed2HalfMargin = 1e-6;
+
+        private byte[] buffer = new byte[64];
+        private int length;
+
+        /**
+         * @param deviceId デバイス ID (null 可)
+         * @param epochMillis 計測時刻
+         * @return payload (publish に渡せるように新しい配列)
+         */
+        public byte[] write(String deviceId, long epochMillis, double temperature, double humidity, double vibration) {
+            length = 0;
+            writeHeader((byte) 0);
+            writeEntry(deviceId, epochMillis, temperature, humidity, vibration);
+            return Arrays.copyOf(buffer, length);
+        }
+
+        /**
+         * deadband の heartbeat: 送らなかった held 件の sample の平均と標準偏差.
+         * @param held 送らなかった sample 数 (1 以上)
+         */
+        public byte[] writeHeartbeat(String deviceId, long epochMillis, int held,
+                                     double temperature, double humidity, double vibration,
+                                     double temperatureSd, double humiditySd, double vibrationSd) {
+            long t = toFixed2(temperatureSd);
+            long h = toFixed2(humiditySd);
+            long v = toFixed2(vibrationSd);
+            length = 0;
+            writeHeader(flagHeartbeat);
+            writeEntry(deviceId, epochMillis, temperature, humidity, vibration);
+            writeVarLong(held);
+            writeZigZag(t);
+            writeZigZag(h);
+            writeZigZag(v);
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void writeHeader(byte flags) {
+            ensure(3);
+            buffer[length++] = magic;
+            buffer[length++] = version;
+            buffer[length++] = flags;
+        }
+
+        private void writeEntry(String deviceId, long epochMillis, double temperature, double humidity, double vibration) {
+            long t = toFixed2(temperature);  // 先に変換: 例外なら batch に途中まで書かない
+            long h = toFixed2(humidity);
+            long v = toFixed2(vibration);
+            if (deviceId == null) {
+                writeVarLong(0);
+            } else {
+                byte[] id = deviceId.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(id.length);
+                ensure(id.length);
+                System.arraycopy(id, 0, buffer, length, id.length);
+                length += id.length;
+            }
+            writeVarLong(epochMillis);
+            writeZigZag(t);
+            writeZigZag(h);
+            writeZigZag(v);
+        }
+
+        // x100 の整数. JSON writer の appendFixed2 (= %.2f, HALF_UP) と同じ丸め. NaN / ±Infinity は表せないので例外
+        private static long toFixed2(double value) {
+            if (!Double.isFinite(value)) {
+                throw new IllegalArgumentException("Sensor value is not finite: " + value);
+            }
+            double abs = Math.abs(value);
+            double scaled = abs * 100;
+            long rounded;
+            if (abs < fixed2FastLimit && Math.abs(scaled - Math.floor(scaled) - 0.5) > fixed2HalfMargin) {
+                rounded = Math.round(scaled);
+            } else {
+                try {
+                    rounded = BigDecimal.valueOf(abs).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+                } catch (ArithmeticException e) {
+                    throw new IllegalArgumentException("Sensor value is out of range: " + value);
+                }
+            }
+            return value < 0 ? -rounded : rounded;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        private void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+    }
+
+    /**
+     * batch envelope を組み立てる writer. thread-safe ではない.
+     * entry ごとに deviceId を持つので複数デバイスを混ぜられる.
+     */
+    public static final class BatchWriter {
+        private final Writer writer = new Writer();
+        private int count;
+
+        public BatchWriter() {
+            reset();
+        }
+
+        public void add(String deviceId, long epochMillis, double temperature, double humidity, double vibration) {
+            writer.writeEntry(deviceId, epochMillis, temperature, humidity, vibration);
+            count++;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public int sizeInBytes() {
+            return writer.length;
+        }
+
+        /**
+         * @return envelope (新しい配列). writer は空に戻る
+         */
+        public byte[] finish() {
+            byte[] payload = Arrays.copyOf(writer.buffer, writer.length);
+            reset();
+            return payload;
+        }
+
+        private void reset() {
+            writer.length = 0;
+            writer.writeHeader(flagBatch);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.iotspringboot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DynamoDB write-behind buffer.
+ * item を bounded queue に積み、flusher thread が 25件 (BatchWriteItem 上限) または linger 時間ごとにまとめて書き込む.
+ * UnprocessedItems / throttling / 5xx / network エラーは exponential backoff で再送, queue が満杯なら呼び出し側を一定時間だけ block (backpressure).
+ */
+public class DynamoDbWriteBehind {
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDbWriteBehind.class);
+
+    private static final int maxBatchSize = 25;  // BatchWriteItem の上限
+    private static final int maxRetries = 8;  // 再送回数 (試行は最大 maxRetries + 1 回)
+    private static final long baseBackoffMillis = 50;
+    private static final long maxBackoffMillis = 5000;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final BlockingQueue<Map<String, AttributeValue>> queue;
+    private final long lingerMillis;
+    private final long maxBlockMillis;
+    private final Thread[] flushers;
+    private volatile boolean running;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();  // BatchWriteItem 1回の時間 (nanos)
+
+    /**
+     * @param dynamoDbClient DynamoDB client
+     * @param tableName 書き込み先 table
+     * @param capacity buffer に保持できる最大 item 数
+     * @param lingerMillis batch が 25件に満たない場合に待つ最大時間
+     * @param maxBlockMillis buffer 満杯時に enqueue が待つ最大時間
+     * @param flusherThreads 並列に BatchWriteItem を投げる thread 数
+     */
+    public DynamoDbWriteBehind(DynamoDbClient dynamoDbClient, String tableName, int capacity,
+                               long lingerMillis, long maxBlockMillis, int flusherThreads) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.lingerMillis = lingerMillis;
+        this.maxBlockMillis = maxBlockMillis;
+        this.flushers = new Thread[flusherThreads];
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < flushers.length; i++) {
+            flushers[i] = new Thread(this::flushLoop, "dynamodb-write-behind-" + i);
+            flushers[i].setDaemon(true);
+            flushers[i].start();
+        }
+        logger.info("DynamoDB write-behind started: table={}, flushers={}, linger={}ms", tableName, flushers.length, lingerMillis);
+    }
+
+    /**
+     * item を buffer に追加. 満杯なら maxBlockMillis まで待ち、それでも空かなければ破棄する.
+     * @param item DynamoDB item
+     * @return buffer に入ったら true
+     */
+    public boolean enqueue(Map<String, AttributeValue> item) {
+        try {
+            if (queue.offer(item, maxBlockMillis, TimeUnit.MILLISECONDS)) {
+                enqueued.increment();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * 新規受付を止め、残っている item を flush してから終了する.
+     */
+    public void shutdown() {
+        running = false;
+        for (Thread flusher : flushers) {
+            if (flusher == null) {
+                continue;
+            }
+            try {
+                flusher.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        logger.info("DynamoDB write-behind stopped: written={}, batches={}, retries={}, dropped={}",
+                written.sum(), batches.sum(), retries.sum(), dropped.sum());
+    }
+
+    private void flushLoop() {
+        List<Map<String, AttributeValue>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Map<String, AttributeValue> first = queue.poll(lingerMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // 最初の item から linger 時間内に 25件まで集める
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    Map<String, AttributeValue> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Unexpected error in write-behind flusher: {}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * BatchWriteItem 実行. UnprocessedItems / throttling / 5xx / network エラーは backoff しながら maxRetries 回まで再送.
+     * 再送し尽くした item は dropped に数える.
+     */
+    private void writeBatch(List<Map<String, AttributeValue>> items) throws InterruptedException {
+        List<WriteRequest> requests = new ArrayList<>(items.size());
+        for (Map<String, AttributeValue> item : items) {
+            requests.add(WriteRequest.builder().putRequest(PutRequest.builder().item(item).build()).build());
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            long startNanos = System.nanoTime();
+            try {
+                BatchWriteItemResponse response = dynamoDbClient.batchWriteItem(BatchWriteItemRequest.builder()
+                        .requestItems(Map.of(tableName, requests))
+                        .build());
+                batchLatency.record(System.nanoTime() - startNanos);
+                batches.increment();
+
+                List<WriteRequest> unprocessed = response.hasUnprocessedItems()
+                        ? response.unprocessedItems().getOrDefault(tableName, List.of())
+                        : List.of();
+                written.add(requests.size() - unprocessed.size());
+                if (unprocessed.isEmpty()) {
+                    return;
+                }
+                throttled.increment();  // UnprocessedItems = 容量不足で一部だけ書けた
+                requests = unprocessed;
+            } catch (ProvisionedThroughputExceededException e) {
+                batchLatency.record(System.nanoTime() - startNanos);
+                throttled.increment();
+                logger.warn("DynamoDB throttled batch of {} items (attempt {})", requests.size(), attempt + 1);
+            } catch (DynamoDbException e) {
+                batchLatency.record(System.nanoTime() - startNanos);
+                if (isThrottling(e)) {
+                    throttled.increment();
+                } else {
+                    errors.increment();
+                }
+                if (!isRetryable(e)) {
+                    // ValidationException 等 (同じ key が batch 内で重複など) -> 1件ずつ putItem に fallback
+                    putIndividually(requests);
+                    return;
+                }
+                logger.warn("BatchWriteItem failed (attempt {}): {}", attempt + 1, e.getMessage());
+            } catch (SdkClientException e) {
+                // network / DNS / timeout (response なし) -> 再送
+                batchLatency.record(System.nanoTime() - startNanos);
+                errors.increment();
+                logger.warn("BatchWriteItem client error (attempt {}): {}", attempt + 1, e.getMessage());
+            }
+
+            if (attempt >= maxRetries) {
+                dropped.add(requests.size());
+                logger.error("Giving up on {} items after {} attempts", requests.size(), attempt + 1);
+                return;
+            }
+            retries.increment();
+            Thread.sleep(backoffMillis(attempt));
+        }
+    }
+
+    private static boolean isRetryable(DynamoDbException e) {
+        return e.statusCode() >= 500 || isThrottling(e);
+    }
+
+    private static boolean isThrottling(DynamoDbException e) {
+        String errorCode = e.awsErrorDetails() != null ? e.awsErrorDetails().errorCode() : null;
+        return "ThrottlingException".equals(errorCode) || "RequestLimitExceeded".equals(errorCode);
+    }
+
+    private void putIndividually(List<WriteRequest> requests) {
+        for (WriteRequest request : requests) {
+            try {
+                dynamoDbClient.putItem(PutItemRequest.builder()
+                        .tableName(tableName)
+                        .item(request.putRequest().item())
+                        .build());
+                written.increment();
+            } catch (DynamoDbException | SdkClientException e) {
+                errors.increment();
+                dropped.increment();
+                logger.error("Failed to save to DynamoDB: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    // equal jitter: [cap/2, cap], cap = min(max, base * 2^attempt)
+    private static long backoffMillis(int attempt) {
+        long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+}
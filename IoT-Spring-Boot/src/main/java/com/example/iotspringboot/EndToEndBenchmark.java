@@ -0,0 +1,279 @@
+package com.example.iotspringboot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * end-to-end benchmark mode (iot.benchmark.enabled=true).
+ * N 台の仮想センサーが transport に publish -> IoTSubscriber.processMessage -> parse -> twin/analytics まで
+ * 実際の処理を通し, msgs/sec と ingest -> analytics 完了の latency (p50/p99) を出力する.
+ * iot.transport=loopback + iot.dynamodb.mode=memory なら AWS なしで動く.
+ */
+@Component
+@ConditionalOnProperty(name = "iot.benchmark.enabled", havingValue = "true")
+public class EndToEndBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(EndToEndBenchmark.class);
+
+    private static final String topicPrefix = "factory/sensor/data";
+    private static final String devicePrefix = "bench-";  // 通常の publisher (MySensor) の reading と区別する
+    private static final long completionTimeoutMillis = 60_000;
+
+    private final IoTSubscriber subscriber;
+    private final TransportFactory transportFactory;
+    private final ApplicationContext context;
+    private final int deviceCount;
+    private final long messageCount;
+    private final long warmUpCount;
+    private final int publisherThreads;
+    private final double targetRate;  // msgs/sec (全 publisher 合計), 0 = 全力
+    private final boolean binaryPayload;
+    private final int batchSize;  // > 1: publisher 側 batching (BatchingPublisher)
+    private final int batchBytes;
+    private final long lingerMillis;
+    private final int connections;  // PublisherConnectionPool の接続数
+    private final int maxInFlight;
+    private final boolean exitWhenDone;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong lastCompletionNanos = new AtomicLong();
+    private final LongAdder brokerCalls = new LongAdder();  // transport.publish の回数
+
+    public EndToEndBenchmark(IoTSubscriber subscriber,
+                             TransportFactory transportFactory,
+                             ApplicationContext context,
+                             @Value("${iot.benchmark.devices:1000}") int deviceCount,
+                             @Value("${iot.benchmark.messages:1000000}") long messageCount,
+                             @Value("${iot.benchmark.warm-up-messages:100000}") long warmUpCount,
+                             @Value("${iot.benchmark.publishers:4}") int publisherThreads,
+                             @Value("${iot.benchmark.rate:0}") double targetRate,
+                             @Value("${iot.benchmark.format:json}") String format,
+                             @Value("${iot.benchmark.batch-size:0}") int batchSize,
+                             @Value("${iot.benchmark.batch-bytes:65536}") int batchBytes,
+                             @Value("${iot.benchmark.linger-millis:5}") long lingerMillis,
+                             @Value("${iot.benchmark.connections:1}") int connections,
+                             @Value("${iot.benchmark.max-in-flight:1024}") int maxInFlight,
+                             @Value("${iot.benchmark.exit:true}") boolean exitWhenDone) {
+        this.subscriber = subscriber;
+        this.transportFactory = transportFactory;
+        this.context = context;
+        this.deviceCount = deviceCount;
+        this.messageCount = messageCount;
+        this.warmUpCount = warmUpCount;
+        this.publisherThreads = publisherThreads;
+        this.targetRate = targetRate;
+        this.binaryPayload = "binary".equalsIgnoreCase(format);
+        this.batchSize = batchSize;
+        this.batchBytes = batchBytes;
+        this.lingerMillis = lingerMillis;
+        this.connections = connections;
+        this.maxInFlight = maxInFlight;
+        this.exitWhenDone = exitWhenDone;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void runBenchmark() throws Exception {
+        if (!transportFactory.isLoopback()) {
+            logger.warn("End-to-end benchmark is publishing to {} (not loopback): broker latency is included",
+                    transportFactory.describeEndpoint());
+        }
+        subscriber.setReadingListener((reading, result) -> {
+            if (!reading.deviceId.startsWith(devicePrefix)) {
+                return;
+            }
+            long now = System.nanoTime();
+            latency.record(now - reading.ingestNanos);
+            completed.incrementAndGet();
+            lastCompletionNanos.set(now);
+        });
+
+        PublisherConnectionPool pool = new PublisherConnectionPool(transportFactory, "MySensorBenchmark", connections, maxInFlight,
+                completionTimeoutMillis);
+        pool.connect();
+        ScheduledExecutorService lingerScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "benchmark-linger");
+            t.setDaemon(true);
+            return t;
+        });
+        ExecutorService lingerPublisher = Executors.newCachedThreadPool(r -> {  // linger で閉じた envelope の publish
+            Thread t = new Thread(r, "benchmark-linger-publish");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            if (warmUpCount > 0) {
+                runRound(pool, lingerScheduler, lingerPublisher, warmUpCount);  // JIT warm-up, 結果は捨てる
+            }
+            pool.describeShards();  // warm-up 分の区間をリセット
+            Round round = runRound(pool, lingerScheduler, lingerPublisher, messageCount);
+            report(round);
+            System.out.print(pool.describeShards());
+        } finally {
+            subscriber.setReadingListener(null);
+            lingerScheduler.shutdownNow();
+            lingerPublisher.shutdownNow();
+            pool.disconnect();
+        }
+
+        if (exitWhenDone) {
+            System.exit(SpringApplication.exit(context, () -> 0));
+        }
+    }
+
+    private Round runRound(PublisherConnectionPool pool, ScheduledExecutorService lingerScheduler, Executor lingerPublisher, long messages)
+            throws InterruptedException {
+        latency.reset();
+        completed.set(0);
+        brokerCalls.reset();
+        long droppedBefore = droppedCount();
+
+        Thread[] publishers = new Thread[publisherThreads];
+        long startNanos = System.nanoTime();
+        for (int t = 0; t < publisherThreads; t++) {
+            long share = messages / publisherThreads + (t < messages % publisherThreads ? 1 : 0);
+            int first = t;
+            publishers[t] = new Thread(() -> publishLoop(pool, lingerScheduler, lingerPublisher, first, share), "benchmark-publisher-" + t);
+            publishers[t].start();
+        }
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+        pool.awaitCompletion(completionTimeoutMillis);  // 非同期 publish の ack まで (loopback は同期なので即座)
+        long publishedNanos = System.nanoTime() - startNanos;
+
+        // 全 message が analytics を通るまで待つ (drop された分は除く)
+        long deadline = System.currentTimeMillis() + completionTimeoutMillis;
+        while (completed.get() + (droppedCount() - droppedBefore) < messages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        long elapsedNanos = Math.max(lastCompletionNanos.get() - startNanos, 1);
+        return new Round(messages, completed.get(), droppedCount() - droppedBefore, brokerCalls.sum(), publishedNanos, elapsedNanos);
+    }
+
+    // publisher t はデバイス t, t+P, t+2P, ... を順番に回す.
+    // batching 時は publisher ごとに 1つの BatchingPublisher (デバイスは 1 publisher だけが持つので順序が保たれる)
+    private void publishLoop(PublisherConnectionPool pool, ScheduledExecutorService lingerScheduler, Executor lingerPublisher, int first,
+                             long messages) {
+        SplittableRandom random = new SplittableRandom(first);
+        SensorReadingCodec.Writer jsonWriter = new SensorReadingCodec.Writer();
+        BinaryReadingCodec.Writer binaryWriter = new BinaryReadingCodec.Writer();
+        int devicesPerPublisher = Math.max(1, (deviceCount - first + publisherThreads - 1) / publisherThreads);
+        String[] deviceIds = new String[devicesPerPublisher];
+        String[] topics = new String[devicesPerPublisher];
+        PublisherConnectionPool.Connection[] deviceConnections = new PublisherConnectionPool.Connection[devicesPerPublisher];  // デバイス -> 接続 (hash)
+        for (int i = 0; i < devicesPerPublisher; i++) {
+            deviceIds[i] = String.format(devicePrefix + "%05d", first + i * publisherThreads);
+            topics[i] = topicPrefix + "/" + deviceIds[i];
+            deviceConnections[i] = pool.shardFor(deviceIds[i]);
+        }
+
+        // envelope は publisher ごとの topic へ (subscriber の parse stage は topic で partition するので 1 worker に偏らない)
+        String batchTopic = topicPrefix + "/batch-" + first;
+        BatchingPublisher batcher = batchSize > 1
+                ? new BatchingPublisher(pool.shardFor(batchTopic), batchTopic, binaryPayload, batchSize, batchBytes, lingerMillis,
+                        lingerScheduler, lingerPublisher)
+                : null;
+
+        long intervalNanos = targetRate > 0 ? (long) (1e9 * publisherThreads / targetRate) : 0;
+        long nextNanos = System.nanoTime();
+        for (long n = 0; n < messages; n++) {
+            if (intervalNanos > 0) {
+                nextNanos += intervalNanos;
+                long wait = nextNanos - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);  // 遅れた分は詰めて送る (open-loop)
+                }
+            }
+            int device = (int) (n % devicesPerPublisher);
+            double temperature = 20 + random.nextDouble() * 60;
+            double humidity = 30 + random.nextDouble() * 60;
+            double vibration = 0.1 + random.nextDouble() * 4.9;
+            if (batcher != null) {
+                try {
+                    batcher.add(deviceIds[device], System.currentTimeMillis(), temperature, humidity, vibration);
+                } catch (Exception e) {
+                    logger.error("Benchmark publish failed: {}", e.getMessage());
+                }
+                continue;
+            }
+            byte[] payload = binaryPayload
+                    ? binaryWriter.write(deviceIds[device], System.currentTimeMillis(), temperature, humidity, vibration)
+                    : jsonWriter.write(deviceIds[device], LocalDateTime.now(), temperature, humidity, vibration);
+            try {
+                deviceConnections[device].publish(topics[device], payload);
+                brokerCalls.increment();
+            } catch (Exception e) {
+                logger.error("Benchmark publish failed: {}", e.getMessage());
+            }
+        }
+        if (batcher != null) {
+            try {
+                batcher.flush();
+            } catch (Exception e) {
+                logger.error("Benchmark publish failed: {}", e.getMessage());
+            }
+            brokerCalls.add(batcher.getPublishCount());
+        }
+    }
+
+    private long droppedCount() {
+        long dropped = 0;
+        for (PipelineStage<?> stage : subscriber.getPipelineStages()) {
+            dropped += stage.getDroppedCount() + stage.getErrorCount();
+        }
+        return dropped;
+    }
+
+    private void report(Round round) {
+        double seconds = round.elapsedNanos / 1e9;
+        String summary = String.format(
+                "End-to-end benchmark: devices=%d, publishers=%d, rate=%s, format=%s, batch=%s, messages=%d, completed=%d, dropped=%d%n"
+                        + "  publish: %.0f msgs/sec, end-to-end: %.0f msgs/sec (%.2f s)%n"
+                        + "  broker calls: %d (%.3f per reading)%n"
+                        + "  ingest -> analytics latency: p50=%.1f us, p99=%.1f us, p99.9=%.1f us, max=%.1f us, mean=%.1f us",
+                deviceCount, publisherThreads, targetRate > 0 ? String.format("%.0f", targetRate) : "max", binaryPayload ? "binary" : "json",
+                batchSize > 1 ? String.format("%d/%dB/%dms", batchSize, batchBytes, lingerMillis) : "off",
+                round.messages, round.completed, round.dropped,
+                round.messages / (round.publishedNanos / 1e9), round.completed / seconds, seconds,
+                round.brokerCalls, round.brokerCalls / (double) Math.max(1, round.messages),
+                latency.percentile(50) / 1e3, latency.percentile(99) / 1e3, latency.percentile(99.9) / 1e3,
+                latency.max() / 1e3, latency.mean() / 1e3);
+        System.out.println(summary);
+    }
+
+    private static class Round {
+        final long messages;
+        final long completed;
+        final long dropped;
+        final long brokerCalls;
+        final long publishedNanos;
+        final long elapsedNanos;
+
+        Round(long messages, long completed, long dropped, long brokerCalls, long publishedNanos, long elapsedNanos) {
+            this.messages = messages;
+            this.completed = completed;
+            this.dropped = dropped;
+            this.brokerCalls = brokerCalls;
+            this.publishedNanos = publishedNanos;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+}
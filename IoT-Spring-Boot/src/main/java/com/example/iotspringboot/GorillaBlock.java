@@ -0,0 +1,345 @@
+package com.example.iotspringboot;
+
+import java.util.Arrays;
+
+/**
+ * 1 デバイス分の圧縮 block (Gorilla 方式): timestamp は delta-of-delta, 値は前回値との XOR.
+ * bit stream は long[] に詰める. 書き込みは 1 thread (analytics partition) だけ、
+ * seal 後は immutable なので lock なしで読める.
+ *
+ * timestamp (2件目以降): dod == 0 -> '0', [-64, 63] -> '10' + 7bit, [-256, 255] -> '110' + 9bit,
+ * [-2048, 2047] -> '1110' + 12bit, それ以外 -> '1111' + 64bit.
+ * 値 (temperature / humidity / vibration の順, それぞれ別の state): 前回値との XOR (または差) x について
+ * 前回と同じ -> '0', それ以外 -> '1' + mode 1bit + [前回の leading/trailing の範囲内 -> '0' + meaningful bits,
+ * それ以外 -> '1' + leading 6bit + (length - 1) 6bit + meaningful bits].
+ * mode 1 = double の bit を XOR (Gorilla そのまま).
+ * mode 0 = 小数 2桁で表せる値 (payload は %.2f) は value * 100 の long の差を zigzag で書く.
+ * 50.01 -> 50.02 のような変化は double の XOR だと mantissa の大半が変わるため. どちらも lossless.
+ */
+final class GorillaBlock {
+
+    private static final int metricCount = 3;
+    private static final double decimalScale = 100;
+    private static final double maxDecimal = 1e15;  // これ以上は long に scale しない
+    private static final int objectOverheadBytes = 80;  // block object + words 配列 header の概算
+    private static final int encoderStateBytes = 144;  // 書き込み中だけ持つ encoder state の配列 4つ
+
+    private long[] words;
+    private int bitCount;
+    private int count;
+    private final int capacity;
+    private long firstMillis;
+    private long lastMillis;
+    private long minMillis = Long.MAX_VALUE;  // 逆行した timestamp もあるので first / last とは別に持つ
+    private long maxMillis = Long.MIN_VALUE;
+    private boolean sealed;
+
+    // encoder state
+    private long prevDelta;
+    private long[] prevBits = new long[metricCount];
+    private int[] prevMode = new int[metricCount];
+    private int[] prevLeading = new int[metricCount];
+    private int[] prevTrailing = new int[metricCount];
+
+    GorillaBlock(int capacity) {
+        this.capacity = capacity;
+        this.words = new long[Math.max(4, capacity / 4)];
+        Arrays.fill(prevLeading, -1);
+    }
+
+    /**
+     * 1件追加. timestamp は前回以上であること (逆行した場合も dod として入るが 64bit になる).
+     * @return 配列が増えた byte 数 (memory budget の計算用)
+     */
+    int append(long epochMillis, double temperature, double humidity, double vibration) {
+        int before = words.length;
+        if (count == 0) {
+            firstMillis = epochMillis;
+            writeBits(epochMillis, 64);
+            writeFirst(0, temperature);
+            writeFirst(1, humidity);
+            writeFirst(2, vibration);
+        } else {
+            long delta = epochMillis - lastMillis;
+            writeDeltaOfDelta(delta - prevDelta);
+            prevDelta = delta;
+            writeValue(0, temperature);
+            writeValue(1, humidity);
+            writeValue(2, vibration);
+        }
+        lastMillis = epochMillis;
+        minMillis = Math.min(minMillis, epochMillis);
+        maxMillis = Math.max(maxMillis, epochMillis);
+        count++;
+        return (words.length - before) * Long.BYTES;
+    }
+
+    /**
+     * 書き込みを終了して配列を実際の長さに切り詰め, encoder state を捨てる.
+     * @return 減った byte 数
+     */
+    int seal() {
+        long before = sizeInBytes();
+        words = Arrays.copyOf(words, (bitCount + 63) >>> 6);
+        prevBits = null;
+        prevMode = null;
+        prevLeading = null;
+        prevTrailing = null;
+        sealed = true;
+        return (int) (before - sizeInBytes());
+    }
+
+    boolean isFull() {
+        return count >= capacity;
+    }
+
+    int count() {
+        return count;
+    }
+
+    long firstMillis() {
+        return firstMillis;
+    }
+
+    long lastMillis() {
+        return lastMillis;
+    }
+
+    long minMillis() {
+        return minMillis;
+    }
+
+    long maxMillis() {
+        return maxMillis;
+    }
+
+    long sizeInBytes() {
+        return objectOverheadBytes + (sealed ? 0 : encoderStateBytes) + (long) words.length * Long.BYTES;
+    }
+
+    /**
+     * decode 用の reader. seal 済みならそのまま, 書き込み中なら現在までの bit を copy して読む.
+     */
+    Reader reader() {
+        if (sealed) {
+            return new Reader(words, count);
+        }
+        return new Reader(Arrays.copyOf(words, (bitCount + 63) >>> 6), count);
+    }
+
+    private void writeFirst(int metric, double value) {
+        long scaled = toDecimal(value);
+        int mode = scaled != Long.MIN_VALUE ? 0 : 1;
+        long bits = mode == 0 ? scaled : Double.doubleToRawLongBits(value);
+        writeBits(mode, 1);
+        writeBits(bits, 64);
+        prevBits[metric] = bits;
+        prevMode[metric] = mode;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    // value * 100 が整数で k / 100.0 が value に bit 単位で戻るなら k (-0.0 は戻らない), そうでなければ Long.MIN_VALUE
+    private static long toDecimal(double value) {
+        double scaled = value * decimalScale;
+        if (!(Math.abs(scaled) < maxDecimal)) {  // NaN 含む
+            return Long.MIN_VALUE;
+        }
+        long k = (long) Math.rint(scaled);
+        return Double.doubleToRawLongBits(k / decimalScale) == Double.doubleToRawLongBits(value) ? k : Long.MIN_VALUE;
+    }
+
+    private void writeDeltaOfDelta(long dod) {
+        if (dod == 0) {
+            writeBits(0, 1);
+        } else if (dod >= -64 && dod <= 63) {
+            writeBits(0b10, 2);
+            writeBits(dod, 7);
+        } else if (dod >= -256 && dod <= 255) {
+            writeBits(0b110, 3);
+            writeBits(dod, 9);
+        } else if (dod >= -2048 && dod <= 2047) {
+            writeBits(0b1110, 4);
+            writeBits(dod, 12);
+        } else {
+            writeBits(0b1111, 4);
+            writeBits(dod, 64);
+        }
+    }
+
+    private void writeValue(int metric, double value) {
+        long scaled = toDecimal(value);
+        int mode = scaled != Long.MIN_VALUE ? 0 : 1;
+        long bits = mode == 0 ? scaled : Double.doubleToRawLongBits(value);
+        // mode 0: 前回との差 (zigzag), mode 1: 前回との XOR. 以降は同じ leading/trailing 方式で書く
+        long xor = mode == 0 ? zigzag(bits - prevBits[metric]) : bits ^ prevBits[metric];
+        prevBits[metric] = bits;
+        if (xor == 0 && mode == prevMode[metric]) {
+            writeBits(0, 1);
+            return;
+        }
+        prevMode[metric] = mode;
+        writeBits(0b10 | mode, 2);
+        if (xor == 0) {  // mode だけ変わった (同じ bit 列): xor = 0 を 1bit で明示的に書く
+            writeBits(1, 1);
+            writeBits(63, 6);
+            writeBits(0, 6);
+            writeBits(0, 1);
+            prevLeading[metric] = 63;
+            prevTrailing[metric] = 0;
+            return;
+        }
+        int leading = Long.numberOfLeadingZeros(xor);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (prevLeading[metric] >= 0 && leading >= prevLeading[metric] && trailing >= prevTrailing[metric]) {
+            writeBits(0, 1);  // 前回の window に収まる
+            writeBits(xor >>> prevTrailing[metric], 64 - prevLeading[metric] - prevTrailing[metric]);
+        } else {
+            int length = 64 - leading - trailing;
+            writeBits(1, 1);
+            writeBits(leading, 6);
+            writeBits(length - 1, 6);
+            writeBits(xor >>> trailing, length);
+            prevLeading[metric] = leading;
+            prevTrailing[metric] = trailing;
+        }
+    }
+
+    // value の下位 n bit (1..64) を MSB から順に追加
+    private void writeBits(long value, int n) {
+        int word = bitCount >>> 6;
+        if (word + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        if (n < 64) {
+            value &= (1L << n) - 1;
+        }
+        int used = bitCount & 63;
+        int free = 64 - used;
+        if (n <= free) {
+            words[word] |= value << (free - n);
+        } else {
+            words[word] |= value >>> (n - free);
+            words[word + 1] |= value << (64 - (n - free));
+        }
+        bitCount += n;
+    }
+
+    /**
+     * block を古い順に decode する iterator (allocation なし, 1 thread 用).
+     */
+    static final class Reader {
+        private final long[] words;
+        private final int count;
+        private int bitPosition;
+        private int index;
+
+        private long epochMillis;
+        private long delta;
+        private final long[] bits = new long[metricCount];
+        private final int[] modes = new int[metricCount];
+        private final int[] leading = new int[metricCount];
+        private final int[] trailing = new int[metricCount];
+
+        Reader(long[] words, int count) {
+            this.words = words;
+            this.count = count;
+        }
+
+        boolean next() {
+            if (index >= count) {
+                return false;
+            }
+            if (index == 0) {
+                epochMillis = readBits(64);
+                for (int metric = 0; metric < metricCount; metric++) {
+                    modes[metric] = (int) readBits(1);
+                    bits[metric] = readBits(64);
+                }
+            } else {
+                delta += readDeltaOfDelta();
+                epochMillis += delta;
+                for (int metric = 0; metric < metricCount; metric++) {
+                    readValue(metric);
+                }
+            }
+            index++;
+            return true;
+        }
+
+        long epochMillis() {
+            return epochMillis;
+        }
+
+        double temperature() {
+            return value(0);
+        }
+
+        double humidity() {
+            return value(1);
+        }
+
+        double vibration() {
+            return value(2);
+        }
+
+        private double value(int metric) {
+            return modes[metric] == 0 ? bits[metric] / decimalScale : Double.longBitsToDouble(bits[metric]);
+        }
+
+        private long readDeltaOfDelta() {
+            if (readBits(1) == 0) {
+                return 0;
+            }
+            if (readBits(1) == 0) {
+                return signed(readBits(7), 7);
+            }
+            if (readBits(1) == 0) {
+                return signed(readBits(9), 9);
+            }
+            if (readBits(1) == 0) {
+                return signed(readBits(12), 12);
+            }
+            return readBits(64);
+        }
+
+        private void readValue(int metric) {
+            if (readBits(1) == 0) {
+                return;  // 前回と同じ値
+            }
+            modes[metric] = (int) readBits(1);
+            if (readBits(1) == 1) {
+                leading[metric] = (int) readBits(6);
+                trailing[metric] = 64 - leading[metric] - ((int) readBits(6) + 1);
+            }
+            int length = 64 - leading[metric] - trailing[metric];
+            long x = readBits(length) << trailing[metric];
+            if (modes[metric] == 0) {
+                bits[metric] += (x >>> 1) ^ -(x & 1);  // zigzag の逆
+            } else {
+                bits[metric] ^= x;
+            }
+        }
+
+        // n bit の two's complement -> long
+        private static long signed(long value, int n) {
+            return (value << (64 - n)) >> (64 - n);
+        }
+
+        private long readBits(int n) {
+            int word = bitPosition >>> 6;
+            int used = bitPosition & 63;
+            int free = 64 - used;
+            long value;
+            if (n <= free) {
+                value = words[word] >>> (free - n);
+            } else {
+                value = (words[word] << (n - free)) | (words[word + 1] >>> (64 - (n - free)));
+            }
+            bitPosition += n;
+            return n == 64 ? value : value & ((1L << n) - 1);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.iotspringboot;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * 履歴: local time-series store (iot.store.enabled=true) から, なければ圧縮 hot tier (最近の分だけ) から.
+ * localhost:8080/history/{deviceId}?from=2024-05-01T00:00:00&to=2024-05-01T01:00:00
+ * localhost:8080/history/{deviceId}/latest?n=10
+ */
+@RestController
+public class HistoryController {
+
+    private static final int maxRows = 10_000;
+    private static final long defaultRangeMillis = 3_600_000L;  // from 省略時: 直近 1時間
+
+    private final TimeSeriesStore timeSeriesStore;
+    private final HotTier hotTier;
+
+    public HistoryController(ObjectProvider<TimeSeriesStore> timeSeriesStore, HotTier hotTier) {
+        this.timeSeriesStore = timeSeriesStore.getIfAvailable();
+        this.hotTier = hotTier;
+    }
+
+    @GetMapping("/history/{deviceId}")
+    public ResponseEntity<List<SensorReading>> getRange(@PathVariable String deviceId,
+                                                        @RequestParam(required = false) String from,
+                                                        @RequestParam(required = false) String to,
+                                                        @RequestParam(defaultValue = "1000") int limit) {
+        long now = System.currentTimeMillis();
+        long toMillis = SensorTimestamps.parseIsoLocalMillis(to, now);
+        long fromMillis = SensorTimestamps.parseIsoLocalMillis(from, toMillis - defaultRangeMillis);
+        int rows = Math.min(limit, maxRows);
+        if (timeSeriesStore == null) {
+            return ResponseEntity.ok(hotTier.range(deviceId, fromMillis, toMillis, rows));
+        }
+        return ResponseEntity.ok(timeSeriesStore.range(deviceId, fromMillis, toMillis, rows));
+    }
+
+    @GetMapping("/history/{deviceId}/latest")
+    public ResponseEntity<List<SensorReading>> getLatest(@PathVariable String deviceId,
+                                                         @RequestParam(defaultValue = "10") int n) {
+        if (timeSeriesStore == null) {
+            return ResponseEntity.ok(hotTier.latest(deviceId, Math.min(n, maxRows)));
+        }
+        return ResponseEntity.ok(timeSeriesStore.latest(deviceId, Math.min(n, maxRows)));
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.iotspringboot;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 最近の reading の圧縮 in-memory tier (Gorilla 方式の GorillaBlock をデバイスごとに連結).
+ * block は iot.hot.block-samples 件で seal し、合計が iot.hot.memory-budget-mb を超えたら
+ * 全デバイスで一番古い sealed block から捨てる. 書き込み中の block は evict しない.
+ * append は analytics stage (デバイスごとに 1 thread) から呼ばれる.
+ */
+@Component
+public class HotTier {
+
+    private final ConcurrentMap<String, Series> devices = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<SealedBlock> evictionOrder = new ConcurrentLinkedQueue<>();  // seal した順 = 古い順
+    private final int blockSamples;
+    private final long memoryBudgetBytes;
+
+    private final AtomicLong bytes = new AtomicLong();  // block の作成 / 拡張 / seal / evict の時だけ更新
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder evictedBlocks = new LongAdder();
+    private final LongAdder evictedSamples = new LongAdder();
+
+    public HotTier(@Value("${iot.hot.block-samples:120}") int blockSamples,
+                   @Value("${iot.hot.memory-budget-mb:256}") long memoryBudgetMb) {
+        if (blockSamples <= 1 || memoryBudgetMb <= 0) {
+            throw new IllegalArgumentException("iot.hot.block-samples must be > 1 and iot.hot.memory-budget-mb > 0");
+        }
+        this.blockSamples = blockSamples;
+        this.memoryBudgetBytes = memoryBudgetMb * 1024 * 1024;
+    }
+
+    public void append(String deviceId, long epochMillis, double temperature, double humidity, double vibration) {
+        Series series = devices.get(deviceId);
+        if (series == null) {
+            series = devices.computeIfAbsent(deviceId, id -> new Series());
+        }
+        long grown;
+        GorillaBlock sealedBlock = null;
+        synchronized (series) {
+            if (series.open == null) {
+                series.open = new GorillaBlock(blockSamples);
+                grown = series.open.sizeInBytes();
+            } else {
+                grown = 0;
+            }
+            grown += series.open.append(epochMillis, temperature, humidity, vibration);
+            if (series.open.isFull()) {
+                sealedBlock = series.open;
+                grown -= sealedBlock.seal();
+                series.sealed.addLast(sealedBlock);
+                series.open = null;
+            }
+        }
+        appended.increment();
+        if (sealedBlock != null) {
+            evictionOrder.add(new SealedBlock(series, sealedBlock));
+        }
+        if (grown != 0 && bytes.addAndGet(grown) > memoryBudgetBytes) {  // 大半の append は配列が増えないので atomic なし
+            evictIfOverBudget();
+        }
+    }
+
+    /**
+     * from <= timestamp <= to の sample を古い順に返す iterator. 呼び出し時点の snapshot を読む.
+     */
+    public SampleIterator range(String deviceId, long fromMillis, long toMillis) {
+        Series series = devices.get(deviceId);
+        if (series == null) {
+            return new SampleIterator(new GorillaBlock.Reader[0], fromMillis, toMillis);
+        }
+        List<GorillaBlock.Reader> readers = new ArrayList<>();
+        synchronized (series) {
+            for (GorillaBlock block : series.sealed) {
+                if (block.maxMillis() >= fromMillis && block.minMillis() <= toMillis) {
+                    readers.add(block.reader());
+                }
+            }
+            GorillaBlock open = series.open;
+            if (open != null && open.count() > 0 && open.maxMillis() >= fromMillis && open.minMillis() <= toMillis) {
+                readers.add(open.reader());
+            }
+        }
+        return new SampleIterator(readers.toArray(new GorillaBlock.Reader[0]), fromMillis, toMillis);
+    }
+
+    /**
+     * 最新 n 件 (古い順).
+     */
+    public List<SensorReading> latest(String deviceId, int n) {
+        return collect(range(deviceId, Long.MIN_VALUE, Long.MAX_VALUE), deviceId, n);
+    }
+
+    /**
+     * from <= timestamp <= to の sample (古い順, 最大 limit 件 = 新しい方から).
+     */
+    public List<SensorReading> range(String deviceId, long fromMillis, long toMillis, int limit) {
+        return collect(range(deviceId, fromMillis, toMillis), deviceId, limit);
+    }
+
+    public int deviceCount() {
+        return devices.size();
+    }
+
+    public long sizeInBytes() {
+        return bytes.get();
+    }
+
+    public long sampleCount() {
+        return appended.sum() - evictedSamples.sum();
+    }
+
+    public long getEvictedBlocks() {
+        return evictedBlocks.sum();
+    }
+
+    public long getEvictedSamples() {
+        return evictedSamples.sum();
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    private void evictIfOverBudget() {
+        while (bytes.get() > memoryBudgetBytes) {
+            SealedBlock oldest = evictionOrder.poll();
+            if (oldest == null) {
+                return;  // 書き込み中の block だけ: budget が小さすぎる
+            }
+            synchronized (oldest.series) {
+                oldest.series.sealed.remove(oldest.block);  // 通常は先頭
+            }
+            bytes.addAndGet(-oldest.block.sizeInBytes());
+            evictedBlocks.increment();
+            evictedSamples.add(oldest.block.count());
+        }
+    }
+
+    private static List<SensorReading> collect(SampleIterator it, String deviceId, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        // 新しい方から limit 件: ring に残して最後に古い順に並べる
+        SensorReading[] ring = new SensorReading[limit];
+        int total = 0;
+        while (it.next()) {
+            ring[total % limit] = new SensorReading(deviceId, SensorTimestamps.formatIsoLocal(it.epochMillis()),
+                    it.epochMillis(), it.temperature(), it.humidity(), it.vibration());
+            total++;
+        }
+        int size = Math.min(total, limit);
+        List<SensorReading> readings = new ArrayList<>(size);
+        for (int i = total - size; i < total; i++) {
+            readings.add(ring[i % limit]);
+        }
+        return readings;
+    }
+
+    /**
+     * 複数 block を古い順に decode する iterator (範囲外の sample は skip).
+     */
+    public static final class SampleIterator {
+        private final GorillaBlock.Reader[] readers;
+        private final long fromMillis;
+        private final long toMillis;
+        private int current;
+
+        SampleIterator(GorillaBlock.Reader[] readers, long fromMillis, long toMillis) {
+            this.readers = readers;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+
+        public boolean next() {
+            while (current < readers.length) {
+                GorillaBlock.Reader reader = readers[current];
+                while (reader.next()) {
+                    long ts = reader.epochMillis();
+                    if (ts >= fromMillis && ts <= toMillis) {
+                        return true;
+                    }
+                }
+                current++;
+            }
+            return false;
+        }
+
+        public long epochMillis() {
+            return readers[current].epochMillis();
+        }
+
+        public double temperature() {
+            return readers[current].temperature();
+        }
+
+        public double humidity() {
+            return readers[current].humidity();
+        }
+
+        public double vibration() {
+            return readers[current].vibration();
+        }
+    }
+
+    // 1 デバイス分: sealed block (古い順) + 書き込み中の block
+    private static final class Series {
+        final ArrayDeque<GorillaBlock> sealed = new ArrayDeque<>();
+        GorillaBlock open;
+    }
+
+    private static final class SealedBlock {
+        final Series series;
+        final GorillaBlock block;
+
+        SealedBlock(Series series, GorillaBlock block) {
+            this.series = series;
+            this.block = block;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.iotspringboot;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.paginators.ScanIterable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * local fake DynamoDB (iot.dynamodb.mode=memory). offline benchmark / 開発用.
+ * putItem / batchWriteItem / scan / scanPaginator だけ対応. item は deviceId + timestamp で上書き.
+ */
+public class InMemoryDynamoDbClient implements DynamoDbClient {
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Map<String, AttributeValue>>> tables = new ConcurrentHashMap<>();
+    private final LongAdder writes = new LongAdder();
+
+    @Override
+    public String serviceName() {
+        return "dynamodb-in-memory";
+    }
+
+    @Override
+    public void close() {
+        // 何もしない
+    }
+
+    @Override
+    public PutItemResponse putItem(PutItemRequest request) {
+        put(request.tableName(), request.item());
+        return PutItemResponse.builder().build();
+    }
+
+    @Override
+    public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+        for (Map.Entry<String, List<WriteRequest>> entry : request.requestItems().entrySet()) {
+            for (WriteRequest writeRequest : entry.getValue()) {
+                if (writeRequest.putRequest() != null) {
+                    put(entry.getKey(), writeRequest.putRequest().item());
+                }
+            }
+        }
+        return BatchWriteItemResponse.builder().build();  // UnprocessedItems なし
+    }
+
+    @Override
+    public ScanResponse scan(ScanRequest request) {
+        int limit = request.limit() != null ? request.limit() : Integer.MAX_VALUE;
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (Map<String, AttributeValue> item : table(request.tableName()).values()) {
+            if (items.size() >= limit) {
+                break;
+            }
+            items.add(item);
+        }
+        return ScanResponse.builder().items(items).count(items.size()).build();  // 1 page のみ (LastEvaluatedKey なし)
+    }
+
+    @Override
+    public ScanIterable scanPaginator(ScanRequest request) {
+        return new ScanIterable(this, request);  // interface の default 実装は UnsupportedOperationException
+    }
+
+    private void put(String tableName, Map<String, AttributeValue> item) {
+        AttributeValue deviceId = item.get("deviceId");
+        AttributeValue timestamp = item.get("timestamp");
+        String key = (deviceId != null ? deviceId.s() : "") + "|" + (timestamp != null ? timestamp.s() : "");
+        table(tableName).put(key, item);
+        writes.increment();
+    }
+
+    private ConcurrentMap<String, Map<String, AttributeValue>> table(String tableName) {
+        return tables.computeIfAbsent(tableName, name -> new ConcurrentHashMap<>());
+    }
+
+    public int itemCount(String tableName) {
+        return table(tableName).size();
+    }
+
+    public long writeCount() {
+        return writes.sum();
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.iotspringboot;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ingest path の latency histogram / counter (nanos). /metrics (MetricsController) で Prometheus 形式に出力.
+ * 記録は System.nanoTime 2回 + lock-free な加算だけなので hot path でも常時有効.
+ */
+@Component
+public class IngestMetrics {
+
+    // stage ごとの処理時間
+    final LatencyHistogram ingest = new LatencyHistogram();  // processMessage (MQTT callback -> parse queue)
+    final LatencyHistogram parse = new LatencyHistogram();
+    final LatencyHistogram twinUpdate = new LatencyHistogram();
+    final LatencyHistogram prediction = new LatencyHistogram();  // performIntegratedPrediction (window 読み出し + 更新込み)
+    final LatencyHistogram save = new LatencyHistogram();  // saveToDynamoDB (write-behind buffer への enqueue)
+    final LatencyHistogram storeAppend = new LatencyHistogram();  // TimeSeriesStore.append (local mmap)
+    final LatencyHistogram endToEnd = new LatencyHistogram();  // 受信 -> analytics 完了
+
+    final LongAdder received = new LongAdder();
+    final LongAdder receivedBytes = new LongAdder();
+    final LongAdder batches = new LongAdder();  // publisher 側 batching の envelope
+    final LongAdder batchedReadings = new LongAdder();  // envelope から取り出した reading
+    final LongAdder decodedReadings = new LongAdder();  // decode して analytics に渡した reading (単発 + envelope 内, heartbeat 含む)
+    final LongAdder heartbeats = new LongAdder();  // edge 側 deadband の heartbeat
+    final LongAdder heldSamples = new LongAdder();  // heartbeat が代わりに伝えた (送られなかった) sample
+    final LongAdder parseErrors = new LongAdder();
+    final LongAdder predictionErrors = new LongAdder();
+    final LongAdder saveDropped = new LongAdder();
+    final LongAdder storeErrors = new LongAdder();
+    final LongAdder recordErrors = new LongAdder();  // traffic 記録 (iot.record.file) の失敗
+    final LongAdder tempAnomalies = new LongAdder();
+    final LongAdder vibAnomalies = new LongAdder();
+    final LongAdder integratedAlerts = new LongAdder();
+
+    private final int logSampleRate;
+
+    /**
+     * @param logSampleRate per-message の INFO log を 1/N の message だけ出す (1 = 全件, 従来通り)
+     */
+    public IngestMetrics(@Value("${iot.logging.sample-rate:1000}") int logSampleRate) {
+        this.logSampleRate = Math.max(1, logSampleRate);
+    }
+
+    /**
+     * per-message log を出すかどうか (1/N の確率, thread 間で共有する counter を持たない).
+     */
+    public boolean sampleLog() {
+        return logSampleRate == 1 || ThreadLocalRandom.current().nextInt(logSampleRate) == 0;
+    }
+
+    public int getLogSampleRate() {
+        return logSampleRate;
+    }
+
+    static long elapsedSince(long startNanos) {
+        return System.nanoTime() - startNanos;
+    }
+}
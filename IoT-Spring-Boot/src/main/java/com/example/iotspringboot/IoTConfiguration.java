@@ -0,0 +1,49 @@
+package com.example.iotspringboot;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * transport / DynamoDB / local time-series store の bean 定義.
+ * iot.transport=loopback + iot.dynamodb.mode=memory で AWS なしに全 pipeline を動かせる.
+ */
+@Configuration
+public class IoTConfiguration {
+
+    @Bean
+    public LoopbackBroker loopbackBroker() {
+        return new LoopbackBroker();
+    }
+
+    @Bean(destroyMethod = "close")
+    public DynamoDbClient dynamoDbClient(@Value("${iot.dynamodb.mode:aws}") String mode) {
+        if ("memory".equalsIgnoreCase(mode)) {
+            return new InMemoryDynamoDbClient();
+        }
+        return DynamoDbClient.create();
+    }
+
+    // traffic 記録 (iot.record.file=...): processMessage に届いた message を TrafficLog に書く. replay は TrafficReplay
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "iot.record.file")
+    public TrafficLog.Writer trafficRecorder(@Value("${iot.record.file}") String file,
+                                             @Value("${iot.record.max-mb:1024}") long maxMb) throws IOException {
+        return new TrafficLog.Writer(Paths.get(file), maxMb * 1024 * 1024);
+    }
+
+    // iot.store.enabled=true: reading を local の mmap segment に保存し, analytics の warm-up / 履歴 API もここから読む
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "iot.store.enabled", havingValue = "true")
+    public TimeSeriesStore timeSeriesStore(@Value("${iot.store.directory:data/timeseries}") String directory,
+                                           @Value("${iot.store.segment-rows:1048576}") int segmentRows,
+                                           @Value("${iot.store.retention-hours:168}") long retentionHours,
+                                           @Value("${iot.store.flush-interval-millis:1000}") long flushIntervalMillis) throws IOException {
+        return TimeSeriesStore.open(Paths.get(directory), segmentRows, retentionHours * 3_600_000L, flushIntervalMillis);
+    }
+}
@@ -1,20 +1,13 @@
 package com.example.iotspringboot;
 
-import java.io.FileInputStream;
-import java.security.KeyStore;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509Certificate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
-import com.amazonaws.services.iot.client.AWSIotMessage;
-import com.amazonaws.services.iot.client.AWSIotMqttClient;
-import com.amazonaws.services.iot.client.AWSIotQos;
 import jakarta.annotation.PostConstruct;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.openssl.PEMParser;
-import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableScheduling;
@@ -22,56 +15,137 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.io.FileReader;
-import java.security.Security;
+import java.nio.charset.StandardCharsets;
 
 @SpringBootApplication
 @EnableScheduling
 @RestController
 public class IoTSpringBootApplication {
-    private AWSIotMqttClient client;  // AWS client (when starting APP -> link)
+    private final TransportFactory transportFactory;
+    private PublisherConnectionPool connectionPool;  // MQTT 接続 (when starting APP -> link). iot.publisher.connections 本
+    private final SensorReadingCodec.Writer payloadWriter = new SensorReadingCodec.Writer();  // @Scheduled thread 専用
+    private final BinaryReadingCodec.Writer binaryWriter = new BinaryReadingCodec.Writer();  // 同上
+
+    @Value("${iot.publisher.format:json}")  // json | binary (subscriber は自動判別)
+    private String payloadFormat;
+
+    // 接続 pool: 接続ごとに非同期 publish, ack 待ちは max-in-flight まで
+    @Value("${iot.publisher.connections:1}")
+    private int connections;
+
+    @Value("${iot.publisher.max-in-flight:256}")
+    private int maxInFlight;
+
+    @Value("${iot.publisher.max-block-millis:1000}")  // in-flight が満杯の時に待つ最大時間
+    private long maxBlockMillis;
+
+    // publisher 側 batching (opt-in): batch-size > 1 で reading を envelope にまとめて publish
+    @Value("${iot.publisher.batch-size:0}")
+    private int batchSize;
+
+    @Value("${iot.publisher.batch-bytes:65536}")  // AWS IoT の payload 上限 128KB より小さく
+    private int batchBytes;
+
+    @Value("${iot.publisher.linger-millis:20}")
+    private long lingerMillis;
+
+    private BatchingPublisher batchingPublisher;  // batch-size <= 1 なら null
+    private ScheduledExecutorService lingerScheduler;
+
+    @Value("${iot.generator.enabled:true}")  // false: 5秒ごとの data 生成を止める (replay 時など)
+    private boolean generatorEnabled;
+    private static final ThreadLocal<SensorReadingCodec.Writer> requestWriter = ThreadLocal.withInitial(SensorReadingCodec.Writer::new);  // /data 用
 
-    private static final String clientEndpoint = "a1u6nmfv3uv0e6-ats.iot.ap-northeast-1.amazonaws.com";
     private static final String clientId = "MySensor";
-    private static final String certificateFile = "C:/Users/user/Desktop/iot-project/IoT-Spring-Boot/src/main/resources/270fa4d7d83505d2cb7822d7bc394fdd6118e2d79d14830b5724dbdeef0b8a56-certificate.pem.crt";
-    private static final String privateKeyFile = "C:/Users/user/Desktop/iot-project/IoT-Spring-Boot/src/main/resources/270fa4d7d83505d2cb7822d7bc394fdd6118e2d79d14830b5724dbdeef0b8a56-private.pem.key";
+    private static final String topic = "factory/sensor/data";
+
+    public IoTSpringBootApplication(TransportFactory transportFactory) {
+        this.transportFactory = transportFactory;
+    }
 
     public static void main(String[] args) throws Exception {
         SpringApplication.run(IoTSpringBootApplication.class, args);
     }
     @PostConstruct
     public void init() throws Exception {
-        Security.addProvider(new BouncyCastleProvider());
-
-        KeyStore keyStore = loadKeyStore(certificateFile, privateKeyFile);
-
-        client = new AWSIotMqttClient(clientEndpoint, clientId, keyStore, "password");
-        client.connect();
+        connectionPool = new PublisherConnectionPool(transportFactory, clientId, connections, maxInFlight, maxBlockMillis);
+        connectionPool.connect();
+
+        System.out.println("MQTT Connected! (" + transportFactory.describeEndpoint() + ")");
+
+        if (batchSize > 1) {
+            lingerScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "publisher-linger");
+                t.setDaemon(true);
+                return t;
+            });
+            // batcher は 1つだけなので linger の publish も同じ thread で (他の batcher を待たせない)
+            batchingPublisher = new BatchingPublisher(connectionPool.shardFor(topic), topic, "binary".equalsIgnoreCase(payloadFormat),
+                    batchSize, batchBytes, lingerMillis, lingerScheduler, lingerScheduler);
+            System.out.println("Batched publish: batch-size=" + batchSize + ", batch-bytes=" + batchBytes + ", linger=" + lingerMillis + "ms");
+        }
+    }
 
-        System.out.println("AWS IoT Connected!");
+    @PreDestroy
+    public void close() {
+        if (batchingPublisher != null) {
+            try {
+                batchingPublisher.flush();  // 残りを送ってから切断
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            lingerScheduler.shutdownNow();
+        }
+        try {
+            connectionPool.awaitCompletion(maxBlockMillis);  // ack 待ちの message
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        connectionPool.disconnect();
     }
 
     @Scheduled(fixedRate = 5000)  // 5秒たびにデータを作る ＆ 転送
     public void generateAndSendData() {
+        if (!generatorEnabled) {
+            return;
+        }
         Random random = new Random();
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
         double temperature = 20 + random.nextDouble() * 60; // 温度 20 ~ 80 度C
         double humidity = 30 + random.nextDouble() * 60; // 湿気 30 ~ 90 %
         double vibration = 0.1 + random.nextDouble() * 4.9; // 振動 0.1 ~ 5.0 mm/s^2
 
-        String data = String.format("{\"timestamp\": \"%s\", \"temperature\": %.2f, \"humidity\": %.2f, \"vibration\": %.2f}",
-                timestamp, temperature, humidity, vibration);
-        System.out.println("Generated Data: " + data);
+        if (batchingPublisher != null) {
+            try {
+                batchingPublisher.add(null, System.currentTimeMillis(), temperature, humidity, vibration);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        byte[] data;
+        if ("binary".equalsIgnoreCase(payloadFormat)) {
+            data = binaryWriter.write(null, System.currentTimeMillis(), temperature, humidity, vibration);
+            System.out.println("Generated Data: binary (" + data.length + " bytes)");
+        } else {
+            data = payloadWriter.write(null, LocalDateTime.now(), temperature, humidity, vibration);
+            System.out.println("Generated Data: " + new String(data, StandardCharsets.UTF_8));
+        }
 
-        String topic = "factory/sensor/data";
-        AWSIotMessage msg = new AWSIotMessage(topic, AWSIotQos.QOS1, data);
         try {
-            client.publish(msg);
+            connectionPool.shardFor(topic).publish(topic, data);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    @Scheduled(fixedRate = 30000)  // 接続ごとの ack 数 / 再接続 (pool が 2本以上の時だけ)
+    public void logConnectionStats() {
+        if (connectionPool != null && connectionPool.size() > 1) {
+            System.out.print("Publisher connections:\n" + connectionPool.describeShards());
+        }
+    }
+
     @GetMapping("/data")  // Web API: localhost:8080/dataでデータを確認
     public String getSensorData() {
         return generateData();
@@ -79,29 +153,9 @@ public class IoTSpringBootApplication {
 
     private static String generateData() {
         Random random = new Random();
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
         double temperature = 20 + random.nextDouble() * 60; // 温度 20 ~ 80 度C
         double humidity = 30 + random.nextDouble() * 60; // 湿気 30 ~ 90 %
         double vibration = 0.1 + random.nextDouble() * 4.9; // 振動 0.1 ~ 5.0 mm/s^2
-        return String.format("{\"timestamp\": \"%s\", \"temperature\": %.2f, \"humidity\": %.2f, \"vibration\": %.2f}",
-                timestamp, temperature, humidity, vibration);
-    }
-
-    private static KeyStore loadKeyStore(String certPath, String keyPath) throws Exception {
-        CertificateFactory factory = CertificateFactory.getInstance("X.509");
-        X509Certificate cert = (X509Certificate) factory.generateCertificate(new FileInputStream(certPath));
-
-        PEMParser pemParser = new PEMParser(new FileReader(keyPath));
-        Object object = pemParser.readObject();
-        JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider("BC");
-        java.security.KeyPair keyPair = converter.getKeyPair((org.bouncycastle.openssl.PEMKeyPair) object);
-        pemParser.close();
-
-        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-        keyStore.load(null, null);
-        keyStore.setCertificateEntry("alias", cert);
-        keyStore.setKeyEntry("alias", keyPair.getPrivate(), "password".toCharArray(), new java.security.cert.Certificate[]{cert});
-
-        return keyStore;
+        return requestWriter.get().writeString(null, LocalDateTime.now(), temperature, humidity, vibration);
     }
 }
\ No newline at end of file
@@ -1,79 +1,201 @@
 package com.example.iotspringboot;
 
-import com.amazonaws.services.iot.client.AWSIotException;
-import com.amazonaws.services.iot.client.AWSIotMessage;
-import com.amazonaws.services.iot.client.AWSIotMqttClient;
-import com.amazonaws.services.iot.client.AWSIotQos;
-import com.amazonaws.services.iot.client.AWSIotTopic;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.openssl.PEMParser;
-import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.*;
 
-import java.io.FileInputStream;
-import java.io.FileReader;
-import java.security.KeyStore;
-import java.security.Security;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509Certificate;
-import java.time.LocalDateTime;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-
-import weka.classifiers.functions.LinearRegression;
-import weka.core.Attribute;
-import weka.core.DenseInstance;
-import weka.core.Instances;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 public class IoTSubscriber implements CommandLineRunner {
 
     private static final Logger logger = LoggerFactory.getLogger(IoTSubscriber.class);
 
-    private static final String clientEndpoint = "a1u6nmfv3uv0e6-ats.iot.ap-northeast-1.amazonaws.com";
     private static final String clientId = "MySensorSubscriber";  // 기존 clientId와 구분
-    private static final String certificateFile = "C:/Users/user/Desktop/iot-project/IoT-Spring-Boot/src/main/resources/270fa4d7d83505d2cb7822d7bc394fdd6118e2d79d14830b5724dbdeef0b8a56-certificate.pem.crt";
-    private static final String privateKeyFile = "C:/Users/user/Desktop/iot-project/IoT-Spring-Boot/src/main/resources/270fa4d7d83505d2cb7822d7bc394fdd6118e2d79d14830b5724dbdeef0b8a56-private.pem.key";
 
     //DynamoDB tableの名前
     private static final String tableName = "SensorData";  // AWS DynamoDB table create
 
-    private AWSIotMqttClient client;
-    private final DynamoDbClient dynamoDbClient = DynamoDbClient.create();  // DynamoDB client
-    private final ObjectMapper objectMapper = new ObjectMapper();  // JSON parsing
-
-    // Digital Twin : Virtual Model
-    private TwinModel digitalTwin = new TwinModel();
+    // write-behind: BatchWriteItem (25件) でまとめて保存
+    private static final int writeBufferCapacity = 10_000;
+    private static final long writeLingerMillis = 50;
+    private static final long writeMaxBlockMillis = 200;  // buffer 満杯時の backpressure 上限
+    private static final int writeFlusherThreads = 4;
+    private static final long saveDropLogIntervalMillis = 10_000;  // buffer 満杯の error log はこの間隔で 1回 (件数は saveDropped)
+
+    // topic prefix. fleet デバイスは factory/sensor/data/<deviceId> に publish する
+    private static final String topicPrefix = "factory/sensor/data";
+    private static final String defaultDeviceId = "MySensor";  // deviceId がない旧 payload 用
+
+    private static final int warmUpMaxItems = 10_000;  // 起動時 warm-up で scan する最大 item 数
+
+    private static final long pipelineShutdownMillis = 10_000;
+
+    private final TransportFactory transportFactory;
+    private SensorTransport transport;  // aws | loopback (iot.transport)
+    private final DynamoDbClient dynamoDbClient;  // DynamoDB client (iot.dynamodb.mode=memory なら in-memory)
+    private final DynamoDbWriteBehind writeBehind;
+    private final AtomicLong lastSaveDropLogMillis = new AtomicLong();
+    private final TimeSeriesStore timeSeriesStore;  // local store (iot.store.enabled=true の時だけ, それ以外は null)
+    private final TrafficLog.Writer trafficRecorder;  // iot.record.file の時だけ, それ以外は null
+    private final boolean dynamoDbReplica;  // local store がある場合, DynamoDB は非同期 replica (iot.dynamodb.replica)
+    private final int windowSize;  // prediction 用 window (デバイス・メトリックごとの最近値)
+    private final AnomalyEngine anomalyEngine;
+    private final ThreadLocal<AnomalyEngine.AnomalyResult> anomalyResult = ThreadLocal.withInitial(AnomalyEngine.AnomalyResult::new);
+    private final BatchAnomalyScorer batchScorer = new BatchAnomalyScorer();  // analytics worker がそれぞれ 1 thread で判定するので fork-join なし
+    private final ThreadLocal<ScoringWave> scoringWave;  // iot.analytics.batch-size > 1 の時だけ使う
+
+    // Digital Twin : Virtual Model (デバイスごと)
+    private final TwinRegistry twinRegistry;
+
+    // 最近の reading の圧縮 in-memory tier (window / history 用)
+    private final HotTier hotTier;
+
+    // dashboard 用の 1分 / 1時間 rollup
+    private final RollupRegistry rollupRegistry;
+
+    // dashboard への live stream (SSE)
+    private final LiveStreamHub liveStreamHub;
+
+    // onMessage -> parse (topic で partition) -> twin/analytics (deviceId で partition) -> persistence
+    private final PipelineStage<RawMessage> parseStage;
+    private final PipelineStage<SensorReading> analyticsStage;
+    private final PipelineStage<SensorReading> persistStage;
+
+    private final IngestMetrics metrics;  // stage ごとの latency / counter (/metrics)
+    private volatile ReadingListener readingListener;  // analytics 完了の通知先 (end-to-end benchmark 用)
+
+    public IoTSubscriber(TransportFactory transportFactory,
+                         DynamoDbClient dynamoDbClient,
+                         IngestMetrics metrics,
+                         TwinRegistry twinRegistry,
+                         HotTier hotTier,
+                         RollupRegistry rollupRegistry,
+                         LiveStreamHub liveStreamHub,
+                         ObjectProvider<TimeSeriesStore> timeSeriesStore,
+                         ObjectProvider<TrafficLog.Writer> trafficRecorder,
+                         @Value("${iot.dynamodb.replica:true}") boolean dynamoDbReplica,
+                         @Value("${iot.analytics.window-size:10}") int windowSize,
+                         @Value("${iot.analytics.batch-size:0}") int analyticsBatchSize,
+                         @Value("${iot.pipeline.parse-workers:2}") int parseWorkers,
+                         @Value("${iot.pipeline.analytics-workers:0}") int analyticsWorkers,
+                         @Value("${iot.pipeline.persist-workers:2}") int persistWorkers,
+                         @Value("${iot.pipeline.queue-capacity:4096}") int queueCapacity,
+                         @Value("${iot.pipeline.overflow:BLOCK}") PipelineStage.OverflowPolicy overflowPolicy) {
+        this.transportFactory = transportFactory;
+        this.dynamoDbClient = dynamoDbClient;
+        this.metrics = metrics;
+        this.twinRegistry = twinRegistry;
+        this.hotTier = hotTier;
+        this.rollupRegistry = rollupRegistry;
+        this.liveStreamHub = liveStreamHub;
+        this.timeSeriesStore = timeSeriesStore.getIfAvailable();
+        this.trafficRecorder = trafficRecorder.getIfAvailable();
+        this.dynamoDbReplica = this.timeSeriesStore == null || dynamoDbReplica;  // local store がなければ DynamoDB が唯一の保存先
+        this.writeBehind = new DynamoDbWriteBehind(dynamoDbClient, tableName,
+                writeBufferCapacity, writeLingerMillis, writeMaxBlockMillis, writeFlusherThreads);
+        this.windowSize = windowSize;
+        this.anomalyEngine = new AnomalyEngine(windowSize);
+
+        int analyticsPartitions = analyticsWorkers > 0 ? analyticsWorkers : Runtime.getRuntime().availableProcessors();
+        this.parseStage = new PipelineStage<>("parse", parseWorkers, queueCapacity, overflowPolicy, this::parseMessage);
+        if (analyticsBatchSize > 1) {
+            // queue に溜まった reading をまとめて判定 (負荷が低い時は 1件ずつ取り出されるので latency は変わらない)
+            this.analyticsStage = new PipelineStage<>("analytics", analyticsPartitions, queueCapacity, overflowPolicy,
+                    this::analyzeBatch, analyticsBatchSize);
+        } else {
+            this.analyticsStage = new PipelineStage<>("analytics", analyticsPartitions, queueCapacity, overflowPolicy, this::analyzeReading);
+        }
+        this.scoringWave = ThreadLocal.withInitial(() -> new ScoringWave(Math.max(1, analyticsBatchSize)));
+        this.persistStage = new PipelineStage<>("persist", persistWorkers, queueCapacity, overflowPolicy, this::persistReading);
+    }
 
     @Override
     public void run(String... args) throws Exception {
+        writeBehind.start();
+        persistStage.start();
+        analyticsStage.start();
+        parseStage.start();
+        if (timeSeriesStore != null) {
+            warmUpWindowsFromStore();  // local store の最新 windowSize 件で window を初期化
+        } else {
+            warmUpWindows();  // DynamoDB の履歴で window を初期化 (起動時 1回だけ)
+        }
         initializeClient();  // client init & connect
-        subscribeToTopic("factory/sensor/data");  // 元のpublish topic subscribe ( AWS IoT core -> my thing / MQTT Test )
+        subscribeToTopic(topicPrefix + "/#");  // 元のpublish topic + fleet device topic (factory/sensor/data/<deviceId>) subscribe ( AWS IoT core -> my thing / MQTT Test )
         logger.info("IoT Subscriber started and subscribed to topic.");
     }
 
+    @PreDestroy
+    public void shutdown() {
+        // 上流から順に止めて、queue に残った message を下流に流し切る
+        if (transport != null) {
+            transport.disconnect();
+        }
+        parseStage.shutdown(pipelineShutdownMillis);
+        analyticsStage.shutdown(pipelineShutdownMillis);
+        persistStage.shutdown(pipelineShutdownMillis);
+        writeBehind.shutdown();  // 残りの buffer を flush
+    }
+
+    // queue depth / drop 数を定期的に出力
+    @Scheduled(fixedRate = 30000)
+    public void logPipelineStats() {
+        logger.info("Pipeline stats: received={}, {}, {}, {}, writeBehind[depth={}, written={}, throttled={}, dropped={}]",
+                metrics.received.sum(), parseStage, analyticsStage, persistStage,
+                writeBehind.getQueueDepth(), writeBehind.getWrittenCount(), writeBehind.getThrottledCount(), writeBehind.getDroppedCount());
+        if (trafficRecorder != null) {
+            try {
+                trafficRecorder.flush();  // 途中で止まっても直近 30秒分までは残る
+            } catch (IOException e) {
+                metrics.recordErrors.increment();
+                logger.error("Failed to flush traffic log", e);
+            }
+            logger.info("Traffic recorder: records={}, bytes={}{}", trafficRecorder.getRecordCount(), trafficRecorder.getByteCount(),
+                    trafficRecorder.isFull() ? " (iot.record.max-mb reached, stopped)" : "");
+        }
+    }
+
+    public PipelineStage<?>[] getPipelineStages() {
+        return new PipelineStage<?>[]{parseStage, analyticsStage, persistStage};
+    }
+
+    public DynamoDbWriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
     /**
-     * AWS IoT MQTT client init & connect.
+     * analytics stage の完了ごとに呼ばれる listener を設定 (null で解除).
+     */
+    public void setReadingListener(ReadingListener readingListener) {
+        this.readingListener = readingListener;
+    }
+
+    /**
+     * MQTT transport init & connect.
      * if connect failed -> retry
      */
     private void initializeClient() {
         try {
-            Security.addProvider(new BouncyCastleProvider());
-            KeyStore keyStore = loadKeyStore(certificateFile, privateKeyFile);
-
-            client = new AWSIotMqttClient(clientEndpoint, clientId, keyStore, "password");
-            client.connect();
-            logger.info("Connected to AWS IoT endpoint: {}", clientEndpoint);
+            transport = transportFactory.create(clientId);
+            transport.connect();
+            logger.info("Connected to MQTT endpoint: {}", transportFactory.describeEndpoint());
         } catch (Exception e) {
             logger.error("Failed to connect to AWS IoT. Retrying in 5 seconds...", e);
             try {
@@ -92,242 +214,449 @@ public class IoTSubscriber implements CommandLineRunner {
      */
     private void subscribeToTopic(String topic) {
         try {
-            AWSIotTopic iotTopic = new AWSIotTopic(topic, AWSIotQos.QOS1) {
-                @Override
-                public void onMessage(AWSIotMessage message) {
-                    processMessage(message);  // 受けたメッセージを処理
-                }
-            };
-            client.subscribe(iotTopic);
+            transport.subscribe(topic, this::processMessage);  // 受けたメッセージを処理
             logger.info("Subscribed to topic: {}", topic);
-        } catch (AWSIotException e) {
+        } catch (Exception e) {
             logger.error("Failed to subscribe to topic: {}", topic, e);
         }
     }
 
     /**
-     * 受けたメッセージを処理: JSON parsing, 異常感知, DynamoDB save.
-     * @param message 受けた AWS IoT メッセージ
+     * 受けたメッセージを処理: MQTT callback thread ではここで pipeline に渡すだけ.
+     * (JSON parsing, 異常感知, DynamoDB save は各 stage の worker で実行)
+     * per-message の log は iot.logging.sample-rate ごとに 1件だけ INFO, 残りは DEBUG.
+     * @param topic 受けた MQTT topic
+     * @param payload message body (JSON / binary)
      */
-    private void processMessage(AWSIotMessage message) {
-        String payload = message.getStringPayload();
-        logger.info("Received message: {}", payload);
-
-        try {
-            // JSON 파싱
-            JsonNode jsonNode = objectMapper.readTree(payload);
-            String timestamp = jsonNode.get("timestamp").asText();
-            double temperature = jsonNode.get("temperature").asDouble();
-            double humidity = jsonNode.get("humidity").asDouble();
-            double vibration = jsonNode.get("vibration").asDouble();
+    void processMessage(String topic, byte[] payload) {
+        long ingestNanos = System.nanoTime();
+        metrics.received.increment();
+        metrics.receivedBytes.add(payload.length);
+        if (trafficRecorder != null) {
+            recordTraffic(topic, payload, ingestNanos);
+        }
+        if (metrics.sampleLog()) {
+            if (logger.isInfoEnabled()) {
+                logger.info("Received message (1/{} sampled): {}", metrics.getLogSampleRate(), describePayload(payload));
+            }
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("Received message: {}", describePayload(payload));
+        }
 
-            // Digital Twin update (Virtual Model Simulation)
-            digitalTwin.updateFromSensor(temperature, humidity, vibration);
+        // 同じ topic (= 同じデバイス) の message は同じ parse worker に入るので順序が保たれる.
+        // queue 満杯で捨てた分は iot_pipeline_dropped_total{stage="parse"} (過負荷時に message ごとの log は出さない)
+        parseStage.submit(topic, new RawMessage(topic, payload, ingestNanos));
+        metrics.ingest.record(IngestMetrics.elapsedSince(ingestNanos));
+    }
 
-            // ML + Digital Twin Integrate prediction
-            performIntegratedPrediction(temperature, vibration);
+    // parse stage: binary / JSON 自動判別 (先頭 byte) -> deviceId で analytics partition へ
+    private void parseMessage(RawMessage raw) {
+        long startNanos = System.nanoTime();
+        if (BinaryReadingCodec.isBatch(raw.payload) || SensorReadingCodec.isBatch(raw.payload)) {
+            parseBatch(raw, startNanos);
+            return;
+        }
+        try {
+            SensorReading reading = new SensorReading();
+            if (BinaryReadingCodec.isBinary(raw.payload)) {
+                BinaryReadingCodec.read(raw.payload, reading);
+            } else {
+                SensorReadingCodec.read(raw.payload, reading);  // legacy JSON
+            }
+            reading.deviceId = resolveDeviceId(reading.deviceId, raw.topic);
+            reading.ingestNanos = raw.ingestNanos;
+            metrics.parse.record(IngestMetrics.elapsedSince(startNanos));
+            metrics.decodedReadings.increment();
 
-            // DynamoDB save
-            saveToDynamoDB(timestamp, temperature, humidity, vibration);
+            analyticsStage.submit(reading.deviceId, reading);
         } catch (Exception e) {
-            logger.error("Error processing message: {}", payload, e);
+            metrics.parseErrors.increment();
+            logger.error("Error processing message: {}", describePayload(raw.payload), e);
         }
     }
 
-    /**
-     * parsed sensor data -> DynamoDB Save
-     * @param timestamp タイムスタンプ
-     * @param temperature 温度
-     * @param humidity 湿度
-     * @param vibration 振動
-     */
-    private void saveToDynamoDB(String timestamp, double temperature, double humidity, double vibration) {
-        Map<String, AttributeValue> item = new HashMap<>();
-        item.put("timestamp", AttributeValue.builder().s(timestamp).build());
-        item.put("temperature", AttributeValue.builder().n(String.valueOf(temperature)).build());
-        item.put("humidity", AttributeValue.builder().n(String.valueOf(humidity)).build());
-        item.put("vibration", AttributeValue.builder().n(String.valueOf(vibration)).build());
+    // publisher 側 batching の envelope: 全件 decode できてから envelope 内の順番に analytics へ (同じデバイスは同じ partition なので順序が保たれる)
+    private void parseBatch(RawMessage raw, long startNanos) {
+        List<SensorReading> readings = new ArrayList<>();
+        try {
+            if (BinaryReadingCodec.isBinary(raw.payload)) {
+                BinaryReadingCodec.readBatch(raw.payload, readings);
+            } else {
+                SensorReadingCodec.readBatch(raw.payload, readings);
+            }
+        } catch (Exception e) {
+            metrics.parseErrors.increment();
+            logger.error("Error processing batch message: {}", describePayload(raw.payload), e);
+            return;
+        }
+        for (SensorReading reading : readings) {
+            reading.deviceId = resolveDeviceId(reading.deviceId, raw.topic);
+            reading.ingestNanos = raw.ingestNanos;
+        }
+        metrics.batches.increment();
+        metrics.batchedReadings.add(readings.size());
+        metrics.decodedReadings.add(readings.size());
+        metrics.parse.record(IngestMetrics.elapsedSince(startNanos));
 
-        PutItemRequest request = PutItemRequest.builder()
-                .tableName(tableName)
-                .item(item)
-                .build();
+        for (SensorReading reading : readings) {
+            analyticsStage.submit(reading.deviceId, reading);
+        }
+    }
 
+    private void recordTraffic(String topic, byte[] payload, long receivedNanos) {
         try {
-            dynamoDbClient.putItem(request);
-            logger.info("Data saved to DynamoDB: timestamp={}, temperature={}, humidity={}, vibration={}", timestamp, temperature, humidity, vibration);
-        } catch (DynamoDbException e) {
-            logger.error("Failed to save to DynamoDB: {}", e.getMessage(), e);
-            e.printStackTrace();
+            trafficRecorder.record(topic, payload, receivedNanos);
+        } catch (IOException e) {
+            metrics.recordErrors.increment();
+            logger.error("Failed to record traffic", e);
         }
     }
 
-    private static KeyStore loadKeyStore(String certPath, String keyPath) throws Exception {
-        CertificateFactory factory = CertificateFactory.getInstance("X.509");
-        X509Certificate cert = (X509Certificate) factory.generateCertificate(new FileInputStream(certPath));
-
-        PEMParser pemParser = new PEMParser(new FileReader(keyPath));
-        Object object = pemParser.readObject();
-        JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider("BC");
-        java.security.KeyPair keyPair = converter.getKeyPair((org.bouncycastle.openssl.PEMKeyPair) object);
-        pemParser.close();
-
-        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-        keyStore.load(null, null);
-        keyStore.setCertificateEntry("alias", cert);
-        keyStore.setKeyEntry("alias", keyPair.getPrivate(), "password".toCharArray(), new java.security.cert.Certificate[]{cert});
+    // log 用: binary payload はそのまま出さずに長さだけ
+    private static String describePayload(byte[] payload) {
+        if (BinaryReadingCodec.isBinary(payload)) {
+            String kind = BinaryReadingCodec.isBatch(payload) ? "binary batch v"
+                    : (payload.length > 2 && (payload[2] & BinaryReadingCodec.flagHeartbeat) != 0) ? "binary heartbeat v" : "binary v";
+            return kind + payload[1] + " (" + payload.length + " bytes)";
+        }
+        return new String(payload, StandardCharsets.UTF_8);
+    }
 
-        return keyStore;
+    // twin/analytics stage: 同じデバイスは常に同じ worker で順番に処理される
+    private void analyzeReading(SensorReading reading) {
+        if (reading.heldSamples > 0) {
+            analyzeHeartbeat(reading);
+            return;
+        }
+        // Digital Twin update (Virtual Model Simulation)
+        long startNanos = System.nanoTime();
+        TwinModel twin = twinRegistry.forDevice(reading.deviceId);
+        twin.updateFromSensor(reading.temperature, reading.humidity, reading.vibration, reading.epochMillis);
+        long twinNanos = System.nanoTime();
+        metrics.twinUpdate.record(twinNanos - startNanos);
+        hotTier.append(reading.deviceId, reading.epochMillis, reading.temperature, reading.humidity, reading.vibration);
+        rollupRegistry.record(reading.deviceId, reading.epochMillis, reading.temperature, reading.humidity, reading.vibration);
+
+        // ML + Digital Twin Integrate prediction (過去の window と比較した後、window に追加)
+        AnomalyEngine.AnomalyResult result = performIntegratedPrediction(twin, reading.temperature, reading.humidity, reading.vibration);
+        long doneNanos = System.nanoTime();
+        metrics.prediction.record(doneNanos - twinNanos);
+        metrics.endToEnd.record(doneNanos - reading.ingestNanos);
+
+        completeReading(reading, result);
     }
 
-    private class TwinModel {
-        double currentTemp = 0.0;
-        double currentHumidity = 0.0;
-        double currentVibration = 0.0;
-        double accumulatedWear = 0.0;  // 累積摩耗度(振動 -> simulation)
-        double energyEfficiency = 100.0;  // エネルギー効率 (温度・湿度 -> simulation)
-
-        //sensor data -> digital twin (update)
-        public void updateFromSensor(double temp, double hum, double vib) {
-            currentTemp = temp;
-            currentHumidity = hum;
-            currentVibration = vib;
-
-            // logic: 振動で摩耗累積(factory DOWNTIME simulation)
-            accumulatedWear += vib * 0.05;  // 任意係数（現実的に設定）
-
-            // logic: エネルギー効率 (温度・湿度超過時の効率低下)
-            if (temp > 30 || hum > 70) {
-                energyEfficiency -= 1.0;  // 効率 down
+    /**
+     * batch の analytics (iot.analytics.batch-size > 1): 取り出した reading を wave (同じデバイスは 1件まで) に分け、
+     * wave ごとに twin 更新 -> window の統計を集める -> BatchAnomalyScorer で一度に判定 -> window に追加.
+     * 同じデバイスの 2件目は次の wave なので、判定に使う window / twin は per-message と同じ (同じ alert になる).
+     * 順番は取り出した順のまま (heartbeat の前で wave を閉じる).
+     */
+    private void analyzeBatch(List<SensorReading> readings) {
+        ScoringWave wave = scoringWave.get();
+        for (SensorReading reading : readings) {
+            if (reading.heldSamples > 0) {
+                scoreWave(wave);
+                analyzeHeartbeat(reading);
+                continue;
+            }
+            if (!wave.devices.add(reading.deviceId)) {
+                scoreWave(wave);
+                wave.devices.add(reading.deviceId);
             }
+            long startNanos = System.nanoTime();
+            TwinModel twin = twinRegistry.forDevice(reading.deviceId);
+            twin.updateFromSensor(reading.temperature, reading.humidity, reading.vibration, reading.epochMillis);
+            metrics.twinUpdate.record(IngestMetrics.elapsedSince(startNanos));
+            hotTier.append(reading.deviceId, reading.epochMillis, reading.temperature, reading.humidity, reading.vibration);
+            rollupRegistry.record(reading.deviceId, reading.epochMillis, reading.temperature, reading.humidity, reading.vibration);
+            anomalyEngine.gather(reading.deviceId, reading.temperature, reading.vibration,
+                    twin.getAccumulatedWear(), twin.getEnergyEfficiency(), wave.batch);
+            wave.readings.add(reading);
+        }
+        scoreWave(wave);
+    }
 
-            logger.info("Digital Twin updated: Wear={}, Efficiency={}%", accumulatedWear, energyEfficiency);
+    private void scoreWave(ScoringWave wave) {
+        int size = wave.readings.size();
+        if (size == 0) {
+            return;
         }
+        long startNanos = System.nanoTime();
+        AnomalyEngine.AnomalyResult result = anomalyResult.get();
+        try {
+            batchScorer.score(wave.batch);
+        } catch (Exception e) {
+            metrics.predictionErrors.add(size);
+            logger.error("Error in batch prediction ({} readings): {}", size, e.getMessage(), e);
+            Arrays.fill(wave.batch.flags, 0, size, (byte) 0);  // 判定できなかった lane は evaluated=false として流す
+        }
+        long perReadingNanos = (System.nanoTime() - startNanos) / size;
+        for (int lane = 0; lane < size; lane++) {
+            SensorReading reading = wave.readings.get(lane);
+            anomalyEngine.windows().forDevice(reading.deviceId).add(reading.temperature, reading.humidity, reading.vibration);
+            wave.batch.copyTo(lane, result);
+            recordPrediction(reading.deviceId, reading.temperature, reading.vibration, result);
+            metrics.prediction.record(perReadingNanos);
+            metrics.endToEnd.record(IngestMetrics.elapsedSince(reading.ingestNanos));
+            completeReading(reading, result);
+        }
+        wave.readings.clear();
+        wave.devices.clear();
+        wave.batch.clear();
+    }
+
+    // analytics 完了: listener / live stream に通知して保存へ
+    private void completeReading(SensorReading reading, AnomalyEngine.AnomalyResult result) {
+        ReadingListener listener = readingListener;
+        if (listener != null) {
+            listener.onAnalyzed(reading, result);
+        }
+        liveStreamHub.publish(reading, result);  // client がいなければ何もしない
+
+        // DynamoDB save
+        persistStage.submit(reading.deviceId, reading);
+    }
 
-        public double getAccumulatedWear() {
-            return accumulatedWear;
+    /**
+     * edge 側 deadband の heartbeat: 送られなかった sample を平均 ± 標準偏差で復元して twin / window に反映する.
+     * 摩耗は振動の合計で決まるので全 sample を受けた時と (平均の丸め分を除いて) 同じ. 効率低下と window (傾き / 順序) は近似.
+     * 値は deadband 内なので異常判定はせず, listener には evaluated=false で通知する.
+     * hot tier には heartbeat の時刻に平均を 1点, rollup には held 件分. 保存 (local store / DynamoDB) はしない.
+     */
+    private void analyzeHeartbeat(SensorReading heartbeat) {
+        long startNanos = System.nanoTime();
+        metrics.heartbeats.increment();
+        metrics.heldSamples.add(heartbeat.heldSamples);
+        twinRegistry.forDevice(heartbeat.deviceId).updateFromHeld(heartbeat);
+        metrics.twinUpdate.record(IngestMetrics.elapsedSince(startNanos));
+        anomalyEngine.windows().forDevice(heartbeat.deviceId).addHeld(heartbeat);
+        hotTier.append(heartbeat.deviceId, heartbeat.epochMillis, heartbeat.temperature, heartbeat.humidity, heartbeat.vibration);
+        rollupRegistry.recordHeld(heartbeat);
+        metrics.endToEnd.record(IngestMetrics.elapsedSince(heartbeat.ingestNanos));
+
+        ReadingListener listener = readingListener;
+        if (listener != null) {
+            AnomalyEngine.AnomalyResult result = anomalyResult.get();
+            result.reset();  // evaluated=false
+            listener.onAnalyzed(heartbeat, result);
         }
+    }
 
-        public double getEnergyEfficiency() {
-            return energyEfficiency;
+    /**
+     * deviceId: payload の "deviceId" -> topic suffix (factory/sensor/data/<deviceId>) -> default の順
+     */
+    private static String resolveDeviceId(String payloadDeviceId, String topic) {
+        if (payloadDeviceId != null && !payloadDeviceId.isEmpty()) {
+            return payloadDeviceId;
+        }
+        if (topic != null && topic.length() > topicPrefix.length() + 1 && topic.startsWith(topicPrefix + "/")) {
+            return topic.substring(topicPrefix.length() + 1);
         }
+        return defaultDeviceId;
     }
 
-    //ML + Digital Twin 統合予測: 過去のデータ -> 統計/ML分析 -> ツイン状態との比較
-    private void performIntegratedPrediction(double currentTemp, double currentVib) {
-        try {
-            // 過去のデータ(最近の10個のデータ （温度・振動）
-            List<Double> recentTemps = queryRecentValues("temperature", 10);
-            List<Double> recentVibs = queryRecentValues("vibration", 10);
+    // persistence stage: local store (あれば) に同期で追記 -> DynamoDB へは write-behind で非同期に replica
+    private void persistReading(SensorReading reading) {
+        if (timeSeriesStore != null) {
+            long startNanos = System.nanoTime();
+            try {
+                timeSeriesStore.append(reading.deviceId, reading.epochMillis, reading.temperature, reading.humidity, reading.vibration);
+            } catch (IOException e) {
+                metrics.storeErrors.increment();
+                logger.error("Failed to append to local store: {}", reading, e);
+            }
+            metrics.storeAppend.record(IngestMetrics.elapsedSince(startNanos));
+        }
+        if (dynamoDbReplica) {
+            saveToDynamoDB(reading);
+        }
+    }
 
-            if (recentTemps.size() < 2 || recentVibs.size() < 2) {
-                logger.info("Skipping ML prediction: Not enough data (temps: {}, vibs: {})", recentTemps.size(), recentVibs.size());
-                return;  // データ 足りない場合 -> Skip
+    /**
+     * parsed sensor data -> DynamoDB Save (write-behind buffer に積むだけ. 実際の書き込みは flusher thread)
+     * @param reading parse 済みのセンサーデータ
+     */
+    private void saveToDynamoDB(SensorReading reading) {
+        long startNanos = System.nanoTime();
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("deviceId", AttributeValue.builder().s(reading.deviceId).build());
+        item.put("timestamp", AttributeValue.builder().s(reading.timestamp).build());
+        item.put("temperature", AttributeValue.builder().n(String.valueOf(reading.temperature)).build());
+        item.put("humidity", AttributeValue.builder().n(String.valueOf(reading.humidity)).build());
+        item.put("vibration", AttributeValue.builder().n(String.valueOf(reading.vibration)).build());
+
+        if (writeBehind.enqueue(item)) {
+            logger.debug("Data queued for DynamoDB: {}", reading);
+        } else {
+            metrics.saveDropped.increment();
+            long now = System.currentTimeMillis();
+            long last = lastSaveDropLogMillis.get();
+            if (now - last >= saveDropLogIntervalMillis && lastSaveDropLogMillis.compareAndSet(last, now)) {
+                logger.error("DynamoDB write buffer full, dropping readings (total dropped={})", metrics.saveDropped.sum());
             }
+        }
+        metrics.save.record(IngestMetrics.elapsedSince(startNanos));
+    }
 
-            if (!recentTemps.isEmpty() && !recentVibs.isEmpty()) {
-                // 統計的 異常を感知
-                DescriptiveStatistics tempStats = new DescriptiveStatistics();
-                recentTemps.forEach(tempStats::addValue);
-                double tempMean = tempStats.getMean();
-                double tempStdDev = tempStats.getStandardDeviation();
-                double tempThreshold = tempMean + 2 * tempStdDev;
+    /**
+     * analytics (twin 更新 + 異常判定) が終わった reading の通知. analytics worker の thread で呼ばれる.
+     * heartbeat (heldSamples > 0) も evaluated=false の result で通知する.
+     */
+    public interface ReadingListener {
+        void onAnalyzed(SensorReading reading, AnomalyEngine.AnomalyResult result);
+    }
 
-                if (currentTemp > tempThreshold) {
-                    logger.warn("Statistical anomaly in temperature: Current {} > Threshold {}", currentTemp, tempThreshold);
-                }
+    // MQTT から受けたままの message (ingest -> parse stage)
+    private static class RawMessage {
+        final String topic;
+        final byte[] payload;
+        final long ingestNanos;  // processMessage に入った時刻 (System.nanoTime)
 
-                //線形回帰予測（Weka：振動傾向予測）
-                double predictedVib = predictTrend(recentVibs);  // 次の振動予測
-                double vibDiff = Math.abs(currentVib - predictedVib);
+        RawMessage(String topic, byte[] payload, long ingestNanos) {
+            this.topic = topic;
+            this.payload = payload;
+            this.ingestNanos = ingestNanos;
+        }
+    }
 
-                if (vibDiff > 2.0) {  // 差の しきい値
-                    logger.warn("ML trend anomaly in vibration: Current {} vs Predicted {}", currentVib, predictedVib);
-                }
+    // batch analytics の wave (analytics worker ごとに 1つ, 使い回す)
+    private static class ScoringWave {
+        final List<SensorReading> readings;
+        final Set<String> devices = new HashSet<>();
+        final BatchAnomalyScorer.Batch batch;
 
-                // Digital Twinと ML 統合: ツイン摩耗度 ＋ ML 予測 比較
-                double twinWear = digitalTwin.getAccumulatedWear();
-                double twinEfficiency = digitalTwin.getEnergyEfficiency();
-                if (twinWear > 50 || twinEfficiency < 80 || vibDiff > 2.0) {
-                    logger.warn("Integrated ML + Digital Twin alert: High wear ({}), Low efficiency ({}%), Vib anomaly ({})", twinWear, twinEfficiency, vibDiff);
-                    // TODO: 実際のアラム（SNS/Email） または ダッシュボード UPDATE
-                }
-            }
+        ScoringWave(int capacity) {
+            this.readings = new ArrayList<>(capacity);
+            this.batch = new BatchAnomalyScorer.Batch(capacity);
+        }
+    }
+
+    //ML + Digital Twin 統合予測: 過去のデータ -> 統計/トレンド分析 -> ツイン状態との比較
+    // 件数は metrics で全件数える. log は per-message なので sample したものだけ出す
+    private AnomalyEngine.AnomalyResult performIntegratedPrediction(TwinModel twin, double currentTemp, double currentHum, double currentVib) {
+        AnomalyEngine.AnomalyResult result = anomalyResult.get();
+        try {
+            anomalyEngine.evaluate(twin.deviceId, currentTemp, currentHum, currentVib,
+                    twin.getAccumulatedWear(), twin.getEnergyEfficiency(), result);
+            recordPrediction(twin.deviceId, currentTemp, currentVib, result);
         } catch (Exception e) {
+            metrics.predictionErrors.increment();
             logger.error("Error in integrated prediction: {}", e.getMessage(), e);
             e.printStackTrace();
         }
+        return result;
+    }
+
+    // 判定結果の件数を数え、sample した reading だけ log に出す (per-message / batch 共通)
+    private void recordPrediction(String deviceId, double currentTemp, double currentVib, AnomalyEngine.AnomalyResult result) {
+        boolean sampled = metrics.sampleLog();
+        if (!result.evaluated) {
+            if (sampled) {
+                logger.info("Skipping ML prediction: Not enough data (samples: {})", result.sampleCount);
+            }
+            return;  // データ 足りない場合 -> Skip
+        }
+        if (sampled) {
+            logger.info("Digital Twin updated: device={}, Wear={}, Efficiency={}%", deviceId, result.twinWear, result.twinEfficiency);
+        }
+        if (result.tempAnomaly) {
+            metrics.tempAnomalies.increment();
+        }
+        if (result.vibAnomaly) {
+            metrics.vibAnomalies.increment();
+        }
+        if (result.integratedAlert) {
+            metrics.integratedAlerts.increment();
+        }
+        if (!sampled) {
+            return;
+        }
+        if (result.tempAnomaly) {
+            logger.warn("Statistical anomaly in temperature: Current {} > Threshold {}", currentTemp, result.tempThreshold);
+        }
+        if (result.vibAnomaly) {
+            logger.warn("ML trend anomaly in vibration: Current {} vs Predicted {}", currentVib, result.predictedVib);
+        }
+        if (result.integratedAlert) {
+            logger.warn("Integrated ML + Digital Twin alert: High wear ({}), Low efficiency ({}%), Vib anomaly ({})", result.twinWear, result.twinEfficiency, result.vibDiff);
+            // TODO: 実際のアラム（SNS/Email） または ダッシュボード UPDATE
+        }
+    }
+
+    /**
+     * 起動時に local store から window を埋める (デバイスごとに最新 windowSize 件, Scan なし).
+     */
+    private void warmUpWindowsFromStore() {
+        double[] temps = new double[windowSize];
+        double[] hums = new double[windowSize];
+        double[] vibs = new double[windowSize];
+        int devices = 0;
+        for (String deviceId : timeSeriesStore.deviceIds()) {
+            int[] count = {0};
+            timeSeriesStore.latest(deviceId, windowSize, (ts, t, h, v) -> {  // 新しい順
+                temps[count[0]] = t;
+                hums[count[0]] = h;
+                vibs[count[0]] = v;
+                count[0]++;
+                return true;
+            });
+            SensorWindowRegistry.DeviceWindows deviceWindows = anomalyEngine.windows().forDevice(deviceId);
+            for (int i = count[0] - 1; i >= 0; i--) {  // 古い順に追加
+                deviceWindows.add(temps[i], hums[i], vibs[i]);
+            }
+            devices++;
+        }
+        logger.info("Warmed up windows for {} devices from local store ({} rows)", devices, timeSeriesStore.rowCount());
     }
 
     /**
-     * DynamoDBから最近の数をQUERY
-     * @param attribute QUERY属性（ex、 温度）
-     * @param limit 最近の数
-     * @return 数のリスト
+     * 起動時に DynamoDB の履歴から window を埋める (以前は message ごとに Scan していた).
+     * 最大 warmUpMaxItems 件を scan し、デバイスごとに timestamp 順で最新 windowSize 件を残す.
      */
-    private List<Double> queryRecentValues(String attribute, int limit) {
-        List<Double> values = new ArrayList<>();
+    private void warmUpWindows() {
         Map<String, String> expressionNames = new HashMap<>();
-        expressionNames.put("#attr", attribute);  // attribute alias
-        expressionNames.put("#ts", "timestamp");  // timestamp alias
+        expressionNames.put("#dev", "deviceId");
+        expressionNames.put("#ts", "timestamp");
+        expressionNames.put("#temp", "temperature");
+        expressionNames.put("#hum", "humidity");
+        expressionNames.put("#vib", "vibration");
 
         ScanRequest request = ScanRequest.builder()
                 .tableName(tableName)
-                .projectionExpression("#attr, #ts")  // alias
+                .projectionExpression("#dev, #ts, #temp, #hum, #vib")
                 .expressionAttributeNames(expressionNames)
-                .limit(limit * 2)
                 .build();
 
         try {
-            ScanResponse response = dynamoDbClient.scan(request);
-            List<Map<String, AttributeValue>> items = new ArrayList<>(response.items());
-            items.sort((a, b) -> b.get("timestamp").s().compareTo(a.get("timestamp").s()));
-
-            for (int i = 0; i < Math.min(limit, items.size()); i++) {
-                Map<String, AttributeValue> item = items.get(i);
-                if (item.containsKey(attribute)) {
-                    values.add(Double.parseDouble(item.get(attribute).n()));
+            Map<String, List<Map<String, AttributeValue>>> byDevice = new HashMap<>();
+            int scanned = 0;
+            for (Map<String, AttributeValue> item : dynamoDbClient.scanPaginator(request).items()) {
+                if (++scanned > warmUpMaxItems) {
+                    break;
                 }
+                if (!item.containsKey("timestamp") || !item.containsKey("temperature")
+                        || !item.containsKey("humidity") || !item.containsKey("vibration")) {
+                    continue;
+                }
+                String deviceId = item.containsKey("deviceId") ? item.get("deviceId").s() : defaultDeviceId;
+                byDevice.computeIfAbsent(deviceId, id -> new ArrayList<>()).add(item);
             }
-        } catch (DynamoDbException e) {
-            logger.error("Failed to scan {}: {} (Error code: {})", attribute, e.getMessage(), e.awsErrorDetails().errorCode(), e);
-            e.printStackTrace();
-        }
-        return values;
-    }
-
-    /**
-     * Weka 線形回帰によるトレンド予測(最近のデータベースの次の値予測)
-     * @param recentValues 最近の数のリスト
-     * @return 予測の数
-     * @throws Exception Weka エラー時
-     */
-    private double predictTrend(List<Double> recentValues) throws Exception {
-        if (recentValues.size() < 2) {
-            throw new Exception("Not enough data for linear regression: size " + recentValues.size());
-        }
-        ArrayList<Attribute> attributes = new ArrayList<>();
-        attributes.add(new Attribute("time"));  // 入力： 時間のINDEX
-        attributes.add(new Attribute("value"));  // 出力： 数 (温度・振動
-
-        Instances data = new Instances("trend", attributes, recentValues.size());
-        data.setClassIndex(1);
 
-        for (int i = 0; i < recentValues.size(); i++) {
-            DenseInstance instance = new DenseInstance(2);
-            instance.setValue(0, i);
-            instance.setValue(1, recentValues.get(i));
-            data.add(instance);
+            for (Map.Entry<String, List<Map<String, AttributeValue>>> entry : byDevice.entrySet()) {
+                List<Map<String, AttributeValue>> items = entry.getValue();
+                items.sort((a, b) -> a.get("timestamp").s().compareTo(b.get("timestamp").s()));  // 古い順
+                SensorWindowRegistry.DeviceWindows deviceWindows = anomalyEngine.windows().forDevice(entry.getKey());
+                for (int i = Math.max(0, items.size() - windowSize); i < items.size(); i++) {
+                    Map<String, AttributeValue> item = items.get(i);
+                    deviceWindows.add(Double.parseDouble(item.get("temperature").n()),
+                            Double.parseDouble(item.get("humidity").n()),
+                            Double.parseDouble(item.get("vibration").n()));
+                }
+            }
+            logger.info("Warmed up windows for {} devices from {} DynamoDB items", byDevice.size(), Math.min(scanned, warmUpMaxItems));
+        } catch (DynamoDbException e) {
+            logger.error("Failed to warm up windows from DynamoDB: {}", e.getMessage(), e);
         }
-
-        LinearRegression model = new LinearRegression();
-        model.buildClassifier(data);
-
-        // 次の数を予測 (time = recentValues.size())
-        DenseInstance next = new DenseInstance(2);
-        next.setValue(0, recentValues.size());
-        next.setDataset(data);
-
-        return model.classifyInstance(next);
     }
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.example.iotspringboot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * lock-free な log-linear histogram (HdrHistogram と同じ考え方, 相対誤差 ~3%).
+ * 0..63 は 1 刻み, それ以上は 2 の冪ごとに 32 分割. 複数 thread から record して良い.
+ * percentile は起動からの累積, recentPercentile は直近 1〜2 phase (default 60秒 x 2) だけの値.
+ */
+public class LatencyHistogram {
+
+    private static final int subBits = 5;
+    private static final int subCount = 1 << subBits;  // 32
+    private static final int bucketCount = (64 - subBits) * subCount;  // long 全範囲をカバー
+    private static final long defaultRecentPhaseNanos = TimeUnit.SECONDS.toNanos(60);
+
+    private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    // 直近の分: 2 phase を交互に使い、phase が終わったら古い方を空にして切り替える
+    private final AtomicLongArray[] recent = {new AtomicLongArray(bucketCount), new AtomicLongArray(bucketCount)};
+    private final long recentPhaseNanos;
+    private final LongSupplier nanoClock;
+    private volatile int recentPhase;
+    private long recentPhaseStartNanos;  // synchronized (rotateRecent)
+
+    public LatencyHistogram() {
+        this(defaultRecentPhaseNanos, System::nanoTime);
+    }
+
+    // test 用: phase の長さと時計を指定
+    LatencyHistogram(long recentPhaseNanos, LongSupplier nanoClock) {
+        this.recentPhaseNanos = recentPhaseNanos;
+        this.nanoClock = nanoClock;
+        this.recentPhaseStartNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * @param value 記録する値 (nanos など, 負の値は 0 として扱う)
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int index = indexOf(value);
+        buckets.incrementAndGet(index);
+        recent[recentPhase].incrementAndGet(index);
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    static int indexOf(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - subBits);
+        return (shift << subBits) + (int) (value >>> shift);
+    }
+
+    // bucket に入る最大値
+    static long highestValueOf(int index) {
+        if (index < 2 * subCount) {
+            return index;
+        }
+        int shift = (index >> subBits) - 1;
+        long top = (index & (subCount - 1)) | subCount;
+        return ((top + 1) << shift) - 1;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param percentile 0 ~ 100 (例: 99.9)
+     * @return 起動から (reset から) の全記録でその percentile を含む bucket の上限値 (max を超えない). 記録がなければ 0
+     */
+    public long percentile(double percentile) {
+        return percentileOf(percentile, buckets, null);
+    }
+
+    /**
+     * 直近の記録だけの percentile (/metrics の summary 用). 現在の phase + 1つ前の phase = 直近 60〜120秒.
+     * phase の切り替えは読み出し時に行うので、読み出し間隔が phase より長いと 1つ前の phase はその間全部になる.
+     * @return 直近に記録がなければ 0
+     */
+    public long recentPercentile(double percentile) {
+        rotateRecent();
+        return percentileOf(percentile, recent[0], recent[1]);
+    }
+
+    private synchronized void rotateRecent() {
+        long now = nanoClock.getAsLong();
+        if (now - recentPhaseStartNanos < recentPhaseNanos) {
+            return;
+        }
+        int next = 1 - recentPhase;
+        clear(recent[next]);  // 2つ前の phase
+        recentPhase = next;
+        recentPhaseStartNanos = now;
+    }
+
+    private long percentileOf(double percentile, AtomicLongArray a, AtomicLongArray b) {
+        long total = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            total += a.get(i) + (b != null ? b.get(i) : 0);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            seen += a.get(i) + (b != null ? b.get(i) : 0);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static void clear(AtomicLongArray array) {
+        for (int i = 0; i < bucketCount; i++) {
+            array.set(i, 0);
+        }
+    }
+
+    public void reset() {
+        clear(buckets);
+        clear(recent[0]);
+        clear(recent[1]);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
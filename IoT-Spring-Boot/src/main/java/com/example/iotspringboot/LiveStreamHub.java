@@ -0,0 +1,474 @@
+package com.example.iotspringboot;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * dashboard への live stream (Server-Sent Events) の fan-out.
+ * analytics stage から publish された event は 1回だけ encode して全 client で共有する (メトリックの組み合わせごとに cache).
+ * client ごとに bounded buffer を持ち、満杯時は policy に従って捨てる/まとめるので、遅い browser が ingest を止めることはない.
+ * 送信は client ごとに dispatcher thread (cached pool) で行う. client がいなければ publish は何もしない.
+ */
+@Component
+public class LiveStreamHub {
+
+    private static final Logger logger = LoggerFactory.getLogger(LiveStreamHub.class);
+
+    public static final int metricTemperature = 1;
+    public static final int metricHumidity = 2;
+    public static final int metricVibration = 4;
+    public static final int allMetrics = metricTemperature | metricHumidity | metricVibration;
+
+    private static final long keepAliveSeconds = 15;
+    private static final byte[] keepAliveFrame = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * client buffer 満杯時の動作.
+     */
+    public enum OverflowPolicy {
+        DROP_OLDEST,  // 一番古い event を捨てる
+        DROP_NEWEST,  // 新しい event を捨てる
+        COALESCE      // reading / twin はデバイスごとに最新だけ残す (alert はまとめない), それでも満杯なら古い方を捨てる
+    }
+
+    /**
+     * event の種類 (client の events= filter).
+     */
+    public enum EventType {
+        READING, TWIN, ALERT;
+
+        final String frameName = name().toLowerCase();
+    }
+
+    private final CopyOnWriteArrayList<Client> clients = new CopyOnWriteArrayList<>();
+    private final int maxClients;
+    private final AtomicInteger clientSlots = new AtomicInteger();  // 登録済み + 登録中 (上限の判定用)
+    private final ExecutorService dispatchers = Executors.newCachedThreadPool(daemonThreads("stream-dispatcher"));
+    private final ScheduledExecutorService keepAlive = Executors.newSingleThreadScheduledExecutor(daemonThreads("stream-keepalive"));
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder encoded = new LongAdder();
+
+    public LiveStreamHub(@Value("${iot.stream.max-clients:500}") int maxClients) {
+        this.maxClients = maxClients;
+        keepAlive.scheduleAtFixedRate(this::sendKeepAlive, keepAliveSeconds, keepAliveSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * client を登録. emitter の完了 / timeout / error で自動的に解除される.
+     * @param deviceIds null なら全デバイス
+     * @return client 数が上限なら null
+     */
+    public Client subscribe(ResponseBodyEmitter emitter, Set<String> deviceIds, int metricMask, Set<EventType> eventTypes,
+                            OverflowPolicy policy, int bufferCapacity) {
+        if (clientSlots.incrementAndGet() > maxClients) {  // 先に枠を確保 (size() を見てから add だと同時接続で上限を超える)
+            clientSlots.decrementAndGet();
+            return null;
+        }
+        Client client = new Client(emitter, deviceIds, metricMask == 0 ? allMetrics : metricMask & allMetrics,
+                eventTypes, policy, Math.max(1, bufferCapacity));
+        clients.add(client);
+        emitter.onCompletion(client::close);
+        emitter.onTimeout(client::close);
+        emitter.onError(e -> client.close());
+        logger.info("Stream client connected: devices={}, metrics={}, events={}, policy={}, buffer={} ({} clients)",
+                deviceIds == null ? "*" : deviceIds, client.metricMask, eventTypes, policy, client.capacity, clients.size());
+        return client;
+    }
+
+    /**
+     * analytics 完了ごとに呼ばれる (ingest thread). client がいなければ何もしない.
+     */
+    public void publish(SensorReading reading, AnomalyEngine.AnomalyResult result) {
+        if (clients.isEmpty()) {
+            return;
+        }
+        published.increment();
+        StreamEvent event = new StreamEvent(EventType.READING, reading.deviceId, reading.epochMillis,
+                reading.temperature, reading.humidity, reading.vibration, result);
+        for (Client client : clients) {
+            client.offer(event);
+        }
+        if (result.evaluated && (result.tempAnomaly || result.vibAnomaly || result.integratedAlert)) {
+            StreamEvent alert = new StreamEvent(EventType.ALERT, reading.deviceId, reading.epochMillis,
+                    reading.temperature, reading.humidity, reading.vibration, result);
+            for (Client client : clients) {
+                client.offer(alert);
+            }
+        }
+    }
+
+    public int clientCount() {
+        return clients.size();
+    }
+
+    public long getPublishedCount() {
+        return published.sum();
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getEncodedCount() {
+        return encoded.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        keepAlive.shutdownNow();
+        for (Client client : clients) {
+            client.emitter.complete();
+            client.close();
+        }
+        dispatchers.shutdownNow();
+    }
+
+    private void sendKeepAlive() {
+        for (Client client : clients) {
+            client.offer(null);  // idle 接続の維持と, 切断された client の検出
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 1 dashboard 接続. buffer は client ごと, 送信は 1 client につき同時に 1 thread だけ.
+     */
+    public final class Client {
+        private final ResponseBodyEmitter emitter;
+        private final Set<String> deviceIds;
+        private final int metricMask;
+        private final boolean readings;
+        private final boolean twins;
+        private final boolean alerts;
+        private final OverflowPolicy policy;
+        private final int capacity;
+
+        private final ArrayDeque<StreamEvent> buffer = new ArrayDeque<>();  // DROP_OLDEST / DROP_NEWEST
+        private final LinkedHashMap<Object, StreamEvent> coalesced = new LinkedHashMap<>();  // COALESCE
+        private boolean keepAlivePending;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final ArrayList<StreamEvent> pending = new ArrayList<>();  // dispatcher thread だけが使う
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        private volatile boolean closed;
+
+        private final LongAdder clientDropped = new LongAdder();
+
+        Client(ResponseBodyEmitter emitter, Set<String> deviceIds, int metricMask, Set<EventType> eventTypes,
+               OverflowPolicy policy, int capacity) {
+            this.emitter = emitter;
+            this.deviceIds = deviceIds;
+            this.metricMask = metricMask;
+            this.readings = eventTypes.contains(EventType.READING);
+            this.twins = eventTypes.contains(EventType.TWIN);
+            this.alerts = eventTypes.contains(EventType.ALERT);
+            this.policy = policy;
+            this.capacity = capacity;
+        }
+
+        public long getDroppedCount() {
+            return clientDropped.sum();
+        }
+
+        // null = keep-alive
+        void offer(StreamEvent event) {
+            if (closed) {
+                return;
+            }
+            if (event != null) {
+                if (deviceIds != null && !deviceIds.contains(event.deviceId)) {
+                    return;
+                }
+                boolean wanted = event.type == EventType.ALERT ? alerts : readings || twins;
+                if (!wanted) {
+                    return;
+                }
+            }
+            synchronized (this) {
+                if (event == null) {
+                    keepAlivePending = true;
+                } else if (policy == OverflowPolicy.COALESCE) {
+                    Object key = event.type == EventType.ALERT ? event : event.deviceId;
+                    if (coalesced.remove(key) != null) {
+                        drop();  // 同じデバイスの古い値を新しい値で置き換え (順番は最後に移す)
+                    } else if (coalesced.size() >= capacity) {
+                        Iterator<StreamEvent> eldest = coalesced.values().iterator();
+                        eldest.next();
+                        eldest.remove();
+                        drop();
+                    }
+                    coalesced.put(key, event);
+                } else if (buffer.size() >= capacity) {
+                    drop();
+                    if (policy == OverflowPolicy.DROP_NEWEST) {
+                        return;
+                    }
+                    buffer.pollFirst();
+                    buffer.addLast(event);
+                } else {
+                    buffer.addLast(event);
+                }
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    dispatchers.execute(this::drain);
+                } catch (RuntimeException e) {  // shutdown 中
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void drop() {
+            clientDropped.increment();
+            dropped.increment();
+        }
+
+        // dispatcher thread: buffer を空になるまでまとめて送る
+        private void drain() {
+            while (!closed) {
+                boolean keepAliveOnly;
+                synchronized (this) {  // lock 中は移すだけ (encode / 送信は lock の外)
+                    pending.clear();
+                    pending.addAll(policy == OverflowPolicy.COALESCE ? coalesced.values() : buffer);
+                    coalesced.clear();
+                    buffer.clear();
+                    keepAliveOnly = keepAlivePending && pending.isEmpty();
+                    keepAlivePending = false;
+                    if (pending.isEmpty() && !keepAliveOnly) {
+                        scheduled.set(false);
+                        return;  // 次の offer で再度 schedule される
+                    }
+                }
+                out.reset();
+                for (StreamEvent event : pending) {
+                    if (event.type == EventType.ALERT) {
+                        out.writeBytes(event.frame(StreamEvent.alertVariant));
+                    } else {
+                        if (readings) {
+                            out.writeBytes(event.frame(metricMask));
+                        }
+                        if (twins) {
+                            out.writeBytes(event.frame(StreamEvent.twinVariant));
+                        }
+                    }
+                }
+                if (keepAliveOnly) {
+                    out.writeBytes(keepAliveFrame);
+                }
+                int events = pending.size();
+                pending.clear();
+                try {
+                    emitter.send(out.toByteArray());  // 遅い client はここで自分の thread だけを止める
+                    sent.add(events);
+                } catch (Exception e) {  // IOException / 完了済み emitter
+                    logger.debug("Stream client disconnected: {}", e.toString());
+                    close();
+                }
+            }
+            scheduled.set(false);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (clients.remove(this)) {
+                clientSlots.decrementAndGet();
+                logger.info("Stream client closed: dropped={} ({} clients)", clientDropped.sum(), clients.size());
+            }
+        }
+    }
+
+    /**
+     * publish された 1 event. SSE frame は client が必要とした時に 1回だけ作って共有する
+     * (reading はメトリックの組み合わせ 1..7 ごと, twin, alert).
+     */
+    final class StreamEvent {
+        static final int twinVariant = 8;
+        static final int alertVariant = 9;
+
+        final EventType type;
+        final String deviceId;
+        final long epochMillis;
+        final double temperature;
+        final double humidity;
+        final double vibration;
+        // result は thread ごとに再利用されるので値をコピーしておく
+        final boolean tempAnomaly;
+        final boolean vibAnomaly;
+        final boolean integratedAlert;
+        final double tempThreshold;
+        final double vibDiff;
+        final double twinWear;
+        final double twinEfficiency;
+        private final AtomicReferenceArray<byte[]> frames = new AtomicReferenceArray<>(10);
+
+        StreamEvent(EventType type, String deviceId, long epochMillis, double temperature, double humidity, double vibration,
+                    AnomalyEngine.AnomalyResult result) {
+            this.type = type;
+            this.deviceId = deviceId;
+            this.epochMillis = epochMillis;
+            this.temperature = temperature;
+            this.humidity = humidity;
+            this.vibration = vibration;
+            this.tempAnomaly = result.tempAnomaly;
+            this.vibAnomaly = result.vibAnomaly;
+            this.integratedAlert = result.integratedAlert;
+            this.tempThreshold = result.tempThreshold;
+            this.vibDiff = result.vibDiff;
+            this.twinWear = result.twinWear;
+            this.twinEfficiency = result.twinEfficiency;
+        }
+
+        byte[] frame(int variant) {
+            byte[] frame = frames.get(variant);
+            if (frame == null) {
+                frame = encode(variant);
+                if (!frames.compareAndSet(variant, null, frame)) {
+                    frame = frames.get(variant);  // 他の dispatcher が先に作った
+                } else {
+                    encoded.increment();
+                }
+            }
+            return frame;
+        }
+
+        private byte[] encode(int variant) {
+            StringBuilder sb = new StringBuilder(192);
+            EventType frameType = variant == twinVariant ? EventType.TWIN : variant == alertVariant ? EventType.ALERT : EventType.READING;
+            sb.append("event: ").append(frameType.frameName).append("\ndata: {\"deviceId\":");
+            appendString(sb, deviceId);
+            sb.append(",\"timestamp\":\"").append(SensorTimestamps.formatIsoLocal(epochMillis))
+                    .append("\",\"epochMillis\":").append(epochMillis);
+            if (variant == twinVariant) {
+                appendNumber(sb, "temperature", temperature);
+                appendNumber(sb, "humidity", humidity);
+                appendNumber(sb, "vibration", vibration);
+                appendNumber(sb, "wear", twinWear);
+                appendNumber(sb, "efficiency", twinEfficiency);
+            } else if (variant == alertVariant) {
+                sb.append(",\"temperatureAnomaly\":").append(tempAnomaly)
+                        .append(",\"vibrationAnomaly\":").append(vibAnomaly)
+                        .append(",\"integratedAlert\":").append(integratedAlert);
+                appendNumber(sb, "temperature", temperature);
+                appendNumber(sb, "temperatureThreshold", tempThreshold);
+                appendNumber(sb, "vibration", vibration);
+                appendNumber(sb, "vibrationDiff", vibDiff);
+                appendNumber(sb, "wear", twinWear);
+                appendNumber(sb, "efficiency", twinEfficiency);
+            } else {
+                if ((variant & metricTemperature) != 0) {
+                    appendNumber(sb, "temperature", temperature);
+                }
+                if ((variant & metricHumidity) != 0) {
+                    appendNumber(sb, "humidity", humidity);
+                }
+                if ((variant & metricVibration) != 0) {
+                    appendNumber(sb, "vibration", vibration);
+                }
+            }
+            sb.append("}\n\n");
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void appendNumber(StringBuilder sb, String name, double value) {
+        sb.append(",\"").append(name).append("\":");
+        if (Double.isFinite(value)) {
+            sb.append(value);
+        } else {
+            sb.append("null");
+        }
+    }
+
+    // JSON string (deviceId は外部入力なので escape する)
+    private static void appendString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * "temperature,vibration" -> bit mask (null / 空なら全部).
+     */
+    public static int parseMetrics(String text) {
+        if (text == null || text.isBlank()) {
+            return allMetrics;
+        }
+        int mask = 0;
+        for (String name : text.split(",")) {
+            String metric = name.trim();
+            if ("temperature".equalsIgnoreCase(metric)) {
+                mask |= metricTemperature;
+            } else if ("humidity".equalsIgnoreCase(metric)) {
+                mask |= metricHumidity;
+            } else if ("vibration".equalsIgnoreCase(metric)) {
+                mask |= metricVibration;
+            } else {
+                throw new IllegalArgumentException("unknown metric: " + metric);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * "reading,alert" -> event type (null / 空なら reading + alert).
+     */
+    public static Set<EventType> parseEventTypes(String text) {
+        if (text == null || text.isBlank()) {
+            return EnumSet.of(EventType.READING, EventType.ALERT);
+        }
+        Set<EventType> types = EnumSet.noneOf(EventType.class);
+        for (String name : text.split(",")) {
+            types.add(EventType.valueOf(name.trim().toUpperCase()));  // 不明なら IllegalArgumentException
+        }
+        return types;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.iotspringboot;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 同じ JVM 内の MQTT broker 代わり (AWS IoT endpoint なしで simulator -> subscriber を測るため).
+ * publish は publisher の thread 上で、一致する subscription の handler を同期的に呼ぶ
+ * (AWS SDK の callback thread と同じく、handler が遅ければ publisher も遅くなる).
+ */
+public class LoopbackBroker {
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public void subscribe(String topicFilter, SensorTransport.MessageHandler handler) {
+        subscriptions.add(new Subscription(topicFilter.split("/"), handler));
+    }
+
+    public void unsubscribe(SensorTransport.MessageHandler handler) {
+        subscriptions.removeIf(s -> s.handler == handler);
+    }
+
+    public void publish(String topic, byte[] payload) {
+        for (Subscription subscription : subscriptions) {
+            if (matches(subscription.filterLevels, topic)) {
+                subscription.handler.onMessage(topic, payload);
+            }
+        }
+    }
+
+    /**
+     * MQTT topic filter の一致判定. '+' は 1 level, '#' は残り全部 (親 level 自身も含む).
+     */
+    static boolean matches(String[] filterLevels, String topic) {
+        int start = 0;  // topic の現在 level の先頭
+        for (String level : filterLevels) {
+            if (level.equals("#")) {
+                return true;
+            }
+            if (start > topic.length()) {
+                return false;  // topic の level が足りない
+            }
+            int end = topic.indexOf('/', start);
+            if (end < 0) {
+                end = topic.length();
+            }
+            if (!level.equals("+")) {
+                int length = end - start;
+                if (length != level.length() || !topic.regionMatches(start, level, 0, length)) {
+                    return false;
+                }
+            }
+            start = end + 1;
+        }
+        return start > topic.length();  // topic の level を全部使い切った
+    }
+
+    private static class Subscription {
+        final String[] filterLevels;
+        final SensorTransport.MessageHandler handler;
+
+        Subscription(String[] filterLevels, SensorTransport.MessageHandler handler) {
+            this.filterLevels = filterLevels;
+            this.handler = handler;
+        }
+    }
+}
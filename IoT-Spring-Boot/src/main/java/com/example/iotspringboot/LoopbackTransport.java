@@ -0,0 +1,41 @@
+package com.example.iotspringboot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LoopbackBroker に繋ぐ transport (iot.transport=loopback).
+ */
+public class LoopbackTransport implements SensorTransport {
+
+    private final LoopbackBroker broker;
+    private final List<MessageHandler> handlers = new ArrayList<>();
+
+    public LoopbackTransport(LoopbackBroker broker) {
+        this.broker = broker;
+    }
+
+    @Override
+    public void connect() {
+        // in-JVM なので接続処理なし
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload) {
+        broker.publish(topic, payload);
+    }
+
+    @Override
+    public synchronized void subscribe(String topicFilter, MessageHandler handler) {
+        handlers.add(handler);
+        broker.subscribe(topicFilter, handler);
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        for (MessageHandler handler : handlers) {
+            broker.unsubscribe(handler);
+        }
+        handlers.clear();
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.iotspringboot;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Locale;
+
+/**
+ * Prometheus text format (0.0.4) の metrics endpoint: localhost:8080/metrics
+ * latency は summary (quantile 0.5 / 0.9 / 0.99 / 0.999, 単位 seconds) として出力する.
+ * quantile は直近 60〜120秒 (LatencyHistogram.recentPercentile), _sum / _count は起動からの累積 (Prometheus の summary と同じ).
+ */
+@RestController
+public class MetricsController {
+
+    private static final double[] quantiles = {0.5, 0.9, 0.99, 0.999};
+
+    private final IngestMetrics metrics;
+    private final IoTSubscriber subscriber;
+    private final HotTier hotTier;
+    private final LiveStreamHub liveStreamHub;
+    private final TimeSeriesStore timeSeriesStore;  // iot.store.enabled=false なら null
+    private final TrafficLog.Writer trafficRecorder;  // iot.record.file がなければ null
+
+    public MetricsController(IngestMetrics metrics, IoTSubscriber subscriber, HotTier hotTier, LiveStreamHub liveStreamHub,
+                             ObjectProvider<TimeSeriesStore> timeSeriesStore, ObjectProvider<TrafficLog.Writer> trafficRecorder) {
+        this.metrics = metrics;
+        this.subscriber = subscriber;
+        this.hotTier = hotTier;
+        this.liveStreamHub = liveStreamHub;
+        this.timeSeriesStore = timeSeriesStore.getIfAvailable();
+        this.trafficRecorder = trafficRecorder.getIfAvailable();
+    }
+
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public String metrics() {
+        StringBuilder sb = new StringBuilder(8192);
+
+        counter(sb, "iot_messages_received_total", "MQTT messages received", metrics.received.sum());
+        counter(sb, "iot_message_bytes_received_total", "MQTT payload bytes received", metrics.receivedBytes.sum());
+        counter(sb, "iot_batch_messages_received_total", "Batch envelope messages received", metrics.batches.sum());
+        counter(sb, "iot_batched_readings_received_total", "Readings unpacked from batch envelopes", metrics.batchedReadings.sum());
+        counter(sb, "iot_readings_decoded_total", "Readings decoded and handed to analytics", metrics.decodedReadings.sum());
+        counter(sb, "iot_heartbeat_messages_received_total", "Deadband heartbeat messages received", metrics.heartbeats.sum());
+        counter(sb, "iot_held_samples_total", "Samples suppressed at the edge and carried by heartbeats", metrics.heldSamples.sum());
+        counter(sb, "iot_parse_errors_total", "Payloads that failed to parse", metrics.parseErrors.sum());
+        counter(sb, "iot_prediction_errors_total", "Errors in integrated prediction", metrics.predictionErrors.sum());
+        counter(sb, "iot_save_dropped_total", "Readings dropped because the write-behind buffer was full", metrics.saveDropped.sum());
+        counter(sb, "iot_temperature_anomalies_total", "Statistical temperature anomalies", metrics.tempAnomalies.sum());
+        counter(sb, "iot_vibration_anomalies_total", "Vibration trend anomalies", metrics.vibAnomalies.sum());
+        counter(sb, "iot_integrated_alerts_total", "Integrated ML + digital twin alerts", metrics.integratedAlerts.sum());
+
+        summary(sb, "iot_ingest_seconds", "processMessage hand-off to the parse stage", metrics.ingest);
+        summary(sb, "iot_parse_seconds", "Payload decode (JSON / binary)", metrics.parse);
+        summary(sb, "iot_twin_update_seconds", "Digital twin update", metrics.twinUpdate);
+        summary(sb, "iot_prediction_seconds", "Integrated prediction including window reads", metrics.prediction);
+        summary(sb, "iot_save_seconds", "saveToDynamoDB enqueue into the write-behind buffer", metrics.save);
+        summary(sb, "iot_end_to_end_seconds", "Receive to analytics complete", metrics.endToEnd);
+
+        gauge(sb, "iot_hot_tier_bytes", "Compressed hot tier size (estimated)", hotTier.sizeInBytes());
+        gauge(sb, "iot_hot_tier_budget_bytes", "Compressed hot tier memory budget", hotTier.getMemoryBudgetBytes());
+        gauge(sb, "iot_hot_tier_samples", "Samples held in the hot tier", hotTier.sampleCount());
+        counter(sb, "iot_hot_tier_evicted_blocks_total", "Sealed hot tier blocks evicted over budget", hotTier.getEvictedBlocks());
+        counter(sb, "iot_hot_tier_evicted_samples_total", "Samples evicted from the hot tier", hotTier.getEvictedSamples());
+
+        gauge(sb, "iot_stream_clients", "Connected live stream (SSE) clients", liveStreamHub.clientCount());
+        counter(sb, "iot_stream_events_published_total", "Readings published to the live stream", liveStreamHub.getPublishedCount());
+        counter(sb, "iot_stream_events_sent_total", "Events written to live stream clients", liveStreamHub.getSentCount());
+        counter(sb, "iot_stream_events_dropped_total", "Events dropped or coalesced in live stream client buffers", liveStreamHub.getDroppedCount());
+        counter(sb, "iot_stream_frames_encoded_total", "SSE frames encoded (shared across clients)", liveStreamHub.getEncodedCount());
+
+        if (timeSeriesStore != null) {
+            summary(sb, "iot_store_append_seconds", "Local time-series store append", metrics.storeAppend);
+            counter(sb, "iot_store_errors_total", "Local time-series store append failures", metrics.storeErrors.sum());
+            gauge(sb, "iot_store_rows", "Rows in the local time-series store", timeSeriesStore.rowCount());
+            gauge(sb, "iot_store_segments", "Segment files in the local time-series store", timeSeriesStore.segmentCount());
+        }
+
+        if (trafficRecorder != null) {
+            counter(sb, "iot_record_errors_total", "Traffic recording (iot.record.file) failures", metrics.recordErrors.sum());
+            gauge(sb, "iot_record_messages", "Messages written to the traffic log", trafficRecorder.getRecordCount());
+            gauge(sb, "iot_record_bytes", "Bytes written to the traffic log", trafficRecorder.getByteCount());
+        }
+
+        DynamoDbWriteBehind writeBehind = subscriber.getWriteBehind();
+        summary(sb, "iot_dynamodb_batch_write_seconds", "BatchWriteItem call latency", writeBehind.getBatchLatency());
+        counter(sb, "iot_dynamodb_items_written_total", "Items written to DynamoDB", writeBehind.getWrittenCount());
+        counter(sb, "iot_dynamodb_batches_total", "BatchWriteItem calls", writeBehind.getBatchCount());
+        counter(sb, "iot_dynamodb_retries_total", "BatchWriteItem retries", writeBehind.getRetryCount());
+        counter(sb, "iot_dynamodb_throttled_total", "Throttled requests or responses with unprocessed items", writeBehind.getThrottledCount());
+        counter(sb, "iot_dynamodb_errors_total", "Failed DynamoDB requests", writeBehind.getErrorCount());
+        counter(sb, "iot_dynamodb_items_dropped_total", "Items dropped (buffer full or retries exhausted)", writeBehind.getDroppedCount());
+        gauge(sb, "iot_dynamodb_queue_depth", "Items waiting in the write-behind buffer", writeBehind.getQueueDepth());
+
+        header(sb, "iot_pipeline_queue_depth", "Items waiting in a pipeline stage", "gauge");
+        for (PipelineStage<?> stage : subscriber.getPipelineStages()) {
+            sample(sb, "iot_pipeline_queue_depth", "stage", stage.getName(), stage.getQueueDepth());
+        }
+        header(sb, "iot_pipeline_processed_total", "Items processed by a pipeline stage", "counter");
+        for (PipelineStage<?> stage : subscriber.getPipelineStages()) {
+            sample(sb, "iot_pipeline_processed_total", "stage", stage.getName(), stage.getProcessedCount());
+        }
+        header(sb, "iot_pipeline_dropped_total", "Items dropped by a pipeline stage", "counter");
+        for (PipelineStage<?> stage : subscriber.getPipelineStages()) {
+            sample(sb, "iot_pipeline_dropped_total", "stage", stage.getName(), stage.getDroppedCount());
+        }
+        header(sb, "iot_pipeline_errors_total", "Handler exceptions in a pipeline stage", "counter");
+        for (PipelineStage<?> stage : subscriber.getPipelineStages()) {
+            sample(sb, "iot_pipeline_errors_total", "stage", stage.getName(), stage.getErrorCount());
+        }
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "counter");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "gauge");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String labelValue, long value) {
+        sb.append(name).append('{').append(label).append("=\"").append(labelValue).append("\"} ").append(value).append('\n');
+    }
+
+    // nanos の histogram -> seconds の summary
+    private static void summary(StringBuilder sb, String name, String help, LatencyHistogram histogram) {
+        header(sb, name, help, "summary");
+        for (double q : quantiles) {
+            sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+                    .append(seconds(histogram.recentPercentile(q * 100))).append('\n');
+        }
+        sb.append(name).append("_sum ").append(seconds(histogram.sum())).append('\n');
+        sb.append(name).append("_count ").append(histogram.count()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.iotspringboot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * pipeline の 1 stage: partition ごとに bounded queue (array ring buffer) + worker thread 1本.
+ * 同じ key は常に同じ partition に入るので key (デバイス) ごとの順序は保たれ、
+ * 別の key は partition 数だけ並列に処理される.
+ * batch handler の場合、worker は queue に溜まっている item を最大 maxBatch 件まとめて取り出して渡す (順番はそのまま).
+ * @param <T> stage に流す item
+ */
+public class PipelineStage<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineStage.class);
+
+    /**
+     * queue 満杯時の動作.
+     */
+    public enum OverflowPolicy {
+        BLOCK,        // 空くまで待つ (上流に backpressure)
+        DROP_NEWEST,  // 新しい item を捨てる
+        DROP_OLDEST   // 一番古い item を捨てて新しい item を入れる
+    }
+
+    private final String name;
+    private final OverflowPolicy overflowPolicy;
+    private final Consumer<T> handler;  // batch handler の時は null
+    private final Consumer<List<T>> batchHandler;
+    private final int maxBatch;
+    private final ArrayBlockingQueue<T>[] queues;
+    private final Thread[] workers;
+    private volatile boolean running;
+    private volatile boolean closed;  // shutdown 後: submit を拒否 (dropped に数える)
+    private final LongAdder submitting = new LongAdder();  // submit 中の thread 数 (shutdown が queue に入り終わるのを待つ)
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public PipelineStage(String name, int partitions, int queueCapacity, OverflowPolicy overflowPolicy, Consumer<T> handler) {
+        this(name, partitions, queueCapacity, overflowPolicy, handler, null, 1);
+    }
+
+    /**
+     * @param batchHandler 取り出した item の list (呼び出し後に再利用するので保持しないこと)
+     * @param maxBatch 1回に渡す最大件数
+     */
+    public PipelineStage(String name, int partitions, int queueCapacity, OverflowPolicy overflowPolicy,
+                         Consumer<List<T>> batchHandler, int maxBatch) {
+        this(name, partitions, queueCapacity, overflowPolicy, null, batchHandler, maxBatch);
+    }
+
+    @SuppressWarnings("unchecked")
+    private PipelineStage(String name, int partitions, int queueCapacity, OverflowPolicy overflowPolicy,
+                          Consumer<T> handler, Consumer<List<T>> batchHandler, int maxBatch) {
+        if (partitions <= 0 || queueCapacity <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("partitions, queue capacity and batch size must be positive: " + name);
+        }
+        this.name = name;
+        this.overflowPolicy = overflowPolicy;
+        this.handler = handler;
+        this.batchHandler = batchHandler;
+        this.maxBatch = maxBatch;
+        this.queues = (ArrayBlockingQueue<T>[]) new ArrayBlockingQueue<?>[partitions];
+        this.workers = new Thread[partitions];
+        for (int i = 0; i < partitions; i++) {
+            queues[i] = new ArrayBlockingQueue<>(queueCapacity);
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < workers.length; i++) {
+            ArrayBlockingQueue<T> queue = queues[i];
+            workers[i] = new Thread(() -> workLoop(queue), "pipeline-" + name + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * key の hash で partition を選んで投入.
+     * @param key partition key (デバイス ID / topic)
+     * @param item 処理する item
+     * @return queue に入ったら true (drop されたら false, shutdown 後も false)
+     */
+    public boolean submit(Object key, T item) {
+        submitted.increment();
+        submitting.increment();
+        try {
+            if (closed) {
+                dropped.increment();
+                return false;
+            }
+            return enqueue(queues[partitionOf(key)], item);
+        } finally {
+            submitting.decrement();
+        }
+    }
+
+    private boolean enqueue(ArrayBlockingQueue<T> queue, T item) {
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(item);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.increment();
+                    return false;
+                }
+            case DROP_OLDEST:
+                while (!queue.offer(item)) {
+                    if (queue.poll() != null) {
+                        dropped.increment();
+                    }
+                }
+                return true;
+            case DROP_NEWEST:
+            default:
+                if (queue.offer(item)) {
+                    return true;
+                }
+                dropped.increment();
+                return false;
+        }
+    }
+
+    int partitionOf(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= (h >>> 16);
+        return Math.floorMod(h, queues.length);
+    }
+
+    private void workLoop(ArrayBlockingQueue<T> queue) {
+        List<T> batch = batchHandler != null ? new ArrayList<>(maxBatch) : null;
+        while (running || !queue.isEmpty()) {
+            T item;
+            try {
+                item = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (item == null) {
+                continue;
+            }
+            if (batch != null) {
+                batch.add(item);
+                queue.drainTo(batch, maxBatch - 1);
+                try {
+                    batchHandler.accept(batch);
+                    processed.add(batch.size());
+                } catch (Exception e) {
+                    errors.increment();
+                    logger.error("Error in pipeline stage {} ({} items): {}", name, batch.size(), e.getMessage(), e);
+                }
+                batch.clear();
+                continue;
+            }
+            try {
+                handler.accept(item);
+                processed.increment();
+            } catch (Exception e) {
+                errors.increment();
+                logger.error("Error in pipeline stage {}: {}", name, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 新規投入を止め、queue に残った item を処理してから終了.
+     * 以降の submit は dropped. timeout までに処理できなかった item も dropped に数える.
+     */
+    public void shutdown(long timeoutMillis) {
+        closed = true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        // closed を見る前に submit に入った thread が queue に入れ終わるまで待つ (worker はまだ動いている)
+        while (submitting.sum() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+        running = false;
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i] == null) {
+                continue;
+            }
+            try {
+                workers[i].join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!workers[i].isAlive()) {
+                int stranded = queues[i].size();
+                if (stranded > 0) {
+                    queues[i].clear();
+                    dropped.add(stranded);
+                    logger.warn("Pipeline stage {} partition {}: {} items left after shutdown", name, i, stranded);
+                }
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPartitionCount() {
+        return queues.length;
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ArrayBlockingQueue<T> queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    public int getMaxPartitionDepth() {
+        int max = 0;
+        for (ArrayBlockingQueue<T> queue : queues) {
+            max = Math.max(max, queue.size());
+        }
+        return max;
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    public long getProcessedCount() {
+        return processed.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[partitions=%d, depth=%d, maxPartitionDepth=%d, processed=%d, dropped=%d, errors=%d]",
+                name, queues.length, getQueueDepth(), getMaxPartitionDepth(), getProcessedCount(), getDroppedCount(), getErrorCount());
+    }
+}
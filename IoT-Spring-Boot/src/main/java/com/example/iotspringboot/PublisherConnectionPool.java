@@ -0,0 +1,221 @@
+package com.example.iotspringboot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * publisher 用の MQTT 接続 pool. N 本の接続に key (deviceId / topic) を hash で割り当てる
+ * (同じ key は常に同じ接続 -> デバイスごとの順序が保たれる). client id は prefix-0..N-1 (N = 1 なら prefix のまま).
+ * 証明書は TransportFactory が 1回だけ読み込んだ KeyStore を共有する.
+ * 接続ごとに publishAsync + in-flight 上限 (Semaphore). 上限に達した接続への publish は maxBlockMillis だけ待って諦める
+ * (他の接続は止まらない). SDK が再接続を諦めた接続は watchdog が接続ごとに別 thread で connect し直す.
+ */
+public class PublisherConnectionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(PublisherConnectionPool.class);
+
+    private static final long watchdogIntervalMillis = 5000;
+
+    private final Shard[] shards;
+    private final long maxBlockMillis;
+    private final ScheduledExecutorService watchdog;
+    private final ExecutorService reconnector;  // 遅い connect が他の接続を待たせないように接続ごとに実行
+
+    /**
+     * @param connections 接続数
+     * @param maxInFlight 接続ごとの ack 待ち message 数の上限
+     * @param maxBlockMillis in-flight が上限の時に待つ最大時間 (超えたら publish は IOException)
+     */
+    public PublisherConnectionPool(TransportFactory transportFactory, String clientIdPrefix, int connections, int maxInFlight,
+                                   long maxBlockMillis) throws Exception {
+        if (connections <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("connections and max-in-flight must be positive");
+        }
+        this.maxBlockMillis = maxBlockMillis;
+        this.shards = new Shard[connections];
+        for (int i = 0; i < connections; i++) {
+            String clientId = connections == 1 ? clientIdPrefix : clientIdPrefix + "-" + i;
+            shards[i] = new Shard(i, clientId, transportFactory.create(clientId), maxInFlight);
+        }
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(daemon("publisher-pool-watchdog"));
+        this.reconnector = Executors.newCachedThreadPool(daemon("publisher-pool-reconnect"));
+    }
+
+    /**
+     * 全接続を connect. 失敗した接続は log して watchdog に任せる (全滅なら例外).
+     */
+    public void connect() throws Exception {
+        Exception last = null;
+        int connected = 0;
+        for (Shard shard : shards) {
+            try {
+                shard.transport.connect();
+                connected++;
+            } catch (Exception e) {
+                last = e;
+                logger.warn("Publisher connection {} failed to connect, will retry: {}", shard.clientId, e.getMessage());
+            }
+        }
+        if (connected == 0 && last != null) {
+            throw last;
+        }
+        watchdog.scheduleWithFixedDelay(this::reconnectDisconnected, watchdogIntervalMillis, watchdogIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * key (deviceId / topic) の接続. publish は非同期 (ack は待たない).
+     */
+    public Connection shardFor(String key) {
+        return shards[shardIndex(key)];
+    }
+
+    public int shardIndex(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;  // 連番の deviceId が偏らないように
+        return Math.floorMod(h * 0x9E3779B1, shards.length);
+    }
+
+    public int size() {
+        return shards.length;
+    }
+
+    /**
+     * in-flight の message が全部 ack / 失敗するまで待つ.
+     * @return timeout までに終われば true
+     */
+    public boolean awaitCompletion(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Shard shard : shards) {
+            long remaining = deadline - System.nanoTime();
+            if (!shard.inFlight.tryAcquire(shard.maxInFlight, Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            shard.inFlight.release(shard.maxInFlight);
+        }
+        return true;
+    }
+
+    public void disconnect() {
+        watchdog.shutdownNow();
+        reconnector.shutdownNow();
+        for (Shard shard : shards) {
+            shard.transport.disconnect();
+        }
+    }
+
+    public long getAckedCount() {
+        long acked = 0;
+        for (Shard shard : shards) {
+            acked += shard.acked.sum();
+        }
+        return acked;
+    }
+
+    /**
+     * 接続ごとの統計 (1行 1接続). ack/s は前回の呼び出しからの区間.
+     */
+    public String describeShards() {
+        StringBuilder sb = new StringBuilder();
+        long now = System.nanoTime();
+        for (Shard shard : shards) {
+            long acked = shard.acked.sum();
+            double seconds = Math.max(now - shard.lastReportNanos, 1) / 1e9;
+            sb.append(String.format("  connection %d (%s): %s, acked=%d (%.0f/s), failed=%d, rejected=%d, in-flight=%d, reconnects=%d%n",
+                    shard.index, shard.clientId, shard.transport.isConnected() ? "connected" : "disconnected",
+                    acked, (acked - shard.lastReportAcked) / seconds, shard.failed.sum(), shard.rejected.sum(),
+                    shard.maxInFlight - shard.inFlight.availablePermits(), shard.transport.getReconnectCount()));
+            shard.lastReportAcked = acked;
+            shard.lastReportNanos = now;
+        }
+        return sb.toString();
+    }
+
+    // SDK の自動再接続が諦めた (または初回接続に失敗した) 接続だけ
+    private void reconnectDisconnected() {
+        for (Shard shard : shards) {
+            if (!shard.transport.isConnected() && !shard.transport.isReconnecting() && shard.reconnecting.compareAndSet(false, true)) {
+                reconnector.execute(() -> {
+                    try {
+                        shard.transport.connect();
+                        logger.info("Publisher connection {} reconnected", shard.clientId);
+                    } catch (Exception e) {
+                        logger.warn("Publisher connection {} reconnect failed: {}", shard.clientId, e.getMessage());
+                    } finally {
+                        shard.reconnecting.set(false);
+                    }
+                });
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * shardFor が返す publish 専用の接続 (connect / subscribe / disconnect は pool が管理する).
+     */
+    public interface Connection {
+        /**
+         * 非同期 publish. in-flight が maxBlockMillis の間空かなければ IOException.
+         */
+        void publish(String topic, byte[] payload) throws Exception;
+    }
+
+    /**
+     * 1接続分. publish は in-flight の枠を取って publishAsync するだけ (ack で枠を返す).
+     */
+    private final class Shard implements Connection {
+        final int index;
+        final String clientId;
+        final SensorTransport transport;
+        final int maxInFlight;
+        final Semaphore inFlight;
+        final AtomicBoolean reconnecting = new AtomicBoolean();
+        final LongAdder acked = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final SensorTransport.PublishCallback completion;
+        long lastReportAcked;  // describeShards だけが使う
+        long lastReportNanos = System.nanoTime();
+
+        Shard(int index, String clientId, SensorTransport transport, int maxInFlight) {
+            this.index = index;
+            this.clientId = clientId;
+            this.transport = transport;
+            this.maxInFlight = maxInFlight;
+            this.inFlight = new Semaphore(maxInFlight);
+            this.completion = success -> {
+                if (success) {
+                    acked.increment();
+                } else {
+                    failed.increment();
+                }
+                inFlight.release();
+            };
+        }
+
+        @Override
+        public void publish(String topic, byte[] payload) throws Exception {
+            if (!inFlight.tryAcquire() && !inFlight.tryAcquire(maxBlockMillis, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                throw new IOException("In-flight limit reached on " + clientId);
+            }
+            transport.publishAsync(topic, payload, completion);
+        }
+    }
+}
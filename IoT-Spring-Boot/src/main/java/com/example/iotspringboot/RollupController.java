@@ -0,0 +1,38 @@
+package com.example.iotspringboot;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * dashboard 用の rollup: localhost:8080/rollups/{deviceId}?resolution=1m&from=2024-05-01T00:00:00&to=2024-05-01T01:00:00
+ * resolution は 1m | 1h. from / to 省略時は直近 (1m: 1時間, 1h: 24時間).
+ */
+@RestController
+public class RollupController {
+
+    private final RollupRegistry rollupRegistry;
+
+    public RollupController(RollupRegistry rollupRegistry) {
+        this.rollupRegistry = rollupRegistry;
+    }
+
+    @GetMapping("/rollups/{deviceId}")
+    public ResponseEntity<List<RollupPoint>> getRollups(@PathVariable String deviceId,
+                                                        @RequestParam(defaultValue = "1m") String resolution,
+                                                        @RequestParam(required = false) String from,
+                                                        @RequestParam(required = false) String to) {
+        RollupRegistry.Resolution res = RollupRegistry.Resolution.parse(resolution);
+        if (res == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        long defaultRangeMillis = res == RollupRegistry.Resolution.MINUTE ? 3_600_000L : 86_400_000L;
+        long toMillis = SensorTimestamps.parseIsoLocalMillis(to, System.currentTimeMillis());
+        long fromMillis = SensorTimestamps.parseIsoLocalMillis(from, toMillis - defaultRangeMillis);
+        return ResponseEntity.ok(rollupRegistry.query(deviceId, res, fromMillis, toMillis));
+    }
+}
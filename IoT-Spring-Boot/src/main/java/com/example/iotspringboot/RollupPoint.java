@@ -0,0 +1,80 @@
+package com.example.iotspringboot;
+
+/**
+ * rollup bucket 1つ分 (immutable, REST /rollups で返す). 各メトリックの min / max / mean / last.
+ */
+public class RollupPoint {
+    private final long epochMillis;  // bucket 開始
+    private final long durationMillis;
+    private final int count;
+    private final Stats temperature;
+    private final Stats humidity;
+    private final Stats vibration;
+
+    public RollupPoint(long epochMillis, long durationMillis, int count, Stats temperature, Stats humidity, Stats vibration) {
+        this.epochMillis = epochMillis;
+        this.durationMillis = durationMillis;
+        this.count = count;
+        this.temperature = temperature;
+        this.humidity = humidity;
+        this.vibration = vibration;
+    }
+
+    public String getTimestamp() {
+        return SensorTimestamps.formatIsoLocal(epochMillis);
+    }
+
+    public long getEpochMillis() {
+        return epochMillis;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public Stats getTemperature() {
+        return temperature;
+    }
+
+    public Stats getHumidity() {
+        return humidity;
+    }
+
+    public Stats getVibration() {
+        return vibration;
+    }
+
+    public static class Stats {
+        private final double min;
+        private final double max;
+        private final double mean;
+        private final double last;
+
+        public Stats(double min, double max, double mean, double last) {
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.last = last;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getLast() {
+            return last;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.iotspringboot;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * デバイスごとの 1分 / 1時間 rollup (min / max / sum / count / last). ingest 時に incremental に更新する.
+ * bucket はデバイス・解像度ごとの固定長 ring なので、query は raw data の量に関係なく最大 bucket 数だけ読む.
+ * ring より古い reading (遅延到着) は捨てる.
+ */
+@Component
+public class RollupRegistry {
+
+    public enum Resolution {
+        MINUTE(60_000L),
+        HOUR(3_600_000L);
+
+        final long millis;
+
+        Resolution(long millis) {
+            this.millis = millis;
+        }
+
+        /**
+         * "1m" / "1h" (または MINUTE / HOUR) -> Resolution, 不明なら null.
+         */
+        public static Resolution parse(String text) {
+            if ("1m".equalsIgnoreCase(text) || "MINUTE".equalsIgnoreCase(text)) {
+                return MINUTE;
+            }
+            if ("1h".equalsIgnoreCase(text) || "HOUR".equalsIgnoreCase(text)) {
+                return HOUR;
+            }
+            return null;
+        }
+    }
+
+    private final ConcurrentMap<String, DeviceRollups> devices = new ConcurrentHashMap<>();
+    private final int minuteBuckets;
+    private final int hourBuckets;
+
+    public RollupRegistry(@Value("${iot.rollup.minute-buckets:120}") int minuteBuckets,
+                          @Value("${iot.rollup.hour-buckets:72}") int hourBuckets) {
+        if (minuteBuckets <= 0 || hourBuckets <= 0) {
+            throw new IllegalArgumentException("iot.rollup.minute-buckets and iot.rollup.hour-buckets must be positive");
+        }
+        this.minuteBuckets = minuteBuckets;
+        this.hourBuckets = hourBuckets;
+    }
+
+    /**
+     * reading 1件を 1分 / 1時間の両方の bucket に反映 (analytics stage から, デバイスごとに 1 thread).
+     */
+    public void record(String deviceId, long epochMillis, double temperature, double humidity, double vibration) {
+        DeviceRollups rollups = devices.get(deviceId);
+        if (rollups == null) {
+            rollups = devices.computeIfAbsent(deviceId, id -> new DeviceRollups(minuteBuckets, hourBuckets));
+        }
+        synchronized (rollups) {
+            rollups.minute.add(epochMillis, 1, temperature, 0, humidity, 0, vibration, 0);
+            rollups.hour.add(epochMillis, 1, temperature, 0, humidity, 0, vibration, 0);
+        }
+    }
+
+    /**
+     * edge 側 deadband の heartbeat: count に held 件, sum に平均 x held 件を足し, min / max は平均 ± 標準偏差まで広げる
+     * (送られなかった sample の実際の min / max は分からないので近似). last は平均.
+     */
+    public void recordHeld(SensorReading heartbeat) {
+        DeviceRollups rollups = devices.get(heartbeat.deviceId);
+        if (rollups == null) {
+            rollups = devices.computeIfAbsent(heartbeat.deviceId, id -> new DeviceRollups(minuteBuckets, hourBuckets));
+        }
+        synchronized (rollups) {
+            rollups.minute.add(heartbeat.epochMillis, heartbeat.heldSamples, heartbeat.temperature, heartbeat.temperatureSd,
+                    heartbeat.humidity, heartbeat.humiditySd, heartbeat.vibration, heartbeat.vibrationSd);
+            rollups.hour.add(heartbeat.epochMillis, heartbeat.heldSamples, heartbeat.temperature, heartbeat.temperatureSd,
+                    heartbeat.humidity, heartbeat.humiditySd, heartbeat.vibration, heartbeat.vibrationSd);
+        }
+    }
+
+    /**
+     * from..to と重なる bucket (古い順, 空の bucket は含まない).
+     */
+    public List<RollupPoint> query(String deviceId, Resolution resolution, long fromMillis, long toMillis) {
+        DeviceRollups rollups = devices.get(deviceId);
+        if (rollups == null || fromMillis > toMillis) {
+            return new ArrayList<>();
+        }
+        synchronized (rollups) {
+            return (resolution == Resolution.MINUTE ? rollups.minute : rollups.hour).query(fromMillis, toMillis);
+        }
+    }
+
+    public int deviceCount() {
+        return devices.size();
+    }
+
+    private static final class DeviceRollups {
+        final Ring minute;
+        final Ring hour;
+
+        DeviceRollups(int minuteBuckets, int hourBuckets) {
+            this.minute = new Ring(Resolution.MINUTE, minuteBuckets);
+            this.hour = new Ring(Resolution.HOUR, hourBuckets);
+        }
+    }
+
+    /**
+     * 1 解像度分の bucket ring. slot = (bucket 開始 / 解像度) % capacity, 開始時刻が違えば上書き.
+     * メトリックごとに [min, max, sum, last] を 1つの配列に並べる.
+     */
+    private static final class Ring {
+        private static final int fields = 4;  // min, max, sum, last
+        private static final int stride = fields * 3;  // temperature, humidity, vibration
+
+        final Resolution resolution;
+        final int capacity;
+        final long[] starts;
+        final int[] counts;
+        final long[] lastMillis;  // bucket 内で最新の reading (last の判定用)
+        final double[] values;
+        long newestStart = Long.MIN_VALUE;
+
+        Ring(Resolution resolution, int capacity) {
+            this.resolution = resolution;
+            this.capacity = capacity;
+            this.starts = new long[capacity];
+            this.counts = new int[capacity];
+            this.lastMillis = new long[capacity];
+            this.values = new double[capacity * stride];
+            Arrays.fill(starts, Long.MIN_VALUE);
+        }
+
+        // count 件 (通常は 1, heartbeat は held 件) の平均 mean, 標準偏差 sd
+        void add(long epochMillis, int count, double temperature, double temperatureSd, double humidity, double humiditySd,
+                 double vibration, double vibrationSd) {
+            long start = Math.floorDiv(epochMillis, resolution.millis) * resolution.millis;
+            if (newestStart != Long.MIN_VALUE && start < newestStart - (capacity - 1) * resolution.millis) {
+                return;  // ring より古い
+            }
+            int slot = slot(start);
+            int base = slot * stride;
+            if (starts[slot] != start) {
+                starts[slot] = start;
+                counts[slot] = 0;
+                lastMillis[slot] = Long.MIN_VALUE;
+            }
+            boolean newest = epochMillis >= lastMillis[slot];
+            put(base, counts[slot] == 0, newest, count, temperature, temperatureSd);
+            put(base + fields, counts[slot] == 0, newest, count, humidity, humiditySd);
+            put(base + 2 * fields, counts[slot] == 0, newest, count, vibration, vibrationSd);
+            counts[slot] += count;
+            if (newest) {
+                lastMillis[slot] = epochMillis;
+            }
+            if (start > newestStart) {
+                newestStart = start;
+            }
+        }
+
+        private void put(int offset, boolean first, boolean newest, int count, double mean, double sd) {
+            double sum = mean * count;
+            if (first) {
+                values[offset] = mean - sd;
+                values[offset + 1] = mean + sd;
+                values[offset + 2] = sum;
+                values[offset + 3] = mean;
+                return;
+            }
+            values[offset] = Math.min(values[offset], mean - sd);
+            values[offset + 1] = Math.max(values[offset + 1], mean + sd);
+            values[offset + 2] += sum;
+            if (newest) {
+                values[offset + 3] = mean;
+            }
+        }
+
+        List<RollupPoint> query(long fromMillis, long toMillis) {
+            List<RollupPoint> points = new ArrayList<>();
+            if (newestStart == Long.MIN_VALUE) {
+                return points;
+            }
+            long oldest = newestStart - (capacity - 1) * resolution.millis;
+            long first = Math.max(Math.floorDiv(fromMillis, resolution.millis) * resolution.millis, oldest);
+            long last = Math.min(toMillis, newestStart);
+            for (long start = first; start <= last; start += resolution.millis) {
+                int slot = slot(start);
+                if (starts[slot] != start || counts[slot] == 0) {
+                    continue;
+                }
+                int base = slot * stride;
+                int count = counts[slot];
+                points.add(new RollupPoint(start, resolution.millis, count,
+                        stats(base, count), stats(base + fields, count), stats(base + 2 * fields, count)));
+            }
+            return points;
+        }
+
+        private RollupPoint.Stats stats(int offset, int count) {
+            return new RollupPoint.Stats(values[offset], values[offset + 1], values[offset + 2] / count, values[offset + 3]);
+        }
+
+        private int slot(long start) {
+            return (int) Math.floorMod(Math.floorDiv(start, resolution.millis), (long) capacity);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.iotspringboot;
+
+/**
+ * parse 済みのセンサーデータ 1件 (pipeline の stage 間で受け渡す).
+ */
+public class SensorReading {
+    String deviceId;
+    String timestamp;  // ISO local date-time (DynamoDB の key)
+    long epochMillis;  // timestamp と同じ時刻
+    double temperature;
+    double humidity;
+    double vibration;
+    long ingestNanos;  // subscriber が受信した時刻 (System.nanoTime, latency 計測用)
+
+    // edge 側 deadband の heartbeat: heldSamples > 0 なら temperature / humidity / vibration は送られなかった sample の平均
+    int heldSamples;  // 0 = 通常の reading
+    double temperatureSd;  // 送られなかった sample の標準偏差
+    double humiditySd;
+    double vibrationSd;
+
+    public SensorReading() {
+    }
+
+    public SensorReading(String deviceId, String timestamp, long epochMillis, double temperature, double humidity, double vibration) {
+        this.deviceId = deviceId;
+        this.timestamp = timestamp;
+        this.epochMillis = epochMillis;
+        this.temperature = temperature;
+        this.humidity = humidity;
+        this.vibration = vibration;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public long getEpochMillis() {
+        return epochMillis;
+    }
+
+    public double getTemperature() {
+        return temperature;
+    }
+
+    public double getHumidity() {
+        return humidity;
+    }
+
+    public double getVibration() {
+        return vibration;
+    }
+
+    public long getIngestNanos() {
+        return ingestNanos;
+    }
+
+    public boolean isHeartbeat() {
+        return heldSamples > 0;
+    }
+
+    public int getHeldSamples() {
+        return heldSamples;
+    }
+
+    /**
+     * heartbeat の held 件を復元した時の index 番目の値: mean ± sd を交互に並べる (件数が奇数なら最後は mean).
+     * 平均は edge 側で送らなかった sample と同じ, 標準偏差 (母標準偏差) は件数が偶数なら同じ. 個々の値や順序は復元しない.
+     */
+    static double heldValue(double mean, double sd, int index, int count) {
+        if ((count & 1) == 1 && index == count - 1) {
+            return mean;
+        }
+        return (index & 1) == 0 ? mean + sd : mean - sd;
+    }
+
+    @Override
+    public String toString() {
+        return "SensorReading{deviceId=" + deviceId + ", timestamp=" + timestamp + ", temperature=" + temperature
+                + ", humidity=" + humidity + ", vibration=" + vibration + (heldSamples > 0 ? ", heldSamples=" + heldSamples : "") + "}";
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.iotspringboot;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * センサー JSON payload の encode / decode.
+ * 書き込みは String.format / DateTimeFormatter を使わず再利用 buffer に直接 ASCII を書き、
+ * 読み込みは JsonNode tree を作らず streaming JsonParser で SensorReading を埋める.
+ * schema は従来と同じ: {"deviceId": "...", "timestamp": "2024-01-01T00:00:00.123", "temperature": 25.00, ...}
+ * publisher 側 batching の envelope は {"batch": [{...}, {...}]} (BatchWriter / readBatch).
+ * edge 側 deadband の heartbeat は同じ schema に "held" (送らなかった sample 数) と標準偏差を足したもの:
+ * {..., "temperature": 平均, ..., "held": 12, "temperatureSd": 0.12, "humiditySd": 0.40, "vibrationSd": 0.03}
+ */
+public final class SensorReadingCodec {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();  // thread-safe, 共有
+    private static final byte[] batchField = "\"batch\"".getBytes(StandardCharsets.US_ASCII);
+
+    private SensorReadingCodec() {
+    }
+
+    /**
+     * payload を streaming parse して into を埋める. 未知の field は読み飛ばす.
+     * @param payload JSON bytes (UTF-8)
+     * @param into 結果を書き込む reading (deviceId がなければ null になる, epochMillis は timestamp から計算)
+     * @throws IOException JSON が壊れている or 必須 field がない場合
+     */
+    public static void read(byte[] payload, SensorReading into) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Sensor payload is not a JSON object");
+            }
+            readFields(parser, into);
+        }
+    }
+
+    /**
+     * batch envelope かどうか: 先頭の field が "batch" の object ({"batch": [...]}).
+     * parser を作らずに先頭数 byte だけ見る.
+     */
+    public static boolean isBatch(byte[] payload) {
+        int i = skipWhitespace(payload, 0);
+        if (i >= payload.length || payload[i] != '{') {
+            return false;
+        }
+        i = skipWhitespace(payload, i + 1);
+        if (i + batchField.length > payload.length) {
+            return false;
+        }
+        for (int j = 0; j < batchField.length; j++) {
+            if (payload[i + j] != batchField[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * batch envelope {"batch": [{reading}, {reading}, ...]} を送信順に into に追加する.
+     * 1件でも壊れていれば IOException (envelope 全体を捨てる).
+     */
+    public static void readBatch(byte[] payload, List<SensorReading> into) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || parser.nextToken() != JsonToken.FIELD_NAME
+                    || !"batch".equals(parser.currentName()) || parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Not a sensor batch envelope");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                SensorReading reading = new SensorReading();
+                readFields(parser, reading);
+                into.add(reading);
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new IOException("Sensor batch envelope contains a non-object entry");
+            }
+        }
+    }
+
+    // START_OBJECT の次から END_OBJECT まで
+    private static void readFields(JsonParser parser, SensorReading into) throws IOException {
+        into.deviceId = null;
+        into.timestamp = null;
+        into.heldSamples = 0;
+        into.temperatureSd = 0.0;
+        into.humiditySd = 0.0;
+        into.vibrationSd = 0.0;
+        int seen = 0;  // bit: temperature=1, humidity=2, vibration=4
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "deviceId":
+                    into.deviceId = parser.getValueAsString();
+                    break;
+                case "timestamp":
+                    into.timestamp = parser.getValueAsString();
+                    break;
+                case "temperature":
+                    into.temperature = readNumber(parser, value, field);
+                    seen |= 1;
+                    break;
+                case "humidity":
+                    into.humidity = readNumber(parser, value, field);
+                    seen |= 2;
+                    break;
+                case "vibration":
+                    into.vibration = readNumber(parser, value, field);
+                    seen |= 4;
+                    break;
+                case "held":
+                    into.heldSamples = parser.getValueAsInt();
+                    break;
+                case "temperatureSd":
+                    into.temperatureSd = readNumber(parser, value, field);
+                    break;
+                case "humiditySd":
+                    into.humiditySd = readNumber(parser, value, field);
+                    break;
+                case "vibrationSd":
+                    into.vibrationSd = readNumber(parser, value, field);
+                    break;
+                default:
+                    if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                    }
+            }
+        }
+
+        if (into.timestamp == null || seen != 7) {
+            throw new IOException("Sensor payload is missing required fields");
+        }
+        if (into.heldSamples < 0) {
+            throw new IOException("Sensor heartbeat has a negative held count");
+        }
+        into.epochMillis = SensorTimestamps.parseIsoLocalMillis(into.timestamp, System.currentTimeMillis());
+    }
+
+    // null / 文字列などを 0.0 として読まない (以前の readTree と同じく壊れた payload として捨てる)
+    private static double readNumber(JsonParser parser, JsonToken value, String field) throws IOException {
+        if (value != JsonToken.VALUE_NUMBER_FLOAT && value != JsonToken.VALUE_NUMBER_INT) {
+            throw new IOException("Sensor field " + field + " is not a number: " + value);
+        }
+        return parser.getDoubleValue();
+    }
+
+    private static int skipWhitespace(byte[] payload, int i) {
+        while (i < payload.length && (payload[i] == ' ' || payload[i] == '\n' || payload[i] == '\r' || payload[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 再利用 buffer に JSON を書く writer. thread-safe ではない (thread ごとに 1つ).
+     */
+    public static final class Writer {
+        private static final double fixed2FastLimit = 1e6;  // ulp * 100 が fixed2HalfMargin より十分小さい範囲
+        private static final double fixed2HalfMargin = 1e-6;
+
+        private byte[] buffer = new byte[160];
+        private int length;
+
+        /**
+         * @param deviceId デバイス ID (null なら field を出さない = 旧 payload と同じ)
+         * @return JSON bytes (publish に渡せるように新しい配列)
+         */
+        public byte[] write(String deviceId, LocalDateTime timestamp, double temperature, double humidity, double vibration) {
+            length = 0;
+            appendReading(deviceId, timestamp, temperature, humidity, vibration);
+            return Arrays.copyOf(buffer, length);
+        }
+
+        public String writeString(String deviceId, LocalDateTime timestamp, double temperature, double humidity, double vibration) {
+            return new String(write(deviceId, timestamp, temperature, humidity, vibration), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * deadband の heartbeat: 送らなかった held 件の sample の平均と標準偏差.
+         * @param held 送らなかった sample 数 (1 以上)
+         */
+        public byte[] writeHeartbeat(String deviceId, LocalDateTime timestamp, int held,
+                                     double temperature, double humidity, double vibration,
+                                     double temperatureSd, double humiditySd, double vibrationSd) {
+            length = 0;
+            appendReading(deviceId, timestamp, temperature, humidity, vibration);
+            length--;  // 閉じ括弧の前に追加
+            appendAscii(", \"held\": ");
+            appendLong(held);
+            appendAscii(", \"temperatureSd\": ");
+            appendFixed2(temperatureSd);
+            appendAscii(", \"humiditySd\": ");
+            appendFixed2(humiditySd);
+            appendAscii(", \"vibrationSd\": ");
+            appendFixed2(vibrationSd);
+            appendByte('}');
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void appendReading(String deviceId, LocalDateTime timestamp, double temperature, double humidity, double vibration) {
+            if (deviceId != null) {
+                appendAscii("{\"deviceId\": \"");
+                appendString(deviceId);
+                appendAscii("\", \"timestamp\": \"");
+            } else {
+                appendAscii("{\"timestamp\": \"");
+            }
+            appendIsoLocalDateTime(timestamp);
+            appendAscii("\", \"temperature\": ");
+            appendFixed2(temperature);
+            appendAscii(", \"humidity\": ");
+            appendFixed2(humidity);
+            appendAscii(", \"vibration\": ");
+            appendFixed2(vibration);
+            appendByte('}');
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+
+        private void appendByte(int b) {
+            ensure(1);
+            buffer[length++] = (byte) b;
+        }
+
+        private void appendAscii(String s) {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                buffer[length++] = (byte) s.charAt(i);
+            }
+        }
+
+        // deviceId: 通常は ASCII. 記号 / 非 ASCII の場合だけ escape + UTF-8 変換
+        private void appendString(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x20 || c == '"' || c == '\\' || c >= 0x80) {
+                    appendEscapedSlow(s.substring(i));
+                    return;
+                }
+                appendByte(c);
+            }
+        }
+
+        private void appendEscapedSlow(String s) {
+            StringBuilder sb = new StringBuilder(s.length() + 8);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void appendIsoLocalDateTime(LocalDateTime t) {
+            ensure(SensorTimestamps.maxIsoLength);
+            length = SensorTimestamps.writeIsoLocal(t, buffer, length);
+        }
+
+        private void appendDigits(int value, int width) {
+            for (int i = length + width - 1; i >= length; i--) {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += width;
+        }
+
+        /*
+         * String.format("%.2f") と同じ文字列: 最短の 10進表現 (Double.toString) を HALF_UP で丸め, 負なら 0.00 でも '-'.
+         * 100 倍した binary の値は 1.005 -> 100.49999... のように丸めがずれるので、端数が .5 に近い値と
+         * 大きな値 (ulp が効く) だけ BigDecimal で丸める. NaN / Infinity は JSON の数値にできないので例外.
+         */
+        private void appendFixed2(double value) {
+            if (!Double.isFinite(value)) {
+                throw new IllegalArgumentException("Sensor value is not finite: " + value);
+            }
+            if (Double.doubleToRawLongBits(value) < 0) {
+                appendByte('-');
+            }
+            double abs = Math.abs(value);
+            double scaled = abs * 100;
+            if (abs < fixed2FastLimit && Math.abs(scaled - Math.floor(scaled) - 0.5) > fixed2HalfMargin) {
+                long rounded = Math.round(scaled);
+                appendLong(rounded / 100);
+                ensure(3);
+                buffer[length++] = '.';
+                appendDigits((int) (rounded % 100), 2);
+            } else {
+                appendAscii(BigDecimal.valueOf(abs).setScale(2, RoundingMode.HALF_UP).toPlainString());
+            }
+        }
+
+        private void appendLong(long value) {
+            if (value == 0) {
+                appendByte('0');
+                return;
+            }
+            int digits = 0;
+            for (long v = value; v > 0; v /= 10) {
+                digits++;
+            }
+            ensure(digits);
+            for (int i = length + digits - 1; i >= length; i--) {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += digits;
+        }
+    }
+
+    /**
+     * batch envelope {"batch": [{reading}, ...]} を組み立てる writer. thread-safe ではない.
+     * 各 reading は単発 payload と同じ object (deviceId を入れれば複数デバイスを混ぜられる).
+     */
+    public static final class BatchWriter {
+        private static final String header = "{\"batch\": [";
+
+        private final Writer writer = new Writer();
+        private int count;
+
+        public BatchWriter() {
+            reset();
+        }
+
+        public void add(String deviceId, LocalDateTime timestamp, double temperature, double humidity, double vibration) {
+            if (count > 0) {
+                writer.appendAscii(", ");
+            }
+            writer.appendReading(deviceId, timestamp, temperature, humidity, vibration);
+            count++;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        /**
+         * finish() した時の payload の大きさ (閉じ括弧込み).
+         */
+        public int sizeInBytes() {
+            return writer.length + 2;
+        }
+
+        /**
+         * @return envelope (新しい配列). writer は空に戻る
+         */
+        public byte[] finish() {
+            writer.appendAscii("]}");
+            byte[] payload = Arrays.copyOf(writer.buffer, writer.length);
+            reset();
+            return payload;
+        }
+
+        private void reset() {
+            writer.length = 0;
+            writer.appendAscii(header);
+            count = 0;
+        }
+    }
+}
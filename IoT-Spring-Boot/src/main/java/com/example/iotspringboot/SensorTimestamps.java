@@ -0,0 +1,136 @@
+package com.example.iotspringboot;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * payload の timestamp (ISO local date-time 文字列, system zone) と epoch millis の変換.
+ * DateTimeFormatter.ISO_DATE_TIME と同じ文字列を、formatter を通さずに読み書きする.
+ */
+public final class SensorTimestamps {
+
+    static final int maxIsoLength = 29;  // yyyy-MM-ddTHH:mm:ss.nnnnnnnnn
+
+    private static final ZoneId zone = ZoneId.systemDefault();
+
+    private SensorTimestamps() {
+    }
+
+    /**
+     * ISO_DATE_TIME と同じ形式で dst に書く: 秒は常に出力, 小数部は末尾の 0 を省略.
+     * @return 書き終わった位置
+     */
+    static int writeIsoLocal(LocalDateTime t, byte[] dst, int offset) {
+        offset = writeDigits(t.getYear(), 4, dst, offset);
+        dst[offset++] = '-';
+        offset = writeDigits(t.getMonthValue(), 2, dst, offset);
+        dst[offset++] = '-';
+        offset = writeDigits(t.getDayOfMonth(), 2, dst, offset);
+        dst[offset++] = 'T';
+        offset = writeDigits(t.getHour(), 2, dst, offset);
+        dst[offset++] = ':';
+        offset = writeDigits(t.getMinute(), 2, dst, offset);
+        dst[offset++] = ':';
+        offset = writeDigits(t.getSecond(), 2, dst, offset);
+        int nano = t.getNano();
+        if (nano != 0) {
+            int digits = 9;
+            while (nano % 10 == 0) {
+                nano /= 10;
+                digits--;
+            }
+            dst[offset++] = '.';
+            offset = writeDigits(nano, digits, dst, offset);
+        }
+        return offset;
+    }
+
+    private static int writeDigits(int value, int width, byte[] dst, int offset) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            dst[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + width;
+    }
+
+    /**
+     * epoch millis -> ISO local date-time 文字列 (system zone).
+     */
+    public static String formatIsoLocal(long epochMillis) {
+        Instant instant = Instant.ofEpochMilli(epochMillis);
+        ZoneOffset offset = zone.getRules().getOffset(instant);
+        LocalDateTime t = LocalDateTime.ofEpochSecond(instant.getEpochSecond(), instant.getNano(), offset);
+        byte[] buffer = new byte[maxIsoLength];
+        int length = writeIsoLocal(t, buffer, 0);
+        return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * ISO local date-time 文字列 -> epoch millis (system zone).
+     * 通常の "yyyy-MM-ddTHH:mm:ss[.f]" は手で読み、それ以外は LocalDateTime.parse に任せる.
+     * @return 読めない場合は fallbackMillis
+     */
+    public static long parseIsoLocalMillis(String text, long fallbackMillis) {
+        if (text == null) {
+            return fallbackMillis;
+        }
+        try {
+            LocalDateTime t = parseFast(text);
+            if (t == null) {
+                t = LocalDateTime.parse(text);
+            }
+            return t.atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {  // DateTimeParseException 含む
+            return fallbackMillis;
+        }
+    }
+
+    private static LocalDateTime parseFast(String s) {
+        int n = s.length();
+        if (n < 19 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return null;
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return null;
+        }
+        int nano = 0;
+        if (n > 19) {
+            if (s.charAt(19) != '.' || n > 29 || n == 20) {
+                return null;
+            }
+            int fraction = digits(s, 20, n - 20);
+            if (fraction < 0) {
+                return null;
+            }
+            nano = fraction;
+            for (int i = n - 20; i < 9; i++) {
+                nano *= 10;
+            }
+        }
+        return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+    }
+
+    // 数字以外があれば -1
+    private static int digits(String s, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
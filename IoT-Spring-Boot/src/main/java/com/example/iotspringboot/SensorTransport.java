@@ -0,0 +1,74 @@
+package com.example.iotspringboot;
+
+/**
+ * MQTT publish / subscribe の抽象化.
+ * 実装: AwsIotTransport (AWS IoT Core), LoopbackTransport (同じ JVM 内の broker, offline benchmark 用).
+ */
+public interface SensorTransport {
+
+    void connect() throws Exception;
+
+    /**
+     * @param topic MQTT topic
+     * @param payload message body (JSON / binary)
+     */
+    void publish(String topic, byte[] payload) throws Exception;
+
+    /**
+     * 非同期 publish: broker の ack (QoS1 の PUBACK) / 失敗 / timeout を callback で 1回だけ通知する.
+     * default は publish を同期で呼ぶ (loopback はこれで十分).
+     */
+    default void publishAsync(String topic, byte[] payload, PublishCallback callback) {
+        boolean success;
+        try {
+            publish(topic, payload);
+            success = true;
+        } catch (Exception e) {
+            success = false;
+        }
+        callback.onComplete(success);
+    }
+
+    /**
+     * @return 接続中なら true (切断 / 再接続中は false)
+     */
+    default boolean isConnected() {
+        return true;
+    }
+
+    /**
+     * @return transport (SDK) 自身が再接続を試みている途中なら true
+     */
+    default boolean isReconnecting() {
+        return false;
+    }
+
+    /**
+     * @return 最初の接続以降に再接続した回数
+     */
+    default long getReconnectCount() {
+        return 0;
+    }
+
+    /**
+     * @param topicFilter MQTT topic filter ('+' / '#' wildcard 可)
+     * @param handler 受信 callback (transport の thread で呼ばれる)
+     */
+    void subscribe(String topicFilter, MessageHandler handler) throws Exception;
+
+    void disconnect();
+
+    /**
+     * publishAsync の完了 callback (transport の thread で呼ばれる).
+     */
+    interface PublishCallback {
+        void onComplete(boolean success);
+    }
+
+    /**
+     * 受信 callback.
+     */
+    interface MessageHandler {
+        void onMessage(String topic, byte[] payload);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.iotspringboot;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * デバイスごと・メトリックごとの最近値 window (in-memory).
+ * ingest path で更新し、prediction は DynamoDB を読まずにここから取得する.
+ */
+public class SensorWindowRegistry {
+    private final ConcurrentMap<String, DeviceWindows> devices = new ConcurrentHashMap<>();
+    private final int windowSize;
+
+    public SensorWindowRegistry(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public DeviceWindows forDevice(String deviceId) {
+        return devices.computeIfAbsent(deviceId, id -> new DeviceWindows(windowSize));
+    }
+
+    public int deviceCount() {
+        return devices.size();
+    }
+
+    public int windowSize() {
+        return windowSize;
+    }
+
+    /**
+     * 1 デバイス分の temperature / vibration window (prediction 用の incremental 統計).
+     * humidity は判定に使わないので保持しない.
+     */
+    public static class DeviceWindows {
+        private final StreamingWindowStats temperature;
+        private final StreamingWindowStats vibration;
+        private final int windowSize;
+
+        DeviceWindows(int windowSize) {
+            this.windowSize = windowSize;
+            this.temperature = new StreamingWindowStats(windowSize);
+            this.vibration = new StreamingWindowStats(windowSize);
+        }
+
+        public synchronized void add(double temp, double hum, double vib) {
+            temperature.add(temp);
+            vibration.add(vib);
+        }
+
+        /**
+         * heartbeat: 送られなかった held 件を平均 ± 標準偏差で復元して追加 (window に残る最後の windowSize 件だけ).
+         * 実際の値の列ではないので, 次の判定の window (特に振動の傾き) は全 sample を受けた時の近似.
+         */
+        public synchronized void addHeld(SensorReading heartbeat) {
+            int held = heartbeat.heldSamples;
+            for (int i = Math.max(0, held - windowSize); i < held; i++) {
+                temperature.add(SensorReading.heldValue(heartbeat.temperature, heartbeat.temperatureSd, i, held));
+                vibration.add(SensorReading.heldValue(heartbeat.vibration, heartbeat.vibrationSd, i, held));
+            }
+        }
+
+        /**
+         * 古い順に温度・振動の window をコピー (同じ時点の snapshot).
+         * @return コピーした個数 (両方同じ)
+         */
+        public synchronized int copyTemperatureAndVibration(double[] temps, double[] vibs) {
+            temperature.copyTo(temps);
+            return vibration.copyTo(vibs);
+        }
+
+        public synchronized int size() {
+            return temperature.size();
+        }
+
+        // 呼び出し側で DeviceWindows を synchronized してから使う
+        StreamingWindowStats temperatureStats() {
+            return temperature;
+        }
+
+        StreamingWindowStats vibrationStats() {
+            return vibration;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.iotspringboot;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * live stream (Server-Sent Events): localhost:8080/stream?devices=sensor-00001,sensor-00002&metrics=temperature,vibration
+ * events=reading,twin,alert (default reading,alert), policy=DROP_OLDEST|DROP_NEWEST|COALESCE, buffer=256 (iot.stream.max-buffer まで).
+ * /data (1件ずつの polling) はそのまま残す.
+ */
+@RestController
+public class StreamController {
+
+    private final LiveStreamHub liveStreamHub;
+    private final int defaultBuffer;
+    private final int maxBuffer;
+    private final long timeoutMillis;
+
+    public StreamController(LiveStreamHub liveStreamHub,
+                            @Value("${iot.stream.buffer:256}") int defaultBuffer,
+                            @Value("${iot.stream.max-buffer:4096}") int maxBuffer,
+                            @Value("${iot.stream.timeout-millis:0}") long timeoutMillis) {
+        this.liveStreamHub = liveStreamHub;
+        this.defaultBuffer = defaultBuffer;
+        this.maxBuffer = maxBuffer;
+        this.timeoutMillis = timeoutMillis;  // 0 = timeout なし
+    }
+
+    @GetMapping("/stream")
+    public ResponseEntity<ResponseBodyEmitter> stream(@RequestParam(required = false) String devices,
+                                                      @RequestParam(required = false) String metrics,
+                                                      @RequestParam(required = false) String events,
+                                                      @RequestParam(defaultValue = "DROP_OLDEST") String policy,
+                                                      @RequestParam(required = false) Integer buffer) {
+        int metricMask;
+        Set<LiveStreamHub.EventType> eventTypes;
+        LiveStreamHub.OverflowPolicy overflowPolicy;
+        try {
+            metricMask = LiveStreamHub.parseMetrics(metrics);
+            eventTypes = LiveStreamHub.parseEventTypes(events);
+            overflowPolicy = LiveStreamHub.OverflowPolicy.valueOf(policy.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        Set<String> deviceIds = null;
+        if (devices != null && !devices.isBlank()) {
+            deviceIds = new HashSet<>();
+            for (String deviceId : devices.split(",")) {
+                deviceIds.add(deviceId.trim());
+            }
+        }
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeoutMillis);
+        int bufferCapacity = Math.min(buffer != null ? buffer : defaultBuffer, maxBuffer);  // client 指定の buffer でメモリを使い切らないように
+        if (liveStreamHub.subscribe(emitter, deviceIds, metricMask, eventTypes, overflowPolicy, bufferCapacity) == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();  // iot.stream.max-clients
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .header("Cache-Control", "no-cache")
+                .header("X-Accel-Buffering", "no")  // proxy で buffer しない
+                .body(emitter);
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.iotspringboot;
+
+/**
+ * 固定長 window の incremental 統計.
+ * 値を追加するたびに O(1), allocation なしで mean / 標本分散 (Welford) と
+ * 最小二乗法の slope / intercept (x = window 内の index 0..n-1) を更新する.
+ * 予測 (predictNext) は Weka LinearRegression の default (M5 属性選択) と同じ結果になる.
+ * thread-safe ではない: 呼び出し側で同期する.
+ */
+public class StreamingWindowStats {
+    private final double[] values;
+    private int head;  // 次に書き込む位置
+    private int size;
+
+    // Welford
+    private double mean;
+    private double m2;
+
+    // regression: Σy, Σ(i * y) (i = 0 が一番古い)
+    private double sumY;
+    private double sumXY;
+
+    public StreamingWindowStats(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("window capacity must be positive: " + capacity);
+        }
+        this.values = new double[capacity];
+    }
+
+    public void add(double value) {
+        int n = values.length;
+        if (size < n) {
+            // window 未満: 通常の Welford + index = size で追加
+            values[head] = value;
+            size++;
+            double delta = value - mean;
+            mean += delta / size;
+            m2 += delta * (value - mean);
+            sumXY += (size - 1) * value;
+            sumY += value;
+        } else {
+            // window 満杯: 一番古い値を入れ替え. index が 1つずつずれるので Σ(i*y) から Σy(古い値を除く) を引く
+            double old = values[head];
+            values[head] = value;
+            double oldMean = mean;
+            mean += (value - old) / n;
+            m2 += (value - old) * (value - mean + old - oldMean);
+            sumXY = sumXY - (sumY - old) + (n - 1) * value;
+            sumY = sumY - old + value;
+        }
+        head++;
+        if (head == n) {
+            head = 0;
+            resync();  // 1周ごとに再計算して浮動小数点の誤差を捨てる (amortized O(1))
+        }
+    }
+
+    // window の値から全ての累積値を計算し直す
+    private void resync() {
+        int start = head - size;
+        if (start < 0) {
+            start += values.length;
+        }
+        double newMean = 0.0;
+        double newM2 = 0.0;
+        double newSumY = 0.0;
+        double newSumXY = 0.0;
+        for (int i = 0; i < size; i++) {
+            double value = values[(start + i) % values.length];
+            double delta = value - newMean;
+            newMean += delta / (i + 1);
+            newM2 += delta * (value - newMean);
+            newSumY += value;
+            newSumXY += i * value;
+        }
+        mean = newMean;
+        m2 = newM2;
+        sumY = newSumY;
+        sumXY = newSumXY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    public double mean() {
+        return mean;
+    }
+
+    // BatchAnomalyScorer が lane に集める累積値 (そのまま同じ式で計算する)
+    double m2() {
+        return m2;
+    }
+
+    double sumY() {
+        return sumY;
+    }
+
+    double sumXY() {
+        return sumXY;
+    }
+
+    /**
+     * 標本標準偏差 (n - 1). DescriptiveStatistics#getStandardDeviation と同じ定義.
+     */
+    public double standardDeviation() {
+        if (size < 2) {
+            return 0.0;
+        }
+        return Math.sqrt(Math.max(0.0, m2) / (size - 1));
+    }
+
+    /**
+     * 最小二乗法の傾き (x = 0..size-1). 2点未満なら 0.
+     */
+    public double slope() {
+        if (size < 2) {
+            return 0.0;
+        }
+        double n = size;
+        double sumX = n * (n - 1) / 2;
+        double sumXX = (n - 1) * n * (2 * n - 1) / 6;
+        return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+    }
+
+    public double intercept() {
+        if (size == 0) {
+            return 0.0;
+        }
+        double n = size;
+        return (sumY - slope() * (n * (n - 1) / 2)) / n;
+    }
+
+    /**
+     * 次の値 (x = size) の予測. 以前の Weka LinearRegression (default の M5 属性選択) と同じく、
+     * 傾きを入れても AIC が良くならない window では傾きを捨てて平均を予測にする (usesSlope).
+     */
+    public double predictNext() {
+        if (size < 2 || usesSlope()) {
+            return intercept() + slope() * size;
+        }
+        return mean;
+    }
+
+    /**
+     * Weka M5 の判定: 傾きあり (属性 2) の AIC = (n - 2) + 2 * 2, 平均だけの AIC = SST / SSE * (n - 2) + 2.
+     * 平均だけの方が小さい, つまり (n - 2) * SST < n * SSE なら傾きを捨てる (r² < 2 / n とほぼ同じ).
+     * n = 2 は SSE = 0 (Weka では ridge の分だけ正) なので常に平均. BatchAnomalyScorer も同じ式.
+     */
+    boolean usesSlope() {
+        double n = size;
+        double sumX = n * (n - 1) / 2;
+        double sumXX = (n - 1) * n * (2 * n - 1) / 6;
+        double sxy = n * sumXY - sumX * sumY;
+        double slope = sxy / (n * sumXX - sumX * sumX);
+        double sse = m2 - slope * sxy / n;  // SST - Sxy² / Sxx
+        return !(n == 2 || (n - 2) * m2 < n * sse);
+    }
+
+    /**
+     * 古い順に dst へコピー.
+     * @return コピーした個数
+     */
+    public int copyTo(double[] dst) {
+        int start = head - size;
+        if (start < 0) {
+            start += values.length;
+        }
+        int firstPart = Math.min(size, values.length - start);
+        System.arraycopy(values, start, dst, 0, firstPart);
+        System.arraycopy(values, 0, dst, firstPart, size - firstPart);
+        return size;
+    }
+}
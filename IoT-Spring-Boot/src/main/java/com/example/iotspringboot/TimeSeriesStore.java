@@ -0,0 +1,606 @@
+package com.example.iotspringboot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * local の append-only 時系列 store (memory-mapped, column 形式の segment file).
+ * <pre>
+ * devices.dict           deviceId の辞書 (1行 1 id, 行番号 = device index)
+ * segment-0000000001.tss header 64 bytes + column: ts long[] | device int[] | temp double[] | hum double[] | vib double[] | prev int[] | check int[]
+ * </pre>
+ * prev はそのデバイスの 1つ前の row (同じ segment 内, なければ -1) で, latest-N / range は device ごとの chain を新しい順にたどる.
+ * segment が満杯になったら次の file に roll, retention を過ぎた segment は削除.
+ * mmap の dirty page はどの順で disk に出るか分からないので, header の rowCount だけでは OS crash 後の row を信用できない.
+ * checkpoint で column を force した後に header の committedRows を書いて force するので, committedRows までは OS crash 後も残る.
+ * それより後の row は row ごとの check (全 column の hash) が合う所までを復旧する (process crash なら page cache に残っているので失われない).
+ * append は内部で直列化 (thread-safe), 読み出しは append と並行に lock なしで行える.
+ */
+public class TimeSeriesStore implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimeSeriesStore.class);
+
+    private static final int magic = 0x54535331;  // "TSS1"
+    private static final int version = 2;
+    private static final int headerBytes = 64;
+    private static final int rowBytes = 8 + 4 + 8 + 8 + 8 + 4 + 4;
+    private static final long checkSeed = 0x5453_5331_0000_0001L;  // 0 埋めの row の check が 0 にならないように
+    private static final String dictionaryName = "devices.dict";
+    private static final String segmentPrefix = "segment-";
+    private static final String segmentSuffix = ".tss";
+    private static final long retentionCheckMillis = 60_000;
+
+    // header offsets
+    private static final int capacityAt = 8;
+    private static final int rowCountAt = 12;
+    private static final int minTsAt = 16;
+    private static final int maxTsAt = 24;
+    private static final int sealedAt = 32;
+    private static final int committedRowsAt = 36;
+
+    private final Path directory;
+    private final int segmentRows;
+    private final long retentionMillis;
+    private final long flushIntervalMillis;
+
+    private final Map<String, Integer> deviceIndex = new ConcurrentHashMap<>();
+    private final List<String> deviceNames = new CopyOnWriteArrayList<>();
+    private final FileChannel dictionary;
+
+    private final List<Segment> sealed = new CopyOnWriteArrayList<>();  // 古い順
+    private volatile Segment active;
+    private final Object writeLock = new Object();
+
+    private final Thread flusher;
+    private volatile boolean running = true;
+    private final LongAdder appended = new LongAdder();
+
+    /**
+     * @param directory segment / 辞書を置く directory (なければ作る)
+     * @param segmentRows 1 segment の row 数 (8 の倍数に切り上げ)
+     * @param retentionMillis これより古い segment (最新 row の時刻で判定) を削除. 0 以下なら削除しない
+     * @param flushIntervalMillis dirty page を disk に force する間隔
+     */
+    public static TimeSeriesStore open(Path directory, int segmentRows, long retentionMillis, long flushIntervalMillis) throws IOException {
+        return new TimeSeriesStore(directory, segmentRows, retentionMillis, flushIntervalMillis);
+    }
+
+    private TimeSeriesStore(Path directory, int segmentRows, long retentionMillis, long flushIntervalMillis) throws IOException {
+        if (segmentRows <= 0 || (long) segmentRows * rowBytes + headerBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentRows out of range: " + segmentRows);
+        }
+        this.directory = directory;
+        this.segmentRows = (segmentRows + 7) & ~7;
+        this.retentionMillis = retentionMillis;
+        this.flushIntervalMillis = flushIntervalMillis;
+
+        Files.createDirectories(directory);
+        this.dictionary = FileChannel.open(directory.resolve(dictionaryName),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        loadDictionary();
+        recoverSegments();
+
+        this.flusher = new Thread(this::flushLoop, "timeseries-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        logger.info("Time-series store opened: dir={}, devices={}, segments={}, rows={}",
+                directory, deviceNames.size(), sealed.size() + 1, rowCount());
+    }
+
+    /**
+     * 1 reading を追加.
+     * @param deviceId デバイス ID
+     * @param epochMillis 計測時刻
+     */
+    public void append(String deviceId, long epochMillis, double temperature, double humidity, double vibration) throws IOException {
+        synchronized (writeLock) {
+            int device = deviceIndexFor(deviceId);
+            Segment segment = active;
+            if (segment.rowCount >= segment.capacity) {
+                segment = roll();
+            }
+            segment.append(device, epochMillis, temperature, humidity, vibration);
+        }
+        appended.increment();
+    }
+
+    /**
+     * 最新 n 件を新しい順に visitor に渡す.
+     * @return 渡した件数
+     */
+    public int latest(String deviceId, int n, RowVisitor visitor) {
+        return scan(deviceId, Long.MIN_VALUE, Long.MAX_VALUE, n, visitor);
+    }
+
+    /**
+     * from <= timestamp <= to の row を新しい順に visitor に渡す (最大 limit 件).
+     * @return 渡した件数
+     */
+    public int range(String deviceId, long fromMillis, long toMillis, int limit, RowVisitor visitor) {
+        return scan(deviceId, fromMillis, toMillis, limit, visitor);
+    }
+
+    /**
+     * 最新 n 件 (古い順).
+     */
+    public List<SensorReading> latest(String deviceId, int n) {
+        return collect(deviceId, Long.MIN_VALUE, Long.MAX_VALUE, n);
+    }
+
+    /**
+     * from <= timestamp <= to の row (古い順, 最大 limit 件 = 新しい方から).
+     */
+    public List<SensorReading> range(String deviceId, long fromMillis, long toMillis, int limit) {
+        return collect(deviceId, fromMillis, toMillis, limit);
+    }
+
+    public List<String> deviceIds() {
+        return Collections.unmodifiableList(deviceNames);
+    }
+
+    public long rowCount() {
+        long rows = active.rowCount;
+        for (Segment segment : sealed) {
+            rows += segment.rowCount;
+        }
+        return rows;
+    }
+
+    public int segmentCount() {
+        return sealed.size() + 1;
+    }
+
+    public long getAppendedCount() {
+        return appended.sum();
+    }
+
+    /**
+     * dirty page を disk に書き出す (辞書 -> segment の column -> header の順).
+     */
+    public void checkpoint() throws IOException {
+        dictionary.force(false);
+        active.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            checkpoint();
+            active.close();
+            for (Segment segment : sealed) {
+                segment.close();
+            }
+            dictionary.close();
+        }
+        logger.info("Time-series store closed: rows={}", rowCount());
+    }
+
+    /**
+     * row を受け取る callback (新しい順). false を返すとそこで終了.
+     */
+    public interface RowVisitor {
+        boolean visit(long epochMillis, double temperature, double humidity, double vibration);
+    }
+
+    private int scan(String deviceId, long fromMillis, long toMillis, int limit, RowVisitor visitor) {
+        Integer device = deviceIndex.get(deviceId);
+        if (device == null || limit <= 0) {
+            return 0;
+        }
+        Segment current;
+        int head;
+        synchronized (writeLock) {  // active の chain の先頭と rowCount を揃えて取る
+            current = active;
+            head = current.lastRow(device);
+        }
+
+        Segment[] older = sealed.toArray(new Segment[0]);  // 古い順 (roll / retention と並行でも安定した snapshot)
+        int index = older.length;
+        int visited = 0;
+        for (Segment segment = current; segment != null; ) {
+            if (head >= 0 && !segment.closed && segment.maxTs >= fromMillis && segment.minTs <= toMillis) {
+                for (int row = head; row >= 0; row = segment.prev(row)) {
+                    long ts = segment.timestamp(row);
+                    if (ts < fromMillis || ts > toMillis) {
+                        continue;  // 順不同で届いた row もあるので chain は最後までたどる
+                    }
+                    visited++;
+                    if (!visitor.visit(ts, segment.temperature(row), segment.humidity(row), segment.vibration(row)) || visited >= limit) {
+                        return visited;
+                    }
+                }
+            }
+            segment = null;
+            while (--index >= 0) {
+                if (older[index].id < current.id) {  // scan 開始後に roll された current 自身は除く
+                    segment = older[index];
+                    head = segment.lastRow(device);
+                    break;
+                }
+            }
+        }
+        return visited;
+    }
+
+    private List<SensorReading> collect(String deviceId, long fromMillis, long toMillis, int limit) {
+        List<SensorReading> readings = new ArrayList<>();
+        scan(deviceId, fromMillis, toMillis, limit, (ts, t, h, v) -> {
+            readings.add(new SensorReading(deviceId, SensorTimestamps.formatIsoLocal(ts), ts, t, h, v));
+            return true;
+        });
+        Collections.reverse(readings);
+        return readings;
+    }
+
+    // writeLock 内で呼ぶ
+    private int deviceIndexFor(String deviceId) throws IOException {
+        Integer index = deviceIndex.get(deviceId);
+        if (index != null) {
+            return index;
+        }
+        if (deviceId.indexOf('\n') >= 0 || deviceId.indexOf('\r') >= 0) {
+            throw new IOException("Device id must not contain line breaks: " + deviceId);
+        }
+        // 辞書を先に書く (row が参照する index は必ず辞書に存在する)
+        ByteBuffer line = ByteBuffer.wrap((deviceId + "\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            dictionary.write(line, dictionary.size());
+        }
+        int newIndex = deviceNames.size();
+        deviceNames.add(deviceId);
+        deviceIndex.put(deviceId, newIndex);
+        return newIndex;
+    }
+
+    private void loadDictionary() throws IOException {
+        long size = dictionary.size();
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && dictionary.read(buffer, buffer.position()) > 0) {
+            // read all
+        }
+        byte[] bytes = buffer.array();
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                String deviceId = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+                deviceIndex.put(deviceId, deviceNames.size());
+                deviceNames.add(deviceId);
+                start = i + 1;
+            }
+        }
+        if (start < bytes.length) {
+            dictionary.truncate(start);  // 書き込み途中で crash した最後の行
+            logger.warn("Truncated partial device dictionary entry ({} bytes)", bytes.length - start);
+        }
+    }
+
+    private void recoverSegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, segmentPrefix + "*" + segmentSuffix)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+
+        long lastId = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            long id = segmentId(file);
+            lastId = Math.max(lastId, id);
+            Segment segment;
+            try {
+                segment = Segment.open(file, id, deviceNames.size());
+            } catch (IOException e) {
+                logger.error("Skipping unreadable segment {}: {}", file, e.getMessage());
+                continue;
+            }
+            boolean last = i == files.size() - 1;
+            if (last && !segment.isSealed() && segment.rowCount < segment.capacity) {
+                active = segment;
+            } else {
+                segment.seal();
+                sealed.add(segment);
+            }
+        }
+        if (active == null) {
+            active = Segment.create(segmentPath(lastId + 1), lastId + 1, segmentRows);
+        }
+    }
+
+    // writeLock 内で呼ぶ
+    private Segment roll() throws IOException {
+        Segment previous = active;
+        previous.seal();
+        previous.force();
+        Segment next = Segment.create(segmentPath(previous.id + 1), previous.id + 1, segmentRows);
+        sealed.add(previous);
+        active = next;
+        logger.info("Rolled time-series segment: {} -> {}", previous.path.getFileName(), next.path.getFileName());
+        return next;
+    }
+
+    private void flushLoop() {
+        long lastRetentionCheck = 0;
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            }
+            try {
+                checkpoint();
+                long now = System.currentTimeMillis();
+                if (retentionMillis > 0 && now - lastRetentionCheck >= retentionCheckMillis) {
+                    lastRetentionCheck = now;
+                    applyRetention(now - retentionMillis);
+                }
+            } catch (Exception e) {
+                logger.error("Time-series checkpoint failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    // 最新 row が cutoff より古い sealed segment を削除
+    void applyRetention(long cutoffMillis) {
+        for (Segment segment : sealed) {
+            if (segment.maxTs >= cutoffMillis) {
+                continue;
+            }
+            sealed.remove(segment);
+            try {
+                segment.close();
+                Files.deleteIfExists(segment.path);
+                logger.info("Deleted expired time-series segment {}", segment.path.getFileName());
+            } catch (IOException e) {
+                logger.warn("Failed to delete segment {}: {}", segment.path, e.getMessage());
+            }
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%010d%s", segmentPrefix, id, segmentSuffix));
+    }
+
+    private static long segmentId(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(segmentPrefix.length(), name.length() - segmentSuffix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * segment file 1つ (mmap). column は固定 offset, row は capacity まで.
+     */
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final int capacity;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int tsAt;
+        private final int deviceAt;
+        private final int tempAt;
+        private final int humAt;
+        private final int vibAt;
+        private final int prevAt;
+        private final int checkAt;
+
+        volatile int rowCount;
+        volatile long minTs = Long.MAX_VALUE;
+        volatile long maxTs = Long.MIN_VALUE;
+        volatile boolean closed;
+        private int[] lastRowByDevice = new int[0];  // device index -> 最新 row (-1 = なし). active の間は writeLock で保護
+        private boolean sealedFlag;
+
+        private Segment(long id, Path path, FileChannel channel, int capacity) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.capacity = capacity;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerBytes + (long) capacity * rowBytes);
+            this.tsAt = headerBytes;
+            this.deviceAt = tsAt + capacity * 8;
+            this.tempAt = deviceAt + capacity * 4;
+            this.humAt = tempAt + capacity * 8;
+            this.vibAt = humAt + capacity * 8;
+            this.prevAt = vibAt + capacity * 8;
+            this.checkAt = prevAt + capacity * 4;
+        }
+
+        static Segment create(Path path, long id, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(id, path, channel, capacity);
+            segment.buffer.putInt(0, magic);
+            segment.buffer.putInt(4, version);
+            segment.buffer.putInt(capacityAt, capacity);
+            segment.buffer.putInt(rowCountAt, 0);
+            segment.buffer.putInt(committedRowsAt, 0);
+            segment.buffer.putLong(minTsAt, Long.MAX_VALUE);
+            segment.buffer.putLong(maxTsAt, Long.MIN_VALUE);
+            return segment;
+        }
+
+        /**
+         * 既存 segment を開き, committedRows + check の合う row + 辞書の範囲で有効な row を決める.
+         */
+        static Segment open(Path path, long id, int deviceCount) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(headerBytes);
+            channel.read(header, 0);
+            int capacity = header.getInt(capacityAt);
+            if (header.getInt(0) != magic || header.getInt(4) != version || capacity <= 0
+                    || channel.size() < headerBytes + (long) capacity * rowBytes) {
+                channel.close();
+                throw new IOException("Invalid segment header");
+            }
+            Segment segment = new Segment(id, path, channel, capacity);
+            int committed = Math.min(Math.max(segment.buffer.getInt(committedRowsAt), 0), capacity);
+            int rows = Math.max(Math.min(Math.max(segment.buffer.getInt(rowCountAt), 0), capacity), committed);
+            // 最初の壊れた row で止める: 辞書にない device を指す row (辞書が失われた / 書き込み途中),
+            // checkpoint 後で check が合わない row (disk に出ていない 0 埋め / 途中の row)
+            int checked = 0;
+            while (checked < rows && segment.device(checked) >= 0 && segment.device(checked) < deviceCount
+                    && (checked < committed || segment.check(checked) == segment.computeCheck(checked))) {
+                checked++;
+            }
+            rows = checked;
+            if (rows != segment.buffer.getInt(rowCountAt)) {
+                logger.warn("Recovered segment {} to {} rows (header said {})", path.getFileName(), rows, segment.buffer.getInt(rowCountAt));
+                segment.buffer.putInt(rowCountAt, rows);
+            }
+            segment.rebuild(rows, deviceCount);
+            segment.sealedFlag = segment.buffer.getInt(sealedAt) != 0;
+            return segment;
+        }
+
+        // chain の先頭と min/max を column から作り直す
+        private void rebuild(int rows, int deviceCount) {
+            lastRowByDevice = new int[deviceCount];
+            Arrays.fill(lastRowByDevice, -1);
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int row = 0; row < rows; row++) {
+                lastRowByDevice[device(row)] = row;
+                long ts = timestamp(row);
+                min = Math.min(min, ts);
+                max = Math.max(max, ts);
+            }
+            minTs = min;
+            maxTs = max;
+            rowCount = rows;
+        }
+
+        void append(int device, long epochMillis, double temperature, double humidity, double vibration) {
+            int row = rowCount;
+            buffer.putLong(tsAt + row * 8, epochMillis);
+            buffer.putInt(deviceAt + row * 4, device);
+            buffer.putDouble(tempAt + row * 8, temperature);
+            buffer.putDouble(humAt + row * 8, humidity);
+            buffer.putDouble(vibAt + row * 8, vibration);
+            buffer.putInt(prevAt + row * 4, lastRow(device));
+            buffer.putInt(checkAt + row * 4, computeCheck(row));
+
+            if (device >= lastRowByDevice.length) {
+                int oldLength = lastRowByDevice.length;
+                lastRowByDevice = Arrays.copyOf(lastRowByDevice, Math.max(device + 1, oldLength * 2));
+                Arrays.fill(lastRowByDevice, oldLength, lastRowByDevice.length, -1);
+            }
+            lastRowByDevice[device] = row;
+            if (epochMillis < minTs) {
+                minTs = epochMillis;
+                buffer.putLong(minTsAt, epochMillis);
+            }
+            if (epochMillis > maxTs) {
+                maxTs = epochMillis;
+                buffer.putLong(maxTsAt, epochMillis);
+            }
+            buffer.putInt(rowCountAt, row + 1);  // commit: column を書いた後に header を進める
+            rowCount = row + 1;  // volatile: reader への publish
+        }
+
+        int lastRow(int device) {
+            int[] rows = lastRowByDevice;
+            return device < rows.length ? rows[device] : -1;
+        }
+
+        long timestamp(int row) {
+            return buffer.getLong(tsAt + row * 8);
+        }
+
+        int device(int row) {
+            return buffer.getInt(deviceAt + row * 4);
+        }
+
+        double temperature(int row) {
+            return buffer.getDouble(tempAt + row * 8);
+        }
+
+        double humidity(int row) {
+            return buffer.getDouble(humAt + row * 8);
+        }
+
+        double vibration(int row) {
+            return buffer.getDouble(vibAt + row * 8);
+        }
+
+        int prev(int row) {
+            return buffer.getInt(prevAt + row * 4);
+        }
+
+        int check(int row) {
+            return buffer.getInt(checkAt + row * 4);
+        }
+
+        // row の全 column の hash
+        int computeCheck(int row) {
+            long h = checkSeed;
+            h = (h ^ timestamp(row)) * 0x9E3779B97F4A7C15L;
+            h = (h ^ device(row)) * 0x9E3779B97F4A7C15L;
+            h = (h ^ buffer.getLong(tempAt + row * 8)) * 0x9E3779B97F4A7C15L;
+            h = (h ^ buffer.getLong(humAt + row * 8)) * 0x9E3779B97F4A7C15L;
+            h = (h ^ buffer.getLong(vibAt + row * 8)) * 0x9E3779B97F4A7C15L;
+            h = (h ^ prev(row)) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        boolean isSealed() {
+            return sealedFlag;
+        }
+
+        void seal() {
+            sealedFlag = true;
+            buffer.putInt(sealedAt, 1);
+        }
+
+        // column を force してから committedRows を書いて header を force (committedRows までの row は disk 上にある)
+        void force() {
+            int rows = rowCount;
+            if (rows > 0) {
+                buffer.force(tsAt, rows * 8);
+                buffer.force(deviceAt, rows * 4);
+                buffer.force(tempAt, rows * 8);
+                buffer.force(humAt, rows * 8);
+                buffer.force(vibAt, rows * 8);
+                buffer.force(prevAt, rows * 4);
+                buffer.force(checkAt, rows * 4);
+            }
+            buffer.putInt(committedRowsAt, rows);
+            buffer.force(0, headerBytes);
+        }
+
+        void close() throws IOException {
+            closed = true;
+            channel.close();  // mapping 自体は GC で解放される
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.iotspringboot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * processMessage に届いた (topic, payload) をそのまま記録する compact な log と、その reader.
+ * <pre>
+ * header : "IOTR" + version (1 byte)
+ * record : varint 前の record からの経過 nanos
+ *          varint topic ref (0 = 新しい topic: varint 長さ + UTF-8 が続く, n = n-1 番目の topic)
+ *          varint payload 長さ + payload
+ * </pre>
+ * 到着順 (= デバイスの interleave) と到着間隔がそのまま残るので replay で再現できる.
+ */
+public final class TrafficLog {
+
+    private static final byte[] magic = {'I', 'O', 'T', 'R'};
+    private static final int version = 1;
+    private static final int bufferSize = 1 << 16;
+
+    private TrafficLog() {
+    }
+
+    /**
+     * 記録側. record は複数の MQTT callback thread から呼ばれるので synchronized.
+     */
+    public static final class Writer implements Closeable {
+        private final OutputStream out;
+        private final Map<String, Integer> topics = new HashMap<>();
+        private final long maxBytes;
+        private long lastNanos;
+        private long bytes;
+        private long records;
+        private boolean full;
+
+        /**
+         * @param maxBytes これを超えたら以降は記録しない (0 = 無制限)
+         */
+        public Writer(Path file, long maxBytes) throws IOException {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.out = new BufferedOutputStream(Files.newOutputStream(file), bufferSize);
+            this.maxBytes = maxBytes;
+            out.write(magic);
+            out.write(version);
+            bytes = magic.length + 1;
+            lastNanos = System.nanoTime();
+        }
+
+        public synchronized void record(String topic, byte[] payload, long receivedNanos) throws IOException {
+            if (full) {
+                return;
+            }
+            if (maxBytes > 0 && bytes + payload.length + 64 > maxBytes) {
+                full = true;
+                out.flush();
+                return;
+            }
+            bytes += writeVarint(Math.max(0, receivedNanos - lastNanos));
+            lastNanos = Math.max(lastNanos, receivedNanos);
+            Integer ref = topics.get(topic);
+            if (ref != null) {
+                bytes += writeVarint(ref + 1);
+            } else {
+                byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+                topics.put(topic, topics.size());
+                bytes += writeVarint(0);
+                bytes += writeVarint(name.length);
+                out.write(name);
+                bytes += name.length;
+            }
+            bytes += writeVarint(payload.length);
+            out.write(payload);
+            bytes += payload.length;
+            records++;
+        }
+
+        public synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        public synchronized long getRecordCount() {
+            return records;
+        }
+
+        public synchronized long getByteCount() {
+            return bytes;
+        }
+
+        public synchronized boolean isFull() {
+            return full;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+
+        private int writeVarint(long value) throws IOException {
+            int n = 1;
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+                n++;
+            }
+            out.write((int) value);
+            return n;
+        }
+    }
+
+    /**
+     * 読み出し側 (1 thread). next() で 1 record ずつ進む.
+     */
+    public static final class Reader implements Closeable {
+        private final InputStream in;
+        private final List<String> topics = new ArrayList<>();
+        private long deltaNanos;
+        private String topic;
+        private byte[] payload;
+
+        public Reader(Path file) throws IOException {
+            this.in = new BufferedInputStream(Files.newInputStream(file), bufferSize);
+            byte[] header = in.readNBytes(magic.length + 1);
+            if (header.length != magic.length + 1 || header[0] != magic[0] || header[1] != magic[1]
+                    || header[2] != magic[2] || header[3] != magic[3]) {
+                in.close();
+                throw new IOException("Not a traffic log: " + file);
+            }
+            if (header[4] != version) {
+                in.close();
+                throw new IOException("Unsupported traffic log version " + header[4] + ": " + file);
+            }
+        }
+
+        /**
+         * @return 次の record があれば true (末尾が途中で切れている record は無視)
+         */
+        public boolean next() throws IOException {
+            try {
+                long delta = readVarint(true);
+                if (delta < 0) {
+                    return false;
+                }
+                int ref = (int) readVarint(false);
+                String nextTopic;
+                if (ref == 0) {
+                    nextTopic = new String(readFully((int) readVarint(false)), StandardCharsets.UTF_8);
+                    topics.add(nextTopic);
+                } else {
+                    if (ref > topics.size()) {
+                        throw new IOException("Corrupt traffic log: unknown topic ref " + ref);
+                    }
+                    nextTopic = topics.get(ref - 1);
+                }
+                byte[] nextPayload = readFully((int) readVarint(false));
+                deltaNanos = delta;
+                topic = nextTopic;
+                payload = nextPayload;
+                return true;
+            } catch (EOFException e) {
+                return false;  // 記録中に止まった log の最後の record
+            }
+        }
+
+        public long deltaNanos() {
+            return deltaNanos;
+        }
+
+        public String topic() {
+            return topic;
+        }
+
+        public byte[] payload() {
+            return payload;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private byte[] readFully(int length) throws IOException {
+            byte[] data = in.readNBytes(length);
+            if (data.length != length) {
+                throw new EOFException();
+            }
+            return data;
+        }
+
+        // eofAllowed: record の先頭で EOF なら -1
+        private long readVarint(boolean eofAllowed) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    if (eofAllowed && shift == 0) {
+                        return -1;
+                    }
+                    throw new EOFException();
+                }
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt traffic log: varint too long");
+        }
+    }
+}
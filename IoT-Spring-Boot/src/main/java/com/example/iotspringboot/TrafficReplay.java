@@ -0,0 +1,193 @@
+package com.example.iotspringboot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * replay mode (iot.replay.file=...): TrafficLog に記録した traffic を IoTSubscriber.processMessage に流し直す.
+ * iot.replay.speed = 1 / 10 / 100 (記録時の到着間隔を 1/speed に縮める), 0 = 全力.
+ * 再現性のため iot.generator.enabled=false (5秒ごとの MySensor data を止める), iot.dynamodb.mode=memory で使う.
+ * 1 thread で記録順に投入するので到着順とデバイスの interleave はそのまま.
+ * 終了時に msgs/sec, latency と alert digest を出力する. digest はデバイスごとに alert の列を順番込みで hash し,
+ * デバイス間は足し合わせる (デバイス間の処理順には依存しない) ので, 同じ log を別の build で replay して alert が同じか比較できる.
+ */
+@Component
+@ConditionalOnProperty(name = "iot.replay.file")
+public class TrafficReplay {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrafficReplay.class);
+
+    private static final long completionTimeoutMillis = 60_000;
+
+    private final IoTSubscriber subscriber;
+    private final IngestMetrics metrics;
+    private final ApplicationContext context;
+    private final Path file;
+    private final double speed;
+    private final long maxGapNanos;  // 記録中の長い空白をここまで縮める (0 = そのまま)
+    private final boolean exitWhenDone;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong lastCompletionNanos = new AtomicLong();
+    private final LongAdder alerts = new LongAdder();
+    // デバイスごとの alert 列の hash. 1 デバイスは常に同じ analytics thread から呼ばれるので long[1] を直接更新する
+    private final Map<String, long[]> deviceDigests = new ConcurrentHashMap<>();
+
+    public TrafficReplay(IoTSubscriber subscriber,
+                         IngestMetrics metrics,
+                         ApplicationContext context,
+                         @Value("${iot.replay.file}") String file,
+                         @Value("${iot.replay.speed:1}") double speed,
+                         @Value("${iot.replay.max-gap-millis:0}") long maxGapMillis,
+                         @Value("${iot.replay.exit:true}") boolean exitWhenDone) {
+        this.subscriber = subscriber;
+        this.metrics = metrics;
+        this.context = context;
+        this.file = Path.of(file);
+        this.speed = speed;
+        this.maxGapNanos = maxGapMillis > 0 ? maxGapMillis * 1_000_000L : Long.MAX_VALUE;
+        this.exitWhenDone = exitWhenDone;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void replay() throws IOException, InterruptedException {
+        subscriber.setReadingListener((reading, result) -> {
+            if (result.isEvaluated() && (result.isTempAnomaly() || result.isVibAnomaly() || result.isIntegratedAlert())) {
+                alerts.increment();
+                long[] digest = deviceDigests.computeIfAbsent(reading.deviceId, id -> new long[1]);
+                digest[0] = digest[0] * 31 + alertHash(reading, result);
+            }
+            long now = System.nanoTime();
+            latency.record(now - reading.ingestNanos);
+            completed.incrementAndGet();
+            lastCompletionNanos.set(now);
+        });
+
+        long messages = 0;
+        long bytes = 0;
+        long recordedNanos = 0;
+        long droppedBefore = droppedCount();
+        PipelineStage<?> parseStage = stage("parse");
+        PipelineStage<?> analyticsStage = stage("analytics");
+        long parsedBefore = handledCount(parseStage);
+        long decodedBefore = metrics.decodedReadings.sum();
+        long lostBefore = analyticsStage.getDroppedCount() + analyticsStage.getErrorCount();
+        long startNanos = System.nanoTime();
+        logger.info("Replaying {} at {}", file, speed > 0 ? speed + "x" : "max speed");
+        try (TrafficLog.Reader reader = new TrafficLog.Reader(file)) {
+            long dueNanos = startNanos;
+            while (reader.next()) {
+                if (speed > 0) {
+                    long delta = reader.deltaNanos();
+                    recordedNanos += delta;
+                    dueNanos += (long) (Math.min(delta, maxGapNanos) / speed);
+                    long wait = dueNanos - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);  // 遅れた分は詰めて投入 (open-loop)
+                    }
+                } else {
+                    recordedNanos += reader.deltaNanos();
+                }
+                subscriber.processMessage(reader.topic(), reader.payload());
+                messages++;
+                bytes += reader.payload().length;
+            }
+        } finally {
+            long injectedNanos = System.nanoTime() - startNanos;
+            long deadline = System.currentTimeMillis() + completionTimeoutMillis;
+            // 1 message が複数 reading (batch envelope) のこともあるので, message は parse stage で,
+            // reading は decode された数と analytics 完了 (+ analytics で捨てられた数) で数える
+            while (System.currentTimeMillis() < deadline
+                    && (handledCount(parseStage) - parsedBefore < messages
+                    || completed.get() + (analyticsStage.getDroppedCount() + analyticsStage.getErrorCount() - lostBefore)
+                    < metrics.decodedReadings.sum() - decodedBefore)) {
+                Thread.sleep(1);
+            }
+            subscriber.setReadingListener(null);
+            report(messages, bytes, metrics.decodedReadings.sum() - decodedBefore, recordedNanos, injectedNanos, droppedCount() - droppedBefore,
+                    Math.max(lastCompletionNanos.get() - startNanos, 1));
+        }
+
+        if (exitWhenDone) {
+            System.exit(SpringApplication.exit(context, () -> 0));
+        }
+    }
+
+    // 1 alert の hash: deviceId, 時刻, 判定結果 (しきい値などの double は含めない)
+    private static long alertHash(SensorReading reading, AnomalyEngine.AnomalyResult result) {
+        long h = reading.deviceId.hashCode();
+        h = h * 31 + reading.epochMillis;
+        h = h * 31 + (result.isTempAnomaly() ? 1 : 0);
+        h = h * 31 + (result.isVibAnomaly() ? 2 : 0);
+        h = h * 31 + (result.isIntegratedAlert() ? 4 : 0);
+        return mix(h);
+    }
+
+    // デバイスごとの hash を mix して足す (加算なのでデバイスの順序に依存しない)
+    private long alertDigest() {
+        long digest = 0;
+        for (long[] deviceDigest : deviceDigests.values()) {
+            digest += mix(deviceDigest[0]);
+        }
+        return digest;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;  // 加算で打ち消し合わないように
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private PipelineStage<?> stage(String name) {
+        for (PipelineStage<?> stage : subscriber.getPipelineStages()) {
+            if (stage.getName().equals(name)) {
+                return stage;
+            }
+        }
+        throw new IllegalStateException("No pipeline stage: " + name);
+    }
+
+    // 処理済み + 捨てられた item
+    private static long handledCount(PipelineStage<?> stage) {
+        return stage.getProcessedCount() + stage.getDroppedCount() + stage.getErrorCount();
+    }
+
+    private long droppedCount() {
+        long dropped = 0;
+        for (PipelineStage<?> stage : subscriber.getPipelineStages()) {
+            dropped += stage.getDroppedCount() + stage.getErrorCount();
+        }
+        return dropped;
+    }
+
+    private void report(long messages, long bytes, long readings, long recordedNanos, long injectedNanos, long dropped, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        String summary = String.format(
+                "Traffic replay: file=%s, speed=%s, messages=%d (%d bytes), readings=%d, completed=%d, dropped=%d%n"
+                        + "  recorded span: %.2f s, injected in %.2f s, end-to-end: %.0f readings/sec (%.2f s)%n"
+                        + "  ingest -> analytics latency: p50=%.1f us, p99=%.1f us, p99.9=%.1f us, max=%.1f us%n"
+                        + "  alerts=%d, alert digest=%016x",
+                file, speed > 0 ? String.format("%.0fx", speed) : "max", messages, bytes, readings, completed.get(), dropped,
+                recordedNanos / 1e9, injectedNanos / 1e9, completed.get() / seconds, seconds,
+                latency.percentile(50) / 1e3, latency.percentile(99) / 1e3, latency.percentile(99.9) / 1e3, latency.max() / 1e3,
+                alerts.sum(), alertDigest());
+        logger.info("{}", summary);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.iotspringboot;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+/**
+ * iot.transport (aws | loopback) に応じて SensorTransport を作る.
+ * AWS の証明書 / 秘密鍵は最初の 1回だけ読み込み、KeyStore を全 client で共有する.
+ */
+@Component
+public class TransportFactory {
+
+    private static final String keyPassword = "password";  // loadKeyStore で設定する KeyStore の key password
+
+    private final String transportType;
+    private final String clientEndpoint;
+    private final String certificateFile;
+    private final String privateKeyFile;
+    private final LoopbackBroker loopbackBroker;
+    private KeyStore keyStore;
+
+    public TransportFactory(@Value("${iot.transport:aws}") String transportType,
+                            @Value("${iot.aws.endpoint:a1u6nmfv3uv0e6-ats.iot.ap-northeast-1.amazonaws.com}") String clientEndpoint,
+                            @Value("${iot.aws.certificate-file:C:/Users/user/Desktop/iot-project/IoT-Spring-Boot/src/main/resources/270fa4d7d83505d2cb7822d7bc394fdd6118e2d79d14830b5724dbdeef0b8a56-certificate.pem.crt}") String certificateFile,
+                            @Value("${iot.aws.private-key-file:C:/Users/user/Desktop/iot-project/IoT-Spring-Boot/src/main/resources/270fa4d7d83505d2cb7822d7bc394fdd6118e2d79d14830b5724dbdeef0b8a56-private.pem.key}") String privateKeyFile,
+                            LoopbackBroker loopbackBroker) {
+        this.transportType = transportType;
+        this.clientEndpoint = clientEndpoint;
+        this.certificateFile = certificateFile;
+        this.privateKeyFile = privateKeyFile;
+        this.loopbackBroker = loopbackBroker;
+    }
+
+    /**
+     * @param clientId MQTT client id (AWS IoT では接続ごとに一意にする)
+     */
+    public SensorTransport create(String clientId) throws Exception {
+        if (isLoopback()) {
+            return new LoopbackTransport(loopbackBroker);
+        }
+        return new AwsIotTransport(clientEndpoint, clientId, keyStore(), keyPassword);
+    }
+
+    public boolean isLoopback() {
+        return "loopback".equalsIgnoreCase(transportType);
+    }
+
+    public String describeEndpoint() {
+        return isLoopback() ? "loopback" : clientEndpoint;
+    }
+
+    private synchronized KeyStore keyStore() throws Exception {
+        if (keyStore == null) {
+            Security.addProvider(new BouncyCastleProvider());
+            keyStore = loadKeyStore(certificateFile, privateKeyFile);
+        }
+        return keyStore;
+    }
+
+    private static KeyStore loadKeyStore(String certPath, String keyPath) throws Exception {
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        X509Certificate cert;
+        try (FileInputStream in = new FileInputStream(certPath)) {
+            cert = (X509Certificate) factory.generateCertificate(in);
+        }
+
+        PEMParser pemParser = new PEMParser(new FileReader(keyPath));
+        Object object = pemParser.readObject();
+        JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider("BC");
+        java.security.KeyPair keyPair = converter.getKeyPair((org.bouncycastle.openssl.PEMKeyPair) object);
+        pemParser.close();
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setCertificateEntry("alias", cert);
+        keyStore.setKeyEntry("alias", keyPair.getPrivate(), keyPassword.toCharArray(), new java.security.cert.Certificate[]{cert});
+
+        return keyStore;
+    }
+}
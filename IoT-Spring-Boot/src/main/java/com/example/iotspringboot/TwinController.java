@@ -0,0 +1,32 @@
+package com.example.iotspringboot;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Digital Twin の状態: localhost:8080/twins, localhost:8080/twins/{deviceId}
+ */
+@RestController
+public class TwinController {
+
+    private final TwinRegistry twinRegistry;
+
+    public TwinController(TwinRegistry twinRegistry) {
+        this.twinRegistry = twinRegistry;
+    }
+
+    @GetMapping("/twins")
+    public List<TwinSnapshot> getTwins() {
+        return twinRegistry.snapshotAll();
+    }
+
+    @GetMapping("/twins/{deviceId}")
+    public ResponseEntity<TwinSnapshot> getTwin(@PathVariable String deviceId) {
+        TwinSnapshot snapshot = twinRegistry.snapshot(deviceId);
+        return snapshot != null ? ResponseEntity.ok(snapshot) : ResponseEntity.notFound().build();
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.iotspringboot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Digital Twin : Virtual Model (1 デバイス分. センサー値 -> 摩耗度 / エネルギー効率 simulation).
+ * 更新はそのデバイスの analytics partition の worker 1つだけ (single writer) なので write lock は常に uncontended.
+ * 読み出しは StampedLock の optimistic read (seqlock) で、writer を止めずに一貫した snapshot を取る.
+ */
+class TwinModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(TwinModel.class);
+
+    final String deviceId;
+    private final StampedLock lock = new StampedLock();
+
+    double currentTemp = 0.0;
+    double currentHumidity = 0.0;
+    double currentVibration = 0.0;
+    double accumulatedWear = 0.0;  // 累積摩耗度(振動 -> simulation)
+    double energyEfficiency = 100.0;  // エネルギー効率 (温度・湿度 -> simulation)
+    long updateCount;
+    long lastUpdatedMillis;  // 最後の reading の時刻 (epoch millis)
+
+    TwinModel(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public void updateFromSensor(double temp, double hum, double vib) {
+        updateFromSensor(temp, hum, vib, System.currentTimeMillis());
+    }
+
+    //sensor data -> digital twin (update)
+    public void updateFromSensor(double temp, double hum, double vib, long epochMillis) {
+        long stamp = lock.writeLock();
+        try {
+            currentTemp = temp;
+            currentHumidity = hum;
+            currentVibration = vib;
+
+            // logic: 振動で摩耗累積(factory DOWNTIME simulation)
+            accumulatedWear += vib * 0.05;  // 任意係数（現実的に設定）
+
+            // logic: エネルギー効率 (温度・湿度超過時の効率低下)
+            if (overheated(temp, hum) == 1) {
+                energyEfficiency -= 1.0;  // 効率 down
+            }
+            updateCount++;
+            lastUpdatedMillis = epochMillis;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        logger.debug("Digital Twin updated: device={}, Wear={}, Efficiency={}%", deviceId, accumulatedWear, energyEfficiency);  // INFO は IoTSubscriber で sample して出す
+    }
+
+    /**
+     * heartbeat: 送られなかった held 件を O(1) で反映する.
+     * 摩耗は振動の合計 (= 平均 x 件数) で決まるので updateFromSensor を held 回呼んだ時と同じ (平均の丸め分の誤差だけ).
+     * 効率低下は復元した値 (平均 ± 標準偏差) が閾値を超える件数で数えるので近似 (実際の sample の超過件数とは違うことがある).
+     */
+    public void updateFromHeld(SensorReading heartbeat) {
+        int held = heartbeat.heldSamples;
+        int pairs = held / 2;  // (mean + sd, mean - sd) の組
+        int hot = pairs * (overheated(heartbeat.temperature + heartbeat.temperatureSd, heartbeat.humidity + heartbeat.humiditySd)
+                + overheated(heartbeat.temperature - heartbeat.temperatureSd, heartbeat.humidity - heartbeat.humiditySd));
+        if ((held & 1) == 1) {
+            hot += overheated(heartbeat.temperature, heartbeat.humidity);
+        }
+        long stamp = lock.writeLock();
+        try {
+            currentTemp = heartbeat.temperature;
+            currentHumidity = heartbeat.humidity;
+            currentVibration = heartbeat.vibration;
+            accumulatedWear += heartbeat.vibration * 0.05 * held;
+            energyEfficiency -= hot;
+            updateCount += held;
+            lastUpdatedMillis = heartbeat.epochMillis;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private static int overheated(double temp, double hum) {
+        return temp > 30 || hum > 70 ? 1 : 0;
+    }
+
+    // writer 自身 (analytics worker) はそのまま読んで良い
+    public double getAccumulatedWear() {
+        return accumulatedWear;
+    }
+
+    public double getEnergyEfficiency() {
+        return energyEfficiency;
+    }
+
+    /**
+     * 他 thread (REST 等) から一貫した状態を読む. 更新中なら読み直し, 続くようなら read lock.
+     */
+    public TwinSnapshot snapshot() {
+        long stamp = lock.tryOptimisticRead();
+        TwinSnapshot snapshot = copy();
+        if (lock.validate(stamp)) {
+            return snapshot;
+        }
+        stamp = lock.readLock();
+        try {
+            return copy();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private TwinSnapshot copy() {
+        return new TwinSnapshot(deviceId, currentTemp, currentHumidity, currentVibration,
+                accumulatedWear, energyEfficiency, updateCount, lastUpdatedMillis);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.iotspringboot;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * デバイスごとの Digital Twin (以前は全デバイスで 1つの TwinModel を共有していた).
+ * analytics stage が deviceId で partition するので、1つの twin を更新する thread は常に 1つ.
+ */
+@Component
+public class TwinRegistry {
+    private final ConcurrentMap<String, TwinModel> twins = new ConcurrentHashMap<>();
+
+    TwinModel forDevice(String deviceId) {
+        TwinModel twin = twins.get(deviceId);  // 既存デバイスは lock なしの get だけ
+        return twin != null ? twin : twins.computeIfAbsent(deviceId, TwinModel::new);
+    }
+
+    public int deviceCount() {
+        return twins.size();
+    }
+
+    /**
+     * @return twin の snapshot (なければ null)
+     */
+    public TwinSnapshot snapshot(String deviceId) {
+        TwinModel twin = twins.get(deviceId);
+        return twin != null ? twin.snapshot() : null;
+    }
+
+    /**
+     * 全 twin の snapshot (deviceId 順). 各 twin の値は一貫している (twin 間は同時刻とは限らない).
+     */
+    public List<TwinSnapshot> snapshotAll() {
+        List<TwinSnapshot> snapshots = new ArrayList<>(twins.size());
+        for (TwinModel twin : twins.values()) {
+            snapshots.add(twin.snapshot());
+        }
+        snapshots.sort((a, b) -> a.getDeviceId().compareTo(b.getDeviceId()));
+        return snapshots;
+    }
+}
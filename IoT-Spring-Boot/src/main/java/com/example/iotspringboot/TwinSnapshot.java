@@ -0,0 +1,59 @@
+package com.example.iotspringboot;
+
+/**
+ * TwinModel のある時点の状態 (immutable, REST /twins で返す).
+ */
+public class TwinSnapshot {
+    private final String deviceId;
+    private final double temperature;
+    private final double humidity;
+    private final double vibration;
+    private final double accumulatedWear;
+    private final double energyEfficiency;
+    private final long updateCount;
+    private final long lastUpdatedMillis;
+
+    public TwinSnapshot(String deviceId, double temperature, double humidity, double vibration,
+                        double accumulatedWear, double energyEfficiency, long updateCount, long lastUpdatedMillis) {
+        this.deviceId = deviceId;
+        this.temperature = temperature;
+        this.humidity = humidity;
+        this.vibration = vibration;
+        this.accumulatedWear = accumulatedWear;
+        this.energyEfficiency = energyEfficiency;
+        this.updateCount = updateCount;
+        this.lastUpdatedMillis = lastUpdatedMillis;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public double getTemperature() {
+        return temperature;
+    }
+
+    public double getHumidity() {
+        return humidity;
+    }
+
+    public double getVibration() {
+        return vibration;
+    }
+
+    public double getAccumulatedWear() {
+        return accumulatedWear;
+    }
+
+    public double getEnergyEfficiency() {
+        return energyEfficiency;
+    }
+
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    public long getLastUpdatedMillis() {
+        return lastUpdatedMillis;
+    }
+}
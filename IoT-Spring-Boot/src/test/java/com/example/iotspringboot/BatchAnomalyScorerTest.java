@@ -0,0 +1,64 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchAnomalyScorerTest {
+
+    // batch (scalar kernel, fork-join 分割あり / なし) と per-message の evaluate が bit 単位で同じ判定になるか
+    @Test
+    void batchMatchesPerMessageBitForBit() {
+        for (ForkJoinPool pool : new ForkJoinPool[]{null, ForkJoinPool.commonPool()}) {
+            int devices = pool == null ? 97 : 5000;  // 5000 lane は forkThreshold (4096) を超える
+            AnomalyEngine perMessage = new AnomalyEngine(10);
+            AnomalyEngine batched = new AnomalyEngine(10);
+            BatchAnomalyScorer scorer = new BatchAnomalyScorer(BatchAnomalyScorer.scalarKernel, pool);
+            BatchAnomalyScorer.Batch batch = new BatchAnomalyScorer.Batch(16);  // grow も通す
+            AnomalyEngine.AnomalyResult expected = new AnomalyEngine.AnomalyResult();
+            AnomalyEngine.AnomalyResult actual = new AnomalyEngine.AnomalyResult();
+            SplittableRandom random = new SplittableRandom(11);
+            int alerts = 0;
+            for (int round = 0; round < 15; round++) {
+                double[] temps = new double[devices];
+                double[] hums = new double[devices];
+                double[] vibs = new double[devices];
+                double[] wears = new double[devices];
+                for (int d = 0; d < devices; d++) {
+                    temps[d] = 20 + random.nextDouble() * (d % 5 == 0 ? 30 : 5);
+                    hums[d] = 40 + random.nextDouble() * 20;
+                    vibs[d] = d % 3 == 0 ? 0.1 * round + random.nextDouble() * 0.2 : random.nextDouble() * 5;
+                    wears[d] = random.nextDouble() * 120;
+                    batched.gather("d" + d, temps[d], vibs[d], wears[d], 95, batch);
+                }
+                scorer.score(batch);
+                for (int d = 0; d < devices; d++) {
+                    perMessage.evaluate("d" + d, temps[d], hums[d], vibs[d], wears[d], 95, expected);
+                    batched.windows().forDevice("d" + d).add(temps[d], hums[d], vibs[d]);
+                    batch.copyTo(d, actual);
+                    assertSame(expected, actual, "round " + round + " device " + d);
+                    if (expected.isVibAnomaly() || expected.isTempAnomaly()) {
+                        alerts++;
+                    }
+                }
+                batch.clear();
+            }
+            assertTrue(alerts > 0);
+        }
+    }
+
+    private static void assertSame(AnomalyEngine.AnomalyResult expected, AnomalyEngine.AnomalyResult actual, String message) {
+        assertEquals(expected.evaluated, actual.evaluated, message);
+        assertEquals(expected.sampleCount, actual.sampleCount, message);
+        assertEquals(Double.doubleToLongBits(expected.tempThreshold), Double.doubleToLongBits(actual.tempThreshold), message);
+        assertEquals(Double.doubleToLongBits(expected.predictedVib), Double.doubleToLongBits(actual.predictedVib), message);
+        assertEquals(Double.doubleToLongBits(expected.vibDiff), Double.doubleToLongBits(actual.vibDiff), message);
+        assertEquals(expected.tempAnomaly, actual.tempAnomaly, message);
+        assertEquals(expected.vibAnomaly, actual.vibAnomaly, message);
+        assertEquals(expected.integratedAlert, actual.integratedAlert, message);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchingPublisherTest {
+
+    // in-flight 待ちで止まった batcher の linger publish が共有 scheduler の他の batcher を止めない
+    @Test
+    void stuckPublishDoesNotBlockSharedLinger() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService lingerPublisher = Executors.newCachedThreadPool();
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> topics = Collections.synchronizedList(new ArrayList<>());
+        try {
+            BatchingPublisher stuck = new BatchingPublisher((topic, payload) -> {
+                topics.add(topic);
+                release.await();
+            }, "stuck", true, 100, 1 << 20, 10, scheduler, lingerPublisher);
+            BatchingPublisher other = new BatchingPublisher((topic, payload) -> topics.add(topic),
+                    "other", true, 100, 1 << 20, 10, scheduler, lingerPublisher);
+
+            stuck.add("d1", 1000, 20, 50, 1);
+            assertTrue(await(() -> topics.contains("stuck")));
+            stuck.add("d1", 2000, 21, 50, 1);  // publish 中でも次の envelope を溜められる
+            other.add("d2", 1000, 20, 50, 1);
+            assertTrue(await(() -> topics.contains("other")));
+        } finally {
+            release.countDown();
+            scheduler.shutdownNow();
+            lingerPublisher.shutdownNow();
+        }
+    }
+
+    // batching + deadband: heartbeat と reading がデバイスごとに入れた順で届く (linger / 件数 flush / 複数 thread が混ざっても)
+    @Test
+    void heartbeatsKeepPerDeviceOrderWithReadings() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService lingerPublisher = Executors.newCachedThreadPool();
+        List<byte[]> published = Collections.synchronizedList(new ArrayList<>());
+        try {
+            BatchingPublisher batcher = new BatchingPublisher((topic, payload) -> published.add(payload),
+                    "batch-0", true, 7, 1 << 20, 1, scheduler, lingerPublisher);
+            Thread[] producers = new Thread[2];
+            Exception[] failure = new Exception[1];
+            for (int t = 0; t < producers.length; t++) {
+                int first = t;
+                producers[t] = new Thread(() -> {
+                    BinaryReadingCodec.Writer writer = new BinaryReadingCodec.Writer();
+                    try {
+                        for (int step = 0; step < 2000; step++) {
+                            for (int d = first; d < 8; d += producers.length) {
+                                if ((step + d) % 5 == 0) {
+                                    batcher.addMessage(writer.writeHeartbeat("d" + d, step, 3, 20, 50, 1, 0.1, 0.1, 0.1));
+                                } else {
+                                    batcher.add("d" + d, step, 20, 50, 1);
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                });
+                producers[t].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            batcher.flush();
+            assertNull(failure[0]);
+
+            long[] lastMillis = new long[8];
+            Arrays.fill(lastMillis, -1);
+            int received = 0;
+            List<SensorReading> readings = new ArrayList<>();
+            for (byte[] payload : published) {
+                readings.clear();
+                if (BinaryReadingCodec.isBatch(payload)) {
+                    BinaryReadingCodec.readBatch(payload, readings);
+                } else {
+                    SensorReading heartbeat = new SensorReading();
+                    BinaryReadingCodec.read(payload, heartbeat);
+                    assertTrue(heartbeat.isHeartbeat());
+                    readings.add(heartbeat);
+                }
+                for (SensorReading reading : readings) {
+                    int d = Integer.parseInt(reading.deviceId.substring(1));
+                    assertEquals(lastMillis[d] + 1, reading.epochMillis, reading.deviceId);
+                    assertEquals((reading.epochMillis + d) % 5 == 0, reading.isHeartbeat(), reading.deviceId);
+                    lastMillis[d] = reading.epochMillis;
+                    received++;
+                }
+            }
+            assertEquals(8 * 2000, received);
+        } finally {
+            scheduler.shutdownNow();
+            lingerPublisher.shutdownNow();
+        }
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+}
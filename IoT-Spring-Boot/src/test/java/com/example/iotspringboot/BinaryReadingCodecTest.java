@@ -0,0 +1,142 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryReadingCodecTest {
+
+    @Test
+    void roundTripKeepsCentiValues() throws IOException {
+        BinaryReadingCodec.Writer writer = new BinaryReadingCodec.Writer();
+        SensorReading reading = new SensorReading();
+        SplittableRandom random = new SplittableRandom(5);
+        for (int i = 0; i < 100_000; i++) {
+            long epochMillis = random.nextLong(0, 4_102_444_800_000L);  // 1970 〜 2100
+            double temperature = (random.nextDouble() - 0.5) * 400;
+            double humidity = random.nextDouble() * 100;
+            double vibration = random.nextDouble() * 5;
+            BinaryReadingCodec.read(writer.write("sensor-" + i, epochMillis, temperature, humidity, vibration), reading);
+            assertEquals("sensor-" + i, reading.deviceId);
+            assertEquals(epochMillis, reading.epochMillis);
+            assertEquals(SensorTimestamps.formatIsoLocal(epochMillis), reading.timestamp);
+            assertEquals(fixed2(temperature), reading.temperature);
+            assertEquals(fixed2(humidity), reading.humidity);
+            assertEquals(fixed2(vibration), reading.vibration);
+        }
+    }
+
+    // JSON (%.2f) と同じ HALF_UP: Math.round(x * 100) だと 1.005 は 1.00 になる
+    @Test
+    void roundsLikeJson() throws IOException {
+        BinaryReadingCodec.Writer writer = new BinaryReadingCodec.Writer();
+        SensorReading reading = new SensorReading();
+        double[] values = {1.005, -1.005, 0.125, 2.675, 1.115, 1e6 + 0.005, 12345678.125, 0.0049999};
+        for (double value : values) {
+            BinaryReadingCodec.read(writer.write("d", 0, value, value, value), reading);
+            assertEquals(fixed2(value), reading.temperature, Double.toString(value));
+        }
+        BinaryReadingCodec.read(writer.writeHeartbeat("d", 0, 3, 0, 0, 0, 1.005, 0.125, 2.675), reading);
+        assertEquals(1.01, reading.temperatureSd);
+        assertEquals(0.13, reading.humiditySd);
+        assertEquals(fixed2(2.675), reading.vibrationSd);
+    }
+
+    @Test
+    void rejectsNonFiniteValues() throws IOException {
+        BinaryReadingCodec.Writer writer = new BinaryReadingCodec.Writer();
+        double[] invalid = {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        BinaryReadingCodec.BatchWriter batch = new BinaryReadingCodec.BatchWriter();
+        batch.add("d", 1, 20.0, 50.0, 1.0);
+        for (double value : invalid) {
+            assertThrows(IllegalArgumentException.class, () -> writer.write("d", 0, 20.0, value, 1.0));
+            assertThrows(IllegalArgumentException.class, () -> writer.writeHeartbeat("d", 0, 3, 20.0, 50.0, 1.0, 0.1, 0.1, value));
+            assertThrows(IllegalArgumentException.class, () -> batch.add("d", 2, 20.0, 50.0, value));
+        }
+        // 失敗した entry は envelope に残らない
+        assertEquals(1, batch.count());
+        List<SensorReading> readings = new ArrayList<>();
+        BinaryReadingCodec.readBatch(batch.finish(), readings);
+        assertEquals(1, readings.size());
+        assertEquals(50.0, readings.get(0).humidity);
+    }
+
+    // varint は 1〜10 byte, zigzag は負値と long の両端
+    @Test
+    void varintAndZigZagBoundaries() throws IOException {
+        BinaryReadingCodec.Writer writer = new BinaryReadingCodec.Writer();
+        SensorReading reading = new SensorReading();
+        long[] millis = {0, 1, 127, 128, 16_383, 16_384, (1L << 35) - 1, 1L << 35, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        for (long epochMillis : millis) {
+            BinaryReadingCodec.read(writer.write(null, epochMillis, 0, 0, 0), reading);
+            assertEquals(epochMillis, reading.epochMillis);
+            assertNull(reading.deviceId);
+        }
+        long[] centis = {0, 1, -1, 63, -64, 64, -65, Integer.MAX_VALUE, Integer.MIN_VALUE, 1L << 52, -(1L << 52)};
+        for (long centi : centis) {
+            double value = centi / 100.0;
+            BinaryReadingCodec.read(writer.write("d", 0, value, -value, value), reading);
+            assertEquals(value, reading.temperature);
+            assertEquals(0.0 - value, reading.humidity);  // -0.0 は 0 として送られる
+        }
+    }
+
+    @Test
+    void heartbeatAndBatchRoundTrip() throws IOException {
+        BinaryReadingCodec.Writer writer = new BinaryReadingCodec.Writer();
+        SensorReading reading = new SensorReading();
+        BinaryReadingCodec.read(writer.writeHeartbeat("d", 1000, 42, 30.0, 50.0, 1.5, 0.12, 0.4, 0.03), reading);
+        assertEquals(42, reading.heldSamples);
+        assertEquals(0.12, reading.temperatureSd);
+        assertEquals(0.03, reading.vibrationSd);
+
+        BinaryReadingCodec.BatchWriter batch = new BinaryReadingCodec.BatchWriter();
+        for (int i = 0; i < 10; i++) {
+            batch.add("sensor-" + i, 1000 + i, i, 2 * i, 0.01 * i);
+        }
+        byte[] payload = batch.finish();
+        assertTrue(BinaryReadingCodec.isBinary(payload));
+        assertTrue(BinaryReadingCodec.isBatch(payload));
+        List<SensorReading> readings = new ArrayList<>();
+        BinaryReadingCodec.readBatch(payload, readings);
+        assertEquals(10, readings.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("sensor-" + i, readings.get(i).deviceId);
+            assertEquals(1000 + i, readings.get(i).epochMillis);
+            assertEquals(Math.round(0.01 * i * 100) / 100.0, readings.get(i).vibration);
+        }
+        assertThrows(IOException.class, () -> BinaryReadingCodec.read(payload, reading));
+    }
+
+    @Test
+    void rejectsTruncatedAndForeignPayloads() {
+        BinaryReadingCodec.Writer writer = new BinaryReadingCodec.Writer();
+        byte[] payload = writer.write("sensor-00001", Long.MAX_VALUE, -12.34, 56.78, 9.99);
+        SensorReading reading = new SensorReading();
+        for (int length = 0; length < payload.length; length++) {
+            byte[] truncated = Arrays.copyOf(payload, length);
+            assertThrows(IOException.class, () -> BinaryReadingCodec.read(truncated, reading), "length " + length);
+        }
+        byte[] otherVersion = payload.clone();
+        otherVersion[1] = 2;
+        assertThrows(IOException.class, () -> BinaryReadingCodec.read(otherVersion, reading));
+        byte[] overlong = {BinaryReadingCodec.magic, BinaryReadingCodec.version, 0,
+                (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0};
+        assertThrows(IOException.class, () -> BinaryReadingCodec.read(overlong, reading));
+    }
+
+    // JSON writer と同じ値 (-0.00 は 0 として送られる)
+    private static double fixed2(double value) {
+        return 0.0 + Double.parseDouble(String.format(Locale.ROOT, "%.2f", value));
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GorillaBlockTest {
+
+    // 小数 2桁の値 / 任意の double / NaN, -0.0 / 逆行や大きく飛ぶ timestamp が bit 単位で戻るか
+    @Test
+    void roundTripIsLossless() {
+        SplittableRandom random = new SplittableRandom(13);
+        int samples = 5000;
+        long[] ts = new long[samples];
+        double[][] values = new double[3][samples];
+        GorillaBlock block = new GorillaBlock(samples);
+        long t = 1_714_566_896_000L;
+        for (int i = 0; i < samples; i++) {
+            switch (i % 7) {
+                case 0:
+                    t -= random.nextInt(1, 5000);  // 逆行
+                    break;
+                case 1:
+                    t += random.nextLong(1L << 20, 1L << 40);
+                    break;
+                default:
+                    t += 1000 + random.nextInt(-3, 4);
+            }
+            ts[i] = t;
+            for (int metric = 0; metric < 3; metric++) {
+                values[metric][i] = value(random, i + metric);
+            }
+            block.append(ts[i], values[0][i], values[1][i], values[2][i]);
+            if (i == samples / 2) {
+                assertReads(block.reader(), ts, values, i + 1);  // 書き込み中の block
+            }
+        }
+        assertTrue(block.isFull());
+        block.seal();
+        assertReads(block.reader(), ts, values, samples);
+    }
+
+    @Test
+    void tracksMinAndMaxTimestamps() {
+        GorillaBlock block = new GorillaBlock(8);
+        block.append(5000, 1, 1, 1);
+        block.append(2000, 1, 1, 1);
+        block.append(9000, 1, 1, 1);
+        block.append(7000, 1, 1, 1);
+        assertEquals(5000, block.firstMillis());
+        assertEquals(7000, block.lastMillis());
+        assertEquals(2000, block.minMillis());
+        assertEquals(9000, block.maxMillis());
+    }
+
+    private static void assertReads(GorillaBlock.Reader reader, long[] ts, double[][] values, int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(reader.next());
+            assertEquals(ts[i], reader.epochMillis(), "row " + i);
+            assertEquals(Double.doubleToRawLongBits(values[0][i]), Double.doubleToRawLongBits(reader.temperature()), "row " + i);
+            assertEquals(Double.doubleToRawLongBits(values[1][i]), Double.doubleToRawLongBits(reader.humidity()), "row " + i);
+            assertEquals(Double.doubleToRawLongBits(values[2][i]), Double.doubleToRawLongBits(reader.vibration()), "row " + i);
+        }
+        assertFalse(reader.next());
+    }
+
+    private static double value(SplittableRandom random, int i) {
+        switch (i % 6) {
+            case 0:
+                return random.nextInt(-5000, 5000) / 100.0;
+            case 1:
+                return 50.0 + random.nextInt(3) / 100.0;  // 同じ値が続く
+            case 2:
+                return random.nextDouble() * 100;
+            case 3:
+                return i % 12 == 3 ? Double.NaN : -0.0;
+            case 4:
+                return random.nextBoolean() ? 1e300 : 2.5;
+            default:
+                return random.nextInt(-100, 100) / 100.0;
+        }
+    }
+}
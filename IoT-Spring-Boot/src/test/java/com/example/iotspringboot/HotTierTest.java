@@ -0,0 +1,49 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HotTierTest {
+
+    @Test
+    void rangeFindsOutOfOrderSamplesInsideBlocks() {
+        HotTier tier = new HotTier(4, 16);
+        // 2つ目の block は first/last (10000, 13000) の外側に 500 を含む
+        long[] ts = {1000, 2000, 3000, 4000, 10000, 500, 12000, 13000, 14000};
+        for (int i = 0; i < ts.length; i++) {
+            tier.append("sensor-0", ts[i], i, 50, 1);
+        }
+        assertEquals(List.of(5.0), temperatures(tier.range("sensor-0", 0, 900, 10)));
+        assertEquals(List.of(0.0, 1.0, 5.0), temperatures(tier.range("sensor-0", 0, 2000, 10)));
+        assertEquals(List.of(8.0), temperatures(tier.range("sensor-0", 13500, 20000, 10)));
+        assertEquals(List.of(6.0, 7.0, 8.0), temperatures(tier.latest("sensor-0", 3)));
+        assertEquals(0, tier.latest("unknown", 3).size());
+    }
+
+    @Test
+    void evictsOldestSealedBlocksOverBudget() {
+        HotTier tier = new HotTier(100, 1);
+        for (int i = 0; i < 200_000; i++) {
+            tier.append("sensor-" + (i % 10), 1000L * i, (i % 1000) / 7.0, 50, 1);
+        }
+        assertTrue(tier.getEvictedBlocks() > 0);
+        assertTrue(tier.sizeInBytes() <= tier.getMemoryBudgetBytes());
+        assertEquals(200_000 - tier.getEvictedSamples(), tier.sampleCount());
+        List<SensorReading> latest = tier.latest("sensor-3", 2);
+        assertEquals(1000L * 199_983, latest.get(0).epochMillis);
+        assertEquals(1000L * 199_993, latest.get(1).epochMillis);
+    }
+
+    private static List<Double> temperatures(List<SensorReading> readings) {
+        List<Double> values = new ArrayList<>();
+        for (SensorReading reading : readings) {
+            values.add(reading.temperature);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void percentileWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        SplittableRandom random = new SplittableRandom(21);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 20);  // 1ns 〜 0.5s 程度
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long estimate = histogram.percentile(p);
+            assertTrue(estimate >= exact && estimate <= exact + Math.max(1, exact / 16), p + ": " + estimate + " vs " + exact);
+        }
+        assertEquals(values.length, histogram.count());
+        assertEquals(values[values.length - 1], histogram.max());
+    }
+
+    // recentPercentile は直近 2 phase だけ, percentile は累積. phase は読み出し (scrape) 時に切り替わる
+    @Test
+    void recentPercentileForgetsOldPhases() {
+        AtomicLong clock = new AtomicLong();
+        LatencyHistogram histogram = new LatencyHistogram(1000, clock::get);
+        for (int i = 0; i < 100; i++) {
+            histogram.record(10_000);
+        }
+        assertEquals(10_000, histogram.recentPercentile(50), 10_000 / 32.0);
+
+        clock.set(1000);  // 10_000 の phase は 1つ前になる (まだ含む)
+        assertEquals(10_000, histogram.recentPercentile(50), 10_000 / 32.0);
+        for (int i = 0; i < 300; i++) {
+            histogram.record(10);
+        }
+        assertEquals(10, histogram.recentPercentile(50));
+        assertEquals(10_000, histogram.recentPercentile(99), 10_000 / 32.0);
+
+        clock.set(2000);  // 10_000 の phase は捨てられる
+        assertEquals(10, histogram.recentPercentile(99));
+        assertEquals(10_000, histogram.percentile(99), 10_000 / 32.0);
+
+        clock.set(3000);
+        assertEquals(0, histogram.recentPercentile(50));
+        assertEquals(400, histogram.count());
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class LiveStreamHubTest {
+
+    // 同時に subscribe しても max-clients を超えない. 切断すると枠が戻る
+    @Test
+    void concurrentSubscribeRespectsMaxClients() throws InterruptedException {
+        LiveStreamHub hub = new LiveStreamHub(10);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger accepted = new AtomicInteger();
+            List<LiveStreamHub.Client> subscribed = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 5; j++) {
+                        LiveStreamHub.Client client = hub.subscribe(new ResponseBodyEmitter(), null, LiveStreamHub.allMetrics,
+                                LiveStreamHub.parseEventTypes(null), LiveStreamHub.OverflowPolicy.DROP_OLDEST, 16);
+                        if (client != null) {
+                            accepted.incrementAndGet();
+                            synchronized (subscribed) {
+                                subscribed.add(client);
+                            }
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(10, accepted.get());
+            assertEquals(10, hub.clientCount());
+
+            subscribed.get(0).close();
+            assertNotNull(hub.subscribe(new ResponseBodyEmitter(), null, LiveStreamHub.allMetrics,
+                    LiveStreamHub.parseEventTypes(null), LiveStreamHub.OverflowPolicy.DROP_OLDEST, 16));
+            assertEquals(10, hub.clientCount());
+        } finally {
+            hub.shutdown();
+        }
+    }
+}
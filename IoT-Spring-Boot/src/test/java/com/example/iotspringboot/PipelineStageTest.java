@@ -0,0 +1,54 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class PipelineStageTest {
+
+    @Test
+    void keepsPerKeyOrderAndDrainsOnShutdown() {
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 4, 16, PipelineStage.OverflowPolicy.BLOCK, seen::add);
+        stage.start();
+        for (int i = 0; i < 1000; i++) {
+            stage.submit("device", i);
+        }
+        stage.shutdown(5000);
+        assertEquals(1000, stage.getProcessedCount());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, seen.get(i));
+        }
+    }
+
+    @Test
+    void rejectsAndCountsSubmitAfterShutdown() {
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 2, 16, PipelineStage.OverflowPolicy.BLOCK, item -> { });
+        stage.start();
+        stage.shutdown(1000);
+        assertFalse(stage.submit("device", 1));
+        assertEquals(1, stage.getDroppedCount());
+        assertEquals(0, stage.getQueueDepth());
+    }
+
+    @Test
+    void batchHandlerReceivesItemsInOrder() {
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 1, 64, PipelineStage.OverflowPolicy.BLOCK,
+                (List<Integer> batch) -> seen.addAll(batch), 8);
+        stage.start();
+        for (int i = 0; i < 500; i++) {
+            stage.submit("device", i);
+        }
+        stage.shutdown(5000);
+        assertEquals(500, stage.getProcessedCount());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, seen.get(i));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RollupRegistryTest {
+
+    @Test
+    void recordsReadingsPerMinuteBucket() {
+        RollupRegistry registry = new RollupRegistry(10, 2);
+        registry.record("d", 60_000, 20, 50, 1);
+        registry.record("d", 119_999, 24, 52, 3);
+        registry.record("d", 90_000, 22, 51, 2);  // 順不同: last は最新時刻の値
+        registry.record("d", 120_000, 30, 60, 5);
+
+        List<RollupPoint> points = registry.query("d", RollupRegistry.Resolution.MINUTE, 0, 200_000);
+        assertEquals(2, points.size());
+        RollupPoint first = points.get(0);
+        assertEquals(60_000, first.getEpochMillis());
+        assertEquals(3, first.getCount());
+        assertEquals(20, first.getTemperature().getMin());
+        assertEquals(24, first.getTemperature().getMax());
+        assertEquals(22, first.getTemperature().getMean(), 1e-12);
+        assertEquals(24, first.getTemperature().getLast());
+        assertEquals(1, points.get(1).getCount());
+    }
+
+    // heartbeat: count は held 件, 平均は件数で重み付け, min / max は平均 ± 標準偏差まで
+    @Test
+    void heldSamplesAreWeightedByCount() {
+        RollupRegistry registry = new RollupRegistry(10, 2);
+        registry.record("d", 60_000, 20, 50, 1);
+        registry.record("d", 61_000, 26, 50, 1);
+        SensorReading heartbeat = new SensorReading();
+        heartbeat.deviceId = "d";
+        heartbeat.epochMillis = 110_000;
+        heartbeat.heldSamples = 10;
+        heartbeat.temperature = 22.5;
+        heartbeat.temperatureSd = 4;
+        heartbeat.humidity = 50;
+        heartbeat.vibration = 1;
+        heartbeat.vibrationSd = 0.5;
+        registry.recordHeld(heartbeat);
+
+        RollupPoint point = registry.query("d", RollupRegistry.Resolution.MINUTE, 0, 200_000).get(0);
+        assertEquals(12, point.getCount());
+        assertEquals((20 + 26 + 22.5 * 10) / 12, point.getTemperature().getMean(), 1e-12);
+        assertEquals(18.5, point.getTemperature().getMin());
+        assertEquals(26.5, point.getTemperature().getMax());
+        assertEquals(22.5, point.getTemperature().getLast());
+        assertEquals(0.5, point.getVibration().getMin());
+        assertEquals(1.5, point.getVibration().getMax());
+        assertEquals(12, registry.query("d", RollupRegistry.Resolution.HOUR, 0, 200_000).get(0).getCount());
+    }
+}
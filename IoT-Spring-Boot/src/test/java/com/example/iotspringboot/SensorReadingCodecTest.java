@@ -0,0 +1,115 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SensorReadingCodecTest {
+
+    private static final LocalDateTime timestamp = LocalDateTime.of(2024, 5, 1, 12, 34, 56, 123_000_000);
+
+    // 従来の generateData / SensorSimulator の payload
+    private static String legacy(String deviceId, LocalDateTime t, double temperature, double humidity, double vibration) {
+        return String.format(Locale.ROOT, "{\"deviceId\": \"%s\", \"timestamp\": \"%s\", \"temperature\": %.2f, \"humidity\": %.2f, \"vibration\": %.2f}",
+                deviceId, t.format(DateTimeFormatter.ISO_DATE_TIME), temperature, humidity, vibration);
+    }
+
+    @Test
+    void writerMatchesLegacyStringFormat() {
+        SensorReadingCodec.Writer writer = new SensorReadingCodec.Writer();
+        SplittableRandom random = new SplittableRandom(3);
+        for (int i = 0; i < 200_000; i++) {
+            double temperature = randomValue(random, i);
+            double humidity = randomValue(random, i + 1);
+            double vibration = randomValue(random, i + 2);
+            assertEquals(legacy("sensor-00042", timestamp, temperature, humidity, vibration),
+                    writer.writeString("sensor-00042", timestamp, temperature, humidity, vibration));
+        }
+    }
+
+    @Test
+    void writerRoundsLikeFormatOnDecimalHalves() {
+        SensorReadingCodec.Writer writer = new SensorReadingCodec.Writer();
+        double[] values = {1.005, 0.285, 2.675, 0.125, -0.001, -0.0, 0.0, -0.005, 1e-320, 999_999.995, 1e20, 123_456_789.125};
+        for (double value : values) {
+            assertEquals(legacy("d", timestamp, value, value, value), writer.writeString("d", timestamp, value, value, value), "value " + value);
+        }
+    }
+
+    @Test
+    void writerRejectsNonFiniteValues() {
+        SensorReadingCodec.Writer writer = new SensorReadingCodec.Writer();
+        assertThrows(IllegalArgumentException.class, () -> writer.write("d", timestamp, Double.NaN, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> writer.write("d", timestamp, 1, Double.POSITIVE_INFINITY, 1));
+    }
+
+    @Test
+    void readParsesWrittenPayload() throws IOException {
+        SensorReadingCodec.Writer writer = new SensorReadingCodec.Writer();
+        SensorReading reading = new SensorReading();
+        SensorReadingCodec.read(writer.write("sensor-00001", timestamp, 25.456, 60.0, -1.234), reading);
+        assertEquals("sensor-00001", reading.deviceId);
+        assertEquals("2024-05-01T12:34:56.123", reading.timestamp);
+        assertEquals(25.46, reading.temperature);
+        assertEquals(60.0, reading.humidity);
+        assertEquals(-1.23, reading.vibration);
+        assertEquals(0, reading.heldSamples);
+        assertEquals(SensorTimestamps.parseIsoLocalMillis(reading.timestamp, -1), reading.epochMillis);
+    }
+
+    @Test
+    void readRejectsNullAndMissingFields() {
+        SensorReading reading = new SensorReading();
+        assertThrows(IOException.class, () -> SensorReadingCodec.read(bytes(
+                "{\"timestamp\": \"2024-05-01T12:34:56\", \"temperature\": null, \"humidity\": 1, \"vibration\": 1}"), reading));
+        assertThrows(IOException.class, () -> SensorReadingCodec.read(bytes(
+                "{\"timestamp\": \"2024-05-01T12:34:56\", \"temperature\": 1, \"humidity\": 1}"), reading));
+        assertThrows(IOException.class, () -> SensorReadingCodec.read(bytes("[1, 2]"), reading));
+    }
+
+    @Test
+    void batchRoundTripKeepsOrder() throws IOException {
+        SensorReadingCodec.BatchWriter batch = new SensorReadingCodec.BatchWriter();
+        for (int i = 0; i < 5; i++) {
+            batch.add("sensor-0000" + i, timestamp.plusSeconds(i), 20 + i, 50, 1);
+        }
+        byte[] payload = batch.finish();
+        assertTrue(SensorReadingCodec.isBatch(payload));
+        List<SensorReading> readings = new ArrayList<>();
+        SensorReadingCodec.readBatch(payload, readings);
+        assertEquals(5, readings.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("sensor-0000" + i, readings.get(i).deviceId);
+            assertEquals(20.0 + i, readings.get(i).temperature);
+        }
+    }
+
+    // 3桁の 10進 (1.005 など丸め境界を多く含む), 負値, 大きな値, 連続値を混ぜる
+    private static double randomValue(SplittableRandom random, int i) {
+        switch (i % 4) {
+            case 0:
+                return random.nextInt(-200_000, 200_000) / 1000.0;
+            case 1:
+                return (random.nextDouble() - 0.5) * 200;
+            case 2:
+                return random.nextInt(0, 2_000_000_000) / 1000.0;
+            default:
+                return random.nextDouble() * 5;
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
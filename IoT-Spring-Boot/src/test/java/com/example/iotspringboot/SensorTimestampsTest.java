@@ -0,0 +1,63 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SensorTimestampsTest {
+
+    private static final ZoneId zone = ZoneId.systemDefault();
+
+    @Test
+    void formatMatchesIsoDateTime() {
+        SplittableRandom random = new SplittableRandom(11);
+        for (int i = 0; i < 100_000; i++) {
+            long epochMillis = random.nextLong(0, 4_102_444_800_000L);
+            if (i % 3 == 0) {
+                epochMillis -= epochMillis % 1000;  // 小数部なし
+            } else if (i % 3 == 1) {
+                epochMillis -= epochMillis % 10;  // 末尾の 0 を省略する
+            }
+            LocalDateTime t = LocalDateTime.ofInstant(java.time.Instant.ofEpochMilli(epochMillis), zone);
+            assertEquals(t.format(DateTimeFormatter.ISO_DATE_TIME), SensorTimestamps.formatIsoLocal(epochMillis));
+        }
+    }
+
+    // 手で読む経路 (parseFast) が LocalDateTime.parse と同じ時刻になるか: 小数部 0〜9 桁
+    @Test
+    void fastParseMatchesLocalDateTimeParse() {
+        SplittableRandom random = new SplittableRandom(12);
+        for (int i = 0; i < 100_000; i++) {
+            LocalDateTime t = LocalDateTime.of(random.nextInt(1970, 2100), random.nextInt(1, 13), random.nextInt(1, 29),
+                    random.nextInt(24), random.nextInt(60), random.nextInt(60));
+            StringBuilder text = new StringBuilder(t.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+            int fractionDigits = i % 10;
+            if (fractionDigits > 0) {
+                text.append('.');
+                for (int d = 0; d < fractionDigits; d++) {
+                    text.append((char) ('0' + random.nextInt(10)));
+                }
+            }
+            long expected = LocalDateTime.parse(text).atZone(zone).toInstant().toEpochMilli();
+            assertEquals(expected, SensorTimestamps.parseIsoLocalMillis(text.toString(), -1), text.toString());
+        }
+    }
+
+    @Test
+    void fallsBackForOtherFormsAndGarbage() {
+        long minutesOnly = LocalDateTime.parse("2024-05-01T12:34").atZone(zone).toInstant().toEpochMilli();
+        assertEquals(minutesOnly, SensorTimestamps.parseIsoLocalMillis("2024-05-01T12:34", -1));
+        assertEquals(-1, SensorTimestamps.parseIsoLocalMillis("2024-13-01T12:34:56", -1));
+        long seconds = LocalDateTime.parse("2024-05-01T12:34:56").atZone(zone).toInstant().toEpochMilli();
+        assertEquals(seconds, SensorTimestamps.parseIsoLocalMillis("2024-05-01T12:34:56.", -1));  // LocalDateTime.parse は受け付ける
+        assertEquals(-1, SensorTimestamps.parseIsoLocalMillis("2024-05-01T12:34:56.1234567890", -1));
+        assertEquals(-1, SensorTimestamps.parseIsoLocalMillis("2024-05-01 12:34:56", -1));
+        assertEquals(-1, SensorTimestamps.parseIsoLocalMillis("not a timestamp", -1));
+        assertEquals(-1, SensorTimestamps.parseIsoLocalMillis(null, -1));
+    }
+}
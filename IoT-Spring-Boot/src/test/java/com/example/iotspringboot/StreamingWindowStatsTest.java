@@ -0,0 +1,118 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingWindowStatsTest {
+
+    private static final double tolerance = 1e-9;
+
+    // window 満杯後の入れ替え (Welford / Σ(i*y) の差分更新) が、window の値から毎回計算し直した結果と同じか
+    @Test
+    void incrementalMatchesNaiveRecomputeAcrossEviction() {
+        SplittableRandom random = new SplittableRandom(7);
+        for (int capacity : new int[]{2, 3, 10, 37}) {
+            StreamingWindowStats stats = new StreamingWindowStats(capacity);
+            Deque<Double> window = new ArrayDeque<>();
+            for (int i = 0; i < 2000; i++) {
+                double value = i % 500 < 250 ? 0.1 + random.nextDouble() * 4.9 : 1e4 + random.nextDouble();  // 途中で値の桁を変える
+                stats.add(value);
+                window.addLast(value);
+                if (window.size() > capacity) {
+                    window.removeFirst();
+                }
+                assertMatchesNaive(window, stats);
+            }
+        }
+    }
+
+    @Test
+    void copyToReturnsOldestFirst() {
+        StreamingWindowStats stats = new StreamingWindowStats(4);
+        for (int i = 1; i <= 6; i++) {
+            stats.add(i);
+        }
+        double[] dst = new double[4];
+        assertEquals(4, stats.copyTo(dst));
+        assertEquals(3.0, dst[0]);
+        assertEquals(6.0, dst[3]);
+    }
+
+    @Test
+    void predictNextFallsBackToMeanWithoutTrend() {
+        StreamingWindowStats flat = new StreamingWindowStats(10);
+        for (double value : new double[]{1.0, 3.0, 1.0, 3.0, 1.0, 3.0, 1.0, 3.0}) {
+            flat.add(value);
+        }
+        assertTrue(!flat.usesSlope());
+        assertEquals(2.0, flat.predictNext(), tolerance);
+
+        StreamingWindowStats rising = new StreamingWindowStats(10);
+        for (int i = 0; i < 10; i++) {
+            rising.add(i * 0.5);
+        }
+        assertTrue(rising.usesSlope());
+        assertEquals(5.0, rising.predictNext(), tolerance);
+
+        StreamingWindowStats two = new StreamingWindowStats(10);  // 2点は常に平均
+        two.add(1.0);
+        two.add(2.0);
+        assertEquals(1.5, two.predictNext(), tolerance);
+    }
+
+    @Test
+    void rejectsNonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new StreamingWindowStats(0));
+    }
+
+    private static void assertMatchesNaive(Deque<Double> window, StreamingWindowStats stats) {
+        int n = window.size();
+        double[] y = window.stream().mapToDouble(Double::doubleValue).toArray();
+        double mean = 0.0;
+        for (double v : y) {
+            mean += v;
+        }
+        mean /= n;
+        double sst = 0.0;
+        for (double v : y) {
+            sst += (v - mean) * (v - mean);
+        }
+        double scale = Math.max(1.0, Math.abs(mean));
+        assertEquals(n, stats.size());
+        assertEquals(mean, stats.mean(), tolerance * scale);
+        if (n < 2) {
+            return;
+        }
+        assertEquals(Math.sqrt(sst / (n - 1)), stats.standardDeviation(), 1e-6 * scale);
+
+        double xMean = (n - 1) / 2.0;
+        double sxx = 0.0;
+        double sxy = 0.0;
+        for (int i = 0; i < n; i++) {
+            sxx += (i - xMean) * (i - xMean);
+            sxy += (i - xMean) * (y[i] - mean);
+        }
+        double slope = sxy / sxx;
+        double intercept = mean - slope * xMean;
+        assertEquals(slope, stats.slope(), 1e-6 * scale);
+        assertEquals(intercept, stats.intercept(), 1e-6 * scale);
+
+        double sse = 0.0;
+        for (int i = 0; i < n; i++) {
+            double residual = y[i] - (intercept + slope * i);
+            sse += residual * residual;
+        }
+        boolean usesSlope = n > 2 && (n - 2) * sst >= n * sse;
+        if (Math.abs((n - 2) * sst - n * sse) > 1e-6 * Math.max(1.0, sst)) {  // 境界ちょうどは丸め次第
+            assertEquals(usesSlope, stats.usesSlope());
+            assertEquals(usesSlope ? intercept + slope * n : mean, stats.predictNext(), 1e-6 * scale);
+        }
+    }
+}
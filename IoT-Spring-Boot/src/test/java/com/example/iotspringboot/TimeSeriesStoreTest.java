@@ -0,0 +1,165 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TimeSeriesStoreTest {
+
+    private static final int segmentRows = 16;
+    private static final long noFlush = 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void latestAndRangeReturnRowsPerDevice() throws IOException {
+        try (TimeSeriesStore store = TimeSeriesStore.open(directory, segmentRows, 0, noFlush)) {
+            for (int i = 0; i < 40; i++) {
+                store.append("sensor-" + (i % 2), 1000L * i, i, 50, 1);
+            }
+            store.append("sensor-0", 5, -1, 50, 1);  // 順不同で届いた row
+
+            assertEquals(List.of(36.0, 38.0, -1.0), temperatures(store.latest("sensor-0", 3)));  // 到着順
+            assertEquals(List.of(0.0, 2.0, -1.0), temperatures(store.range("sensor-0", 0, 2000, 10)));
+            assertEquals(List.of(21.0, 23.0), temperatures(store.range("sensor-1", 20_000, 23_500, 10)));
+            assertEquals(0, store.latest("unknown", 3).size());
+            assertEquals(41, store.rowCount());
+            assertEquals(3, store.segmentCount());
+        }
+    }
+
+    @Test
+    void reopenKeepsRowsAndDictionary() throws IOException {
+        try (TimeSeriesStore store = TimeSeriesStore.open(directory, segmentRows, 0, noFlush)) {
+            for (int i = 0; i < 20; i++) {
+                store.append("sensor-" + (i % 3), 1000L * i, i, 50, 1);
+            }
+        }
+        try (TimeSeriesStore store = TimeSeriesStore.open(directory, segmentRows, 0, noFlush)) {
+            assertEquals(20, store.rowCount());
+            assertEquals(List.of("sensor-0", "sensor-1", "sensor-2"), store.deviceIds());
+            store.append("sensor-1", 20_000, 20, 50, 1);
+            assertEquals(List.of(16.0, 19.0, 20.0), temperatures(store.latest("sensor-1", 3)));
+        }
+    }
+
+    // OS crash 相当: header の rowCount は進んだが checkpoint 後の row の column が disk に出ていない
+    @Test
+    void recoveryDropsUncheckpointedZeroFilledRows() throws IOException {
+        try (TimeSeriesStore store = TimeSeriesStore.open(directory, segmentRows, 0, noFlush)) {
+            for (int i = 0; i < 10; i++) {
+                store.append("sensor-0", 1000L * i, i, 50, 1);
+            }
+        }
+        Path segment = onlySegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            putInt(channel, 36, 6);  // committedRows: 6 行目までしか checkpoint されていない
+            zeroRow(channel, 8);     // 8 行目以降が 0 埋め
+            zeroRow(channel, 9);
+        }
+        try (TimeSeriesStore store = TimeSeriesStore.open(directory, segmentRows, 0, noFlush)) {
+            assertEquals(8, store.rowCount());  // check が合う 6, 7 行目までは残る
+            assertEquals(List.of(5.0, 6.0, 7.0), temperatures(store.latest("sensor-0", 3)));
+            store.append("sensor-0", 8000, 8, 50, 1);
+            assertEquals(List.of(6.0, 7.0, 8.0), temperatures(store.latest("sensor-0", 3)));
+        }
+    }
+
+    // OS crash 相当: checkpoint 後の row は check が合うが, その row が追加した辞書の行は disk に出ていない
+    @Test
+    void recoveryStopsAtRowWithLostDictionaryEntry() throws IOException {
+        try (TimeSeriesStore store = TimeSeriesStore.open(directory, segmentRows, 0, noFlush)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(i == 6 ? "sensor-1" : "sensor-0", 1000L * i, i, 50, 1);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(onlySegment(), StandardOpenOption.WRITE)) {
+            putInt(channel, 36, 6);
+        }
+        try (FileChannel channel = FileChannel.open(directory.resolve("devices.dict"), StandardOpenOption.WRITE)) {
+            channel.truncate("sensor-0\n".length());
+        }
+        try (TimeSeriesStore store = TimeSeriesStore.open(directory, segmentRows, 0, noFlush)) {
+            assertEquals(6, store.rowCount());  // 6 行目 (sensor-1) 以降は捨てる
+            assertEquals(List.of("sensor-0"), store.deviceIds());
+            assertEquals(List.of(3.0, 4.0, 5.0), temperatures(store.latest("sensor-0", 3)));
+            store.append("sensor-2", 6000, 6, 50, 1);
+            assertEquals(List.of(6.0), temperatures(store.latest("sensor-2", 3)));
+        }
+    }
+
+    @Test
+    void reopenSkipsSegmentWithTruncatedHeader() throws IOException {
+        try (TimeSeriesStore store = TimeSeriesStore.open(directory, segmentRows, 0, noFlush)) {
+            for (int i = 0; i < 5; i++) {
+                store.append("sensor-0", 1000L * i, i, 50, 1);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(onlySegment(), StandardOpenOption.WRITE)) {
+            channel.truncate(30);
+        }
+        try (TimeSeriesStore store = TimeSeriesStore.open(directory, segmentRows, 0, noFlush)) {
+            assertEquals(0, store.rowCount());
+            store.append("sensor-0", 9000, 9, 50, 1);
+            assertEquals(List.of(9.0), temperatures(store.latest("sensor-0", 3)));
+        }
+    }
+
+    @Test
+    void retentionDeletesExpiredSealedSegments() throws IOException {
+        try (TimeSeriesStore store = TimeSeriesStore.open(directory, segmentRows, 0, noFlush)) {
+            for (int i = 0; i < 40; i++) {
+                store.append("sensor-0", 1000L * i, i, 50, 1);
+            }
+            store.applyRetention(16_000);  // 1つ目 (0..15) だけ期限切れ
+            assertEquals(2, store.segmentCount());
+            assertEquals(24, store.rowCount());
+            assertEquals(List.of(16.0, 17.0), temperatures(store.range("sensor-0", 0, 17_000, 10)));
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(3, files.count());  // 辞書 + segment 2つ
+            }
+        }
+    }
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = files.filter(p -> p.getFileName().toString().endsWith(".tss")).toList();
+            assertEquals(1, segments.size());
+            return segments.get(0);
+        }
+    }
+
+    // column: ts long | device int | temp, hum, vib double | prev int | check int (各 segmentRows 個)
+    private static void zeroRow(FileChannel channel, int row) throws IOException {
+        int[] widths = {8, 4, 8, 8, 8, 4, 4};
+        long offset = 64;
+        for (int width : widths) {
+            channel.write(ByteBuffer.allocate(width), offset + (long) row * width);
+            offset += (long) segmentRows * width;
+        }
+    }
+
+    private static void putInt(FileChannel channel, long position, int value) throws IOException {
+        channel.write(ByteBuffer.allocate(4).putInt(0, value), position);
+    }
+
+    private static List<Double> temperatures(List<SensorReading> readings) {
+        List<Double> values = new ArrayList<>();
+        for (SensorReading reading : readings) {
+            values.add(reading.temperature);
+        }
+        return values;
+    }
+}
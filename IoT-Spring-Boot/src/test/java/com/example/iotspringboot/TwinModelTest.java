@@ -0,0 +1,67 @@
+package com.example.iotspringboot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TwinModelTest {
+
+    // 摩耗は振動の合計で決まるので heartbeat (平均 x 件数) でも同じ
+    @Test
+    void heldWearMatchesPerSampleUpdates() {
+        SplittableRandom random = new SplittableRandom(5);
+        for (int held = 1; held <= 50; held++) {
+            double[] vib = new double[held];
+            for (int i = 0; i < held; i++) {
+                vib[i] = 0.5 + random.nextDouble() * 3;
+            }
+            TwinModel perSample = new TwinModel("d");
+            for (double v : vib) {
+                perSample.updateFromSensor(25, 50, v, 1000);
+            }
+            TwinModel fromHeld = new TwinModel("d");
+            fromHeld.updateFromHeld(heartbeat(held, 25, 0, 50, 0, vib));
+
+            assertEquals(perSample.getAccumulatedWear(), fromHeld.getAccumulatedWear(), 1e-9);
+            assertEquals(perSample.getEnergyEfficiency(), fromHeld.getEnergyEfficiency());
+            assertEquals(held, fromHeld.snapshot().getUpdateCount());
+        }
+    }
+
+    // 効率低下は平均 ± 標準偏差の超過件数なので近似: 値が閾値をまたぐ時は実際の件数と違うことがある
+    @Test
+    void heldEfficiencyIsApproximateAcrossThreshold() {
+        double[] temps = {29, 29, 29, 35};  // 実際に 30度を超えるのは 1件
+        TwinModel perSample = new TwinModel("d");
+        for (double t : temps) {
+            perSample.updateFromSensor(t, 50, 1, 1000);
+        }
+        double mean = 30.5;
+        double sd = Math.sqrt((3 * 1.5 * 1.5 + 4.5 * 4.5) / 4);
+        TwinModel fromHeld = new TwinModel("d");
+        fromHeld.updateFromHeld(heartbeat(temps.length, mean, sd, 50, 0, new double[]{1, 1, 1, 1}));
+
+        assertEquals(99.0, perSample.getEnergyEfficiency());
+        assertEquals(98.0, fromHeld.getEnergyEfficiency());  // mean + sd の 2件が超過
+    }
+
+    private static SensorReading heartbeat(int held, double temp, double tempSd, double hum, double humSd, double[] vib) {
+        double mean = 0;
+        for (double v : vib) {
+            mean += v;
+        }
+        mean /= vib.length;
+        SensorReading heartbeat = new SensorReading();
+        heartbeat.deviceId = "d";
+        heartbeat.epochMillis = 2000;
+        heartbeat.heldSamples = held;
+        heartbeat.temperature = temp;
+        heartbeat.temperatureSd = tempSd;
+        heartbeat.humidity = hum;
+        heartbeat.humiditySd = humSd;
+        heartbeat.vibration = mean;
+        return heartbeat;
+    }
+}